@@ -99,6 +99,16 @@ public class FhirTurtleGenerator {
     }
 
     public void executeMain() throws Exception {
+        buildMain();
+        commit(true);
+    }
+
+    /**
+     * Build the ontology without writing it (see commit)
+     *
+     * @return the graph, for the RDF validator
+     */
+    public Model buildMain() throws Exception {
         genOntologyDefinition();
         genBaseMetadata();
 
@@ -138,7 +148,7 @@ public class FhirTurtleGenerator {
 //             genStructure(context.getExtensionDefinitions().get(n));
 //        }
 
-        commit(true);
+        return fact.getModel();
     }
 
    /**
@@ -110,6 +110,7 @@ import org.hl7.fhir.r5.model.OperationDefinition.OperationDefinitionParameterCom
 import org.hl7.fhir.r5.model.OperationDefinition.OperationKind;
 import org.hl7.fhir.r5.model.OperationDefinition.OperationParameterScope;
 import org.hl7.fhir.r5.model.PositiveIntType;
+import org.hl7.fhir.r5.model.Resource;
 import org.hl7.fhir.r5.model.SearchParameter;
 import org.hl7.fhir.r5.model.StringType;
 import org.hl7.fhir.r5.model.StructureDefinition;
@@ -203,8 +204,95 @@ public class ProfileGenerator {
 
   private Map<String, StructureDefinition> des = new HashMap<String, StructureDefinition>();
   private RenderingContext rc;
+  private List<Resource> uncached;
+  private List<String> unkeyed;
   private static int extensionCounter;
   private static int profileCounter = 0;
+  // placeholder keys are numbered from here, so they sort after the real ones, in the same order
+  private static final int UNKEYED_BASE = 1000000;
+
+  /**
+   * add the resources this generates to the list instead of the worker context, so that the caller
+   * can add them to the context later (e.g. on the main thread, when profiles are generated on
+   * several threads at once). null to add them straight away (the default)
+   *
+   * Invariants without an id are numbered in the order they are generated, so while caching is
+   * deferred they get a placeholder key instead, which is added to unkeyed. The caller replaces
+   * these with assignInvariantKeys, when it adds the resources to the context
+   */
+  public void deferCaching(List<Resource> uncached, List<String> unkeyed) {
+    this.uncached = uncached;
+    this.unkeyed = unkeyed;
+  }
+
+  /**
+   * number the placeholder keys in the order they were made, and put the numbers in place of the
+   * placeholders in the resources. Must be called on one thread, in the order the profiles would
+   * have been generated in
+   */
+  public static void assignInvariantKeys(List<String> unkeyed, List<Resource> resources, Bundle dataElements) {
+    if (unkeyed.isEmpty()) {
+      return;
+    }
+    Map<String, String> keys = new HashMap<String, String>();
+    for (String k : unkeyed) {
+      String prefix = k.substring(0, k.indexOf("-"));
+      keys.put(k, prefix+"-"+Integer.toString(nextInvariantNumber(prefix)));
+    }
+    for (Resource r : resources) {
+      assignInvariantKeys(keys, r);
+    }
+    if (dataElements != null) {
+      for (BundleEntryComponent be : dataElements.getEntry()) {
+        assignInvariantKeys(keys, be.getResource());
+      }
+    }
+    unkeyed.clear();
+  }
+
+  private static void assignInvariantKeys(Map<String, String> keys, Resource r) {
+    if (r instanceof StructureDefinition) {
+      StructureDefinition sd = (StructureDefinition) r;
+      for (ElementDefinition ed : sd.getDifferential().getElement())
+        assignInvariantKeys(keys, ed);
+      for (ElementDefinition ed : sd.getSnapshot().getElement())
+        assignInvariantKeys(keys, ed);
+    }
+  }
+
+  private static void assignInvariantKeys(Map<String, String> keys, ElementDefinition ed) {
+    for (ElementDefinitionConstraintComponent con : ed.getConstraint()) {
+      if (keys.containsKey(con.getKey()))
+        con.setKey(keys.get(con.getKey()));
+    }
+  }
+
+  private static int nextInvariantNumber(String prefix) {
+    if ("exd".equals(prefix)) {
+      extensionCounter++;
+      return extensionCounter;
+    } else {
+      profileCounter++;
+      return profileCounter;
+    }
+  }
+
+  private String invariantKey(String prefix) {
+    if (unkeyed == null) {
+      return prefix+"-"+Integer.toString(nextInvariantNumber(prefix));
+    }
+    String key = prefix+"-"+Integer.toString(UNKEYED_BASE + unkeyed.size());
+    unkeyed.add(key);
+    return key;
+  }
+
+  private void cacheResource(Resource r) throws FHIRException {
+    if (uncached != null) {
+      uncached.add(r);
+    } else {
+      context.cacheResource(r);
+    }
+  }
   
   private void generateElementDefinition(StructureDefinition source, ElementDefinition ed, ElementDefinition parent) throws Exception {
     String id = ed.getPath().replace("[x]", "X");
@@ -400,7 +488,7 @@ public class ProfileGenerator {
     p.getText().setStatus(NarrativeStatus.GENERATED);
     p.getText().setDiv(div);
     checkHasTypes(p);
-    context.cacheResource(p);
+    cacheResource(p);
     return p;
   }
 
@@ -643,7 +731,7 @@ public class ProfileGenerator {
     p.getText().setStatus(NarrativeStatus.GENERATED);
     p.getText().setDiv(div);
     checkHasTypes(p);
-    context.cacheResource(p);
+    cacheResource(p);
 
     return p;
   }
@@ -782,7 +870,7 @@ public class ProfileGenerator {
     p.getText().setStatus(NarrativeStatus.GENERATED);
     p.getText().setDiv(div);
     checkHasTypes(p);
-    context.cacheResource(p);
+    cacheResource(p);
 
     return p;
   }
@@ -850,7 +938,7 @@ public class ProfileGenerator {
     p.getText().setDiv(div);
     checkHasTypes(p);
     context.dropResource(p);
-    context.cacheResource(p);
+    cacheResource(p);
 
     return p;
   }
@@ -1026,7 +1114,7 @@ public class ProfileGenerator {
 
     new ProfileUtilities(context, issues, pkp).setIds(p, false);
     checkHasTypes(p);
-    context.cacheResource(p);
+    cacheResource(p);
 
     return p;
   }
@@ -1063,6 +1151,18 @@ public class ProfileGenerator {
   }
 
   public StructureDefinition generate(Profile pack, ResourceDefn r, String usage, boolean logical) throws Exception {
+    StructureDefinition p = generateStructure(pack, r, usage, logical);
+    generateSearchParameters(pack, r, p, logical);
+    return p;
+  }
+
+  /**
+   * generate the structure definition for a resource without its search parameters. Resources
+   * can be generated on different threads at the same time, as long as each has its own
+   * ProfileGenerator. Search parameters are shared between resources, so these must be generated
+   * afterwards, one resource at a time, in resource order (see generateSearchParameters)
+   */
+  public StructureDefinition generateStructure(Profile pack, ResourceDefn r, String usage, boolean logical) throws Exception {
     StructureDefinition p = new StructureDefinition();
     p.setId(r.getRoot().getName());
     p.setUrl("http://hl7.org/fhir/StructureDefinition/"+ r.getRoot().getName());
@@ -1138,6 +1238,23 @@ public class ProfileGenerator {
       if (!ed.hasBase() && !logical)
         generateElementDefinition(p, ed, getParent(ed, p.getSnapshot().getElement()));
 
+    containedSlices.clear();
+    addElementConstraintToSnapshot(p, false);
+
+    p.getDifferential().getElement().get(0).getType().clear();
+    p.getSnapshot().getElement().get(0).getType().clear();
+    XhtmlNode div = new XhtmlNode(NodeType.Element, "div");
+    div.addText("to do");
+    p.setText(new Narrative());
+    p.getText().setStatus(NarrativeStatus.GENERATED);
+    p.getText().setDiv(div);
+    checkHasTypes(p);
+    cacheResource(p);
+
+    return p;
+  }
+
+  public void generateSearchParameters(Profile pack, ResourceDefn r, StructureDefinition p, boolean logical) throws Exception {
     if (!logical && !r.isInterface()) {
       List<String> names = new ArrayList<String>();
       names.addAll(r.getSearchParams().keySet());
@@ -1154,20 +1271,6 @@ public class ProfileGenerator {
           pack.getSearchParameters().add(makeSearchParam(p, r.getName()+"-"+pn.replace("_", ""), r.getName(), sp, r));
       }
     }
-    containedSlices.clear();
-    addElementConstraintToSnapshot(p, false);
-
-    p.getDifferential().getElement().get(0).getType().clear();
-    p.getSnapshot().getElement().get(0).getType().clear();
-    XhtmlNode div = new XhtmlNode(NodeType.Element, "div");
-    div.addText("to do");
-    p.setText(new Narrative());
-    p.getText().setStatus(NarrativeStatus.GENERATED);
-    p.getText().setDiv(div);
-    checkHasTypes(p);
-    context.cacheResource(p);
-
-    return p;
   }
 
   private void reset() {
@@ -1305,7 +1408,7 @@ public class ProfileGenerator {
     p.getText().setDiv(div);
     new ProfileUtilities(context, issues, pkp).setIds(p, false);
     checkHasTypes(p);
-    context.cacheResource(p);
+    cacheResource(p);
 
     return p;
   }
@@ -1383,7 +1486,7 @@ public class ProfileGenerator {
       sp.setVersion(version.toCode());
       if (context.fetchResource(SearchParameter.class, p.getUrl()) != null)
         throw new Exception("Duplicated Search Parameter "+sp.getUrl());
-      context.cacheResource(sp);
+      cacheResource(sp);
       spd.setResource(sp);
       definitions.addNs(sp.getUrl(), "Search Parameter: "+sp.getName(), rn.toLowerCase()+".html#search");
       sp.setStatus(spd.getStandardsStatus() == StandardsStatus.NORMATIVE ? PublicationStatus.fromCode("active") : PublicationStatus.fromCode("draft"));
@@ -1519,7 +1622,7 @@ public class ProfileGenerator {
             sp.addTarget(VersionIndependentResourceTypesAll.fromCode(target));
       }
     }
-    context.cacheResource(sp);
+    cacheResource(sp);
 
     return sp;
   }
@@ -2085,8 +2188,7 @@ public class ProfileGenerator {
       Invariant inv = e.getInvariants().get(in);
       con.setKey(inv.getId());
       if (!con.hasKey()) {
-        profileCounter++;
-        con.setKey("prf-"+Integer.toString(profileCounter ));
+        con.setKey(invariantKey("prf"));
       }
       con.setRequirements(inv.getRequirements());
       if (Utilities.noString(inv.getSeverity()))
@@ -2478,8 +2580,7 @@ public class ProfileGenerator {
       Invariant inv = src.getInvariants().get(in);
       con.setKey(inv.getId());
       if (!con.hasKey()) {
-        extensionCounter++;
-        con.setKey("exd-"+Integer.toString(extensionCounter));
+        con.setKey(invariantKey("exd"));
       }
       con.setRequirements(inv.getRequirements());
       if (Utilities.noString(inv.getSeverity()))
@@ -58,6 +58,13 @@ public class W5TurtleGenerator {
     }
 
     public void executeMain() throws Exception {
+        commit(buildMain(), true);
+    }
+
+    /**
+     * Build the ontology without writing it (see commit)
+     */
+    public OntModel buildMain() throws Exception {
         OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
         model.setNsPrefix(RDFNamespace.W5.getPrefix(), RDFNamespace.W5.getURI());
         model.setNsPrefix(RDFNamespace.FHIR.getPrefix(), RDFNamespace.FHIR.getURI());
@@ -134,7 +141,7 @@ public class W5TurtleGenerator {
             }
         }
 
-        commit(model, true);
+        return model;
     }
 
 
@@ -36,10 +36,12 @@ import java.util.List;
 
 import org.hl7.fhir.definitions.model.DefinedCode;
 import org.hl7.fhir.definitions.model.Definitions;
+import org.hl7.fhir.definitions.model.ElementDefn;
 import org.hl7.fhir.definitions.model.ResourceDefn;
 import org.hl7.fhir.definitions.model.TypeDefn;
 import org.hl7.fhir.definitions.model.TypeRef;
 import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.tools.publisher.BuildScheduler;
 import org.hl7.fhir.tools.publisher.BuildWorkerContext;
 import org.hl7.fhir.utilities.IniFile;
 import org.hl7.fhir.utilities.FileUtilities;
@@ -56,6 +58,11 @@ public class SchemaGenerator {
   private String genDate;
   private String version;
   private BuildWorkerContext workerContext;
+  private int threads = 1;
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
 
   public void generate(Definitions definitions, IniFile ini, String tmpResDir, String xsdDir, String dstDir, String srcDir, String version, String genDate, BuildWorkerContext workerContext) throws Exception {
 	  this.genDate = genDate;
@@ -90,13 +97,15 @@ public class SchemaGenerator {
 	  }
     new JsonGenerator(definitions, workerContext, definitions.getKnownTypes(), version).generate(new DefinedCode().setCode("xhtml").setDefinition("xhtml - escaped html (see specfication)"), version, genDate, schema);
 
+    // each type and resource is generated on its own, several at a time: its own schema is saved
+    // straight away, and its definitions for fhir.schema.json are added to that in order afterwards
+    BuildScheduler sched = new BuildScheduler(threads);
+    List<JsonObject> fragments = new ArrayList<JsonObject>();
 	  for (TypeRef tr : definitions.getKnownTypes()) {
 	    if (!definitions.getPrimitives().containsKey(tr.getName()) && !definitions.getConstraints().containsKey(tr.getName())) {
         TypeDefn root = definitions.getElementDefn(tr.getName());
         if (!isBackboneElement(root.getName())) {
-        JsonObject s = new JsonGenerator(definitions, workerContext, definitions.getKnownTypes(), version).generate(root, version, genDate, null);
-        save(s, tmpResDir+root.getName().replace(".",  "_")+".schema.json");
-        new JsonGenerator(definitions, workerContext, definitions.getKnownTypes(), version).generate(root, version, genDate, schema);
+          fragments.add(generate(sched, definitions, root, tmpResDir, true));
         }
       }
     }
@@ -108,10 +117,13 @@ public class SchemaGenerator {
 	  Collections.sort(names);
 	  for (String name : names) {
 	    ResourceDefn root = definitions.getResourceByName(name);
-	    JsonObject s = new JsonGenerator(definitions, workerContext, definitions.getKnownTypes(), version).generate(root.getRoot(), version, genDate, null);
-	    save(s, tmpResDir+root.getName().replace(".",  "_")+".schema.json");
-	    if (!root.isAbstract()) {
-	      new JsonGenerator(definitions, workerContext, definitions.getKnownTypes(), version).generate(root.getRoot(), version, genDate, schema);
+	    fragments.add(generate(sched, definitions, root.getRoot(), tmpResDir, !root.isAbstract()));
+	  }
+	  sched.execute();
+	  JsonObject defns = schema.getAsJsonObject("definitions");
+	  for (JsonObject fragment : fragments) {
+	    for (String n : fragment.getAsJsonObject("definitions").keySet()) {
+	      defns.add(n, fragment.getAsJsonObject("definitions").get(n));
 	    }
 	  }
 
@@ -126,6 +138,22 @@ public class SchemaGenerator {
     }
   }
 
+  /**
+   * @return the definitions that root adds to fhir.schema.json (filled in when the task runs)
+   */
+  private JsonObject generate(BuildScheduler sched, Definitions definitions, ElementDefn root, String tmpResDir, boolean inMain) {
+    JsonObject fragment = new JsonObject();
+    fragment.add("definitions", new JsonObject());
+    sched.task("json-schema:"+root.getName(), () -> {
+      JsonObject s = new JsonGenerator(definitions, workerContext, definitions.getKnownTypes(), version).generate(root, version, genDate, null);
+      save(s, tmpResDir+root.getName().replace(".",  "_")+".schema.json");
+      if (inMain) {
+        new JsonGenerator(definitions, workerContext, definitions.getKnownTypes(), version).generate(root, version, genDate, fragment);
+      }
+    });
+    return fragment;
+  }
+
   private boolean isBackboneElement(String name) {
     return Utilities.existsInList(name, "BackboneElement");
   }
@@ -27,20 +27,25 @@ ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
 POSSIBILITY OF SUCH DAMAGE.
 
 */
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.hl7.fhir.definitions.Config;
 import org.hl7.fhir.definitions.model.DefinedCode;
 import org.hl7.fhir.definitions.model.Definitions;
 import org.hl7.fhir.definitions.model.ResourceDefn;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.tools.publisher.BuildScheduler;
 import org.hl7.fhir.tools.publisher.BuildWorkerContext;
 import org.hl7.fhir.utilities.IniFile;
 import org.hl7.fhir.utilities.FileUtilities;
@@ -52,6 +57,12 @@ public class SchemaGenerator {
   private String genDate;
   private String version;
   private BuildWorkerContext workerContext;
+  private int threads = 1;
+  private Map<String, ValueSet> expansions = new HashMap<String, ValueSet>(); // kept between the runs of this generator
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
 
   public void generate(Definitions definitions, IniFile ini, String tmpResDir, String xsdDir, String dstDir, String srcDir, String version, String genDate, boolean forCodeGeneration, BuildWorkerContext workerContext) throws Exception {
 	  this.genDate = genDate;
@@ -70,7 +81,7 @@ public class SchemaGenerator {
 	  }
 
     Set<String> allenums = new HashSet<String>();
-	  XSDBaseGenerator xsdb = new XSDBaseGenerator(new OutputStreamWriter(new FileOutputStream(new CSFile(xsdDir+"fhir-base.xsd")), "UTF-8"), forCodeGeneration, workerContext, allenums, version);
+	  XSDBaseGenerator xsdb = new XSDBaseGenerator(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(new CSFile(xsdDir+"fhir-base.xsd"))), "UTF-8"), forCodeGeneration, workerContext, allenums, version);
 	  xsdb.setDefinitions(definitions);
 	  xsdb.generate(version, genDate, true);
 	  xsdb.getWriter().close();
@@ -79,15 +90,30 @@ public class SchemaGenerator {
     names.addAll(definitions.getResources().keySet());
     names.add("Parameters");
     Collections.sort(names);
-    for (String name : names) {
-      ResourceDefn root = definitions.getResourceByName(name);
-		  XSDGenerator sgen = new XSDGenerator(new OutputStreamWriter(new FileOutputStream(new CSFile(xsdDir+root.getName().toLowerCase()+".xsd")), "UTF-8"), definitions, forCodeGeneration, workerContext, allenums, version);
-		  sgen.setDataTypes(definitions.getKnownTypes());
-		  sgen.generate(root.getRoot(), version, genDate, true);
-		  sgen.getWriter().close();
+    // each resource is generated once, several at a time. An enumeration is defined in the schema of the
+    // first resource (in name order) that uses it, so the fragments are put together in order afterwards,
+    // on this thread, both for the resource schemas and for fhir-single.xsd. The enumerations' value sets
+    // are only expanded then, once each
+    XSDGenerator.Fragment[] fragments = new XSDGenerator.Fragment[names.size()];
+    BuildScheduler sched = new BuildScheduler(threads);
+    for (int i = 0; i < names.size(); i++) {
+      final int index = i;
+      ResourceDefn root = definitions.getResourceByName(names.get(i));
+      sched.task("xsd:"+root.getName(), () -> {
+        XSDGenerator sgen = new XSDGenerator(null, definitions, forCodeGeneration, workerContext, null, version);
+        sgen.setDataTypes(definitions.getKnownTypes());
+        fragments[index] = sgen.generateFragment(root.getRoot());
+      });
+    }
+    sched.execute();
+    XSDGenerator assembler = new XSDGenerator(null, definitions, forCodeGeneration, workerContext, allenums, version);
+    assembler.setExpansions(expansions);
+    for (int i = 0; i < names.size(); i++) {
+      ResourceDefn root = definitions.getResourceByName(names.get(i));
+      FileUtilities.stringToFile(XSDGenerator.header(version, genDate)+assembler.assemble(fragments[i])+XSDGenerator.FOOTER, xsdDir+root.getName().toLowerCase()+".xsd");
 	  }
 
-	  OutputStreamWriter single = new OutputStreamWriter(new FileOutputStream(new CSFile(xsdDir+"fhir-single.xsd")), "UTF-8");
+	  OutputStreamWriter single = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(new CSFile(xsdDir+"fhir-single.xsd"))), "UTF-8");
 	  
 	  single.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n");
 	  single.write("<!-- \r\n");
@@ -123,11 +149,11 @@ public class SchemaGenerator {
 //    single.write("  </xs:complexType>\r\n");
 //    single.write("  <xs:element name=\"Binary\" type=\"Binary\"/>\r\n");
 //  
-    for (String name : names) {
-      ResourceDefn root = definitions.getResourceByName(name);
-      XSDGenerator sgen = new XSDGenerator(single, definitions, forCodeGeneration, workerContext, allenums, version);
-      sgen.setDataTypes(definitions.getKnownTypes());
-      sgen.generate(root.getRoot(), version, genDate, false);
+    // fhir-single.xsd has its own set of enumerations; the value sets were expanded for the resource schemas
+    assembler = new XSDGenerator(null, definitions, forCodeGeneration, workerContext, allenums, version);
+    assembler.setExpansions(expansions);
+    for (XSDGenerator.Fragment fragment : fragments) {
+      single.write(assembler.assemble(fragment));
     }
 
     single.write("</xs:schema>\r\n");
@@ -33,6 +33,7 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -70,6 +71,20 @@ public class XSDGenerator extends XSDRootGenerator {
   private BuildWorkerContext workerContext;
   private Set<String> allenums = new HashSet<String>();
   private String version;
+  private StringBuilder buffer;
+  private Map<String, ValueSet> expansions;
+
+  /**
+   * The schema content for a resource, generated without reference to what other resources have
+   * already defined. The enumerations it uses are only listed, and are written (and their value
+   * sets expanded) when the fragments are put together - see assemble(). The same fragment is used
+   * in the resource's own schema and in fhir-single.xsd
+   */
+  public static class Fragment {
+    private String content;
+    private Map<String, ValueSet> enums = new LinkedHashMap<String, ValueSet>();
+    private Map<String, String> enumDefs = new HashMap<String, String>();
+  }
 
 	public XSDGenerator(OutputStreamWriter out, Definitions definitions, boolean forCodeGeneration, BuildWorkerContext workerContext, Set<String> allenums, String version) throws UnsupportedEncodingException {
     writer = out;
@@ -82,7 +97,10 @@ public class XSDGenerator extends XSDRootGenerator {
 	}
 
   private void write(String s) throws IOException {
-    writer.write(s);
+    if (buffer != null)
+      buffer.append(s);
+    else
+      writer.write(s);
   }
   
 	public void setDataTypes(List<TypeRef> types) throws Exception {
@@ -94,21 +112,91 @@ public class XSDGenerator extends XSDRootGenerator {
 		enumDefs.clear();
 
 		if (outer) {
-		  write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n");
-		  write("<!-- \r\n");
-		  write(Config.FULL_LICENSE_CODE);
-		  write("\r\n");
-		  write("  Generated on "+genDate+" for FHIR v"+version+" \r\n");
-      write("\r\n");
-      write("  Note: the schemas &amp; schematrons do not contain all of the rules about what makes resources\r\n");
-      write("  valid. Implementers will still need to be familiar with the content of the specification and with\r\n");
-      write("  any profiles that apply to the resources in order to make a conformant implementation.\r\n");
-      write("\r\n");
-		  write("-->\r\n");
-		  write("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns=\"http://hl7.org/fhir\" xmlns:xhtml=\"http://www.w3.org/1999/xhtml\" "+
-		      "targetNamespace=\"http://hl7.org/fhir\" elementFormDefault=\"qualified\" version=\"1.0\">\r\n");
-		  write("  <xs:include schemaLocation=\"fhir-base.xsd\"/>\r\n");
+		  write(header(version, genDate));
+		}
+		generateContent(root);
+
+		for (String en : enums.keySet()) {
+			generateEnum(en);
+		}
+		if (outer) {
+		  write(FOOTER);
+		  writer.flush();
+		}
+	}
+
+	public static final String FOOTER = "</xs:schema>\r\n";
+
+	public static String header(String version, String genDate) {
+	  StringBuilder b = new StringBuilder();
+	  b.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n");
+	  b.append("<!-- \r\n");
+	  b.append(Config.FULL_LICENSE_CODE);
+	  b.append("\r\n");
+	  b.append("  Generated on "+genDate+" for FHIR v"+version+" \r\n");
+	  b.append("\r\n");
+	  b.append("  Note: the schemas &amp; schematrons do not contain all of the rules about what makes resources\r\n");
+	  b.append("  valid. Implementers will still need to be familiar with the content of the specification and with\r\n");
+	  b.append("  any profiles that apply to the resources in order to make a conformant implementation.\r\n");
+	  b.append("\r\n");
+	  b.append("-->\r\n");
+	  b.append("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns=\"http://hl7.org/fhir\" xmlns:xhtml=\"http://www.w3.org/1999/xhtml\" "+
+	      "targetNamespace=\"http://hl7.org/fhir\" elementFormDefault=\"qualified\" version=\"1.0\">\r\n");
+	  b.append("  <xs:include schemaLocation=\"fhir-base.xsd\"/>\r\n");
+	  return b.toString();
+	}
+
+	/**
+	 * generate the content for root, listing the enumerations it uses (see Fragment). This doesn't
+	 * use the writer, allenums or the terminology services, so fragments for different resources can
+	 * be generated at the same time
+	 */
+	public Fragment generateFragment(ElementDefn root) throws Exception {
+		enums.clear();
+		enumDefs.clear();
+		Fragment res = new Fragment();
+		try {
+		  buffer = new StringBuilder();
+		  generateContent(root);
+		  res.content = buffer.toString();
+		  res.enums.putAll(enums);
+		  res.enumDefs.putAll(enumDefs);
+		} finally {
+		  buffer = null;
 		}
+		return res;
+	}
+
+	/**
+	 * @return the content of the fragment, followed by the enumerations it uses that aren't in allenums
+	 * yet (they're added to it, and their value sets marked as used). The value sets are expanded here,
+	 * so call this on one thread, with the fragments in the order the schemas are written
+	 */
+	public String assemble(Fragment fragment) throws IOException {
+		enums.clear();
+		enumDefs.clear();
+		try {
+		  buffer = new StringBuilder(fragment.content);
+		  enums.putAll(fragment.enums);
+		  enumDefs.putAll(fragment.enumDefs);
+		  for (String en : fragment.enums.keySet()) {
+		    generateEnum(en);
+		  }
+		  return buffer.toString();
+		} finally {
+		  buffer = null;
+		}
+	}
+
+	/**
+	 * @param expansions value set expansions by url, shared by the generators (a null value means the
+	 *   value set couldn't be expanded)
+	 */
+	public void setExpansions(Map<String, ValueSet> expansions) {
+	  this.expansions = expansions;
+	}
+
+	private void generateContent(ElementDefn root) throws Exception {
 		write("  <xs:element name=\""+root.getName()+"\" type=\""+root.getName()+"\">\r\n");
 		write("    <xs:annotation>\r\n");
 		write("      <xs:documentation xml:lang=\"en\">"+Utilities.escapeXml(root.getDefinition())+"</xs:documentation>\r\n");
@@ -122,22 +210,23 @@ public class XSDGenerator extends XSDRootGenerator {
 		for (ElementDefn e : structures) {
 			generateType(root, types.get(e), e, false);
 		}
-
-		for (String en : enums.keySet()) {
-			generateEnum(en);
-		}
-		if (outer) {
-		  write("</xs:schema>\r\n");
-		  writer.flush();
-		}
 	}
 
 	private void generateEnum(String en) throws IOException {
 	  if (allenums.contains(en)) 
 	    return;
 	  allenums.add(en);
+	  ValueSet vs = writeEnum(en);
+	  if (vs != null)
+	    vs.setUserData(ToolResourceUtilities.NAME_VS_USE_MARKER, true);
+	}
+
+	/**
+	 * @return the value set, if it was expanded into the schema (the caller marks it as used)
+	 */
+	private ValueSet writeEnum(String en) throws IOException {
     ValueSet vs = enums.get(en);
-    ValueSet ex = workerContext.expandVS(vs, true, false).getValueset();
+    ValueSet ex = expand(vs);
     if (ex == null) {
       write("  <xs:simpleType name=\""+en+"Enum\">\r\n");
       write("    <xs:restriction base=\"xs:string\">\r\n");
@@ -149,7 +238,6 @@ public class XSDGenerator extends XSDRootGenerator {
     } else {
       write("  <xs:simpleType name=\""+en+"Enum\">\r\n");
       write("    <xs:restriction base=\"code-primitive\">\r\n");
-      vs.setUserData(ToolResourceUtilities.NAME_VS_USE_MARKER, true);
       for (ValueSetExpansionContainsComponent cc : ex.getExpansion().getContains()) {
         genIncludedCode(cc);
       }
@@ -168,6 +256,15 @@ public class XSDGenerator extends XSDRootGenerator {
 	  write("      </xs:extension>\r\n");
 	  write("    </xs:complexContent>\r\n");
 	  write("  </xs:complexType>\r\n");
+	  return ex == null ? null : vs;
+	}
+
+	private ValueSet expand(ValueSet vs) {
+	  if (expansions == null)
+	    return workerContext.expandVS(vs, true, false).getValueset();
+	  if (!expansions.containsKey(vs.getUrl()))
+	    expansions.put(vs.getUrl(), workerContext.expandVS(vs, true, false).getValueset());
+	  return expansions.get(vs.getUrl());
 	}
 
 	private void genIncludedCode(ValueSetExpansionContainsComponent cc) throws IOException {
@@ -747,7 +747,7 @@ public class Definitions {
     addNs(url, name, page, false);
   }
   
-  public void addNs(String url, String name, String page, boolean notUnique) throws Exception {
+  public synchronized void addNs(String url, String name, String page, boolean notUnique) throws Exception {
 //    if (page == null || page.startsWith("null"))
 //      throw new Exception("error in path (null) for "+url);
       
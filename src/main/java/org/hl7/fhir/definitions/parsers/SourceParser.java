@@ -113,6 +113,8 @@ import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.terminologies.CodeSystemUtilities;
 import org.hl7.fhir.r5.terminologies.ValueSetUtilities;
 import org.hl7.fhir.r5.extensions.ExtensionDefinitions;
+import org.hl7.fhir.tools.publisher.BuildGraph;
+import org.hl7.fhir.tools.publisher.BuildScheduler;
 import org.hl7.fhir.tools.publisher.BuildWorkerContext;
 import org.hl7.fhir.tools.publisher.PageProcessor;
 import org.hl7.fhir.tools.publisher.PageProcessor.PageInfo;
@@ -171,6 +173,9 @@ public class SourceParser {
   private Bundle externals;
   private List<String> errors = new ArrayList<String>();
   private boolean exceptionIfExcelNotNormalised;
+  private int threads = 1;
+  private List<SpreadSheetCreator> spreadsheets = new ArrayList<SpreadSheetCreator>();
+  private int spreadsheetsCurrent;
   
 
   public SourceParser(Logger logger, String root, Definitions definitions, boolean forPublication, FHIRVersion version, BuildWorkerContext context, Calendar genDate, PageProcessor page, List<FHIRPathUsage> fpUsages, boolean exceptionIfExcelNotNormalised) throws IOException, ParserConfigurationException, SAXException {
@@ -291,6 +296,7 @@ public class SourceParser {
     for (String n : ini.getPropertyNames("resources")) {
       loadResource(n, definitions.getResources(), false, false, ini.getStringProperty("resources", n), false);
     }
+    generateSpreadsheets();
 
     processSearchExpressions();
     processContainerExamples();
@@ -1330,7 +1336,12 @@ public class SourceParser {
       } catch (Exception e) {
         System.out.println("Error loading spreadsheet for resource "+t+": "+e.getMessage());
       }
-      new SpreadSheetCreator(context, srcDir, t).generateSpreadsheet();
+      SpreadSheetCreator ssc = new SpreadSheetCreator(context, srcDir, t);
+      if (ssc.isUpToDate()) {
+        spreadsheetsCurrent++;
+      } else {
+        spreadsheets.add(ssc);
+      }
       ResourceDefn rootNew = new ResourceParser(srcDir, definitions, context, wg, registry, version.toCode(), page.getConceptMaps()).parse(n, t);
       if (!isTemplate) {
         definitions.getKnownResources().put(rootNew.getName(), new DefinedCode(rootNew.getName(), rootNew.getRoot().getDefinition(), n, null));
@@ -1356,6 +1367,20 @@ public class SourceParser {
     }
   }
 
+  /**
+   * the spreadsheets are only written for the editors, so nothing in the build waits for them.
+   * Each creator reads its own resource folder and writes its own xlsx, so they can run alongside each other
+   */
+  private void generateSpreadsheets() throws Exception {
+    logger.log("Resource spreadsheets: "+spreadsheetsCurrent+" up to date, "+spreadsheets.size()+" to regenerate", LogMessageType.Process);
+    BuildScheduler sched = new BuildScheduler(threads);
+    for (SpreadSheetCreator ssc : spreadsheets) {
+      sched.task("spreadsheet:"+ssc.getResourceName(), () -> ssc.generateSpreadsheet());
+    }
+    sched.execute();
+    spreadsheets.clear();
+  }
+
   public void setResourceProps(String n, WorkGroup wg, ResourceDefn root) {
     root.setWg(wg);
     root.setFmmLevel(ini.getStringProperty("fmm", n.toLowerCase()));
@@ -1453,25 +1478,20 @@ public class SourceParser {
       errors.add("Unable to find "+purpose+" file "+file+" in "+dir);
       return false;
     } else  {
-      long d = f.lastModified();
-      if (!f.getAbsolutePath().endsWith(".gen.svg") && !f.getAbsolutePath().endsWith(".datestamp") && !f.getName().endsWith("-mapping-exceptions.xml") && !f.getName().contains("please-close-this-in-excel-and-return-the-build-prior-to-committing") && (!dates.containsKey(category) || d > dates.get(category))) {
-        dates.put(category, d);
-        if (dateSources != null)
-          dateSources.put(category.toLowerCase(), f.getName()+" @ "+new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new java.util.Date(d)));
+      if (!f.getAbsolutePath().endsWith(".gen.svg") && !f.getAbsolutePath().endsWith(".datestamp") && !f.getName().endsWith("-mapping-exceptions.xml") && !f.getName().contains("please-close-this-in-excel-and-return-the-build-prior-to-committing")) {
+        sourceGraph.addSource(category, f);
       }
       return true;
     }
       }
-  private Map<String, Long> dates;
-  private Map<String, String> dateSources;
+  private BuildGraph sourceGraph;
   private ValueSetGenerator vsGen;
 
-  public void checkConditions(List<String> errors, Map<String, Long> dates, Map<String, String> dateSources) throws Exception {
+  public void checkConditions(List<String> errors, BuildGraph sourceGraph) throws Exception {
     FileUtilities.checkFolderExists(srcDir, errors);
     FileUtilities.checkFolderExists(termDir, errors);
     FileUtilities.checkFolderExists(imgDir, errors);
-    this.dates = dates;
-    this.dateSources = dateSources;
+    this.sourceGraph = sourceGraph;
     checkFile("required", termDir, "bindings.xml", errors, "all");
     checkFile("required", dtDir, "primitives.xml", errors, "all");
 
@@ -1528,6 +1548,10 @@ public class SourceParser {
 
 
 
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
   public void setExternals(Bundle externals) {
     this.externals = externals;
     
@@ -8,6 +8,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.context.BaseWorkerContext;
@@ -21,6 +23,9 @@ import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.filesystem.CSFile;
 import org.hl7.fhir.utilities.filesystem.CSFileInputStream;
 
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
 public class SpreadSheetBase {
   
   public class ExtensionSorter implements Comparator<Extension> {
@@ -54,6 +59,7 @@ public class SpreadSheetBase {
   private String srcFolder; 
   protected String resourceName;
   protected long date;
+  private Set<String> inputs = new TreeSet<>(); // source files (by name) that have been read from the resource folder
   protected BaseWorkerContext context;
   
   protected static final String CN_TARGET_TYPES = "Target Types";
@@ -133,10 +139,37 @@ public class SpreadSheetBase {
     this.resourceName = resourceName;
   }
   
+  public String getResourceName() {
+    return resourceName;
+  }
+
   private String srcPath(String filename) throws IOException {
     return Utilities.path(srcFolder, resourceName.toLowerCase(), filename);
   }
   
+  protected String srcFile(String name) throws IOException {
+    return srcPath(name);
+  }
+
+  protected void seeInput(String fn) {
+    inputs.add(new File(fn).getName());
+  }
+
+  protected Set<String> getInputs() {
+    return inputs;
+  }
+
+  /**
+   * content hash of a source file, or "-" if it doesn't exist (so that adding or removing it is noticed too)
+   */
+  protected static String hashFile(String fn) throws IOException {
+    File f = new CSFile(fn);
+    if (!f.exists()) {
+      return "-";
+    }
+    return Files.asByteSource(f).hash(Hashing.sha256()).toString();
+  }
+
   protected String fnSpreadsheet() throws IOException {
     return srcPath(resourceName.toLowerCase()+"-spreadsheet.xlsx");
   }
@@ -183,6 +216,7 @@ public class SpreadSheetBase {
 
   protected Resource parseXml(String fn)  {
     //    String fn = Utilities.path(srcFolder, resourceName.toLowerCase(), name);
+    seeInput(fn);
     try {
       File f = new CSFile(fn);
       long d = f.lastModified();
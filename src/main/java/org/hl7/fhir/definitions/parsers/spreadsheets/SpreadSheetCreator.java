@@ -62,6 +62,37 @@ public class SpreadSheetCreator extends SpreadSheetBase {
     super(context, srcFolder, resourceName);
   }
 
+  // change this when the layout of the generated spreadsheet changes, so existing spreadsheets are regenerated
+  private static final String LAYOUT_VERSION = "1";
+
+  /**
+   * The spreadsheet is up to date if it hasn't been edited since it was generated (the reloader
+   * picks up edits), and the content of every source file that was read to build it is unchanged.
+   * The hashes are recorded in the [inputs] section of the .datestamp file
+   */
+  public boolean isUpToDate() throws IOException {
+    String tgt = fnSpreadsheet();
+    File t = new File(tgt);
+    File cfg = new File(FileUtilities.changeFileExt(tgt, ".datestamp"));
+    if (!t.exists() || !cfg.exists()) {
+      return false;
+    }
+    IniFile ini = new IniFile(cfg.getAbsolutePath());
+    if (!LAYOUT_VERSION.equals(ini.getStringProperty("spreadsheet", "layout")) || !ini.hasProperty("spreadsheet", "date") || t.lastModified() > ini.getLongProperty("spreadsheet", "date")) {
+      return false;
+    }
+    String[] names = ini.getPropertyNames("inputs");
+    if (names == null || names.length == 0) {
+      return false;
+    }
+    for (String n : names) {
+      if (!hashFile(srcFile(n)).equals(ini.getStringProperty("inputs", n))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public void generateSpreadsheet() throws FHIRFormatError, FileNotFoundException, IOException {
     String tgt = fnSpreadsheet();
     File t = new File(tgt);
@@ -85,8 +116,14 @@ public class SpreadSheetCreator extends SpreadSheetBase {
         System.out.println("Error writing to "+tgt+" "+e.getMessage());
       }
       new File(tgt).setLastModified(date);
+      // start a fresh file, so that inputs no longer read don't linger
+      new File(FileUtilities.changeFileExt(tgt, ".datestamp")).delete();
       IniFile ini = new IniFile(FileUtilities.changeFileExt(tgt, ".datestamp"));
       ini.setLongProperty("spreadsheet", "date", date, "Never change this date manually");
+      ini.setStringProperty("spreadsheet", "layout", LAYOUT_VERSION, null);
+      for (String n : getInputs()) {
+        ini.setStringProperty("inputs", n, hashFile(srcFile(n)), null);
+      }
       ini.save();
     }
   }
@@ -485,6 +522,7 @@ public class SpreadSheetCreator extends SpreadSheetBase {
         addPackRow(sheet, CN_SEARCH_PARAMETER, id, rowCount++);
       } else if (r.startsWith("StructureDefinition/")) {
         String fn = fnExt(id); 
+        seeInput(fn);
         if (new File(fn).exists()) {
           addPackRow(sheet, CN_EXTENSION, id, rowCount++);          
         } else {
@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.exceptions.TerminologyServiceException;
@@ -488,27 +489,84 @@ public class ValueSetValidator extends BaseValidator {
     return sources;
   }
 
+  /**
+   * Two value sets are reported if they have the same id or url, or (when either is internal) exactly
+   * the same name words or description words. So rather than comparing every value set with every
+   * other, value sets are indexed by each of these, and only the pairs that share a key are compared.
+   * Pairs are compared in the same order as a full comparison would, so the messages are the same
+   */
   public void checkDuplicates(List<ValidationMessage> errors) {
-    for (int i = 0; i < duplicateList.size()-1; i++) {
-      for (int j = i+1; j < duplicateList.size(); j++) {
-        VSDuplicateList vd1 = duplicateList.get(i);
-        VSDuplicateList vd2 = duplicateList.get(j);
-        String committee = pickCommittee(vd1, vd2);
-        if (committee != null) {
-          if (rule(errors, ValidationMessage.NO_RULE_DATE, IssueType.BUSINESSRULE, committee+":ValueSetComparison", !vd1.id.equals(vd2.id), "Duplicate Value Set ids : "+vd1.id+"("+vd1.vs.getName()+") & "+vd2.id+"("+vd2.vs.getName()+") (id)") &&
-              rule(errors, ValidationMessage.NO_RULE_DATE, IssueType.BUSINESSRULE, committee+":ValueSetComparison", !vd1.url.equals(vd2.url), "Duplicate Value Set URLs: "+vd1.id+"("+vd1.vs.getName()+") & "+vd2.id+"("+vd2.vs.getName()+") (url)")) {
-            if (isInternal(vd1.url) || isInternal(vd2.url)) {
-              warning(errors, ValidationMessage.NO_RULE_DATE, IssueType.BUSINESSRULE, committee+":ValueSetComparison", areDisjoint(vd1.name, vd2.name), "Duplicate Valueset Names: "+vd1.vs.getWebPath()+" ("+vd1.vs.getName()+") & "+vd2.vs.getWebPath()+" ("+vd2.vs.getName()+") (name: "+vd1.name.toString()+" / "+vd2.name.toString()+"))", 
-                  "Duplicate Valueset Names: <a href=\""+vd1.vs.getWebPath()+"\">"+vd1.id+"</a> ("+vd1.vs.getName()+") &amp; <a href=\""+vd2.vs.getWebPath()+"\">"+vd2.id+"</a> ("+vd2.vs.getName()+") (name: "+vd1.name.toString()+" / "+vd2.name.toString()+"))");
-              warning(errors, ValidationMessage.NO_RULE_DATE, IssueType.BUSINESSRULE, committee+":ValueSetComparison", areDisjoint(vd1.description, vd2.description), "Duplicate Valueset Definitions: "+vd1.vs.getWebPath()+" ("+vd1.vs.getName()+") & "+vd2.vs.getWebPath()+" ("+vd2.vs.getName()+") (description: "+vd1.description.toString()+" / "+vd2.description.toString()+")",
-                  "Duplicate Valueset descriptions: <a href=\""+vd1.vs.getWebPath()+"\">"+vd1.id+"</a> ("+vd1.vs.getName()+") &amp; <a href=\""+vd2.vs.getWebPath()+"\">"+vd2.id+"</a> ("+vd2.vs.getName()+") (description: "+vd1.description.toString()+" / "+vd2.description.toString()+"))");
-            }
-          }
+    Map<Object, List<Integer>> index = new HashMap<Object, List<Integer>>();
+    for (int i = 0; i < duplicateList.size(); i++) {
+      VSDuplicateList vd = duplicateList.get(i);
+      index(index, "id:"+vd.id, i);
+      index(index, "url:"+vd.url, i);
+      if (!vd.name.isEmpty())
+        index(index, new DuplicateKey("name", vd.name), i);
+      if (!vd.description.isEmpty())
+        index(index, new DuplicateKey("description", vd.description), i);
+    }
+    Set<Long> pairs = new TreeSet<Long>();
+    for (List<Integer> list : index.values()) {
+      for (int i = 0; i < list.size()-1; i++) {
+        for (int j = i+1; j < list.size(); j++) {
+          pairs.add(((long) list.get(i) << 32) | list.get(j));
+        }
+      }
+    }
+    for (long pair : pairs) {
+      VSDuplicateList vd1 = duplicateList.get((int) (pair >>> 32));
+      VSDuplicateList vd2 = duplicateList.get((int) pair);
+      String committee = pickCommittee(vd1, vd2);
+      if (committee != null) {
+        if (vd1.id.equals(vd2.id)) {
+          rule(errors, ValidationMessage.NO_RULE_DATE, IssueType.BUSINESSRULE, committee+":ValueSetComparison", false, "Duplicate Value Set ids : "+vd1.id+"("+vd1.vs.getName()+") & "+vd2.id+"("+vd2.vs.getName()+") (id)");
+        } else if (vd1.url.equals(vd2.url)) {
+          rule(errors, ValidationMessage.NO_RULE_DATE, IssueType.BUSINESSRULE, committee+":ValueSetComparison", false, "Duplicate Value Set URLs: "+vd1.id+"("+vd1.vs.getName()+") & "+vd2.id+"("+vd2.vs.getName()+") (url)");
+        } else if (isInternal(vd1.url) || isInternal(vd2.url)) {
+          if (!areDisjoint(vd1.name, vd2.name))
+            warning(errors, ValidationMessage.NO_RULE_DATE, IssueType.BUSINESSRULE, committee+":ValueSetComparison", false, "Duplicate Valueset Names: "+vd1.vs.getWebPath()+" ("+vd1.vs.getName()+") & "+vd2.vs.getWebPath()+" ("+vd2.vs.getName()+") (name: "+vd1.name.toString()+" / "+vd2.name.toString()+"))", 
+                "Duplicate Valueset Names: <a href=\""+vd1.vs.getWebPath()+"\">"+vd1.id+"</a> ("+vd1.vs.getName()+") &amp; <a href=\""+vd2.vs.getWebPath()+"\">"+vd2.id+"</a> ("+vd2.vs.getName()+") (name: "+vd1.name.toString()+" / "+vd2.name.toString()+"))");
+          if (!areDisjoint(vd1.description, vd2.description))
+            warning(errors, ValidationMessage.NO_RULE_DATE, IssueType.BUSINESSRULE, committee+":ValueSetComparison", false, "Duplicate Valueset Definitions: "+vd1.vs.getWebPath()+" ("+vd1.vs.getName()+") & "+vd2.vs.getWebPath()+" ("+vd2.vs.getName()+") (description: "+vd1.description.toString()+" / "+vd2.description.toString()+")",
+                "Duplicate Valueset descriptions: <a href=\""+vd1.vs.getWebPath()+"\">"+vd1.id+"</a> ("+vd1.vs.getName()+") &amp; <a href=\""+vd2.vs.getWebPath()+"\">"+vd2.id+"</a> ("+vd2.vs.getName()+") (description: "+vd1.description.toString()+" / "+vd2.description.toString()+"))");
         }
       }
     }
   }
 
+  private class DuplicateKey {
+    private String type;
+    private Set<String> words;
+
+    private DuplicateKey(String type, Set<String> words) {
+      this.type = type;
+      this.words = words;
+    }
+
+    @Override
+    public int hashCode() {
+      return type.hashCode() * 31 + words.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof DuplicateKey))
+        return false;
+      DuplicateKey other = (DuplicateKey) obj;
+      return type.equals(other.type) && words.equals(other.words);
+    }
+  }
+
+  private void index(Map<Object, List<Integer>> index, Object key, int i) {
+    List<Integer> list = index.get(key);
+    if (list == null) {
+      list = new ArrayList<Integer>();
+      index.put(key, list);
+    }
+    list.add(i);
+  }
+
   private String pickCommittee(VSDuplicateList vd1, VSDuplicateList vd2) {
     String c1 = getWg(vd1.vs);
     String c2 = getWg(vd2.vs);
@@ -1,18 +1,32 @@
 package org.hl7.fhir.definitions.validation;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
@@ -46,23 +60,33 @@ import org.hl7.fhir.utilities.filesystem.CSFileInputStream;
 import org.hl7.fhir.utilities.SchemaInputSource;
 import org.hl7.fhir.utilities.FileUtilities;
 import org.hl7.fhir.utilities.Utilities;
-import org.hl7.fhir.utilities.XsltUtilities;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
 import org.hl7.fhir.utilities.validation.ValidationMessage.Source;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 import org.w3c.dom.ls.LSInput;
 import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.Attributes;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
 
 public class XmlValidator {
 
+  private static final String SVRL_NS = "http://purl.oclc.org/dsdl/svrl";
+
+  // compiled stylesheets (including the schematrons, once compiled to xslt), keyed by name and
+  // content, so each is compiled once per build however many validators and files there are.
+  // Templates can be shared between threads; transformers can't, so each thread keeps its own
+  private static final Map<String, Templates> compiled = new ConcurrentHashMap<String, Templates>();
+  private static final ThreadLocal<Map<Templates, Transformer>> transformers = ThreadLocal.withInitial(() -> new HashMap<Templates, Transformer>());
+
   private Schema schema;
+  // parsers are reused, but aren't safe to share between threads
+  private ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>();
   private Map<String, byte[]> schemas;
   private Map<String, byte[]> transforms;
   private List<ValidationMessage> errors;
@@ -103,7 +127,7 @@ public class XmlValidator {
   private void loadTransforms(String xsltDir) throws FileNotFoundException, IOException {
     Map<String, byte[]> res = new HashMap<String, byte[]>();
     for (String s : new File(xsltDir).list()) {
-      if (s.endsWith(".xslt"))
+      if (s.endsWith(".xslt") || s.endsWith(".xsl"))
         res.put(s, FileUtilities.fileToBytes(Utilities.path(xsltDir, s)));
     }
     this.transforms = res;
@@ -124,51 +148,169 @@ public class XmlValidator {
   }
 
   public Element checkBySchema(String fileToCheck, boolean wantThrow) throws FileNotFoundException, SAXException, IOException, ParserConfigurationException, FHIRException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    factory.setValidating(false);
-    factory.setSchema(schema);
-    DocumentBuilder builder = factory.newDocumentBuilder();
+    DocumentBuilder builder = builder();
     MyErrorHandler err = new MyErrorHandler(errors, fileToCheck);
     builder.setErrorHandler(err);
-    CSFileInputStream f = new CSFileInputStream(new CSFile(fileToCheck));
-    Document doc = builder.parse(f);
+    Document doc;
+    try (InputStream f = new CSFileInputStream(new CSFile(fileToCheck))) {
+      doc = builder.parse(f);
+    }
     if (wantThrow && err.getErrors().size() > 0)
       throw new FHIRException("File " + fileToCheck + " failed schema validation");
     return doc.getDocumentElement();
   }
 
+  private DocumentBuilder builder() throws ParserConfigurationException {
+    DocumentBuilder builder = builders.get();
+    if (builder == null) {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setValidating(false);
+      factory.setSchema(schema);
+      builder = factory.newDocumentBuilder();
+      builders.set(builder);
+    } else {
+      builder.reset();
+    }
+    return builder;
+  }
+
+  /**
+   * Validate a file against a schematron. The schematron is compiled once, and the same compiled
+   * form is used for every file after that. Safe to call from several threads at once
+   */
   public void checkBySchematron(String filename, String sch, boolean wantThrow) throws IOException, ParserConfigurationException, SAXException, FileNotFoundException, FHIRException {
-    DocumentBuilderFactory factory;
-    DocumentBuilder builder;
-    Document doc;
-    byte[] out = null;
-    try {
-      out = XsltUtilities.saxonTransform(transforms, schemas.get(sch), transforms.get("iso_svrl_for_xslt2.xsl"));
-      out = XsltUtilities.saxonTransform(transforms, FileUtilities.fileToBytes(filename), out);
+    SvrlHandler svrl = new SvrlHandler();
+    try (InputStream in = new CSFileInputStream(new CSFile(filename))) {
+      Transformer t = transformer(schematron(sch));
+      t.transform(new StreamSource(in), new SAXResult(svrl));
     } catch (Throwable e) {
-      errors.add(new ValidationMessage(Source.InstanceValidator, IssueType.STRUCTURE, -1, -1, filename + ":" + sch, e.getMessage(), IssueSeverity.ERROR));
+      synchronized (this) {
+        errors.add(new ValidationMessage(Source.InstanceValidator, IssueType.STRUCTURE, -1, -1, filename + ":" + sch, e.getMessage(), IssueSeverity.ERROR));
+      }
       if (wantThrow)
         throw new FHIRException("Error validating " + filename + " with schematrons", e);
+      return;
     }
 
-    factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    builder = factory.newDocumentBuilder();
-    doc = builder.parse(new ByteArrayInputStream(out));
-    NodeList nl = doc.getDocumentElement().getElementsByTagNameNS("http://purl.oclc.org/dsdl/svrl", "failed-assert");
-    if (nl.getLength() > 0) {
-      logger.log("Schematron Validation Failed for " + filename, LogMessageType.Error);
-      for (int i = 0; i < nl.getLength(); i++) {
-        Element e = (Element) nl.item(i);
-        logger.log("  @" + e.getAttribute("location") + ": " + e.getTextContent(), LogMessageType.Error);
-        errors.add(new ValidationMessage(Source.InstanceValidator, IssueType.STRUCTURE, -1, -1, filename + ":" + e.getAttribute("location"), e.getTextContent(), IssueSeverity.ERROR));
+    if (svrl.failures.size() > 0) {
+      synchronized (this) {
+        if (logger != null)
+          logger.log("Schematron Validation Failed for " + filename, LogMessageType.Error);
+        for (String[] failure : svrl.failures) {
+          if (logger != null)
+            logger.log("  @" + failure[0] + ": " + failure[1], LogMessageType.Error);
+          errors.add(new ValidationMessage(Source.InstanceValidator, IssueType.STRUCTURE, -1, -1, filename + ":" + failure[0], failure[1], IssueSeverity.ERROR));
+        }
       }
       if (wantThrow)
         throw new FHIRException("Schematron Validation Failed for " + filename);
     }
   }
 
+  private Templates schematron(String sch) throws TransformerException, IOException {
+    byte[] source = schemas.get(sch);
+    if (source == null)
+      throw new FHIRException("Unknown schematron " + sch);
+    String key = "sch:" + sch + "#" + hash(source);
+    Templates res = compiled.get(key);
+    if (res == null) {
+      // the schematron is turned into xslt by the iso skeleton, and then compiled like any other stylesheet
+      ByteArrayOutputStream xslt = new ByteArrayOutputStream();
+      transformer(stylesheet("iso_svrl_for_xslt2.xsl")).transform(new StreamSource(new ByteArrayInputStream(source)), new StreamResult(xslt));
+      res = factory().newTemplates(new StreamSource(new ByteArrayInputStream(xslt.toByteArray())));
+      Templates existing = compiled.putIfAbsent(key, res);
+      res = existing == null ? res : existing;
+    }
+    return res;
+  }
+
+  private Templates stylesheet(String name) throws TransformerException, IOException {
+    byte[] source = transforms.get(name);
+    if (source == null)
+      throw new FHIRException("Unknown transform " + name);
+    String key = "xsl:" + name + "#" + hash(source);
+    Templates res = compiled.get(key);
+    if (res == null) {
+      res = factory().newTemplates(new StreamSource(new ByteArrayInputStream(source)));
+      Templates existing = compiled.putIfAbsent(key, res);
+      res = existing == null ? res : existing;
+    }
+    return res;
+  }
+
+  private Transformer transformer(Templates templates) throws TransformerConfigurationException {
+    Map<Templates, Transformer> map = transformers.get();
+    Transformer t = map.get(templates);
+    if (t == null) {
+      t = templates.newTransformer();
+      map.put(templates, t);
+    } else {
+      t.reset();
+    }
+    t.setURIResolver(new TransformResolver());
+    return t;
+  }
+
+  private TransformerFactory factory() {
+    TransformerFactory f = new net.sf.saxon.TransformerFactoryImpl();
+    f.setURIResolver(new TransformResolver());
+    return f;
+  }
+
+  private String hash(byte[] content) throws IOException {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * collects the failed asserts from the svrl as the transform produces it
+   */
+  private class SvrlHandler extends DefaultHandler {
+    private List<String[]> failures = new ArrayList<String[]>();
+    private String location;
+    private StringBuilder text;
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+      if (SVRL_NS.equals(uri) && "failed-assert".equals(localName)) {
+        location = attributes.getValue("location");
+        text = new StringBuilder();
+      }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+      if (text != null)
+        text.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+      if (SVRL_NS.equals(uri) && "failed-assert".equals(localName)) {
+        failures.add(new String[] {location, text.toString()});
+        text = null;
+      }
+    }
+  }
+
+  /**
+   * resolves the stylesheets that the transforms include from the loaded transforms
+   */
+  private class TransformResolver implements URIResolver {
+
+    @Override
+    public javax.xml.transform.Source resolve(String href, String base) throws TransformerException {
+      String name = href.contains("/") ? href.substring(href.lastIndexOf("/") + 1) : href;
+      if (!transforms.containsKey(name))
+        return null;
+      return new StreamSource(new ByteArrayInputStream(transforms.get(name)));
+    }
+  }
+
   public class MyErrorHandler implements ErrorHandler {
 
     private List<String> errors = new ArrayList<String>();
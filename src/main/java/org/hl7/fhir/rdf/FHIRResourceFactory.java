@@ -43,6 +43,10 @@ public class FHIRResourceFactory {
         }
     }
 
+    public Model getModel() {
+        return model;
+    }
+
     /**
      * Serialize the namespace instance in RDF Turtle
      *
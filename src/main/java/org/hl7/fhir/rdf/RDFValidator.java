@@ -1,5 +1,6 @@
 package org.hl7.fhir.rdf;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,6 +12,8 @@ import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
@@ -40,12 +43,12 @@ public class RDFValidator {
                     "PREFIX fhir: <http://hl7.org/fhir/> \r\n" +
                     "PREFIX os: <http://open-services.net/ns/core#> \r\n";
 
-    Model model;
+    // all the graphs are merged into one indexed graph, rather than a union view over them.
+    // Once the graphs are loaded it is only read, so assertions can run on different threads
+    Model model = ModelFactory.createDefaultModel();
 
     public void validate(String filename) throws Exception {
-        Model m = RDFDataMgr.loadModel(filename);
-//    System.out.println(Integer.toString(m.getGraph().size())+" triples in RDF file "+filename);
-        model = model == null ? m : model.union(m);
+        RDFDataMgr.read(model, filename);
 //    FileOutputStream strm = new FileOutputStream(FileUtilities.changeFileExt(filename, ".rdf.xml"));
 //    try {
 //      RDFDataMgr.write(strm, m, RDFFormat.RDFXML_PLAIN);
@@ -54,6 +57,20 @@ public class RDFValidator {
 //    }
     }
 
+    /**
+     * validate turtle source that is already in memory
+     */
+    public void validate(byte[] turtle) {
+        RDFDataMgr.read(model, new ByteArrayInputStream(turtle), Lang.TURTLE);
+    }
+
+    /**
+     * add a graph that was generated in memory: there's no need to write it out and read it back in
+     */
+    public void add(Model m) {
+        model.add(m);
+    }
+
     public List<ValidationMessage> assertion(String sparql, String id, String rowType, String message, String description, IssueSeverity level) {
         List<ValidationMessage> msgs = new ArrayList<ValidationMessage>();
 
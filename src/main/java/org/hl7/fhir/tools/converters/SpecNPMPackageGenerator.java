@@ -1,20 +1,21 @@
 package org.hl7.fhir.tools.converters;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 import org.hl7.fhir.convertors.conv10_50.VersionConvertor_10_50;
 import org.hl7.fhir.convertors.conv14_50.VersionConvertor_14_50;
@@ -37,6 +38,7 @@ import org.hl7.fhir.r5.model.ImplementationGuide.SPDXLicense;
 import org.hl7.fhir.r5.model.Reference;
 import org.hl7.fhir.r5.utils.NPMPackageGenerator;
 import org.hl7.fhir.r5.utils.NPMPackageGenerator.Category;
+import org.hl7.fhir.tools.publisher.BuildScheduler;
 import org.hl7.fhir.tools.publisher.SpecMapManager;
 import org.hl7.fhir.utilities.IniFile;
 import org.hl7.fhir.utilities.FileUtilities;
@@ -49,14 +51,28 @@ import com.google.gson.JsonSyntaxException;
 
 public class SpecNPMPackageGenerator {
 
+  private interface Composer {
+    byte[] compose() throws IOException;
+  }
+
+  /**
+   * The content of an entry is only held while the bundle it came from is being written
+   */
   public class ResourceEntry {
     String type;
     String id;
     String canonical;
     boolean conf;
-    byte[] json;
-    byte[] xml;
+    Composer json;
+    Composer xml;
   }
+
+  private int threads = 2;
+  private List<ResourceEntry> reslist = new ArrayList<ResourceEntry>();
+  private Set<String> entries = new HashSet<String>();
+  private NPMPackageGenerator npm;
+  private NPMPackageGenerator npmXml;
+  private BuildScheduler sched;
 //
 //  public static void main(String[] args) throws Exception {
 ////    generateForVersion("F:\\fhir\\web\\DSTU2", "http://hl7.org/fhir/DSTU2");
@@ -71,125 +87,131 @@ public class SpecNPMPackageGenerator {
 //  }
 //  
   
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Builds the core (json) and corexml packages together, in a single pass through igpack.zip.
+   * The zip is indexed by name only, and each bundle is read, converted (several resources at a
+   * time) and written to both packages before the next one is read, so the resources aren't all in
+   * memory at once. The IG resource lists everything in the package, so it's added last
+   */
   public void generate(String folder, String url, boolean forWeb, Date genDate, String pidRoot) throws Exception {
     System.out.println("Generate Package for "+folder);
+    sched = new BuildScheduler(threads);
     
-    Map<String, byte[]> files = loadZip(new FileInputStream(Utilities.path(folder, "igpack.zip")));
-    FHIRVersion version = determineVersion(files);    
-    
-    System.out.println(" .. Loading v"+version.toCode());
-    SpecMapManager spm = new SpecMapManager(files.get("spec.internals"), version.toCode());    
-    System.out.println(" .. Conformance Resources");
-    List<ResourceEntry> reslist = makeResourceList(files, version.toCode());
-    checkForDE(reslist);
-    System.out.println(" .. Other Resources");
-    addToResList(folder, reslist, version.toCode());
-    checkForDE(reslist);
-    
-    System.out.println(" .. building IG");
-    ImplementationGuide ig = new ImplementationGuide();
-    ig.setId("fhir");
-    ig.setUrl("http://hl7.org/fhir/ImplementationGuide/fhir");
-    ig.setVersion(version.toCode());
-    ig.addFhirVersion(version);
-    ig.setLicense(SPDXLicense.CC0_1_0);
-    ig.setTitle("FHIR Core package");
-    ig.setDescription("FHIR Core package - the NPM package that contains all the definitions for the base FHIR specification");
-    ig.setPublisher("HL7 Inc");
-    ig.getContactFirstRep().getTelecomFirstRep().setSystem(ContactPointSystem.URL).setValue("http://hl7.org/fhir");
-    ig.setPackageId(pidRoot+".core");
-    ig.getManifest().setRendering(url);
-    for (ResourceEntry e : reslist) {
-      ManifestResourceComponent r = ig.getManifest().addResource();
-      r.setReference(new Reference(e.type+"/"+e.id));
-      if (e.conf)
-        r.setIsExample(true);
-      r.setRelativePath(spm.getPath(e.canonical, null));  
-    }
-    for (String k : files.keySet()) {
-      if (k.endsWith(".png") || k.endsWith(".gif"))
-        ig.getManifest().addImage(k);
-      else if (k.endsWith(".css"))
-        ig.getManifest().addOther(k);
-    }
-    Map<String, ManifestPageComponent> map = new HashMap<String, ManifestPageComponent>();
-    for (String k : spm.getPages()) {
-      ManifestPageComponent pp = ig.getManifest().addPage();
-      pp.setName(k).setTitle(spm.getPage(k));
-      map.put(pp.getName(), pp);      
-    }
-    for (String k : spm.getTargets()) {
-      String n = null;
-      String f = null;
-      if (k.contains("#")) {
-        n = k.substring(0, k.indexOf("#"));
-        f = k.substring(k.indexOf("#")+1);
-      } else
-        n = k;
-      ManifestPageComponent p = map.get(n);
-      if (p == null) {
-        p = ig.getManifest().addPage();
-        p.setName(n);
-        map.put(p.getName(), p);      
+    try (ZipFile zip = new ZipFile(Utilities.path(folder, "igpack.zip"))) {
+      List<String> names = new ArrayList<String>();
+      for (Enumeration<? extends ZipEntry> en = zip.entries(); en.hasMoreElements(); ) {
+        names.add(en.nextElement().getName());
       }
-      if (f != null)
-        p.addAnchor(f);
-    }
-    // ok ig is full loaded...
-    
-    System.out.println(" .. Building NPM Package");
-
-    NPMPackageGenerator npm = new NPMPackageGenerator(pidRoot+".core", Utilities.path(folder, pidRoot+".core.tgz"), "http://hl7.org/fhir", url, PackageType.CORE, ig, genDate, null, true);
-    
-    ByteArrayOutputStream bs = new ByteArrayOutputStream();
-    new org.hl7.fhir.r5.formats.JsonParser().setOutputStyle(OutputStyle.NORMAL).compose(bs, ig);
-//    npm.addFile(Category.RESOURCE, "ig-r4.json", bs.toByteArray());
-    addConvertedIg(npm, ig, version.toCode());
-    for (ResourceEntry e : reslist) {
-      if (Utilities.existsInList(e.type, "CapabilityStatement", "StructureDefinition", "ImplementationGuide", "SearchParameter", "MessageDefinition", "OperationDefinition", "CompartmentDefinition", 
-          "StructureMap", "GraphDefinition", "ExampleScenario", "CodeSystem", "ValueSet", "ConceptMap", "ConceptMap2", "NamingSystem", "TerminologyCapabilities") && 
-          e.canonical != null && !e.canonical.contains("StructureDefinition-de-")) {
-        npm.addFile(Category.RESOURCE, e.type+"-"+e.id+".json", e.json);
+      FHIRVersion version = determineVersion(loadEntry(zip, "version.info"));    
+
+      System.out.println(" .. Loading v"+version.toCode());
+      SpecMapManager spm = new SpecMapManager(loadEntry(zip, "spec.internals"), version.toCode());    
+
+      ImplementationGuide ig = new ImplementationGuide();
+      ig.setId("fhir");
+      ig.setUrl("http://hl7.org/fhir/ImplementationGuide/fhir");
+      ig.setVersion(version.toCode());
+      ig.addFhirVersion(version);
+      ig.setLicense(SPDXLicense.CC0_1_0);
+      ig.setTitle("FHIR Core package");
+      ig.setDescription("FHIR Core package - the NPM package that contains all the definitions for the base FHIR specification");
+      ig.setPublisher("HL7 Inc");
+      ig.getContactFirstRep().getTelecomFirstRep().setSystem(ContactPointSystem.URL).setValue("http://hl7.org/fhir");
+      ig.setPackageId(pidRoot+".core");
+      ig.getManifest().setRendering(url);
+
+      ImplementationGuide igx = ig.copy();
+      igx.setId("fhir-xml");
+      igx.setUrl("http://hl7.org/fhir/ImplementationGuide/fhir-xml");
+      igx.setTitle("FHIR Core package (XML Conformance files)");
+      igx.setDescription("FHIR Core package - the NPM package that contains all the definitions for the base FHIR specification (XML)");
+      igx.setPackageId(pidRoot+".corexml");
+
+      System.out.println(" .. Building NPM Packages");
+      npm = new NPMPackageGenerator(pidRoot+".core", Utilities.path(folder, pidRoot+".core.tgz"), "http://hl7.org/fhir", url, PackageType.CORE, ig, genDate, null, true);
+      npmXml = new NPMPackageGenerator(pidRoot+".corexml", Utilities.path(folder, pidRoot+".corexml.tgz"), "http://hl7.org/fhir", url, PackageType.CORE, igx, genDate, null, true);
+
+      System.out.println(" .. Conformance Resources");
+      makeResourceList(zip, names, version.toCode());
+      checkForDE(reslist);
+      System.out.println(" .. Other Resources");
+      addToResList(folder, version.toCode());
+      checkForDE(reslist);
+
+      System.out.println(" .. building IG");
+      for (ResourceEntry e : reslist) {
+        ManifestResourceComponent r = ig.getManifest().addResource();
+        r.setReference(new Reference(e.type+"/"+e.id));
+        if (e.conf)
+          r.setIsExample(true);
+        r.setRelativePath(spm.getPath(e.canonical, null));  
       }
-    }
-    for (String k : files.keySet()) {
-      if (k.endsWith(".png") || k.endsWith(".css") || k.endsWith(".template") || k.endsWith(".zip") || k.endsWith(".gif") || k.endsWith(".details") 
-          || k.equals("spec.internals") || k.equals("mappingSpaces.details"))
-        npm.addFile(Category.OTHER, k, files.get(k));
-    }
-    
-    for (String fn : new File(folder).list()) {
-      if (fn.endsWith(".schema.json") || fn.endsWith(".openapi.json") ) {
-        byte[] b = FileUtilities.fileToBytes(Utilities.path(folder, fn));
-        npm.addFile(Category.OPENAPI, fn, b);
+      for (String k : names) {
+        if (k.endsWith(".png") || k.endsWith(".gif"))
+          ig.getManifest().addImage(k);
+        else if (k.endsWith(".css"))
+          ig.getManifest().addOther(k);
       }
-      if (fn.endsWith(".xsd") || fn.endsWith(".sch") ) {
-        byte[] b = FileUtilities.fileToBytes(Utilities.path(folder, fn));
-        npm.addFile(Category.SCHEMATRON, fn, b);
+      Map<String, ManifestPageComponent> map = new HashMap<String, ManifestPageComponent>();
+      for (String k : spm.getPages()) {
+        ManifestPageComponent pp = ig.getManifest().addPage();
+        pp.setName(k).setTitle(spm.getPage(k));
+        map.put(pp.getName(), pp);      
       }
-    }
-    npm.finish();
-    System.out.println(" .. Built");
-
-    System.out.println(" .. Building NPM Package (xml)");
-    ig.setId("fhir-xml");
-    ig.setUrl("http://hl7.org/fhir/ImplementationGuide/fhir-xml");
-    ig.setTitle("FHIR Core package (XML Conformance files)");
-    ig.setDescription("FHIR Core package - the NPM package that contains all the definitions for the base FHIR specification (XML)");
-    ig.setPackageId(pidRoot+".corexml");
-    
-    npm = new NPMPackageGenerator(pidRoot+".corexml", Utilities.path(folder, pidRoot+".corexml.tgz"), "http://hl7.org/fhir", url, PackageType.CORE, ig, genDate, null, true);
-    bs = new ByteArrayOutputStream();
-    new org.hl7.fhir.r5.formats.XmlParser().setOutputStyle(OutputStyle.NORMAL).compose(bs, ig);
-    npm.addFile(Category.OTHER, "ig-r4.xml", bs.toByteArray());
-    addConvertedIgX(npm, ig, version.toCode());
-    for (ResourceEntry e : reslist) {
-      if (e.xml != null)
-        npm.addFile(Category.RESOURCE, e.type+"-"+e.id+".xml", e.xml);
-    }
-    npm.finish();
-    System.out.println(" .. Built");
+      for (String k : spm.getTargets()) {
+        String n = null;
+        String f = null;
+        if (k.contains("#")) {
+          n = k.substring(0, k.indexOf("#"));
+          f = k.substring(k.indexOf("#")+1);
+        } else
+          n = k;
+        ManifestPageComponent p = map.get(n);
+        if (p == null) {
+          p = ig.getManifest().addPage();
+          p.setName(n);
+          map.put(p.getName(), p);      
+        }
+        if (f != null)
+          p.addAnchor(f);
+      }
+      igx.setManifest(ig.getManifest().copy());
+      // ok ig is full loaded...
+
+      sched.task("npm:core", () -> {
+        addConvertedIg(npm, ig, version.toCode());
+        for (String k : names) {
+          if (k.endsWith(".png") || k.endsWith(".css") || k.endsWith(".template") || k.endsWith(".zip") || k.endsWith(".gif") || k.endsWith(".details") 
+              || k.equals("spec.internals") || k.equals("mappingSpaces.details"))
+            npm.addFile(Category.OTHER, k, loadEntry(zip, k));
+        }
 
+        for (String fn : new File(folder).list()) {
+          if (fn.endsWith(".schema.json") || fn.endsWith(".openapi.json") ) {
+            byte[] b = FileUtilities.fileToBytes(Utilities.path(folder, fn));
+            npm.addFile(Category.OPENAPI, fn, b);
+          }
+          if (fn.endsWith(".xsd") || fn.endsWith(".sch") ) {
+            byte[] b = FileUtilities.fileToBytes(Utilities.path(folder, fn));
+            npm.addFile(Category.SCHEMATRON, fn, b);
+          }
+        }
+        npm.finish();
+      });
+      sched.task("npm:corexml", () -> {
+        ByteArrayOutputStream bs = new ByteArrayOutputStream();
+        new org.hl7.fhir.r5.formats.XmlParser().setOutputStyle(OutputStyle.NORMAL).compose(bs, igx);
+        npmXml.addFile(Category.OTHER, "ig-r4.xml", bs.toByteArray());
+        addConvertedIgX(npmXml, igx, version.toCode());
+        npmXml.finish();
+      });
+      sched.execute();
+      System.out.println(" .. Built");
+    }
   }
 
   private void checkForDE(List<ResourceEntry> reslist) {
@@ -281,13 +303,13 @@ public class SpecNPMPackageGenerator {
     npm.addFile(Category.RESOURCE, "ImplementationGuide-"+ig.getId()+".xml", new org.hl7.fhir.dstu2.formats.XmlParser().composeBytes(res));
   }
 
-  private void addToResList(String folder, List<ResourceEntry> reslist, String version) {
+  private void addToResList(String folder, String version) {
     for (File f : new File(folder).listFiles()) {
       if (f.getName().endsWith(".json") && !f.getName().endsWith(".diff.json") && !f.getName().endsWith(".schema.json") && !f.getName().equals("package.json") 
           && !f.getName().equals("backbone-elements.json")&& !f.getName().equals("choice-elements.json")) {
         try {
           byte[] b = FileUtilities.fileToBytes(f.getAbsolutePath());
-          loadFile(reslist, b, f.getAbsolutePath());
+          loadFile(b, f.getAbsolutePath());
         } catch (Exception e) {
           // nothing - we'll just ignore the file
         }
@@ -295,23 +317,25 @@ public class SpecNPMPackageGenerator {
     }    
   }
 
-  private void loadFile(List<ResourceEntry> reslist, byte[] b, String sourceName) throws FHIRFormatError, IOException {
+  private void loadFile(byte[] b, String sourceName) throws FHIRFormatError, IOException {
     try {
       JsonObject json = parseJson(b);
       if (json.has("id") && json.has("resourceType")) {
         String id = json.get("id").getAsString();
         String type = json.get("resourceType").getAsString(); 
-        if (!Utilities.noString(id) && !hasEntry(reslist, type, id)) {
+        if (!Utilities.noString(id) && !entries.contains(type+"/"+id)) {
           ResourceEntry e = new ResourceEntry();
           e.type = type;
           e.id = id;
-          e.json = b;
           e.conf = false;
           if (json.has("url")) {
             e.canonical = json.get("url").getAsString();
             e.conf = true;
           }
-          reslist.add(e);
+          if (isCoreResource(e)) {
+            npm.addFile(Category.RESOURCE, e.type+"-"+e.id+".json", b);
+          }
+          addEntry(e);
         }
       }
     } catch (Throwable e) {
@@ -323,213 +347,282 @@ public class SpecNPMPackageGenerator {
     return (JsonObject) new com.google.gson.JsonParser().parse(FileUtilities.bytesToString(b, true));
   }
 
-  private boolean hasEntry(List<ResourceEntry> reslist, String fhirType, String id) {
-    for (ResourceEntry e : reslist) {
-      if (e.type.equals(fhirType) && e.id.equals(id)) {
-        return true;
+  private boolean isCoreResource(ResourceEntry e) {
+    return Utilities.existsInList(e.type, "CapabilityStatement", "StructureDefinition", "ImplementationGuide", "SearchParameter", "MessageDefinition", "OperationDefinition", "CompartmentDefinition", 
+        "StructureMap", "GraphDefinition", "ExampleScenario", "CodeSystem", "ValueSet", "ConceptMap", "ConceptMap2", "NamingSystem", "TerminologyCapabilities") && 
+        e.canonical != null && !e.canonical.contains("StructureDefinition-de-");
+  }
+
+  private void addEntry(ResourceEntry e) {
+    e.json = null;
+    e.xml = null;
+    reslist.add(e);
+    entries.add(e.type+"/"+e.id);
+  }
+
+  /**
+   * write the resources from one bundle to both packages. Several resources are composed at a time,
+   * but each one is composed in both formats on the same thread, since composing reads the resource.
+   * The files are added to the packages in order
+   */
+  private void writeResources(List<ResourceEntry> batch) throws Exception {
+    byte[][] json = new byte[batch.size()][];
+    byte[][] xml = new byte[batch.size()][];
+    for (int i = 0; i < batch.size(); i++) {
+      ResourceEntry e = batch.get(i);
+      int index = i;
+      sched.task("npm:"+e.type+"/"+e.id, () -> {
+        if (isCoreResource(e)) {
+          json[index] = e.json.compose();
+        }
+        if (e.xml != null) {
+          xml[index] = e.xml.compose();
+        }
+      });
+    }
+    sched.execute();
+    for (int i = 0; i < batch.size(); i++) {
+      ResourceEntry e = batch.get(i);
+      if (json[i] != null) {
+        npm.addFile(Category.RESOURCE, e.type+"-"+e.id+".json", json[i]);
+      }
+      if (xml[i] != null) {
+        npmXml.addFile(Category.RESOURCE, e.type+"-"+e.id+".xml", xml[i]);
       }
+      addEntry(e);
     }
-    return false;
   }
 
-  private List<ResourceEntry> makeResourceList(Map<String, byte[]> files, String version) throws FHIRFormatError, IOException {
-    List<ResourceEntry> res = new ArrayList<SpecNPMPackageGenerator.ResourceEntry>();
+  private void makeResourceList(ZipFile zip, List<String> names, String version) throws Exception {
     if (VersionUtilities.isR6Ver(version))
-      makeResourceList6(files, version, res);
+      makeResourceList6(zip, names);
     else if (VersionUtilities.isR5Ver(version))
-      makeResourceList5(files, version, res);
+      makeResourceList5(zip, names);
     else if (VersionUtilities.isR4BVer(version))
-      makeResourceList4B(files, version, res);
+      makeResourceList4B(zip, names);
     else if (VersionUtilities.isR4Ver(version))
-      makeResourceList4(files, version, res);
+      makeResourceList4(zip, names);
     else if (VersionUtilities.isR3Ver(version))
-      makeResourceList3(files, version, res);
+      makeResourceList3(zip, names);
     else if (VersionUtilities.isR2BVer(version))
-      makeResourceList14(files, version, res);
+      makeResourceList14(zip, names);
     else if (VersionUtilities.isR2Ver(version))
-      makeResourceList10(files, version, res);
-    return res;
+      makeResourceList10(zip, names);
   }
 
-  private List<ResourceEntry> makeResourceList4(Map<String, byte[]> files, String version, List<ResourceEntry> res) throws FHIRFormatError, IOException {
-    for (String k : files.keySet()) {
+  private void makeResourceList4(ZipFile zip, List<String> names) throws Exception {
+    for (String k : names) {
       if (k.endsWith(".xml")) {
-        Bundle b = (Bundle) new org.hl7.fhir.r5.formats.XmlParser().parse(files.get(k));
+        Bundle b;
+        try (InputStream s = zip.getInputStream(zip.getEntry(k))) {
+          b = (Bundle) new org.hl7.fhir.r5.formats.XmlParser().parse(s);
+        }
+        List<ResourceEntry> batch = new ArrayList<ResourceEntry>();
         for (org.hl7.fhir.r5.model.Bundle.BundleEntryComponent be : b.getEntry()) {
           if (be.hasResource()) {
+            org.hl7.fhir.r5.model.Resource r = be.getResource();
             ResourceEntry e = new ResourceEntry();
-            e.type = be.getResource().fhirType();
-            e.id = be.getResource().getId();
-            e.json = new org.hl7.fhir.r5.formats.JsonParser().composeBytes(be.getResource());
-            e.xml = new org.hl7.fhir.r5.formats.XmlParser().composeBytes(be.getResource());
+            e.type = r.fhirType();
+            e.id = r.getId();
+            e.json = () -> new org.hl7.fhir.r5.formats.JsonParser().composeBytes(r);
+            e.xml = () -> new org.hl7.fhir.r5.formats.XmlParser().composeBytes(r);
             e.conf = true;
-            if (be.getResource() instanceof org.hl7.fhir.r5.model.CanonicalResource)
-              e.canonical = ((org.hl7.fhir.r5.model.CanonicalResource) be.getResource()).getUrl();
-            res.add(e);
+            if (r instanceof org.hl7.fhir.r5.model.CanonicalResource)
+              e.canonical = ((org.hl7.fhir.r5.model.CanonicalResource) r).getUrl();
+            batch.add(e);
           }
         }
+        writeResources(batch);
       }
     }
-    return null;
   }
 
-
-  private List<ResourceEntry> makeResourceList4B(Map<String, byte[]> files, String version, List<ResourceEntry> res) throws FHIRFormatError, IOException {
-    for (String k : files.keySet()) {
+  private void makeResourceList4B(ZipFile zip, List<String> names) throws Exception {
+    for (String k : names) {
       if (k.endsWith(".xml") && !k.equals("dataelements.xml")) {
-        org.hl7.fhir.r4b.model.Bundle b = (org.hl7.fhir.r4b.model.Bundle) new org.hl7.fhir.r4b.formats.XmlParser().parse(files.get(k));
+        org.hl7.fhir.r4b.model.Bundle b;
+        try (InputStream s = zip.getInputStream(zip.getEntry(k))) {
+          b = (org.hl7.fhir.r4b.model.Bundle) new org.hl7.fhir.r4b.formats.XmlParser().parse(s);
+        }
+        List<ResourceEntry> batch = new ArrayList<ResourceEntry>();
         for (org.hl7.fhir.r4b.model.Bundle.BundleEntryComponent be : b.getEntry()) {
           if (be.hasResource()) {
+            org.hl7.fhir.r4b.model.Resource r = be.getResource();
             ResourceEntry e = new ResourceEntry();
-            e.type = be.getResource().fhirType();
-            e.id = be.getResource().getId();
-            e.json = new org.hl7.fhir.r4b.formats.JsonParser().composeBytes(be.getResource());
-            e.xml = new org.hl7.fhir.r4b.formats.XmlParser().composeBytes(be.getResource());
+            e.type = r.fhirType();
+            e.id = r.getId();
+            e.json = () -> new org.hl7.fhir.r4b.formats.JsonParser().composeBytes(r);
+            e.xml = () -> new org.hl7.fhir.r4b.formats.XmlParser().composeBytes(r);
             e.conf = true;
-            if (be.getResource() instanceof org.hl7.fhir.r4b.model.CanonicalResource) {
-              e.canonical = ((org.hl7.fhir.r4b.model.CanonicalResource) be.getResource()).getUrl();
+            if (r instanceof org.hl7.fhir.r4b.model.CanonicalResource) {
+              e.canonical = ((org.hl7.fhir.r4b.model.CanonicalResource) r).getUrl();
               if (e.canonical.contains("/de-")) {
                 System.out.println("whoops!");
               }
             }
-            res.add(e);
+            batch.add(e);
           }
         }
+        writeResources(batch);
       }
     }
-    return null;
   }
 
-  private List<ResourceEntry> makeResourceList5(Map<String, byte[]> files, String version, List<ResourceEntry> res) throws FHIRFormatError, IOException {
-    for (String k : files.keySet()) {
+  private void makeResourceList5(ZipFile zip, List<String> names) throws Exception {
+    for (String k : names) {
       if (k.endsWith(".xml") && !k.contains("dataelements")) {
-        Bundle b = (Bundle) new org.hl7.fhir.r5.formats.XmlParser().parse(files.get(k));
+        Bundle b;
+        try (InputStream s = zip.getInputStream(zip.getEntry(k))) {
+          b = (Bundle) new org.hl7.fhir.r5.formats.XmlParser().parse(s);
+        }
+        List<ResourceEntry> batch = new ArrayList<ResourceEntry>();
         for (org.hl7.fhir.r5.model.Bundle.BundleEntryComponent be : b.getEntry()) {
           if (be.hasResource()) {
+            org.hl7.fhir.r5.model.Resource r = be.getResource();
             ResourceEntry e = new ResourceEntry();
-            e.type = be.getResource().fhirType();
-            e.id = be.getResource().getId();
-            e.json = new org.hl7.fhir.r5.formats.JsonParser().composeBytes(be.getResource());
-            e.xml = new org.hl7.fhir.r5.formats.XmlParser().composeBytes(be.getResource());
+            e.type = r.fhirType();
+            e.id = r.getId();
+            e.json = () -> new org.hl7.fhir.r5.formats.JsonParser().composeBytes(r);
+            e.xml = () -> new org.hl7.fhir.r5.formats.XmlParser().composeBytes(r);
             e.conf = true;
-            if (be.getResource() instanceof org.hl7.fhir.r5.model.CanonicalResource)
-              e.canonical = ((org.hl7.fhir.r5.model.CanonicalResource) be.getResource()).getUrl();
-            res.add(e);
+            if (r instanceof org.hl7.fhir.r5.model.CanonicalResource)
+              e.canonical = ((org.hl7.fhir.r5.model.CanonicalResource) r).getUrl();
+            batch.add(e);
           }
         }
+        writeResources(batch);
       }
     }
-    return null;
   }
 
-  private List<ResourceEntry> makeResourceList6(Map<String, byte[]> files, String version, List<ResourceEntry> res) throws FHIRFormatError, IOException {
-    for (String k : files.keySet()) {
+  private void makeResourceList6(ZipFile zip, List<String> names) throws Exception {
+    for (String k : names) {
       if (k.endsWith(".xml") && !k.contains("dataelements")) {
-        Bundle b = (Bundle) new org.hl7.fhir.r5.formats.XmlParser().parse(files.get(k));
+        Bundle b;
+        try (InputStream s = zip.getInputStream(zip.getEntry(k))) {
+          b = (Bundle) new org.hl7.fhir.r5.formats.XmlParser().parse(s);
+        }
+        List<ResourceEntry> batch = new ArrayList<ResourceEntry>();
         for (org.hl7.fhir.r5.model.Bundle.BundleEntryComponent be : b.getEntry()) {
           if (be.hasResource()) {
+            org.hl7.fhir.r5.model.Resource r = be.getResource();
             ResourceEntry e = new ResourceEntry();
-            e.type = be.getResource().fhirType();
-            e.id = be.getResource().getId();
-            e.json = new org.hl7.fhir.r5.formats.JsonParser().composeBytes(be.getResource());
-            e.xml = new org.hl7.fhir.r5.formats.XmlParser().composeBytes(be.getResource());
+            e.type = r.fhirType();
+            e.id = r.getId();
+            e.json = () -> new org.hl7.fhir.r5.formats.JsonParser().composeBytes(r);
+            e.xml = () -> new org.hl7.fhir.r5.formats.XmlParser().composeBytes(r);
             e.conf = true;
-            if (be.getResource() instanceof org.hl7.fhir.r5.model.CanonicalResource)
-              e.canonical = ((org.hl7.fhir.r5.model.CanonicalResource) be.getResource()).getUrl();
-            res.add(e);
+            if (r instanceof org.hl7.fhir.r5.model.CanonicalResource)
+              e.canonical = ((org.hl7.fhir.r5.model.CanonicalResource) r).getUrl();
+            batch.add(e);
           }
         }
+        writeResources(batch);
       }
     }
-    return null;
   }
-  
-  private List<ResourceEntry> makeResourceList3(Map<String, byte[]> files, String version, List<ResourceEntry> res) throws FHIRFormatError, IOException {
-    for (String k : files.keySet()) {
+
+  private void makeResourceList3(ZipFile zip, List<String> names) throws Exception {
+    for (String k : names) {
       if (k.endsWith(".xml")) {
-        org.hl7.fhir.dstu3.model.Bundle b = (org.hl7.fhir.dstu3.model.Bundle) new org.hl7.fhir.dstu3.formats.XmlParser().parse(files.get(k));
+        org.hl7.fhir.dstu3.model.Bundle b;
+        try (InputStream s = zip.getInputStream(zip.getEntry(k))) {
+          b = (org.hl7.fhir.dstu3.model.Bundle) new org.hl7.fhir.dstu3.formats.XmlParser().parse(s);
+        }
+        List<ResourceEntry> batch = new ArrayList<ResourceEntry>();
         for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent be : b.getEntry()) {
           if (be.hasResource()) {
+            org.hl7.fhir.dstu3.model.Resource r = be.getResource();
             ResourceEntry e = new ResourceEntry();
-            e.type = be.getResource().fhirType();
-            e.id = be.getResource().getId();
-            e.json = new org.hl7.fhir.dstu3.formats.JsonParser().composeBytes(be.getResource());
-            e.xml = new org.hl7.fhir.dstu3.formats.XmlParser().composeBytes(be.getResource());
+            e.type = r.fhirType();
+            e.id = r.getId();
+            e.json = () -> new org.hl7.fhir.dstu3.formats.JsonParser().composeBytes(r);
+            e.xml = () -> new org.hl7.fhir.dstu3.formats.XmlParser().composeBytes(r);
             e.conf = true;
-            if (be.getResource() instanceof org.hl7.fhir.dstu3.model.MetadataResource)
-              e.canonical = ((org.hl7.fhir.dstu3.model.MetadataResource) be.getResource()).getUrl();
-            res.add(e);
+            if (r instanceof org.hl7.fhir.dstu3.model.MetadataResource)
+              e.canonical = ((org.hl7.fhir.dstu3.model.MetadataResource) r).getUrl();
+            batch.add(e);
           }
         }
+        writeResources(batch);
       }
     }
-    return null;
   }
 
-  private List<ResourceEntry> makeResourceList14(Map<String, byte[]> files, String version, List<ResourceEntry> res) throws FHIRFormatError, IOException {
-    for (String k : files.keySet()) {
+  private void makeResourceList14(ZipFile zip, List<String> names) throws Exception {
+    for (String k : names) {
       if (k.endsWith(".xml")) {
-        org.hl7.fhir.dstu2016may.model.Bundle b = (org.hl7.fhir.dstu2016may.model.Bundle) new org.hl7.fhir.dstu2016may.formats.XmlParser().parse(files.get(k));
+        org.hl7.fhir.dstu2016may.model.Bundle b;
+        try (InputStream s = zip.getInputStream(zip.getEntry(k))) {
+          b = (org.hl7.fhir.dstu2016may.model.Bundle) new org.hl7.fhir.dstu2016may.formats.XmlParser().parse(s);
+        }
+        List<ResourceEntry> batch = new ArrayList<ResourceEntry>();
         for (org.hl7.fhir.dstu2016may.model.Bundle.BundleEntryComponent be : b.getEntry()) {
           if (be.hasResource()) {
+            org.hl7.fhir.dstu2016may.model.Resource r = be.getResource();
             ResourceEntry e = new ResourceEntry();
-            e.type = be.getResource().fhirType();
-            e.id = be.getResource().getId();
-            e.json = new org.hl7.fhir.dstu2016may.formats.JsonParser().composeBytes(be.getResource());
-            e.xml = new org.hl7.fhir.dstu2016may.formats.XmlParser().composeBytes(be.getResource());
+            e.type = r.fhirType();
+            e.id = r.getId();
+            e.json = () -> new org.hl7.fhir.dstu2016may.formats.JsonParser().composeBytes(r);
+            e.xml = () -> new org.hl7.fhir.dstu2016may.formats.XmlParser().composeBytes(r);
             e.conf = true;
-            if (be.getResource() instanceof org.hl7.fhir.dstu2016may.model.ValueSet)
-              e.canonical = ((org.hl7.fhir.dstu2016may.model.ValueSet) be.getResource()).getUrl();
-            if (be.getResource() instanceof org.hl7.fhir.dstu2016may.model.StructureDefinition)
-              e.canonical = ((org.hl7.fhir.dstu2016may.model.StructureDefinition) be.getResource()).getUrl();
-            if (be.getResource() instanceof org.hl7.fhir.dstu2016may.model.ConceptMap)
-              e.canonical = ((org.hl7.fhir.dstu2016may.model.ConceptMap) be.getResource()).getUrl();
-            if (be.getResource() instanceof org.hl7.fhir.dstu2016may.model.CodeSystem)
-              e.canonical = ((org.hl7.fhir.dstu2016may.model.CodeSystem) be.getResource()).getUrl();
-            res.add(e);
+            if (r instanceof org.hl7.fhir.dstu2016may.model.ValueSet)
+              e.canonical = ((org.hl7.fhir.dstu2016may.model.ValueSet) r).getUrl();
+            if (r instanceof org.hl7.fhir.dstu2016may.model.StructureDefinition)
+              e.canonical = ((org.hl7.fhir.dstu2016may.model.StructureDefinition) r).getUrl();
+            if (r instanceof org.hl7.fhir.dstu2016may.model.ConceptMap)
+              e.canonical = ((org.hl7.fhir.dstu2016may.model.ConceptMap) r).getUrl();
+            if (r instanceof org.hl7.fhir.dstu2016may.model.CodeSystem)
+              e.canonical = ((org.hl7.fhir.dstu2016may.model.CodeSystem) r).getUrl();
+            batch.add(e);
           }
         }
+        writeResources(batch);
       }
     }
-    return null;
   }
 
-  private List<ResourceEntry> makeResourceList10(Map<String, byte[]> files, String version, List<ResourceEntry> res) throws FHIRFormatError, IOException {
-    for (String k : files.keySet()) {
+  private void makeResourceList10(ZipFile zip, List<String> names) throws Exception {
+    for (String k : names) {
       if (k.endsWith(".xml")) {
-        org.hl7.fhir.dstu2.model.Resource r = new org.hl7.fhir.dstu2.formats.XmlParser().parse(files.get(k));
+        org.hl7.fhir.dstu2.model.Resource r;
+        try (InputStream s = zip.getInputStream(zip.getEntry(k))) {
+          r = new org.hl7.fhir.dstu2.formats.XmlParser().parse(s);
+        }
+        List<ResourceEntry> batch = new ArrayList<ResourceEntry>();
         if (r instanceof StructureDefinition) {
           ResourceEntry e = new ResourceEntry();
           e.type = r.fhirType();
           e.id = r.getId();
-          e.json = new org.hl7.fhir.dstu2.formats.JsonParser().composeBytes(r);
-          e.xml = new org.hl7.fhir.dstu2.formats.XmlParser().composeBytes(r);
+          e.json = () -> new org.hl7.fhir.dstu2.formats.JsonParser().composeBytes(r);
+          e.xml = () -> new org.hl7.fhir.dstu2.formats.XmlParser().composeBytes(r);
           e.conf = true;
           if (r instanceof org.hl7.fhir.dstu2.model.StructureDefinition)
             e.canonical = ((org.hl7.fhir.dstu2.model.StructureDefinition) r).getUrl();
-          res.add(e);
+          batch.add(e);
         } else {
           org.hl7.fhir.dstu2.model.Bundle b = (org.hl7.fhir.dstu2.model.Bundle) r;
           for (org.hl7.fhir.dstu2.model.Bundle.BundleEntryComponent be : b.getEntry()) {
             if (be.hasResource()) {
+              org.hl7.fhir.dstu2.model.Resource br = be.getResource();
               ResourceEntry e = new ResourceEntry();
-              e.type = be.getResource().fhirType();
-              e.id = be.getResource().getId();
-              e.json = new org.hl7.fhir.dstu2.formats.JsonParser().composeBytes(be.getResource());
+              e.type = br.fhirType();
+              e.id = br.getId();
+              e.json = () -> new org.hl7.fhir.dstu2.formats.JsonParser().composeBytes(br);
               e.conf = true;
-              if (be.getResource() instanceof org.hl7.fhir.dstu2.model.ValueSet)
-                e.canonical = ((org.hl7.fhir.dstu2.model.ValueSet) be.getResource()).getUrl();
-              if (be.getResource() instanceof org.hl7.fhir.dstu2.model.StructureDefinition)
-                e.canonical = ((org.hl7.fhir.dstu2.model.StructureDefinition) be.getResource()).getUrl();
-              if (be.getResource() instanceof org.hl7.fhir.dstu2.model.ConceptMap)
-                e.canonical = ((org.hl7.fhir.dstu2.model.ConceptMap) be.getResource()).getUrl();
-              res.add(e);
+              if (br instanceof org.hl7.fhir.dstu2.model.ValueSet)
+                e.canonical = ((org.hl7.fhir.dstu2.model.ValueSet) br).getUrl();
+              if (br instanceof org.hl7.fhir.dstu2.model.StructureDefinition)
+                e.canonical = ((org.hl7.fhir.dstu2.model.StructureDefinition) br).getUrl();
+              if (br instanceof org.hl7.fhir.dstu2.model.ConceptMap)
+                e.canonical = ((org.hl7.fhir.dstu2.model.ConceptMap) br).getUrl();
+              batch.add(e);
             }
           }
         }
+        writeResources(batch);
       }
     }
-    return null;
   }
 
   private boolean isResource(byte[] b) {
@@ -548,32 +641,17 @@ public class SpecNPMPackageGenerator {
     return ini.getStringProperty("FHIR", "version");
   }
 
-  private Map<String, byte[]> loadZip(InputStream stream) throws IOException {
-    Map<String, byte[]> res = new HashMap<String, byte[]>();
-    ZipInputStream zip = new ZipInputStream(stream);
-    ZipEntry ze;
-    while ((ze = zip.getNextEntry()) != null) {
-      int size;
-      byte[] buffer = new byte[2048];
-
-      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-      BufferedOutputStream bos = new BufferedOutputStream(bytes, buffer.length);
-
-      while ((size = zip.read(buffer, 0, buffer.length)) != -1) {
-        bos.write(buffer, 0, size);
-      }
-      bos.flush();
-      bos.close();
-      res.put(ze.getName(), bytes.toByteArray());
-
-      zip.closeEntry();
+  private byte[] loadEntry(ZipFile zip, String name) throws IOException {
+    ZipEntry ze = zip.getEntry(name);
+    if (ze == null) {
+      return null;
+    }
+    try (InputStream s = zip.getInputStream(ze)) {
+      return FileUtilities.streamToBytes(s);
     }
-    zip.close();
-    return res;
   }
 
-  private FHIRVersion determineVersion(Map<String, byte[]> files) throws FHIRException {
-    byte[] b = files.get("version.info");
+  private FHIRVersion determineVersion(byte[] b) throws FHIRException {
     if (b == null) {
       throw new FHIRException("No version information available");
     }
@@ -0,0 +1,213 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.utilities.IniFile;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Tracks which source files feed which part of the build, and which generated files each part
+ * produced. A part is a build flag: a resource (its pages, profiles and examples), or "all" for
+ * sources that affect everything. Part names are lower case.
+ *
+ * Changes are found by comparing content hashes with the hashes recorded by the previous build
+ * (in temp/build.cache), so touching a file (git checkout, an editor saving without changes) doesn't
+ * cause a rebuild. A file is only hashed again when its size or date has changed. Files that were
+ * added or removed since the last build also mark their part as changed, and if a part has no
+ * sources left, everything is rebuilt.
+ *
+ * The generated files are recorded as they are registered with the link checker, against the part
+ * being built on that thread (see building()). A part is also rebuilt when one of the files it
+ * produced last time is missing from the output
+ */
+public class BuildGraph {
+
+  private String rootDir;
+  private Map<String, Set<String>> sources = new TreeMap<String, Set<String>>(); // file (relative to root) -> parts
+  private Map<String, String> changes = new TreeMap<String, String>(); // part -> reason
+  private Map<String, String> previousOutputs = new HashMap<String, String>(); // output (relative to dst) -> part
+  private Map<String, String> outputs = new ConcurrentHashMap<String, String>(); // output (relative to dst) -> part
+  private ThreadLocal<String> building = new ThreadLocal<String>();
+
+  public BuildGraph(String rootDir) {
+    this.rootDir = new File(rootDir).getAbsolutePath();
+  }
+
+  /**
+   * record that the content of the file feeds the named part of the build
+   */
+  public void addSource(String part, File f) {
+    if (!f.isFile()) {
+      return;
+    }
+    String fn = relative(f);
+    if (!sources.containsKey(fn)) {
+      sources.put(fn, new TreeSet<String>());
+    }
+    sources.get(fn).add(part);
+  }
+
+  public Set<String> getParts() {
+    Set<String> res = new TreeSet<String>();
+    for (Set<String> parts : sources.values()) {
+      for (String part : parts) {
+        res.add(part.toLowerCase());
+      }
+    }
+    return res;
+  }
+
+  /**
+   * compare the sources and outputs with those recorded in the cache by the last build, and record
+   * the current state of the sources in next for the next build (neither is saved)
+   *
+   * @param dstDir the output folder
+   * @return the parts that have changed, with a description of the (first) change
+   */
+  public Map<String, String> findChanges(IniFile cache, IniFile next, String dstDir) throws IOException {
+    changes.clear();
+    Set<String> previous = new HashSet<String>();
+    String[] names = cache.getPropertyNames("sources");
+    if (names != null) {
+      for (String n : names) {
+        previous.add(n);
+      }
+    }
+    Map<String, String> hashes = new HashMap<String, String>();
+    for (String fn : sources.keySet()) {
+      String part = String.join(",", sources.get(fn));
+      File f = new File(rootDir, fn);
+      String stamp = Long.toString(f.length())+":"+Long.toString(f.lastModified());
+      String hash = cache.getStringProperty("hashes", fn);
+      if (hash == null || !stamp.equals(cache.getStringProperty("stamps", fn))) {
+        hash = Files.asByteSource(f).hash(Hashing.sha256()).toString();
+      }
+      hashes.put(fn, hash);
+      if (!previous.contains(fn)) {
+        change(part, f.getName()+" added");
+      } else if (!part.equals(cache.getStringProperty("sources", fn))) {
+        change(part, f.getName()+" moved");
+        change(cache.getStringProperty("sources", fn), f.getName()+" moved");
+      } else if (!hash.equals(cache.getStringProperty("hashes", fn))) {
+        change(part, f.getName()+" changed");
+      }
+      next.setStringProperty("sources", fn, part, null);
+      next.setStringProperty("hashes", fn, hash, null);
+      next.setStringProperty("stamps", fn, stamp, null);
+    }
+    for (String fn : previous) {
+      if (!sources.containsKey(fn)) {
+        change(cache.getStringProperty("sources", fn), new File(fn).getName()+" removed");
+      }
+    }
+    // a part that is gone altogether (e.g. a resource that was deleted) shows up in the other parts' outputs
+    Set<String> parts = getParts();
+    for (String part : new TreeSet<String>(changes.keySet())) {
+      if (!parts.contains(part)) {
+        change("all", part+" has no sources left");
+      }
+    }
+
+    previousOutputs.clear();
+    names = cache.getPropertyNames("outputs");
+    if (names != null) {
+      for (String n : names) {
+        String part = cache.getStringProperty("outputs", n);
+        previousOutputs.put(n, part);
+        if (!new File(dstDir, n).exists()) {
+          change(part, n+" missing from the output");
+        }
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * @return the number of files the part produced in the last build (0 if not known)
+   */
+  public int getOutputCount(String part) {
+    int res = 0;
+    for (String p : previousOutputs.values()) {
+      if (p.equals(part)) {
+        res++;
+      }
+    }
+    return res;
+  }
+
+  /**
+   * the files registered on this thread (until building(null)) are produced by the part
+   */
+  public void building(String part) {
+    building.set(part == null ? null : part.toLowerCase());
+  }
+
+  /**
+   * record that a file was generated (if a part is being built on this thread)
+   *
+   * @param filename the file, relative to the output folder
+   */
+  public void addOutput(String filename) {
+    String part = building.get();
+    if (part != null) {
+      while (filename.startsWith("/") || filename.startsWith(File.separator)) {
+        filename = filename.substring(1);
+      }
+      outputs.put(filename.replace(File.separatorChar, '/'), part);
+    }
+  }
+
+  /**
+   * record the outputs in next, and save it. The outputs of the parts that weren't built this time are
+   * carried over from the last build
+   *
+   * @param built the parts that were built, or null if everything was
+   */
+  public void saveOutputs(IniFile next, Set<String> built) {
+    Map<String, String> all = new TreeMap<String, String>();
+    if (built != null) {
+      for (String fn : previousOutputs.keySet()) {
+        if (!built.contains(previousOutputs.get(fn))) {
+          all.put(fn, previousOutputs.get(fn));
+        }
+      }
+    }
+    all.putAll(outputs);
+    for (String fn : all.keySet()) {
+      next.setStringProperty("outputs", fn, all.get(fn), null);
+    }
+    next.save();
+  }
+
+  private void change(String parts, String reason) {
+    if (parts != null) {
+      for (String part : parts.split(",")) {
+        part = part.toLowerCase();
+        if (!changes.containsKey(part)) {
+          changes.put(part, reason);
+        }
+      }
+    }
+  }
+
+  private String relative(File f) {
+    String path = f.getAbsolutePath();
+    if (path.startsWith(rootDir)) {
+      path = path.substring(rootDir.length());
+      if (path.startsWith(File.separator)) {
+        path = path.substring(1);
+      }
+    }
+    return path.replace(File.separatorChar, '/');
+  }
+}
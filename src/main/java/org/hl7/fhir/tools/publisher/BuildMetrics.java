@@ -0,0 +1,165 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hl7.fhir.utilities.FileUtilities;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Records wall time, CPU time, allocated bytes and the heap high-water mark for each phase of the
+ * build, and writes them as json (build-metrics.json, next to qa.html) so that builds can be compared.
+ *
+ * Phases are started and ended on the main build thread, and can be nested. CPU time is for the
+ * whole process. Allocated bytes are for the main thread, plus whatever the BuildScheduler worker
+ * threads allocated while the phase was running
+ */
+public class BuildMetrics {
+
+  private static final AtomicLong workerAllocations = new AtomicLong();
+
+  public class Phase {
+    private String name;
+    private Phase parent;
+    private long start;
+    private long cpuStart;
+    private long allocStart;
+    private long wall;
+    private long cpu;
+    private long allocated;
+    private long heapPeak;
+    private long childHeapPeak;
+    private long sampledHeapPeak;
+    private boolean ended;
+
+    private Phase(String name, Phase parent) {
+      this.name = name;
+      this.parent = parent;
+      // the pool peaks are shared, so keep what the open phases have seen so far before resetting them
+      long peak = heapPeak();
+      for (Phase p : open) {
+        p.sampledHeapPeak = Math.max(p.sampledHeapPeak, peak);
+      }
+      resetHeapPeak();
+      start = System.currentTimeMillis();
+      cpuStart = processCpuTime();
+      allocStart = allocatedBytes();
+    }
+
+    public String getName() {
+      return parent == null ? name : parent.getName()+"/"+name;
+    }
+
+    public void end() {
+      if (ended) {
+        return;
+      }
+      ended = true;
+      // anything started inside this phase and not ended has ended now
+      while (open.contains(this) && open.getLast() != this) {
+        open.getLast().end();
+      }
+      open.remove(this);
+      wall = System.currentTimeMillis() - start;
+      cpu = (processCpuTime() - cpuStart) / 1000000;
+      allocated = allocatedBytes() - allocStart;
+      heapPeak = Math.max(heapPeak(), Math.max(childHeapPeak, sampledHeapPeak));
+      if (parent != null) {
+        parent.childHeapPeak = Math.max(parent.childHeapPeak, heapPeak);
+      }
+    }
+  }
+
+  private List<Phase> phases = new ArrayList<Phase>();
+  private LinkedList<Phase> open = new LinkedList<Phase>();
+
+  public Phase start(String name) {
+    Phase p = new Phase(name, open.isEmpty() ? null : open.getLast());
+    phases.add(p);
+    open.add(p);
+    return p;
+  }
+
+  /**
+   * called by the build scheduler when a task has finished on a worker thread
+   */
+  public static void addWorkerAllocation(long bytes) {
+    workerAllocations.addAndGet(bytes);
+  }
+
+  /**
+   * @return the bytes allocated by the current thread so far, or 0 if the JVM can't tell
+   */
+  public static long threadAllocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+      if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+        return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return 0;
+  }
+
+  private static long allocatedBytes() {
+    return threadAllocatedBytes() + workerAllocations.get();
+  }
+
+  private static long processCpuTime() {
+    java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+    if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+    }
+    return 0;
+  }
+
+  private static void resetHeapPeak() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  private static long heapPeak() {
+    long res = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+        res = res + pool.getPeakUsage().getUsed();
+      }
+    }
+    return res;
+  }
+
+  public void save(String filename, String version, String buildId, int threads) throws IOException {
+    while (!open.isEmpty()) {
+      open.getFirst().end();
+    }
+    JsonObject json = new JsonObject();
+    json.addProperty("version", version);
+    json.addProperty("build", buildId);
+    json.addProperty("threads", threads);
+    json.addProperty("maxHeap", Runtime.getRuntime().maxMemory());
+    JsonArray list = new JsonArray();
+    json.add("phases", list);
+    for (Phase p : phases) {
+      JsonObject o = new JsonObject();
+      list.add(o);
+      o.addProperty("name", p.getName());
+      o.addProperty("wallMs", p.wall);
+      o.addProperty("cpuMs", p.cpu);
+      o.addProperty("allocatedBytes", p.allocated);
+      o.addProperty("heapPeakBytes", p.heapPeak);
+    }
+    FileUtilities.stringToFile(new GsonBuilder().setPrettyPrinting().create().toJson(json), filename);
+  }
+}
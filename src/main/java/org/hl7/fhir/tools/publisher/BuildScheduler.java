@@ -0,0 +1,299 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a graph of build tasks. Each task names the tasks it depends on, and the shared
+ * structures (locks) it writes to. Tasks that share a lock never run at the same time.
+ *
+ * With 1 thread (the default) tasks run on the calling thread in the order they were
+ * added (adjusted only where a dependency was added later), which is the same order
+ * the publisher has always used - use this for debugging
+ *
+ * All the schedulers share one pool of worker threads. A scheduler that is executed from
+ * inside a task (i.e. on a worker thread) runs its tasks on that thread, in order, rather
+ * than waiting for the pool that it is already using
+ */
+public class BuildScheduler {
+
+  private static final Comparator<BuildTask> BY_INDEX = (a, b) -> Integer.compare(a.index, b.index);
+  private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> false);
+  private static ThreadPoolExecutor pool;
+
+  public interface BuildAction {
+    void execute() throws Exception;
+  }
+
+  public class BuildTask {
+    private String name;
+    private BuildAction action;
+    private int index;
+    private List<BuildTask> dependencies = new ArrayList<>();
+    private List<BuildTask> dependents = new ArrayList<>();
+    private Set<String> locks = new TreeSet<>();
+    private int waiting;
+
+    private BuildTask(String name, BuildAction action, int index) {
+      this.name = name;
+      this.action = action;
+      this.index = index;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public BuildTask dependsOn(BuildTask... tasks) {
+      for (BuildTask t : tasks) {
+        if (t != null) {
+          dependencies.add(t);
+        }
+      }
+      return this;
+    }
+
+    public BuildTask dependsOn(Collection<BuildTask> tasks) {
+      for (BuildTask t : tasks) {
+        dependsOn(t);
+      }
+      return this;
+    }
+
+    public BuildTask locks(String... keys) {
+      for (String k : keys) {
+        locks.add(k);
+      }
+      return this;
+    }
+
+    private void run() throws Exception {
+      List<ReentrantLock> held = new ArrayList<>();
+      try {
+        // locks are a TreeSet, so always taken in the same order
+        for (String k : locks) {
+          ReentrantLock l = lockFor(k);
+          l.lock();
+          held.add(l);
+        }
+        action.execute();
+      } finally {
+        for (ReentrantLock l : held) {
+          l.unlock();
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private int threads;
+  private List<BuildTask> tasks = new ArrayList<>();
+  private Map<String, ReentrantLock> lockMap = new HashMap<>();
+
+  public BuildScheduler(int threads) {
+    this.threads = threads < 1 ? 1 : threads;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @return true if the tasks will run one at a time on the calling thread
+   */
+  public boolean isSerial() {
+    return threads == 1 || WORKER.get();
+  }
+
+  public BuildTask task(String name, BuildAction action) {
+    BuildTask t = new BuildTask(name, action, tasks.size());
+    tasks.add(t);
+    return t;
+  }
+
+  public List<BuildTask> getTasks() {
+    return tasks;
+  }
+
+  /**
+   * Execute all the tasks that have been added, and then clear the list
+   *
+   * @throws Exception the first exception thrown by any task. In parallel mode,
+   *   no new tasks are started once a task has failed, and the tasks already running
+   *   are allowed to finish
+   */
+  public void execute() throws Exception {
+    List<BuildTask> order = sort();
+    try {
+      if (isSerial()) {
+        for (BuildTask t : order) {
+          t.run();
+        }
+      } else {
+        executeParallel(order);
+      }
+    } finally {
+      tasks.clear();
+    }
+  }
+
+  private void executeParallel(List<BuildTask> order) throws Exception {
+    CompletionService<BuildTask> cs = new ExecutorCompletionService<>(pool(threads));
+    PriorityQueue<BuildTask> ready = new PriorityQueue<>(BY_INDEX);
+    for (BuildTask t : order) {
+      if (t.waiting == 0) {
+        ready.add(t);
+      }
+    }
+    int running = 0;
+    Throwable failure = null;
+    while (running > 0 || (failure == null && !ready.isEmpty())) {
+      // the pool may be bigger than this scheduler, so don't run more than threads at once
+      while (failure == null && running < threads && !ready.isEmpty()) {
+        submit(cs, ready.poll());
+        running++;
+      }
+      Future<BuildTask> f = cs.take();
+      running--;
+      try {
+        // dependents are released in task order
+        for (BuildTask d : f.get().dependents) {
+          d.waiting--;
+          if (d.waiting == 0) {
+            ready.add(d);
+          }
+        }
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure instanceof Exception) {
+      throw (Exception) failure;
+    } else if (failure != null) {
+      throw (Error) failure;
+    }
+  }
+
+  /**
+   * the pool is grown to the largest number of threads asked for, and kept for the rest of the build
+   */
+  private static synchronized ThreadPoolExecutor pool(int threads) {
+    if (pool == null) {
+      AtomicInteger count = new AtomicInteger();
+      pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+        Thread t = new Thread(() -> {
+          WORKER.set(true);
+          r.run();
+        }, "build-worker-"+count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+      pool.allowCoreThreadTimeOut(true);
+    } else if (pool.getMaximumPoolSize() < threads) {
+      pool.setMaximumPoolSize(threads);
+      pool.setCorePoolSize(threads);
+    }
+    return pool;
+  }
+
+  private void submit(CompletionService<BuildTask> cs, final BuildTask t) {
+    cs.submit(() -> {
+      long alloc = BuildMetrics.threadAllocatedBytes();
+      try {
+        t.run();
+      } catch (Exception e) {
+        throw new Exception("Error in build task "+t.getName()+": "+e.getMessage(), e);
+      } finally {
+        BuildMetrics.addWorkerAllocation(BuildMetrics.threadAllocatedBytes() - alloc);
+      }
+      return t;
+    });
+  }
+
+  /**
+   * stable topological sort: insertion order, except that a task is never placed before
+   * something it depends on
+   */
+  private List<BuildTask> sort() throws Exception {
+    Set<BuildTask> scheduled = Collections.newSetFromMap(new IdentityHashMap<BuildTask, Boolean>());
+    scheduled.addAll(tasks);
+    for (BuildTask t : tasks) {
+      t.dependents.clear();
+    }
+    for (BuildTask t : tasks) {
+      t.waiting = 0;
+      for (BuildTask d : t.dependencies) {
+        if (!scheduled.contains(d)) {
+          throw new Exception("Build task "+t.getName()+" depends on "+d.getName()+" which is not scheduled");
+        }
+        t.waiting++;
+        d.dependents.add(t);
+      }
+    }
+    // tasks are visited in index order, so each dependents list is already in task order
+
+    int[] remaining = new int[tasks.size()];
+    PriorityQueue<BuildTask> ready = new PriorityQueue<>(BY_INDEX);
+    for (BuildTask t : tasks) {
+      remaining[t.index] = t.waiting;
+      if (t.waiting == 0) {
+        ready.add(t);
+      }
+    }
+    List<BuildTask> result = new ArrayList<>(tasks.size());
+    while (!ready.isEmpty()) {
+      BuildTask next = ready.poll();
+      result.add(next);
+      for (BuildTask d : next.dependents) {
+        remaining[d.index]--;
+        if (remaining[d.index] == 0) {
+          ready.add(d);
+        }
+      }
+    }
+    if (result.size() < tasks.size()) {
+      List<BuildTask> cycle = new ArrayList<>();
+      for (BuildTask t : tasks) {
+        if (remaining[t.index] > 0) {
+          cycle.add(t);
+        }
+      }
+      throw new Exception("Circular dependency between build tasks: "+cycle.toString());
+    }
+    return result;
+  }
+
+  private synchronized ReentrantLock lockFor(String key) {
+    ReentrantLock l = lockMap.get(key);
+    if (l == null) {
+      l = new ReentrantLock();
+      lockMap.put(key, l);
+    }
+    return l;
+  }
+
+}
@@ -107,15 +107,18 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
   private String version;
   private List<String> resourceNames = new ArrayList<String>();
   private Definitions definitions;
-  private Map<String, Concept> snomedCodes = new HashMap<String, Concept>();
-  private Map<String, Concept> loincCodes = new HashMap<String, Concept>();
-  private boolean triedServer = false;
-  private boolean serverOk = false;
+  private ConceptSnapshot snomedCodes = new ConceptSnapshot(null);
+  private ConceptSnapshot loincCodes = new ConceptSnapshot(null);
+  private volatile boolean triedServer = false;
+  private volatile boolean serverOk = false;
   private List<String> loadedPackages = new ArrayList<>();
+  private volatile boolean frozen;
+  private CodeValidationCache validationCache;
 
   public BuildWorkerContext(Definitions definitions, String terminologyCachePath, ITerminologyClient client, CanonicalResourceManager<CodeSystem> codeSystems, CanonicalResourceManager<ValueSet> valueSets, CanonicalResourceManager<ConceptMap> maps, CanonicalResourceManager<StructureDefinition> profiles, CanonicalResourceManager<ImplementationGuide> guides, String folder) throws UcumException, ParserConfigurationException, SAXException, IOException, FHIRException {
     super(codeSystems, valueSets, maps, profiles, guides);
     initTxCache(terminologyCachePath);
+    validationCache = new CodeValidationCache(Utilities.path(terminologyCachePath, "code-validation.cache"));
     this.definitions = definitions;
     this.terminologyClientManager.setMasterClient(client, true);
     this.terminologyClientManager.setUsage("publication");
@@ -184,6 +187,27 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
       return getStructure(type.getWorkingCode());
   }
 
+  /**
+   * While the context is frozen, the definitions (profiles, value sets, etc) can't be changed, so it
+   * can be shared by validators running on several threads without any copying. Terminology results
+   * are still cached as they are found
+   */
+  public void setFrozen(boolean frozen) {
+    this.frozen = frozen;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  @Override
+  public void cacheResource(Resource r) throws FHIRException {
+    if (frozen) {
+      throw new FHIRException("Attempt to add "+r.fhirType()+"/"+r.getId()+" to the worker context while it is in use for validation");
+    }
+    super.cacheResource(r);
+  }
+
   @Override
   public IResourceValidator newValidator() {
     throw new Error("check this");
@@ -210,6 +234,20 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
       displays.add(d);
     }
 
+    public Concept(String display, String shortN, List<String> displays) {
+      this.display = display;
+      this.shortN = shortN;
+      this.displays = displays;
+    }
+
+    public String getDisplay() {
+      return display;
+    }
+
+    public List<String> getDisplays() {
+      return displays;
+    }
+
     public boolean has(String d) {
       if (display.equalsIgnoreCase(d))
         return true;
@@ -260,7 +298,7 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
   }
 
   private void queryForTerm(String code) {
-    ValidationResult vr = super.validateCode(new ValidationOptions(), "http://snomed.info/sct", null, code, null);
+    ValidationResult vr = validateCodeOnServer(new ValidationOptions(), "http://snomed.info/sct", null, code, null);
     if (vr.isOk()) {
       snomedCodes.put(code, new Concept(vr.getDisplay()));
     }
@@ -300,11 +338,25 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
 
   private ValidationResult verifyLoinc(String code, String display) throws Exception {
     if (!loincCodes.containsKey(code)) {
-      String d = lookupLoinc(code);
+      // codes the server doesn't know are remembered, so they aren't looked up again. A failed
+      // lookup isn't - the server may well answer next time
+      String key = CodeValidationCache.key("http://loinc.org", null, code, null, "lookup");
+      ValidationResult vr = validationCache.get(key, code);
+      if (vr != null)
+        return vr;
+      String d;
+      try {
+        d = lookupLoinc(code);
+      } catch (EFhirClientException e) {
+        return new ValidationResult(IssueSeverity.ERROR, "Error validating code \""+code+"\" in system \"http://loinc.org\": "+e.getMessage(), null);
+      }
       if (d != null)
         loincCodes.put(code, new Concept(d));
-      else
-        return new ValidationResult(IssueSeverity.ERROR, "Unknown Loinc Code "+code, null);
+      else {
+        vr = new ValidationResult(IssueSeverity.ERROR, "Unknown Loinc Code "+code, null);
+        validationCache.put(key, vr);
+        return vr;
+      }
     }
     Concept lc = loincCodes.get(code);
     if (display == null)
@@ -381,7 +433,17 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     } catch (Exception e) {
       return new ValidationResult(IssueSeverity.ERROR, "Error validating code \""+code+"\" in system \""+system+"\": "+e.getMessage(), null);
     }
-    return super.validateCode(options, system, version, code, display);
+    return validateCodeOnServer(options, system, version, code, display);
+  }
+
+  private ValidationResult validateCodeOnServer(ValidationOptions options, String system, String version, String code, String display) {
+    String key = CodeValidationCache.key(system, version, code, display, options == null ? null : options.toJson());
+    ValidationResult vr = validationCache.get(key, code);
+    if (vr == null) {
+      vr = super.validateCode(options, system, version, code, display);
+      validationCache.put(key, vr);
+    }
+    return vr;
   }
 
   
@@ -398,7 +460,14 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     }
   }
 
-  public void loadSnomed(String filename) throws Exception {
+  /**
+   * @param cacheFile a binary snapshot of filename, used instead of filename when it's up to date
+   */
+  public void loadSnomed(String filename, String cacheFile) throws Exception {
+    snomedCodes = new ConceptSnapshot(cacheFile);
+    if (snomedCodes.isCurrent(filename)) {
+      return;
+    }
     DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
     DocumentBuilder builder = factory.newDocumentBuilder();
     Document xdoc = builder.parse(new CSFileInputStream(filename));
@@ -422,7 +491,13 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     this.ucum = new UcumEssenceService(filename);
   }
   
+  /**
+   * write the snomed codes to filename (and the snapshot), if any were added during the build
+   */
   public void saveSnomed(String filename) throws Exception {
+    if (!snomedCodes.isChanged()) {
+      return;
+    }
     FileOutputStream file = new FileOutputStream(filename);
     XMLWriter xml = new XMLWriter(file, "UTF-8");
     xml.setPretty(true);
@@ -431,10 +506,7 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     xml.comment("the build tool builds these from the designated snomed server, when it can", true);
     xml.enter("snomed");
     
-    List<String> ids = new ArrayList<String>();
-    ids.addAll(snomedCodes.keySet());
-    Collections.sort(ids);
-    for (String s : ids) {
+    for (String s : snomedCodes.codes()) {
       xml.attribute("id", s);
       Concept c = snomedCodes.get(s);
       xml.attribute("display", c.display);
@@ -451,9 +523,17 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     }
     xml.exit("snomed");
     xml.end();
+    snomedCodes.save();
   }
   
-  public void loadLoinc(String filename) throws Exception {
+  /**
+   * @param cacheFile a binary snapshot of filename, used instead of filename when it's up to date
+   */
+  public void loadLoinc(String filename, String cacheFile) throws Exception {
+    loincCodes = new ConceptSnapshot(cacheFile);
+    if (loincCodes.isCurrent(filename)) {
+      return;
+    }
     DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
     DocumentBuilder builder = factory.newDocumentBuilder();
     Document xdoc = builder.parse(new CSFileInputStream(filename));
@@ -469,16 +549,19 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     }
   }
 
+  /**
+   * write the loinc codes to filename (and the snapshot), if any were added during the build
+   */
   public void saveLoinc(String filename) throws IOException {
+    if (!loincCodes.isChanged()) {
+      return;
+    }
     XMLWriter xml = new XMLWriter(new FileOutputStream(filename), "UTF-8");
     xml.setPretty(true);
     xml.setLineType(XMLWriter.LINE_UNIX);
     xml.start();
     xml.enter("loinc");
-    List<String> codes = new ArrayList<String>();
-    codes.addAll(loincCodes.keySet());
-    Collections.sort(codes);
-    for (String c : codes) {
+    for (String c : loincCodes.codes()) {
       xml.attribute("id", c);
       Concept cc = loincCodes.get(c);
       xml.attribute("short", cc.shortN);
@@ -488,6 +571,7 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     xml.exit("loinc");
     xml.end();
     xml.close();
+    loincCodes.save();
   }
   
   public boolean verifiesSystem(String system) {
@@ -605,6 +689,11 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
  
   public void saveCache() throws IOException {
     txCache.save();
+    validationCache.save();
+  }
+
+  public CodeValidationCache getValidationCache() {
+    return validationCache;
   }
 
 
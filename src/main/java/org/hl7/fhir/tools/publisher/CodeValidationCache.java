@@ -0,0 +1,177 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyServiceErrorClass;
+import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+
+/**
+ * Remembers the outcome of code validations that needed a terminology server, from one build to the
+ * next, so that builds (CI, offline) don't have to ask again. Both valid and invalid codes are kept;
+ * outcomes that weren't an answer from the server (no server, server error) aren't.
+ *
+ * The entries are keyed by system, version, code, display and options, and only hold the outcome:
+ * the severity and message, or the system, version and display for a valid code. The cache is read
+ * from a small binary file the first time it is used, and only written again if something was added.
+ * It is safe to use from several threads
+ */
+public class CodeValidationCache {
+
+  private static final int FORMAT = 1;
+
+  private class Entry {
+    private IssueSeverity severity;
+    private String message;
+    private String system;
+    private String version;
+    private String display;
+  }
+
+  private String filename;
+  private volatile Map<String, Entry> entries;
+  private volatile boolean changed;
+  private AtomicInteger hits = new AtomicInteger();
+  private AtomicInteger misses = new AtomicInteger();
+
+  public CodeValidationCache(String filename) {
+    this.filename = filename;
+  }
+
+  public static String key(String system, String version, String code, String display, String options) {
+    return system+"|"+(version == null ? "" : version)+"|"+code+"|"+(display == null ? "" : display)+"|"+(options == null ? "" : options);
+  }
+
+  /**
+   * @return the cached outcome, or null if there isn't one
+   */
+  public ValidationResult get(String key, String code) {
+    Entry e = entries().get(key);
+    if (e == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    if (e.severity != null) {
+      return new ValidationResult(e.severity, e.message, null);
+    } else {
+      return new ValidationResult(e.system, e.version, new ConceptDefinitionComponent().setCode(code).setDisplay(e.display), e.display);
+    }
+  }
+
+  /**
+   * record the outcome, if it's a definite answer: either the code is valid with no issues, or it
+   * isn't valid
+   */
+  public void put(String key, ValidationResult vr) {
+    if (vr.getErrorClass() != null && vr.getErrorClass() != TerminologyServiceErrorClass.UNKNOWN) {
+      return;
+    }
+    Entry e = new Entry();
+    if (!vr.isOk()) {
+      e.severity = vr.getSeverity();
+      e.message = vr.getMessage();
+    } else if (vr.getSeverity() == null || vr.getSeverity() == IssueSeverity.NULL) {
+      e.system = vr.getSystem();
+      e.version = vr.getVersion();
+      e.display = vr.getDisplay();
+    } else {
+      return;
+    }
+    entries().put(key, e);
+    changed = true;
+  }
+
+  private Map<String, Entry> entries() {
+    if (entries == null) {
+      load();
+    }
+    return entries;
+  }
+
+  private synchronized void load() {
+    if (entries == null) {
+      Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+      File f = new File(filename);
+      if (f.exists()) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+          if (in.readInt() == FORMAT) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+              String key = in.readUTF();
+              Entry e = new Entry();
+              int sev = in.readByte();
+              e.severity = sev < 0 ? null : IssueSeverity.values()[sev];
+              e.message = readString(in);
+              e.system = readString(in);
+              e.version = readString(in);
+              e.display = readString(in);
+              entries.put(key, e);
+            }
+          }
+        } catch (IOException e) {
+          // the cache will be rebuilt
+          System.out.println("Unable to read "+filename+": "+e.getMessage());
+          entries.clear();
+        }
+      }
+      this.entries = entries;
+    }
+  }
+
+  public synchronized void save() throws IOException {
+    if (!changed || entries == null) {
+      return;
+    }
+    Map<String, Entry> sorted = new TreeMap<String, Entry>(entries);
+    File tmp = new File(filename+".new");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(FORMAT);
+      out.writeInt(sorted.size());
+      for (String key : sorted.keySet()) {
+        Entry e = sorted.get(key);
+        out.writeUTF(key);
+        out.writeByte(e.severity == null ? -1 : e.severity.ordinal());
+        writeString(out, e.message);
+        writeString(out, e.system);
+        writeString(out, e.version);
+        writeString(out, e.display);
+      }
+    }
+    File f = new File(filename);
+    if (f.exists() && !f.delete()) {
+      throw new IOException("Unable to replace "+filename);
+    }
+    if (!tmp.renameTo(f)) {
+      throw new IOException("Unable to write "+filename);
+    }
+    changed = false;
+  }
+
+  private String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private void writeString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  public String summary() {
+    return "Code validation cache: "+(entries == null ? 0 : entries.size())+" entries, "+hits.get()+" hits, "+misses.get()+" misses";
+  }
+}
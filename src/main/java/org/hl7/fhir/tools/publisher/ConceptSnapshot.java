@@ -0,0 +1,269 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.tools.publisher.BuildWorkerContext.Concept;
+
+/**
+ * The snomed and loinc codes the build knows about (code, preferred display, other displays). The
+ * reviewed copy of these is xml (tools/tx), which is slow to parse and large in memory, so the
+ * build also keeps a binary snapshot in the temp folder, and uses that instead whenever it's at
+ * least as new as the xml.
+ *
+ * The snapshot is a sorted table of codes, with each string stored once, and an offset index so a
+ * code can be found by binary search in the file. The file is memory mapped the first time a code
+ * is looked up, and concepts are only turned into objects when they're asked for. New codes are
+ * kept in memory, and the snapshot (and xml) is only written again when there are new codes.
+ *
+ * Format (all ints big-endian): FORMAT, string count, code count, display list count; string offsets
+ * (string count + 1); for each code: code, display, short name (-1 = none), first entry in the display
+ * list; the display list (string indexes); then the strings (UTF-8)
+ */
+public class ConceptSnapshot {
+
+  private static final int FORMAT = 0x434E5301;
+  private static final int RECORD_SIZE = 4;
+
+  private String filename;
+  private volatile boolean useFile;
+  private volatile ByteBuffer buffer;
+  private int stringCount;
+  private int codeCount;
+  private int listCount;
+  private int offsetsStart;
+  private int recordsStart;
+  private int listStart;
+  private int stringsStart;
+  private Map<String, Concept> concepts = new ConcurrentHashMap<String, Concept>();
+  private volatile boolean changed;
+
+  /**
+   * @param filename where the snapshot is kept, or null to just hold the codes in memory
+   */
+  public ConceptSnapshot(String filename) {
+    this.filename = filename;
+  }
+
+  /**
+   * @param source the file the snapshot was made from
+   * @return true if the snapshot exists and is up to date with source (else the caller loads the source)
+   */
+  public boolean isCurrent(String source) {
+    File f = filename == null ? null : new File(filename);
+    useFile = f != null && f.exists() && f.lastModified() >= new File(source).lastModified();
+    return useFile;
+  }
+
+  public boolean isChanged() {
+    return changed;
+  }
+
+  public boolean containsKey(String code) {
+    return get(code) != null;
+  }
+
+  public Concept get(String code) {
+    Concept c = concepts.get(code);
+    if (c == null && useFile) {
+      int i = find(code);
+      if (i > -1) {
+        c = read(i);
+        Concept existing = concepts.putIfAbsent(code, c);
+        c = existing == null ? c : existing;
+      }
+    }
+    return c;
+  }
+
+  public void put(String code, Concept c) {
+    concepts.put(code, c);
+    changed = true;
+  }
+
+  /**
+   * @return all the codes, sorted
+   */
+  public Set<String> codes() {
+    Set<String> res = new TreeSet<String>(concepts.keySet());
+    if (useFile) {
+      ByteBuffer b = buffer();
+      for (int i = 0; i < codeCount; i++) {
+        res.add(string(b, b.getInt(record(i))));
+      }
+    }
+    return res;
+  }
+
+  /**
+   * write the snapshot, if there are new codes (the caller writes the xml first, so that the
+   * snapshot is the newer of the two)
+   */
+  public synchronized void save() throws IOException {
+    if (!changed || filename == null) {
+      return;
+    }
+    Map<String, Concept> all = new TreeMap<String, Concept>();
+    for (String code : codes()) {
+      all.put(code, get(code));
+    }
+    // strings are stored once each, however many concepts use them
+    List<String> strings = new ArrayList<String>();
+    Map<String, Integer> index = new HashMap<String, Integer>();
+    List<Integer> list = new ArrayList<Integer>();
+    int[] records = new int[all.size() * RECORD_SIZE];
+    int r = 0;
+    for (String code : all.keySet()) {
+      Concept c = all.get(code);
+      records[r++] = intern(code, strings, index);
+      records[r++] = intern(c.getDisplay(), strings, index);
+      records[r++] = intern(c.shortN, strings, index);
+      records[r++] = list.size();
+      for (String d : c.getDisplays()) {
+        list.add(intern(d, strings, index));
+      }
+    }
+    List<byte[]> bytes = new ArrayList<byte[]>();
+    for (String s : strings) {
+      bytes.add(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    File tmp = new File(filename+".new");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(FORMAT);
+      out.writeInt(strings.size());
+      out.writeInt(all.size());
+      out.writeInt(list.size());
+      int offset = 0;
+      for (byte[] b : bytes) {
+        out.writeInt(offset);
+        offset = offset + b.length;
+      }
+      out.writeInt(offset);
+      for (int i : records) {
+        out.writeInt(i);
+      }
+      for (int i : list) {
+        out.writeInt(i);
+      }
+      for (byte[] b : bytes) {
+        out.write(b);
+      }
+    }
+    // everything is in memory now, so the old file doesn't need to stay mapped
+    concepts.putAll(all);
+    useFile = false;
+    buffer = null;
+    try {
+      Files.move(tmp.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      // on some platforms, the file can't be replaced while it's still mapped. Next build will use the xml
+      System.out.println("Unable to replace "+filename+": "+e.getMessage());
+      tmp.delete();
+    }
+    changed = false;
+  }
+
+  private int intern(String s, List<String> strings, Map<String, Integer> index) {
+    if (s == null) {
+      return -1;
+    }
+    Integer i = index.get(s);
+    if (i == null) {
+      i = strings.size();
+      strings.add(s);
+      index.put(s, i);
+    }
+    return i;
+  }
+
+  private ByteBuffer buffer() {
+    ByteBuffer b = buffer;
+    if (b == null) {
+      synchronized (this) {
+        if (buffer == null) {
+          try (FileChannel fc = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ)) {
+            b = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+          } catch (IOException e) {
+            throw new Error("Unable to read "+filename+": "+e.getMessage(), e);
+          }
+          if (b.getInt(0) != FORMAT) {
+            throw new Error("The file "+filename+" is not a concept snapshot (delete it, and it will be rebuilt)");
+          }
+          stringCount = b.getInt(4);
+          codeCount = b.getInt(8);
+          listCount = b.getInt(12);
+          offsetsStart = 16;
+          recordsStart = offsetsStart + (stringCount + 1) * 4;
+          listStart = recordsStart + codeCount * RECORD_SIZE * 4;
+          stringsStart = listStart + listCount * 4;
+          buffer = b;
+        }
+        b = buffer;
+      }
+    }
+    return b;
+  }
+
+  private int record(int i) {
+    return recordsStart + i * RECORD_SIZE * 4;
+  }
+
+  private int find(String code) {
+    ByteBuffer b = buffer();
+    int lo = 0;
+    int hi = codeCount - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = string(b, b.getInt(record(mid))).compareTo(code);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private Concept read(int i) {
+    ByteBuffer b = buffer();
+    int rec = record(i);
+    int first = b.getInt(rec + 12);
+    int last = i == codeCount - 1 ? listCount : b.getInt(record(i + 1) + 12);
+    List<String> displays = new ArrayList<String>();
+    for (int j = first; j < last; j++) {
+      displays.add(string(b, b.getInt(listStart + j * 4)));
+    }
+    return new Concept(string(b, b.getInt(rec + 4)), string(b, b.getInt(rec + 8)), displays);
+  }
+
+  private String string(ByteBuffer b, int i) {
+    if (i < 0) {
+      return null;
+    }
+    int start = b.getInt(offsetsStart + i * 4);
+    int end = b.getInt(offsetsStart + (i + 1) * 4);
+    byte[] bytes = new byte[end - start];
+    b.get(stringsStart + start, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
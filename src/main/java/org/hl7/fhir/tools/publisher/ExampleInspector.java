@@ -16,6 +16,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -164,6 +165,43 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
 
   }
   
+  /**
+   * The outcome of validating a single example. These are produced independently (on any thread),
+   * and then reported one at a time in a stable order
+   */
+  public static class ExampleValidation {
+    private String name;
+    private List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
+    private long time;
+    private String timings;
+
+    public String getName() {
+      return name;
+    }
+
+    public List<ValidationMessage> getMessages() {
+      return messages;
+    }
+  }
+
+  /**
+   * An InstanceValidator keeps state while it validates, so each thread validating gets its own
+   * validator (and FHIRPath engine) over the shared worker context. Workers are reused once released.
+   * The definitions in the worker context aren't changed while validation is running (see
+   * BuildWorkerContext.setFrozen), so the validators all read the same profiles, value sets and
+   * expansions without copying them
+   */
+  private class Worker {
+    private InstanceValidator validator;
+    private FHIRPathEngine fpe;
+
+    private Worker() throws Exception {
+      validator = newValidator();
+      fpe = new FHIRPathEngine(context);
+      fpe.setHostServices(ExampleInspector.this);
+    }
+  }
+
   private static final boolean VALIDATE_CONFORMANCE_REFERENCES = true;
   private static final boolean VALIDATE_BY_PROFILE = true;
   private static final boolean VALIDATE_BY_SCHEMATRON = false;
@@ -195,19 +233,31 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
   }
 
   private XmlValidator xml;
-  private InstanceValidator validator;
+  private ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<Worker>();
   private int errorCount = 0;
   private int warningCount = 0;
   private int informationCount = 0;
 
   private org.everit.json.schema.Schema jschema;
-  private FHIRPathEngine fpe;
   private JsonObject jsonLdDefns;
 
   private FHIRVersion version;
   
   public void prepare() throws Exception {
-    validator = new InstanceValidator(context, hostServices, null, null, new ValidatorSettings());
+    workers.add(new Worker());
+  }
+
+  private Worker acquire() throws Exception {
+    Worker w = workers.poll();
+    return w == null ? new Worker() : w;
+  }
+
+  private void release(Worker w) {
+    workers.add(w);
+  }
+
+  private InstanceValidator newValidator() throws Exception {
+    InstanceValidator validator = new InstanceValidator(context, hostServices, null, null, new ValidatorSettings());
     validator.setSuppressLoincSnomedMessages(true);
     validator.setResourceIdRule(IdStatus.REQUIRED);
     validator.setBestPracticeWarningLevel(BestPracticeWarningLevel.Warning);
@@ -217,9 +267,7 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
     validator.getSettings().setDebug(false);
     validator.setForPublication(true);
     validator.setPolicyAdvisor(new BasePolicyAdvisorForFullValidation(ReferenceValidationPolicy.CHECK_TYPE_IF_EXISTS, new HashSet<>()));
-    
-    fpe = new FHIRPathEngine(context);
-    fpe.setHostServices(this);
+    return validator;
   }
 
   public void prepare2() throws Exception {
@@ -282,7 +330,7 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
   private Map<String, byte[]> loadTransforms() throws FileNotFoundException, IOException {
     Map<String, byte[]> res = new HashMap<String, byte[]>();
     for (String s : new File(xsltDir).list()) {
-      if (s.endsWith(".xslt"))
+      if (s.endsWith(".xslt") || s.endsWith(".xsl"))
         res.put(s, FileUtilities.fileToBytes(Utilities.path(xsltDir, s)));
     }
     return res;
@@ -314,13 +362,24 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
   }
   
   public void doValidate(String n, String rt, StructureDefinition profile) {
-    errorsInt.clear();
-    System.out.print(" validate: " + Utilities.padRight(n, ' ', 50));
+    report(check(n, profile));
+  }
 
+  /**
+   * Validate a single example. This is safe to call from several threads at once; nothing is
+   * reported or counted until the result is passed to report()
+   */
+  public ExampleValidation check(String n, StructureDefinition profile) {
+    ExampleValidation res = new ExampleValidation();
+    res.name = n;
+    Worker w = null;
     long t = System.currentTimeMillis();
-    validator.resetTimes();
     try {
-      Element e = validateLogical(Utilities.path(rootDir, n+".json"), profile, FhirFormat.JSON);
+      w = acquire();
+      w.validator.resetTimes();
+      // the examples have never been validated with allowXsiLocation (only the invariant test cases were)
+      w.validator.setAllowXsiLocation(false);
+      Element e = validateLogical(w, Utilities.path(rootDir, n+".json"), profile, FhirFormat.JSON, res.messages);
 //      org.w3c.dom.Element xe = validateXml(Utilities.path(rootDir, n+".xml"), profile == null ? null : profile.getId());
 
 //      validateLogical(Utilities.path(rootDir, n+".json"), profile, FhirFormat.JSON);
@@ -331,18 +390,33 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
 //        validateLogical(Utilities.path(rootDir, n+".ttl"), profile, FhirFormat.TURTLE);
 //      }
 
-      checkSearchParameters(e, e);
+      checkSearchParameters(w.fpe, e, e);
     } catch (Exception e) {
       e.printStackTrace();
-      errorsInt.add(new ValidationMessage(Source.InstanceValidator, IssueType.STRUCTURE, -1, -1, n, e.getMessage(), IssueSeverity.ERROR));
+      res.messages.add(new ValidationMessage(Source.InstanceValidator, IssueType.STRUCTURE, -1, -1, n, e.getMessage(), IssueSeverity.ERROR));
     }
+    res.time = System.currentTimeMillis() - t;
+    if (w != null) {
+      res.timings = w.validator.reportTimesShort();
+      release(w);
+    }
+    return res;
+  }
 
+  /**
+   * Log the outcome of validating an example, and add it to the totals and the build errors.
+   * Call this on one thread, in the order the results should be reported
+   */
+  public void report(ExampleValidation res) {
+    String n = res.name;
+    errorsInt.clear();
+    errorsInt.addAll(res.messages);
+    System.out.print(" validate: " + Utilities.padRight(n, ' ', 50));
     long size = fileSize(n);
-    t =  System.currentTimeMillis() - t;
     logger.log(": "+
-      Utilities.padLeft(Long.toString(t)+"ms ", ' ', 8)+
+      Utilities.padLeft(Long.toString(res.time)+"ms ", ' ', 8)+
       Utilities.padLeft(Utilities.describeSize(size), ' ', 7)+" (" +
-      validator.reportTimesShort()+")", LogMessageType.Process);
+      res.timings+")", LogMessageType.Process);
     for (ValidationMessage m : errorsInt) {
       if (!m.getLevel().equals(IssueSeverity.INFORMATION) && !m.getLevel().equals(IssueSeverity.WARNING)) {
         m.setMessage(n+":: "+m.getLocation()+": "+m.getMessage());
@@ -366,14 +440,16 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
     }
   }
 
-  private Element validateLogical(String f, StructureDefinition profile, FhirFormat fmt) throws Exception {
+  private Element validateLogical(Worker w, String f, StructureDefinition profile, FhirFormat fmt, List<ValidationMessage> errors) throws Exception {
     Element e = Manager.parseSingle(context, new CSFileInputStream(f), fmt);
-    new DefinitionsUsageTracker(definitions).updateUsage(e);
-    validator.validate(null, errorsInt, null, e);
+    synchronized (definitions) {
+      new DefinitionsUsageTracker(definitions).updateUsage(e);
+    }
+    w.validator.validate(null, errors, null, e);
     if (profile != null) {
       List<StructureDefinition> list = new ArrayList<StructureDefinition>();
       list.add(profile);
-      validator.validate(null, errorsInt, null, e, list);
+      w.validator.validate(null, errors, null, e, list);
     }
     return e;
   }
@@ -413,16 +489,16 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
   }
 
 
-  private void checkSearchParameters(Element xe, Element e) throws FHIRException {
+  private void checkSearchParameters(FHIRPathEngine fpe, Element xe, Element e) throws FHIRException {
     // test the base
-    testSearchParameters(xe, xe.getName(), false);
-    testSearchParameters(e);
+    testSearchParameters(fpe, xe, xe.getName(), false);
+    testSearchParameters(fpe, e);
     
     if (e.fhirType().equals("Bundle")) {
       for (Element be : e.getChildrenByName("entry")) {
         Element res = be.getNamedChild("resource");
         if (res != null)
-          testSearchParameters(res);
+          testSearchParameters(fpe, res);
       }
       // XPath is turned off. We don't really care about this; ust that the xpaths compile, which is otherwise checked
 //      // for ZXath, iterating the entries running xpaths takes too long. What we're going to do
@@ -445,13 +521,15 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
     }
   }
 
-  private void testSearchParameters(Element e) throws FHIRException {
+  private void testSearchParameters(FHIRPathEngine fpe, Element e) throws FHIRException {
     ResourceDefn r = definitions.getResources().get(e.fhirType());
     if (r != null) {
       for (SearchParameterDefn sp : r.getSearchParams().values()) {
         if (!Utilities.noString(sp.getExpression())) {
-          if (sp.getExpressionNode() == null) {
-            sp.setExpressionNode(fpe.parse(sp.getExpression()));
+          synchronized (sp) {
+            if (sp.getExpressionNode() == null) {
+              sp.setExpressionNode(fpe.parse(sp.getExpression()));
+            }
           }
           if (fpe.evaluate(e, sp.getExpressionNode()).size() > 0) {
             sp.setWorks(true);
@@ -461,7 +539,7 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
     }
   }
   
-  private void testSearchParameters(Element xe, String rn, boolean inBundle) throws FHIRException {
+  private void testSearchParameters(FHIRPathEngine fpe, Element xe, String rn, boolean inBundle) throws FHIRException {
     ResourceDefn r = definitions.getResources().get(rn);
     for (SearchParameterDefn sp : r.getSearchParams().values()) {
       if (!Utilities.noString(sp.getExpression())) {
@@ -681,44 +759,91 @@ public class ExampleInspector implements IValidatorResourceFetcher, IValidationP
   }
 
 
-  public boolean testInvariants(String srcDir, ResourceDefn rd, ZipGenerator zip, Set<String> invsTested) throws IOException {
+  private class InvariantTest {
+    private ResourceDefn rd;
+    private File file;
+    private FhirFormat fmt;
+    private String inv;
+    private Invariant con;
+    private List<ValidationMessage> errors = new ArrayList<>();
+  }
+
+  /**
+   * Validate any resource, using one of the pooled validators. This is safe to call from
+   * several threads at once. allowXsiLocation is set on the validator for each call, so it
+   * doesn't depend on what the validator was used for before
+   */
+  public void validate(List<ValidationMessage> errors, File f, FhirFormat fmt, boolean allowXsiLocation) throws Exception {
+    Worker w = acquire();
+    try {
+      w.validator.setAllowXsiLocation(allowXsiLocation);
+      try (FileInputStream s = new FileInputStream(f)) {
+        w.validator.validate(null, errors, s, fmt);
+      }
+    } finally {
+      release(w);
+    }
+  }
+
+  /**
+   * Run the invariant test cases for all the resources. The test cases are validated in parallel,
+   * and then the outcomes are recorded and reported in order
+   */
+  public boolean testInvariants(int threads, String srcDir, List<ResourceDefn> resources, ZipGenerator zip, Set<String> invsTested) throws Exception {
+    List<InvariantTest> tests = new ArrayList<>();
+    for (ResourceDefn rd : resources) {
+      File testsDir = new File(Utilities.path(srcDir, rd.getName().toLowerCase(), "invariant-tests"));
+      if (testsDir.exists()) {
+        findInvariantTests(rd, testsDir, zip, invsTested, tests);
+      }
+    }
+    BuildScheduler sched = new BuildScheduler(threads);
+    for (InvariantTest test : tests) {
+      if (test.con != null)
+        sched.task("invariant-test:"+test.rd.getName()+"/"+test.file.getName(), () -> validate(test.errors, test.file, test.fmt, true));
+    }
+    sched.execute();
     boolean result = true;
-    File testsDir = new File(Utilities.path(srcDir, rd.getName().toLowerCase(), "invariant-tests"));
-    if (testsDir.exists()) {
-      result = testInvariants(rd, result, testsDir, zip, invsTested);
+    for (InvariantTest test : tests) {
+      result = testInvariant(test) && result;
     }
     return result;
   }
 
-  private boolean testInvariants(ResourceDefn rd, boolean result, File testsDir, ZipGenerator zip, Set<String> invsTested) throws IOException {
+  private void findInvariantTests(ResourceDefn rd, File testsDir, ZipGenerator zip, Set<String> invsTested, List<InvariantTest> tests) throws IOException {
     System.out.print(".");
     for (File f : testsDir.listFiles()) {
       zip.addFileName(Utilities.path(rd.getName(), f.getName()), f.getAbsolutePath(), false);
       if (f.getName().endsWith(".json")) {
         invsTested.add(f.getName().substring(0, f.getName().indexOf(".")));
-        result = testInvariant(rd, f, FhirFormat.JSON) && result;
+        tests.add(invariantTest(rd, f, FhirFormat.JSON));
       }
       if (f.getName().endsWith(".xml")) {
         invsTested.add(f.getName().substring(0, f.getName().indexOf(".")));
-        result = testInvariant(rd, f, FhirFormat.XML) && result;
+        tests.add(invariantTest(rd, f, FhirFormat.XML));
       }
     }
-    return result;
   }
 
-
-  private boolean testInvariant(ResourceDefn rd, File f, FhirFormat fmt) throws FHIRException, FileNotFoundException {
-    String inv = f.getName();
-    inv = inv.substring(0, inv.indexOf("."));
-    Invariant con = rd.findInvariant(inv);
-    if (con == null) {
-      con = findInvInAnyDefinition(inv);
+  private InvariantTest invariantTest(ResourceDefn rd, File f, FhirFormat fmt) {
+    InvariantTest test = new InvariantTest();
+    test.rd = rd;
+    test.file = f;
+    test.fmt = fmt;
+    test.inv = f.getName().substring(0, f.getName().indexOf("."));
+    test.con = rd.findInvariant(test.inv);
+    if (test.con == null) {
+      test.con = findInvInAnyDefinition(test.inv);
     }
+    return test;
+  }
 
+  private boolean testInvariant(InvariantTest test) {
+    File f = test.file;
+    String inv = test.inv;
+    Invariant con = test.con;
     if (con != null) {
-      List<ValidationMessage> errs = new ArrayList<>();
-      validator.setAllowXsiLocation(true);
-      validator.validate(null, errs, new FileInputStream(f), fmt);
+      List<ValidationMessage> errs = test.errors;
 
       boolean fail = false;
       for (ValidationMessage vm : errs) {
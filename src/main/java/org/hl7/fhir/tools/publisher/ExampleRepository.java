@@ -0,0 +1,74 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r5.model.Resource;
+
+/**
+ * Holds the canonical resource (value set, code system etc) parsed from an example while the
+ * example is processed. processExample reads these files twice - once to fill in the version and
+ * narrative, and again to register the resource - so the second read is a copy of the first parse.
+ *
+ * A resource is only held until its example is done, so there are never more entries than examples
+ * being processed at once. Resources are handed out as copies, since the callers change them
+ */
+public class ExampleRepository {
+
+  private Map<String, Resource> resources = new HashMap<String, Resource>();
+  private AtomicInteger parsed = new AtomicInteger();
+  private AtomicInteger reused = new AtomicInteger();
+
+  /**
+   * @return a copy of the resource parsed from file, or null if it isn't held
+   */
+  public Resource getResource(String file) {
+    Resource res;
+    synchronized (resources) {
+      res = resources.get(key(file));
+    }
+    if (res == null) {
+      return null;
+    }
+    reused.incrementAndGet();
+    return res.copy();
+  }
+
+  /**
+   * @param res the resource as parsed from the file. Don't change it afterwards
+   */
+  public void seeResource(String file, Resource res) {
+    parsed.incrementAndGet();
+    synchronized (resources) {
+      resources.put(key(file), res);
+    }
+  }
+
+  /**
+   * the file has been written again, so what was parsed from it is out of date
+   */
+  public void changed(String file) {
+    synchronized (resources) {
+      resources.remove(key(file));
+    }
+  }
+
+  /**
+   * the example has been processed, and nothing will read the file again
+   */
+  public void done(String file) {
+    synchronized (resources) {
+      resources.remove(key(file));
+    }
+  }
+
+  private String key(String path) {
+    return new File(path).getAbsolutePath();
+  }
+
+  public String summary() {
+    return "Example resources: "+parsed.get()+" parsed, "+reused.get()+" reused";
+  }
+}
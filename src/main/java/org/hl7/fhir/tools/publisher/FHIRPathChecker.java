@@ -0,0 +1,155 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r5.fhirpath.ExpressionNode;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.IHostApplicationServices;
+import org.hl7.fhir.r5.fhirpath.TypeDetails;
+import org.hl7.fhir.r5.model.ElementDefinition;
+
+/**
+ * Checks FHIRPath expressions (invariants, search parameters, and the expressions collected while
+ * generating the profiles) against the definitions.
+ *
+ * Each expression is compiled once per build, though the same expression is used in many places,
+ * and by more than one of the checks. The compiled expressions are shared; each thread has its own
+ * engine. Checks are added, run together, and then the results are read in the order the checks
+ * were added, so what gets reported doesn't depend on the number of threads
+ */
+public class FHIRPathChecker {
+
+  private static final int BATCH_SIZE = 50;
+
+  public class Check {
+    private String resourceType;
+    private String context;
+    private List<String> contexts;
+    private String expression;
+    private TypeDetails types;
+    private Set<ElementDefinition> elements = new HashSet<ElementDefinition>();
+    private Exception error;
+
+    public String getExpression() {
+      return expression;
+    }
+
+    public TypeDetails getTypes() {
+      return types;
+    }
+
+    /**
+     * @return the elements that the expression refers to
+     */
+    public Set<ElementDefinition> getElements() {
+      return elements;
+    }
+
+    /**
+     * @return the reason the expression didn't compile or check, or null if it's ok
+     */
+    public Exception getError() {
+      return error;
+    }
+  }
+
+  private BuildWorkerContext context;
+  private Map<String, ExpressionNode> compiled = new ConcurrentHashMap<String, ExpressionNode>();
+  private AtomicInteger hits = new AtomicInteger();
+  private AtomicInteger misses = new AtomicInteger();
+  private List<Check> checks = new ArrayList<Check>();
+
+  public FHIRPathChecker(BuildWorkerContext context) {
+    this.context = context;
+  }
+
+  public Check add(String resourceType, String context, String expression) {
+    Check c = new Check();
+    c.resourceType = resourceType;
+    c.context = context;
+    c.expression = expression;
+    checks.add(c);
+    return c;
+  }
+
+  public Check add(String resourceType, List<String> contexts, String expression) {
+    Check c = new Check();
+    c.resourceType = resourceType;
+    c.contexts = contexts;
+    c.expression = expression;
+    checks.add(c);
+    return c;
+  }
+
+  /**
+   * run all the checks added since the last run
+   *
+   * @param hostServices the functions the host application provides, if any
+   */
+  public void run(int threads, IHostApplicationServices hostServices) throws Exception {
+    BuildScheduler sched = new BuildScheduler(threads);
+    Queue<FHIRPathEngine> engines = new ConcurrentLinkedQueue<FHIRPathEngine>();
+    for (int i = 0; i < checks.size(); i += BATCH_SIZE) {
+      List<Check> batch = checks.subList(i, Math.min(checks.size(), i + BATCH_SIZE));
+      sched.task("fhirpath:"+i, () -> {
+        FHIRPathEngine fpe = engines.poll();
+        if (fpe == null) {
+          fpe = new FHIRPathEngine(context);
+          fpe.setHostServices(hostServices);
+        }
+        try {
+          for (Check c : batch) {
+            check(fpe, c, hostServices != null);
+          }
+        } finally {
+          engines.add(fpe);
+        }
+      });
+    }
+    sched.execute();
+    checks = new ArrayList<Check>();
+  }
+
+  private void check(FHIRPathEngine fpe, Check c, boolean hosted) {
+    try {
+      ExpressionNode node = compile(fpe, c.expression, hosted);
+      // the engine annotates the expression with types as it goes
+      synchronized (node) {
+        if (c.contexts != null) {
+          c.types = fpe.check(null, "Resource", c.resourceType, c.contexts, node, c.elements);
+        } else {
+          c.types = fpe.check(null, "Resource", c.resourceType, c.context, node, c.elements);
+        }
+      }
+    } catch (Exception e) {
+      c.error = e;
+    }
+  }
+
+  private ExpressionNode compile(FHIRPathEngine fpe, String expression, boolean hosted) {
+    // the host application's functions are resolved when the expression is compiled
+    String key = (hosted ? "host:" : "")+expression;
+    ExpressionNode node = compiled.get(key);
+    if (node != null) {
+      hits.incrementAndGet();
+      return node;
+    }
+    misses.incrementAndGet();
+    node = fpe.parse(expression);
+    ExpressionNode existing = compiled.putIfAbsent(key, node);
+    return existing == null ? node : existing;
+  }
+
+  public String summary() {
+    int total = hits.get() + misses.get();
+    return "FHIRPath: "+compiled.size()+" expressions compiled, "+hits.get()+" of "+total+" checks used a compiled expression ("+(total == 0 ? 0 : (hits.get() * 100) / total)+"%)";
+  }
+}
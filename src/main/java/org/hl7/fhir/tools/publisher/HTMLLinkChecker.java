@@ -1,14 +1,14 @@
 package org.hl7.fhir.tools.publisher;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hl7.fhir.r5.model.Enumerations.FHIRVersion;
 import org.hl7.fhir.r5.model.StructureDefinition;
@@ -20,7 +20,6 @@ import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
 import org.hl7.fhir.utilities.validation.ValidationMessage.Source;
-import org.hl7.fhir.utilities.xhtml.XhtmlComposer;
 import org.hl7.fhir.utilities.xhtml.XhtmlDocument;
 import org.hl7.fhir.utilities.xhtml.XhtmlNode;
 import org.hl7.fhir.utilities.xhtml.XhtmlParser;
@@ -54,7 +53,7 @@ public class HTMLLinkChecker implements FileNotifier {
     private boolean include;
     private List<String> anchors = new ArrayList<String>();
     private boolean checked = false;
-    public byte[] bytes;
+    private List<ValidationMessage> messages = new ArrayList<ValidationMessage>(); // found while checking this page
 
     public Entry(String filename, String title, String type, boolean include) {
       super();
@@ -67,8 +66,13 @@ public class HTMLLinkChecker implements FileNotifier {
 
   private PageProcessor page;
   private List<Entry> entries = new ArrayList<HTMLLinkChecker.Entry>();
-  private List<String> externals = new ArrayList<String>();
+  private Map<String, Entry> index = new HashMap<String, Entry>(); // entries by lower case file name
+  private Set<String> externals = new HashSet<String>();
+  private AtomicInteger pageCount = new AtomicInteger();
+  private AtomicInteger linkCount = new AtomicInteger();
+  private int threads = 1;
   private List<ValidationMessage> issues;
+  private BuildGraph graph;
   private String webPath;
   private FHIRVersion version;
   private List<StructureDefinition> extensions = new ArrayList<>();
@@ -118,10 +122,12 @@ public class HTMLLinkChecker implements FileNotifier {
       filename = filename.substring(page.getFolders().dstDir.length());
 //    if (type == null)
 //      type = BIN_TYPE;
-    if (getEntryForFile(filename, "registerExternal") != null)
+    if (getEntryForFile(filename, "registerExternal", issues) != null)
       throw new Error("File "+filename+" already registered");
     else
-      entries.add(new Entry(filename, "--title--", BIN_TYPE, false));
+      addEntry(new Entry(filename, "--title--", BIN_TYPE, false));
+    if (graph != null)
+      graph.addOutput(filename);
   }
   
   public void registerFile(String filename, String title, String type, boolean include) {
@@ -131,10 +137,36 @@ public class HTMLLinkChecker implements FileNotifier {
       throw new Error("wrong path?");
     if (type == null)
       type = BIN_TYPE;
-    if (getEntryForFile(filename, "registerFile") != null)
+    if (getEntryForFile(filename, "registerFile", issues) != null)
       throw new Error("File "+filename+" already registered");
     else
-      entries.add(new Entry(filename, title, type, include));
+      addEntry(new Entry(filename, title, type, include));
+    if (graph != null)
+      graph.addOutput(filename);
+  }
+
+  private void addEntry(Entry e) {
+    entries.add(e);
+    index.put(e.filename.toLowerCase(), e);
+  }
+
+  public int getPageCount() {
+    return pageCount.get();
+  }
+
+  public int getLinkCount() {
+    return linkCount.get();
+  }
+
+  /**
+   * the files registered from now on are recorded in the graph, against the part being built
+   */
+  public void setBuildGraph(BuildGraph graph) {
+    this.graph = graph;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
   }
 
   public void produce() throws FileNotFoundException, Exception {
@@ -146,88 +178,74 @@ public class HTMLLinkChecker implements FileNotifier {
 
 
 
+  /**
+   * Each page is checked on its own (pages only read the registry while they are checked),
+   * so they can be checked on several threads. The messages for each page are kept with the
+   * page, and added to the issues in registration order once all the pages are done
+   */
   private void build() throws FileNotFoundException, Exception {
+    List<Entry> pages = new ArrayList<Entry>();
     for (Entry e : entries) {
-      if (XHTML_TYPE.equals(e.type)) {
-        if (!e.checked)
-          check(e);
-        if (e.bytes == null)
-          System.out.println("no content in "+e.filename);
-        else 
-        e.bytes = null;        
-      } else {
+      if (XHTML_TYPE.equals(e.type) && !e.checked) {
+        pages.add(e);
       }
     }
+    BuildScheduler sched = new BuildScheduler(threads);
+    for (Entry e : pages) {
+      sched.task("link-check:"+e.filename, () -> check(e));
+    }
+    sched.execute();
+    for (Entry e : pages) {
+      issues.addAll(e.messages);
+      e.messages.clear();
+    }
   }
 
   private void check(Entry e) throws Exception {
-    if (new File(Utilities.path(page.getFolders().dstDir, e.filename)).exists()) { 
+    String fn = Utilities.path(page.getFolders().dstDir, e.filename);
+    if (new File(fn).exists()) { 
       e.checked = true;
-      checkNormativeStatus(e.filename);
+      pageCount.incrementAndGet();
+      String src;
+      try {
+        src = FileUtilities.fileToString(fn);
+      } catch (Exception e1) {
+        throw new Exception("Error parsing "+fn, e1);
+      }
+      checkNormativeStatus(e, src);
+      if (src.length() == 0) {
+        throw new Exception("Error parsing "+fn, new Exception("File is empty"));
+      }
+      // parsing checks the page is well formed; the links are then taken from the same parse
       XhtmlDocument doc;
       try {
-        doc = new XhtmlParser().parse(new FileInputStream(Utilities.path(page.getFolders().dstDir, e.filename)), "html");
-        checkAnchors(doc, e);
-        checkLinks(doc, e);
-        stripDivs(doc);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        new XhtmlComposer(XhtmlComposer.HTML).compose(stream, doc);
-        e.bytes = stream.toByteArray();
-        if (e.bytes == null || e.bytes.length == 0)
-          throw new Exception("File is empty");
+        doc = new XhtmlParser().parse(src, "html");
       } catch (Exception e1) {
-        throw new Exception("Error parsing "+Utilities.path(page.getFolders().dstDir, e.filename), e1);
+        throw new Exception("Error parsing "+fn, e1);
       }
+      checkAnchors(doc, e);
+      checkLinks(doc, e);
     } else {
-      reportError(e.filename, "Unable to find file "+e.filename);
+      reportError(e, e.filename, "Unable to find file "+e.filename);
     }
   }
 
-  private void checkNormativeStatus(String filename) {
+  private void checkNormativeStatus(Entry e, String src) {
+    String filename = e.filename;
     if (Utilities.existsInList(filename, "known-issues/index.html")) {
       return;
     }
     
-    String src;
-    try {
-      src = FileUtilities.fileToString(Utilities.path(page.getFolders().dstDir, filename));
-      if (!src.contains("<!--!ns!-->") && !src.contains("<!-- !ns! -->"))
-        reportError(filename, "File "+filename+" has no normative marker");
-      if ((src.contains("may not") || src.contains("May not")) && !(src.contains("Apache") || src.contains("TemplateStatusCode"))) { // those words appear in the Apache license
-        if (!src.contains("This expansion generated")) { // ignore expansions
-          if (!filename.contains("v2" + File.separator) && !filename.contains("v3" + File.separator) && !filename.contains("dicom") && !src.contains("http://terminology.hl7.org/CodeSystem/v3-") && !Utilities.existsInList(filename, "terminologies-valuesets.html"))
-            reportError(filename, "File " + filename + " contains the prohibited words 'may not' - use 'might not' or 'SHALL not', or if the content is external, talk to the FHIR product Director");
-        }
+    if (!src.contains("<!--!ns!-->") && !src.contains("<!-- !ns! -->"))
+      reportError(e, filename, "File "+filename+" has no normative marker");
+    if ((src.contains("may not") || src.contains("May not")) && !(src.contains("Apache") || src.contains("TemplateStatusCode"))) { // those words appear in the Apache license
+      if (!src.contains("This expansion generated")) { // ignore expansions
+        if (!filename.contains("v2" + File.separator) && !filename.contains("v3" + File.separator) && !filename.contains("dicom") && !src.contains("http://terminology.hl7.org/CodeSystem/v3-") && !Utilities.existsInList(filename, "terminologies-valuesets.html"))
+          reportError(e, filename, "File " + filename + " contains the prohibited words 'may not' - use 'might not' or 'SHALL not', or if the content is external, talk to the FHIR product Director");
       }
-//      if (src.contains("should"))
-//        reportError(filename, "File "+filename+" contains the word 'should'. Make it uppercase, or if the content is external, talk to FHIR product Director");
-    } catch (Exception e) {
-      reportError(filename, "File "+filename+" has no normative marker (Exception = "+e.getMessage()+")");
     }
-  }
-
-  private void stripDivs(XhtmlNode node) {
-    for (int i = node.getChildNodes().size() - 1; i >= 0; i--) {
-      XhtmlNode child = node.getChildNodes().get(i);
-      if ("div".equals(child.getName()) && wantEliminate(child.getAttribute("id")))
-        node.getChildNodes().remove(i);
-      else 
-        stripDivs(child);
-    }
-  }
-
-  private boolean wantEliminate(String id) {
-    if ("segment-header".equals(id))
-      return true;
-    if ("segment-navbar".equals(id))
-      return true;
-    if ("segment-breadcrumb".equals(id))
-      return true;
-    if ("segment-footer".equals(id))
-      return true;
-    if ("segment-post-footer".equals(id))
-      return true;
-    return false;
+//    if (src.contains("should"))
+//      reportError(e, filename, "File "+filename+" contains the word 'should'. Make it uppercase, or if the content is external, talk to FHIR product Director");
   }
 
   private void checkAnchors(XhtmlNode node, Entry e) throws FileNotFoundException, Exception {
@@ -239,7 +257,7 @@ public class HTMLLinkChecker implements FileNotifier {
       }
       else if (!"true".equals(node.getAttribute("ok"))) {
         String msg = "Invalid \"a\" link in "+e.filename+" - no href or name ("+node.allText()+")";
-        reportError(e.filename, msg);      
+        reportError(e, e.filename, msg);      
       }
     }
     if (node.getAttributes().containsKey("id"))
@@ -248,9 +266,13 @@ public class HTMLLinkChecker implements FileNotifier {
       checkAnchors(child, e);    
   }
 
-  private void reportError(String path, String msg) {
+  private void reportError(Entry e, String path, String msg) {
+    reportError(e.messages, path, msg);
+  }
+
+  private void reportError(List<ValidationMessage> list, String path, String msg) {
     if (!ok(msg)) {
-      issues.add(new ValidationMessage(Source.Publisher, IssueType.INFORMATIONAL, -1, -1, path, msg, IssueSeverity.ERROR));
+      list.add(new ValidationMessage(Source.Publisher, IssueType.INFORMATIONAL, -1, -1, path, msg, IssueSeverity.ERROR));
     }
   }
 
@@ -280,14 +302,15 @@ public class HTMLLinkChecker implements FileNotifier {
         String href = node.getAttribute("href");
         if (Utilities.noString(href))
           href = node.getAttribute("xlink:href");
-        check(node, href, e.filename, e.filename);
+        linkCount.incrementAndGet();
+        check(e, node, href, e.filename, e.filename);
       }
     }
     for (XhtmlNode child : node.getChildNodes())
       checkLinks(child, e);    
   }
 
-  private void check(XhtmlNode node, String href, String base, String source) throws FileNotFoundException, Exception {
+  private void check(Entry from, XhtmlNode node, String href, String base, String source) throws FileNotFoundException, Exception {
     if (href == null) {
       throw new Exception("no ref at "+node.allText());
     }
@@ -320,14 +343,12 @@ public class HTMLLinkChecker implements FileNotifier {
       String target = collapse(base, path, source);
       if (target.endsWith(".xml") || target.endsWith(".json") || target.endsWith(".jsonld") || target.endsWith(".xsd") || target.endsWith(".shex") || target.endsWith(".txt") || target.endsWith(".sch") || target.endsWith(".pdf") || target.endsWith(".epub")) {
         if (!(new File(Utilities.path(page.getFolders().dstDir, target)).exists()) && !isValidExtensionLink(target))
-          reportError(base, "Broken Link (1) in "+base+": '"+href+"' not found at \""+Utilities.path(page.getFolders().dstDir, target)+"\" ("+node.allText()+")");
-        node.setAttribute("href", webPath+"/"+target.replace(File.separatorChar, '/'));
+          reportError(from, base, "Broken Link (1) in "+base+": '"+href+"' not found at \""+Utilities.path(page.getFolders().dstDir, target)+"\" ("+node.allText()+")");
         e = null;
       } else if (externals.contains(target)) {
-        node.setAttribute("href", webPath+"/"+target.replace(File.separatorChar, '/'));
         e = null;
       } else {
-        e = getEntryForFile(target, source);
+        e = getEntryForFile(target, source, from.messages);
         if (e == null) {
           if (href.startsWith("v2/") || href.startsWith("v3/")) // we can't check those links
             return;
@@ -336,21 +357,18 @@ public class HTMLLinkChecker implements FileNotifier {
           if (isValidExtensionLink(target)) {
             return;
           }
-          reportError(base, "Broken Link (2) in "+base+": '"+href+"' not found at \""+target+"\"("+node.allText()+")");
+          reportError(from, base, "Broken Link (2) in "+base+": '"+href+"' not found at \""+target+"\"("+node.allText()+")");
           return;
-        } else if (!e.include) {
-          node.setAttribute("href", webPath+"/"+node.getAttribute("href"));          
         }
       }
     } else 
-      e = getEntryForFile(base, source);
+      e = getEntryForFile(base, source, from.messages);
     if (Utilities.noString(anchor)) {
 //      if (e == null) - need to enable this an fix everything it finds
 //        reportError("Broken Link in "+base+": '"+href+"' anchor not found ("+node.allText()+")");
     } else {
       if (e!= null) {
-        if (!e.checked)
-          check(e);
+        // the target page is checked in its own task; the anchor check below is not enabled yet
 //td        if (!e.anchors.contains(anchor))
 //td          reportError("Broken Link in "+base+": '"+href+"' anchor not found ("+node.allText()+")");
       }
@@ -383,17 +401,13 @@ public class HTMLLinkChecker implements FileNotifier {
     }
   }
 
-  private Entry getEntryForFile(String target, String source) {
-    for (Entry e : entries) {
-      if (e.filename.equalsIgnoreCase(target)) {
-        if (!e.filename.equals(target)) {
-          System.out.println("Case Error: found "+e.filename+" looking for "+target+" in "+source);
-          reportError(target, "Case Error: found "+e.filename+" looking for "+target+" in "+source);
-        }
-        return e;
-      }
+  private Entry getEntryForFile(String target, String source, List<ValidationMessage> list) {
+    Entry e = index.get(target.toLowerCase());
+    if (e != null && !e.filename.equals(target)) {
+      System.out.println("Case Error: found "+e.filename+" looking for "+target+" in "+source);
+      reportError(list, target, "Case Error: found "+e.filename+" looking for "+target+" in "+source);
     }
-    return null;
+    return e;
   }
 
   private String collapse(String base, String path, String source) throws Exception {
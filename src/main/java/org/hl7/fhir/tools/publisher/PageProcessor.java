@@ -406,6 +406,8 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   private final List<String> suppressedMessages = new ArrayList<String>();
   private Definitions definitions;
   private FolderManager folders;
+  private TemplateCache templates = new TemplateCache();
+  private ExampleRepository examples = new ExampleRepository();
   private FHIRVersion version;
   private IniFile ini;
   private final Calendar genDate = Calendar.getInstance();
@@ -668,144 +670,137 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
     boolean genConformanceSummary = false;
     src = processTypeLinks(src);
-    while (src.contains("<%") || src.contains("[%"))
-    {      
-      int i1 = src.indexOf("<%");
-      int i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%>")+i1;
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%]")+i1;
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
+    TemplateScanner scanner = new TemplateScanner(src);
+    while (scanner.next())
+    {
+      String s2 = scanner.getDirective().trim();
 
       String[] com = s2.split(" ");
       if (s2.startsWith("!")) {
-        src = s1+s3;        
+        scanner.replace("");        
       } else if (com.length == 4 && com[0].equals("edt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1], ""), umlForDt(com[1], com[3]), umlForDt(com[1], com[3]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2]))+s3;
+        scanner.replace(orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1], ""), umlForDt(com[1], com[3]), umlForDt(com[1], com[3]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2])));
       } else if (com.length == 3 && com[0].equals("dt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+orgDT(com[1], xmlForDt(com[1], file), treeForDt(com[1], ""), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], file), ttlForDt(com[1], file), diffForDt(com[1], file))+s3;
+        scanner.replace(orgDT(com[1], xmlForDt(com[1], file), treeForDt(com[1], ""), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], file), ttlForDt(com[1], file), diffForDt(com[1], file)));
       } else if (com.length == 3 && com[0].equals("adt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+orgADT(com[1], treeForDt(com[1], "A"), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), diffForDt(com[1], file))+s3;
+        scanner.replace(orgADT(com[1], treeForDt(com[1], "A"), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), diffForDt(com[1], file)));
       } else if (com.length == 2 && com[0].equals("dt.constraints"))
-        src = s1+genConstraints(com[1], genlevel(level))+s3;
+        scanner.replace(genConstraints(com[1], genlevel(level)));
       else if (com.length == 2 && com[0].equals("dt.restrictions"))
-        src = s1+genRestrictions(com[1])+s3;
+        scanner.replace(genRestrictions(com[1]));
       else if (com.length == 2 && com[0].equals("dictionary"))
-        src = s1+dictForDt(com[1])+s3;
+        scanner.replace(dictForDt(com[1]));
       else if (com[0].equals("othertabs"))
-        src = s1 + genOtherTabs(com[1], tabs) + s3;
+        scanner.replace(genOtherTabs(com[1], tabs));
       else if (com[0].equals("dtref"))
-        src = s1+"<a href=\""+definitions.getSrcFile(com[1])+".html#"+com[1]+"\">"+com[1]+"</a>"+s3;
+        scanner.replace("<a href=\""+definitions.getSrcFile(com[1])+".html#"+com[1]+"\">"+com[1]+"</a>");
       else if (com[0].equals("dtheader"))
-        src = s1+dtHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(dtHeader(com.length > 1 ? com[1] : null));
       else if (com[0].equals("atheader"))
-        src = s1+atHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(atHeader(com.length > 1 ? com[1] : null));
       else if (com[0].equals("mdtheader"))
-        src = s1+mdtHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(mdtHeader(com.length > 1 ? com[1] : null));
       else if (com[0].equals("dtxheader"))
-        src = s1+dtxHeader(com.length > 1 ? com[1] : null, com.length > 2 ? com[2] : null)+s3;
+        scanner.replace(dtxHeader(com.length > 1 ? com[1] : null, com.length > 2 ? com[2] : null));
       else if (com[0].equals("extheader"))
-        src = s1+extHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(extHeader(com.length > 1 ? com[1] : null));
       else if (com[0].equals("mmheader"))
-        src = s1+mmHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(mmHeader(com.length > 1 ? com[1] : null));
       else if (com[0].equals("exheader"))
-        src = s1+exHeader(com.length > 1 ? com[1] : null, file)+s3;
+        scanner.replace(exHeader(com.length > 1 ? com[1] : null, file));
       else if (com[0].equals("narrheader"))
-        src = s1+narrHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(narrHeader(com.length > 1 ? com[1] : null));
       else if (com[0].equals("profilesheader"))
-        src = s1+profilesHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(profilesHeader(com.length > 1 ? com[1] : null));
       else if (com[0].equals("refheader"))
-        src = s1+refHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(refHeader(com.length > 1 ? com[1] : null));
       else if (com[0].equals("resourcesheader"))
-        src = s1+resourcesHeader(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(resourcesHeader(com.length > 1 ? com[1] : null));
       //      else if (com[0].equals("formatsheader"))
       //        src = s1+formatsHeader(name, com.length > 1 ? com[1] : null)+s3;
       //      else if (com[0].equals("resourcesheader"))
       //        src = s1+resourcesHeader(name, com.length > 1 ? com[1] : null)+s3;
       else if (com[0].equals("txheader"))
-        src = s1+txHeader(name, com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(txHeader(name, com.length > 1 ? com[1] : null));
       else if (com[0].equals("sct-vs-list"))
-        src = s1+getSnomedCTVsList()+s3;
+        scanner.replace(getSnomedCTVsList());
       else if (com[0].equals("sct-concept-list"))
-        src = s1+getSnomedCTConceptList()+s3;
+        scanner.replace(getSnomedCTConceptList());
       else if (com[0].equals("txheader0"))
-        src = s1+(level > 0 ? "" : txHeader(name, com.length > 1 ? com[1] : null))+s3;
+        scanner.replace((level > 0 ? "" : txHeader(name, com.length > 1 ? com[1] : null)));
       else if (com[0].equals("fmtheader"))
-        src = s1+fmtHeader(name, com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(fmtHeader(name, com.length > 1 ? com[1] : null));
       else if (com[0].equals("cmpheader"))
-        src = s1+cmpHeader(name, com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(cmpHeader(name, com.length > 1 ? com[1] : null));
       else if (com[0].equals("dictheader"))
-        src = s1+dictHeader(((Bundle) resource).getId().toLowerCase(), com.length > 1 ? com[1] : "")+s3;
+        scanner.replace(dictHeader(((Bundle) resource).getId().toLowerCase(), com.length > 1 ? com[1] : ""));
       //      else if (com[0].equals("atomheader"))
       //        src = s1+atomHeader(name, com.length > 1 ? com[1] : null)+s3;
       else if (com[0].equals("codelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file));
       else if (com[0].equals("codelist-nh"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file));
       else if (com[0].equals("linkcodelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file));
       else if (com[0].equals("toc"))
-        src = s1 + generateToc() + s3;
+        scanner.replace(generateToc());
       else if (com[0].equals("codetoc"))
-        src = s1+codetoc(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(codetoc(com.length > 1 ? com[1] : null));
       else if (com[0].equals("resheader")) {
         if (resource != null && resource instanceof StructureDefinition)
-          src = s1+resHeader(((StructureDefinition) resource).getId().toLowerCase(), ((StructureDefinition) resource).getId(), com.length > 1 ? com[1] : null)+s3;
+          scanner.replace(resHeader(((StructureDefinition) resource).getId().toLowerCase(), ((StructureDefinition) resource).getId(), com.length > 1 ? com[1] : null));
         else if (rd != null) {
-          src = s1+resHeader(rd.getName().toLowerCase(), rd.getName(), com.length > 1 ? com[1] : null)+s3;
+          scanner.replace(resHeader(rd.getName().toLowerCase(), rd.getName(), com.length > 1 ? com[1] : null));
         } else 
-          src = s1+s3;
+          scanner.replace("");
       } else if (com[0].equals("aresheader"))
-        src = s1+abstractResHeader("document", "Document", com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(abstractResHeader("document", "Document", com.length > 1 ? com[1] : null));
       else if (com[0].equals("onthispage"))
-        src = s1+onThisPage(s2.substring(com[0].length() + 1))+s3;
+        scanner.replace(onThisPage(s2.substring(com[0].length() + 1)));
       else if (com[0].equals("maponthispage"))
-        src = s1+mapOnThisPage(null)+s3;
+        scanner.replace(mapOnThisPage(null));
       else if (com[0].equals("res-category")) {
         even = false;
-        src = s1+resCategory(s2.substring(com[0].length() + 1))+s3;
+        scanner.replace(resCategory(s2.substring(com[0].length() + 1)));
       } else if (com[0].equals("res-item")) {
         even = !even;
-        src = s1+resItem(com[1], even)+s3;
+        scanner.replace(resItem(com[1], even));
       } else if (com[0].equals("resdesc")) {
         if (!resDesc.containsKey(com[1])) {
           resDesc.put(com[1], 0);
         }
         resDesc.put(com[1], resDesc.get(com[1]) + 1);
-        src = s1+resDesc(com[1])+s3;
+        scanner.replace(resDesc(com[1]));
       } else if (com[0].equals("resdesc-check")) {
-        src = s1+resDescCheck(com[1], resDesc)+s3;
+        scanner.replace(resDescCheck(com[1], resDesc));
       } else if (com[0].equals("rescat")) {
-        src = s1+resCat(com.length == 1 ? null : s2.substring(7))+s3;
+        scanner.replace(resCat(com.length == 1 ? null : s2.substring(7)));
       } else if (com[0].equals("svg"))
-        src = s1+svgs.get(com[1])+s3;
+        scanner.replace(svgs.get(com[1]));
       else if (com[0].equals("diagram"))
-        src = s1+new SvgGenerator(this, genlevel(level), null, false, fileSuffix(file), version).generate(folders.srcDir+ com[1], com[2])+s3;
+        scanner.replace(new SvgGenerator(this, genlevel(level), null, false, fileSuffix(file), version).generate(folders.srcDir+ com[1], com[2]));
       else if (com[0].equals("file")) {
         if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+FileUtilities.fileToString(folders.templateDir + com[1]+".html")+s3;          
+          scanner.replace(templates.load(folders.templateDir + com[1]+".html"));          
         } else {
-          src = s1+FileUtilities.fileToString(folders.srcDir + com[1]+".html")+s3;
+          scanner.replace(templates.load(folders.srcDir + com[1]+".html"));
         }
       } else if (com[0].equals("v2xref"))
-        src = s1 + xreferencesForV2(name, com[1]) + s3;
+        scanner.replace(xreferencesForV2(name, com[1]));
       else if (com[0].equals("vs-warning"))
-        src = s1 + vsWarning((ValueSet) resource) + s3;
+        scanner.replace(vsWarning((ValueSet) resource));
       else if (com[0].equals("res-status-special"))
-        src = s1 + vsSpecialStatus((DomainResource) resource) + s3;
+        scanner.replace(vsSpecialStatus((DomainResource) resource));
       else if (com[0].equals("conceptmaplistv2"))
-        src = s1 + conceptmaplist("http://terminology.hl7.org/ValueSet/v2-"+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name), com[1]) + s3;
+        scanner.replace(conceptmaplist("http://terminology.hl7.org/ValueSet/v2-"+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name), com[1]));
       else if (com[0].equals("conceptmaplistv3"))
-        src = s1 + conceptmaplist("http://terminology.hl7.org/ValueSet/v3-"+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name), com[1]) + s3;
+        scanner.replace(conceptmaplist("http://terminology.hl7.org/ValueSet/v3-"+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name), com[1]));
       else if (com[0].equals("conceptmaplistvs")) {
         ValueSet vs = (ValueSet) resource;
         String ref;
@@ -814,582 +809,583 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
         } else {
           ref = vs.getUrl();
         }
-        src = s1 + conceptmaplist(ref, com[1]) + s3;
+        scanner.replace(conceptmaplist(ref, com[1]));
       } else if (com[0].equals("settitle")) {
         workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("igregistries")) {
-        src = s1+igRegistryList(com[1], com[2])+s3;
+        scanner.replace(igRegistryList(com[1], com[2]));
       } else if (com[0].equals("dtmappings")) {
-        src = s1 + genDataTypeMappings(com[1]) + s3;
+        scanner.replace(genDataTypeMappings(com[1]));
       } else if (com[0].equals("dtusage")) {
-        src = s1 + genDataTypeUsage(com[1]) + s3;
+        scanner.replace(genDataTypeUsage(com[1]));
       }  else if (com[0].equals("v3xref")) {
-        src = s1 + xreferencesForV3(name) + s3;
+        scanner.replace(xreferencesForV3(name));
       } else if (com[0].equals("setlevel")) {
         level = Integer.parseInt(com[1]);
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("w5")) {
-        src = s1+genW5("true".equals(com[1]))+s3;
+        scanner.replace(genW5("true".equals(com[1])));
       } else if (com[0].equals("res-ref-list")) {
-        src = s1+genResRefList(com[1])+s3;
+        scanner.replace(genResRefList(com[1]));
       } else if (com[0].equals("sclist")) {
-        src = s1+genScList(com[1])+s3;
+        scanner.replace(genScList(com[1]));
       } else if (com[0].equals("xcm")) {
-        src = s1+getXcm(com[1])+s3;
+        scanner.replace(getXcm(com[1]));
       } else if (com[0].equals("xcmchk")) {
-        src = s1+getXcmChk(com[1])+s3;
+        scanner.replace(getXcmChk(com[1]));
       } else if (com[0].equals("sstatus")) {
         if (com.length == 1) {
           StandardsStatus ss = ExtensionUtilities.getStandardsStatus((DomainResource) resource);
           if (ss == null)
             ss = StandardsStatus.INFORMATIVE;
           if (ss == StandardsStatus.NORMATIVE && ExtensionUtilities.hasExtension((DomainResource) resource, ExtensionDefinitions.EXT_NORMATIVE_VERSION))
-            src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a> (from v"+ExtensionUtilities.readStringExtension((DomainResource) resource, ExtensionDefinitions.EXT_NORMATIVE_VERSION)+")"+s3;
+            scanner.replace("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a> (from v"+ExtensionUtilities.readStringExtension((DomainResource) resource, ExtensionDefinitions.EXT_NORMATIVE_VERSION)+")");
           else
-            src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>"+s3;
+            scanner.replace("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>");
         } else
-          src = s1+getStandardsStatus(com[1])+s3;
+          scanner.replace(getStandardsStatus(com[1]));
       } else if (com[0].equals("wg")) {
-        src = s1+getWgLink(file, wg == null && com.length > 1 ? wg(com[1]) : wg)+s3;
+        scanner.replace(getWgLink(file, wg == null && com.length > 1 ? wg(com[1]) : wg));
       } else if (com[0].equals("wgt")) {
-        src = s1+getWgTitle(wg == null && com.length > 1 ? wg(com[1]) : wg)+s3;
+        scanner.replace(getWgTitle(wg == null && com.length > 1 ? wg(com[1]) : wg));
       } else if (com[0].equals("ig.registry")) {
-        src = s1+buildIgRegistry(ig, com[1])+s3;
+        scanner.replace(buildIgRegistry(ig, com[1]));
       } else if (com[0].equals("search-link")) {
-        src = s1+searchLink(s2)+s3;
+        scanner.replace(searchLink(s2));
       } else if (com[0].equals("search-footer")) {
-        src = s1+searchFooter(level)+s3;
+        scanner.replace(searchFooter(level));
       } else if (com[0].equals("search-header")) {
-        src = s1+searchHeader(level)+s3;
+        scanner.replace(searchHeader(level));
       } else if (com[0].equals("profileheader")) {
-        src = s1+profileHeader(((StructureDefinition) resource).getId().toLowerCase(), com[1], hasExamples((StructureDefinition) resource, ig))+s3;
+        scanner.replace(profileHeader(((StructureDefinition) resource).getId().toLowerCase(), com[1], hasExamples((StructureDefinition) resource, ig)));
       } else if (com[0].equals("resource-table")) {
-        src = s1+genResourceTable(definitions.getResourceByName(com[1]), genlevel(level), "X")+s3;
+        scanner.replace(genResourceTable(definitions.getResourceByName(com[1]), genlevel(level), "X"));
       } else if (com[0].equals("resource-table-all")) {
-        src = s1+genResourceTable(definitions.getResourceByName(com[1]), genlevel(level), "A")+s3;
+        scanner.replace(genResourceTable(definitions.getResourceByName(com[1]), genlevel(level), "A"));
       } else if (com[0].equals("dtprofiles")) {
-        src = s1+produceDataTypeProfiles(com[1])+s3;
+        scanner.replace(produceDataTypeProfiles(com[1]));
       } else if (com[0].equals("dtextensions")) {
-        src = s1+produceDataTypeExtensions(com[1])+s3;
+        scanner.replace(produceDataTypeExtensions(com[1]));
       } else if (com[0].equals("tx")) {
-        src = s1+produceDataTypeTx(com[1])+s3;
+        scanner.replace(produceDataTypeTx(com[1]));
       } else if (com[0].equals("extension-diff")) {
         StructureDefinition ed = workerContext.fetchResource(StructureDefinition.class, com[1]);
-        src = s1+generateExtensionTable(ed, "extension-"+com[1], "false", genlevel(level))+s3;
+        scanner.replace(generateExtensionTable(ed, "extension-"+com[1], "false", genlevel(level)));
       } else if (com[0].equals("profile-diff")) {
         ConstraintStructure p = definitions.findProfile(com[1]);
-        src = s1 + generateProfileStructureTable(p, true, com[1]+".html", com[1], genlevel(level)) + s3;
+        scanner.replace(generateProfileStructureTable(p, true, com[1]+".html", com[1], genlevel(level)));
         //      } else if (com[0].equals("example")) {
         //        String[] parts = com[1].split("\\/");
         //        Example e = findExample(parts[0], parts[1]);
         //        src = s1+genExample(e, com.length > 2 ? Integer.parseInt(com[2]) : 0, genlevel(level))+s3;
       } else if (com[0].equals("r4r5transform")) {
-        src = s1+dtR4R5Transform(com[1])+s3;
+        scanner.replace(dtR4R5Transform(com[1]));
       } else if (com[0].equals("fmm-style")) {
         String fmm = resource == null ? "N/A" :  ExtensionUtilities.readStringExtension((DomainResource) resource, ExtensionDefinitions.EXT_FMM_LEVEL);
         StandardsStatus ss = ExtensionUtilities.getStandardsStatus((DomainResource) resource);
-        src = s1+fmmBarColorStyle(ss)+s3;
+        scanner.replace(fmmBarColorStyle(ss));
       } else if (com[0].equals("fmm")) {
         String fmm = resource == null || !(resource instanceof CanonicalResource) ? getFmm(com[1], false) : ExtensionUtilities.readStringExtension((DomainResource) resource, ExtensionDefinitions.EXT_FMM_LEVEL);
         StandardsStatus ss = ExtensionUtilities.getStandardsStatus((DomainResource) resource);
         if (StandardsStatus.EXTERNAL == ss)
-          src = s1+getFmmFromlevel(genlevel(level), "N/A")+s3;
+          scanner.replace(getFmmFromlevel(genlevel(level), "N/A"));
         else if (StandardsStatus.NORMATIVE == ss)
-          src = s1+getFmmFromlevel(genlevel(level), "<a href=\""+genlevel(level)+"versions.html#std-process\">N</a>")+s3;
+          scanner.replace(getFmmFromlevel(genlevel(level), "<a href=\""+genlevel(level)+"versions.html#std-process\">N</a>"));
         else
-          src = s1+getFmmFromlevel(genlevel(level), fmm)+s3;
+          scanner.replace(getFmmFromlevel(genlevel(level), fmm));
       } else if (com[0].equals("fmmna")) {
         String fmm = "N/A";
-        src = s1+getFmmFromlevel(genlevel(level), fmm)+s3;
+        scanner.replace(getFmmFromlevel(genlevel(level), fmm));
       } else if (com[0].equals("fmmshort")) {
 //        String fmm = resource == null || !(resource instanceof CanonicalResource) ? getFmm(com[1], true) : ExtensionUtilities.readStringExtension((DomainResource) resource, ExtensionDefinitions.EXT_FMM_LEVEL);
 //        String npr = resource == null || !(resource instanceof CanonicalResource) ? getNormativePackageRef(com[1]) : "";
-        src = s1+s3;
+        scanner.replace("");
       } else if (s2.startsWith("search-additions\r\n")) {
         searchAdditions = s2.substring(16).trim();
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("complinks")) {
-        src = s1+(rd == null ? "" : getCompLinks(rd, com.length > 1 ? com[1] : null))+s3;
+        scanner.replace((rd == null ? "" : getCompLinks(rd, com.length > 1 ? com[1] : null)));
       } else if (com[0].equals("stu-note")) {
-        src = s1+getSTUNoteHeader(com[1])+s3;
+        scanner.replace(getSTUNoteHeader(com[1]));
       } else if (com[0].equals("ballot-note")) {
-        src = s1+getBallotNoteHeader(com[1])+s3;
+        scanner.replace(getBallotNoteHeader(com[1]));
       } else if (com[0].equals("diff")) {
         String p = com[1];
         String pd = p.contains("#") ? p.substring(0, p.indexOf("#")) : p;
         String t = s2.substring(com[0].length()+com[1].length()+2);
-        src = s1+"<a href=\""+p+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+pd+"&amp;doc2="+Utilities.URLEncode(webLocation)+pd+"\" data-no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>"+s3;
+        scanner.replace("<a href=\""+p+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+pd+"&amp;doc2="+Utilities.URLEncode(webLocation)+pd+"\" data-no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>");
       } else if (com[0].equals("diffx")) {
         String p1 = com[1];
         String pd = p1.contains("#") ? p1.substring(0, p1.indexOf("#")) : p1;
         String p2 = com[2];
         String t = s2.substring(com[0].length()+com[1].length()+2);
-        src = s1+"<a href=\""+p1+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+p2+"&amp;doc2="+Utilities.URLEncode(webLocation)+pd+"\" data-no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>"+s3;
+        scanner.replace("<a href=\""+p1+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+p2+"&amp;doc2="+Utilities.URLEncode(webLocation)+pd+"\" data-no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>");
       } else if (com[0].equals("StandardsStatus")) {
-        src = s1+getStandardsStatusNote(genlevel(level), com[1], com[2], com.length == 4 ? com[3] : null)+s3;
+        scanner.replace(getStandardsStatusNote(genlevel(level), com[1], com[2], com.length == 4 ? com[3] : null));
       } else if (com[0].equals("circular-references")) {
-        src = s1+buildCircularReferenceList(com[1].equals("null") ? null : Boolean.valueOf(com[1]))+s3;
+        scanner.replace(buildCircularReferenceList(com[1].equals("null") ? null : Boolean.valueOf(com[1])));
       } else if (com[0].equals("regex")) {
-        src = s1 + regex(com[1]) + s3;
+        scanner.replace(regex(com[1]));
       } else if (com[0].equals("shortparameterlist")) {
-        src = s1+buildShortParameterList(com[1])+s3;
+        scanner.replace(buildShortParameterList(com[1]));
       } else if (com[0].equals("op-example-link")) {
-        src = s1+buildOpReferenceList(com[1])+s3;       
+        scanner.replace(buildOpReferenceList(com[1]));       
       } else if (com[0].equals("pattern-impls")) {
-        src = s1+buildPatternList(com[1])+s3;       
+        scanner.replace(buildPatternList(com[1]));       
       } else if (com[0].equals("dtstatus")) {
-        src = s1+buildDTStatus(com[1])+s3;       
+        scanner.replace(buildDTStatus(com[1]));       
       } else if (com[0].equals("extension")) {
-        src = s1+extensionLink(com[1])+s3;       
+        scanner.replace(extensionLink(com[1]));       
       } else if (com[0].equals("ig")) {
-        src = s1+igLink(com[1])+s3;       
+        scanner.replace(igLink(com[1]));       
       } else if (com[0].equals("diff-analysis")) {
         if ("*".equals(com[1])) {
           updateDiffEngineDefinitions();
-          src = s1+diffEngine.getDiffAsHtml(this)+s3;
+          scanner.replace(diffEngine.getDiffAsHtml(this));
         } else {
           StructureDefinition sd = workerContext.fetchTypeDefinition(com[1]);
           if (sd == null)
             throw new Exception("diff-analysis not found: "+com[1]);
-          src = s1+diffEngine.getDiffAsHtml(this, sd)+s3;
+          scanner.replace(diffEngine.getDiffAsHtml(this, sd));
         }
       } else if (com[0].equals("diff-analysis-r4")) {
         updateDiffEngineDefinitions();
-        src = s1+diffEngine.getDiffAsHtml(this, CompareFhirVersion.R4)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, CompareFhirVersion.R4));
       } else if (com[0].equals("diff-analysis-r4b")) {
         updateDiffEngineDefinitions();
-        src = s1+diffEngine.getDiffAsHtml(this, CompareFhirVersion.R4B)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, CompareFhirVersion.R4B));
       } else if (com[0].equals("diff-analysis-r5")) {
         updateDiffEngineDefinitions();
-        src = s1+diffEngine.getDiffAsHtml(this, CompareFhirVersion.R5)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, CompareFhirVersion.R5));
       } else if (com.length != 1)
         throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
       else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(name.toUpperCase().substring(0, 1)+name.substring(1))+s3;
+        scanner.replace(pageHeader(name.toUpperCase().substring(0, 1)+name.substring(1)));
       else if (com[0].equals("newheader"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader.html"));
       else if (com[0].equals("newheader1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader1.html"));
       else if (com[0].equals("footer"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer.html"));
       else if (com[0].equals("newfooter"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newfooter.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newfooter.html"));
       else if (com[0].equals("footer1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer1.html"));
       else if (com[0].equals("footer2"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer2.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer2.html"));
       else if (com[0].equals("footer3"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer3.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer3.html"));
       else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle)+s3;
+        scanner.replace((workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle));
       else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(name.toUpperCase().substring(0, 1) + name.substring(1))+s3;
+        scanner.replace(Utilities.escapeXml(name.toUpperCase().substring(0, 1) + name.substring(1)));
       else if (com[0].equals("name"))
-        src = s1+name+s3;
+        scanner.replace(name);
       else if (com[0].equals("name.tail"))
-        src = s1+fileTail(name)+s3;
+        scanner.replace(fileTail(name));
       else if (com[0].equals("piperesources"))
-        src = s1+pipeResources()+s3;
+        scanner.replace(pipeResources());
       else if (com[0].equals("enteredInErrorTable"))
-        src = s1+enteredInErrorTable()+s3;
+        scanner.replace(enteredInErrorTable());
       else if (com[0].equals("canonicalname"))
-        src = s1+makeCanonical(name)+s3;
+        scanner.replace(makeCanonical(name));
       else if (com[0].equals("prettyname"))
-        src = s1+makePretty(name)+s3;
+        scanner.replace(makePretty(name));
       else if (com[0].equals("exTitle"))
-        src = s1+exTitle+s3;
+        scanner.replace(exTitle);
       else if (com[0].equals("jsonldname"))
-        src = s1+makeJsonld(name)+s3;
+        scanner.replace(makeJsonld(name));
       else if (com[0].equals("version"))
-        src = s1+version.toCode()+s3;
+        scanner.replace(version.toCode());
       else if (com[0].equals("verTitle"))
-        src = s1+VersionUtilities.getNameForVersion(version.toCode())+s3;
+        scanner.replace(VersionUtilities.getNameForVersion(version.toCode()));
       else if (com[0].equals("type")) {
         if (resource == null) {
-          src = s1+s3;          
+          scanner.replace("");          
         } else if (resource instanceof StructureDefinition) {
-          src = s1+((StructureDefinition) resource).getType()+s3;          
+          scanner.replace(((StructureDefinition) resource).getType());          
         } else {
-          src = s1+resource.fhirType()+s3;
+          scanner.replace(resource.fhirType());
         }
       }  else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
+        scanner.replace(Config.DATE_FORMAT().format(new Date()));
       else if (com[0].equals("maindiv"))
-        src = s1+"<div class=\"content\">"+s3;
+        scanner.replace("<div class=\"content\">");
       else if (com[0].equals("/maindiv"))
-        src = s1+"</div>"+s3;
+        scanner.replace("</div>");
       else if (com[0].equals("mappings-table"))
-        src = s1+genMappingsTable()+s3;
+        scanner.replace(genMappingsTable());
       else if (com[0].equals("fhir-id")) {
         String n = name.contains("|") ? name.substring(0,name.indexOf("|")) : name;
         if (n.contains(".")) {
           n = n.substring(0, n.indexOf(".'"));
         }
-        src = s1+n+s3;
+        scanner.replace(n);
       } else if (com[0].equals("id"))
-        src = s1+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name)+s3;
+        scanner.replace((name.contains("|") ? name.substring(0,name.indexOf("|")) : name));
       else if (com[0].equals("ver"))
-        src = s1+(name.contains("|") ? name.substring(name.indexOf("|")+1) : "??")+s3;
+        scanner.replace((name.contains("|") ? name.substring(name.indexOf("|")+1) : "??"));
       else if (com[0].equals("events"))
-        src = s1 + getEventsTable(pagePath)+ s3;
+        scanner.replace(getEventsTable(pagePath));
       else if (com[0].equals("resourcecodes"))
-        src = s1 + genResCodes() + s3;
+        scanner.replace(genResCodes());
       else if (com[0].equals("datatypecodes"))
-        src = s1 + genDTCodes() + s3;
+        scanner.replace(genDTCodes());
       else if (com[0].equals("allparams"))
-        src = s1 + allParamlist() + s3;
+        scanner.replace(allParamlist());
       //      else if (com[0].equals("bindingtable-codelists"))
       //        src = s1 + genBindingTable(true) + s3;
       //      else if (com[0].equals("bindingtable"))
       //        src = s1 + genBindingsTable() + s3;
       else if (com[0].equals("codeslist"))
-        src = s1 + genCodeSystemsTable() + s3;
+        scanner.replace(genCodeSystemsTable());
       else if (com[0].equals("valuesetslist"))
-        src = s1 + genValueSetsTable(ig) + s3;
+        scanner.replace(genValueSetsTable(ig));
       else if (com[0].equals("namespacelist"))
-        src = s1 + genNSList() + s3;
+        scanner.replace(genNSList());
       else if (com[0].equals("extensionslist"))
-        src = s1 + genExtensionsTable() + s3;
+        scanner.replace(genExtensionsTable());
       else if (com[0].equals("igvaluesetslist"))
-        src = s1 + genIGValueSetsTable() + s3;
+        scanner.replace(genIGValueSetsTable());
       else if (com[0].equals("conceptmapslist"))
-        src = s1 + genConceptMapsTable() + s3;
+        scanner.replace(genConceptMapsTable());
       //      else if (com[0].equals("bindingtable-others"))
       //        src = s1 + genBindingTable(false) + s3;
       else if (com[0].equals("resimplall"))
-        src = s1 + genResImplList() + s3;
+        scanner.replace(genResImplList());
       else if (com[0].equals("txurl"))
-        src = s1 + "http://hl7.org/fhir/"+FileUtilities.fileTitle(file) + s3;
+        scanner.replace("http://hl7.org/fhir/"+FileUtilities.fileTitle(file));
       else if (com[0].equals("vstxurl"))
-        src = s1 + "http://hl7.org/fhir/ValueSet/"+FileUtilities.fileTitle(file) + s3;
+        scanner.replace("http://hl7.org/fhir/ValueSet/"+FileUtilities.fileTitle(file));
       else if (com[0].equals("csurl")) {
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
+          scanner.replace(((CodeSystem) resource).getUrl());
         else {
           CodeSystem cs = (CodeSystem) ((ValueSet) resource).getUserData("cs");
-          src = s1 + (cs == null ? "" : cs.getUrl()) + s3;
+          scanner.replace((cs == null ? "" : cs.getUrl()));
         }
       } else if (com[0].equals("vsurl")) {
         if (resource == null)
-          src = s1 + s3;
+          scanner.replace("");
         else if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
+          scanner.replace(((CodeSystem) resource).getUrl());
         else 
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
+          scanner.replace(((ValueSet) resource).getUrl());
       } else if (com[0].equals("txdef")) {
-        src = s1 + generateCodeDefinition(FileUtilities.fileTitle(file)) + s3;
+        scanner.replace(generateCodeDefinition(FileUtilities.fileTitle(file)));
       } else if (com[0].equals("vsdef")) {
-        src = s1 + processMarkdown("vsdef", ((ValueSet) resource).getDescription(), genlevel(level)) + s3;
+        scanner.replace(processMarkdown("vsdef", ((ValueSet) resource).getDescription(), genlevel(level)));
       } else if (com[0].equals("csdef")) {
-        src = s1 + processMarkdown("vsdef", ((CodeSystem) resource).getDescription(), genlevel(level)) + s3;
+        scanner.replace(processMarkdown("vsdef", ((CodeSystem) resource).getDescription(), genlevel(level)));
       } else if (com[0].equals("txoid"))
-        src = s1 + generateOID((CodeSystem) resource) + s3;
+        scanner.replace(generateOID((CodeSystem) resource));
       else if (com[0].equals("vsoid"))
-        src = s1 + generateOID((ValueSet) resource) + s3;
+        scanner.replace(generateOID((ValueSet) resource));
       else if (com[0].equals("txname"))
-        src = s1 + FileUtilities.fileTitle(file) + s3;
+        scanner.replace(FileUtilities.fileTitle(file));
       else if (com[0].equals("vsname"))
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).present() + s3;
+          scanner.replace(((CodeSystem) resource).present());
         else
-          src = s1 + ((ValueSet) resource).present() + s3;
+          scanner.replace(((ValueSet) resource).present());
       else if (com[0].equals("vsnamed"))
-        src = s1 + ((ValueSet) resource).getName() + s3;
+        scanner.replace(((ValueSet) resource).getName());
       else if (com[0].equals("csnamed")) {
-        src = s1 + ((CodeSystem) resource).getName() + s3;
+        scanner.replace(((CodeSystem) resource).getName());
       } else if (com[0].equals("vsstatus")) {
-        src = s1 + checkTitle(((ValueSet) resource).getStatus().toCode()) + s3;
+        scanner.replace(checkTitle(((ValueSet) resource).getStatus().toCode()));
       } else if (com[0].equals("csstatus")) {
-        src = s1 + checkTitle(((CodeSystem) resource).getStatus().toCode()) + s3;
+        scanner.replace(checkTitle(((CodeSystem) resource).getStatus().toCode()));
       } else if (com[0].equals("vstitle")) {
-        src = s1 + checkTitle(((ValueSet) resource).getTitle()) + s3;
+        scanner.replace(checkTitle(((ValueSet) resource).getTitle()));
       } else if (com[0].equals("cstitle")) {
-        src = s1 + checkTitle(((CodeSystem) resource).getTitle()) + s3;
+        scanner.replace(checkTitle(((CodeSystem) resource).getTitle()));
       } else if (com[0].equals("vsver") || com[0].equals("ext-ver"))  {
         CanonicalResource cr = (CanonicalResource) resource;
-        src = s1 + cr.getVersion() + s3;
+        scanner.replace(cr.getVersion());
       } else if (com[0].equals("csver"))  {
         CanonicalResource cr = (CanonicalResource) resource;
-        src = s1 + cr.getVersion() + s3;
+        scanner.replace(cr.getVersion());
       } else if (com[0].equals("vsref")) {
-        src = s1 + FileUtilities.fileTitle((String) resource.getUserData("filename")) + s3;
+        scanner.replace(FileUtilities.fileTitle((String) resource.getUserData("filename")));
       } else if (com[0].equals("vsdesc"))
-        src = s1 + (resource != null ? new XhtmlComposer(XhtmlComposer.HTML).compose(((ValueSet) resource).getText().getDiv()) :  generateVSDesc(FileUtilities.fileTitle(file))) + s3;
+        scanner.replace((resource != null ? new XhtmlComposer(XhtmlComposer.HTML).compose(((ValueSet) resource).getText().getDiv()) :  generateVSDesc(FileUtilities.fileTitle(file))));
       else if (com[0].equals("txusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(level), true) + s3;
+        scanner.replace(generateValueSetUsage((ValueSet) resource, genlevel(level), true));
       else if (com[0].equals("vsusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(level), true) + s3;
+        scanner.replace(generateValueSetUsage((ValueSet) resource, genlevel(level), true));
       else if (com[0].equals("csusage"))
-        src = s1 + generateCSUsage((CodeSystem) resource, genlevel(level)) + s3;
+        scanner.replace(generateCSUsage((CodeSystem) resource, genlevel(level)));
       //      else if (com[0].equals("vssummary"))
       //        src = s1 + "todo" + s3;
       else if (com[0].equals("compartmentlist"))
-        src = s1 + compartmentlist() + s3;
+        scanner.replace(compartmentlist());
       else if (com[0].equals("qa"))
-        src = s1 + qa.report(this, validationErrors) + s3;
+        scanner.replace(qa.report(this, validationErrors));
       else if (com[0].equals("comp-title"))
-        src = s1 + compTitle(name) + s3;
+        scanner.replace(compTitle(name));
       else if (com[0].equals("comp-name"))
-        src = s1 + compName(name) + s3;
+        scanner.replace(compName(name));
       else if (com[0].equals("comp-desc"))
-        src = s1 + compDesc(name) + s3;
+        scanner.replace(compDesc(name));
       else if (com[0].equals("comp-uri"))
-        src = s1 + compUri(name) + s3;
+        scanner.replace(compUri(name));
       else if (com[0].equals("comp-identity"))
-        src = s1 + compIdentity(name) + s3;
+        scanner.replace(compIdentity(name));
       else if (com[0].equals("comp-membership"))
-        src = s1 + compMembership(name) + s3;
+        scanner.replace(compMembership(name));
       else if (com[0].equals("comp-resources"))
-        src = s1 + compResourceMap(name) + s3;
+        scanner.replace(compResourceMap(name));
       else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(name) + s3;
+        scanner.replace(breadCrumbManager.make(name));
       else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(name, genlevel(level)) + s3;
+        scanner.replace(breadCrumbManager.navlist(name, genlevel(level)));
       else if (com[0].equals("breadcrumblist")) {
         if (object instanceof Operation)
-          src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(rd.getName().toLowerCase(), type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)) + s3;
+          scanner.replace(((ig == null || ig.isCore()) ? breadCrumbManager.makelist(rd.getName().toLowerCase(), type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)));
         else
-          src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)) + s3;
+          scanner.replace(((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)));
       } else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
+        scanner.replace(new SimpleDateFormat("yyyy").format(new Date()));
       else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
+        scanner.replace(buildId);
       else if (com[0].equals("pub-name"))
-        src = s1 + publicationType + s3;
+        scanner.replace(publicationType);
       else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
+        scanner.replace(publicationNotice);
       else if (com[0].equals("vssource"))
         if (resource instanceof CodeSystem)
-          src = s1 + csSource((CodeSystem) resource) + s3;
+          scanner.replace(csSource((CodeSystem) resource));
         else
-          src = s1 + vsSource((ValueSet) resource) + s3;
+          scanner.replace(vsSource((ValueSet) resource));
       else if (com[0].equals("vsxref"))
-        src = s1 + xreferencesForFhir(name) + s3;
+        scanner.replace(xreferencesForFhir(name));
       else if (com[0].equals("vsexpansion"))
-        src = s1 + expandValueSet(FileUtilities.fileTitle(file), resource == null ? null : ((ValueSet) resource), genlevel(level)) + s3;
+        scanner.replace(expandValueSet(FileUtilities.fileTitle(file), resource == null ? null : ((ValueSet) resource), genlevel(level)));
       else if (com[0].equals("vscld"))
-        src = s1 + vsCLD(FileUtilities.fileTitle(file), resource == null ? null : ((ValueSet) resource), genlevel(level)) + s3;
+        scanner.replace(vsCLD(FileUtilities.fileTitle(file), resource == null ? null : ((ValueSet) resource), genlevel(level)));
       else if (com[0].equals("cs-content"))
-        src = s1 + csContent(FileUtilities.fileTitle(file), ((CodeSystem) resource), genlevel(level)) + s3;
+        scanner.replace(csContent(FileUtilities.fileTitle(file), ((CodeSystem) resource), genlevel(level)));
       else if (com[0].equals("vsexpansionig"))
-        src = s1 + expandValueSetIG((ValueSet) resource, true) + s3;
+        scanner.replace(expandValueSetIG((ValueSet) resource, true));
       else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
+        scanner.replace(genlevel(level));
       else if (com[0].equals("archive"))
-        src = s1 + makeArchives() + s3;
+        scanner.replace(makeArchives());
       else if (com[0].equals("pagepath"))
-        src = s1 + pagePath + s3;
+        scanner.replace(pagePath);
       else if (com[0].equals("rellink")) {
         if (!pagePath.contains(".html"))
           throw new Error("Invalid link: "+pagePath+" at "+workingTitle);
-        src = s1 + Utilities.URLEncode(pagePath) + s3;
+        scanner.replace(Utilities.URLEncode(pagePath));
       } else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(webLocation) + s3;
+        scanner.replace(Utilities.URLEncode(webLocation));
       else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(webLocation) + s3;
+        scanner.replace(Utilities.appendForwardSlash(webLocation));
       else if (com[0].equals("profilelist"))
-        src = s1 + genProfilelist() + s3;
+        scanner.replace(genProfilelist());
       else if (com[0].equals("igprofileslist"))
-        src = s1 + genIGProfilelist() + s3;
+        scanner.replace(genIGProfilelist());
       else if (com[0].equals("operationslist"))
-        src = s1 + genOperationList() + s3;
+        scanner.replace(genOperationList());
       else if (com[0].equals("example.profile.link"))
-        src = s1 + genExampleProfileLink(resource) + s3;
+        scanner.replace(genExampleProfileLink(resource));
       else if (com[0].equals("resourcecount"))
-        src = s1 + Integer.toString(definitions.getResources().size()) + s3;
+        scanner.replace(Integer.toString(definitions.getResources().size()));
       else if (others != null && others.containsKey(com[0]))
-        src = s1 + others.get(com[0]) + s3;
+        scanner.replace(others.get(com[0]));
       else if (com[0].equals("status-codes"))
-        src = s1 + genStatusCodes() + s3;
+        scanner.replace(genStatusCodes());
       else if (com[0].equals("dictionary.name")) {
         String n = name.contains(File.separator) ? name.substring(name.lastIndexOf(File.separator)+1) : name;
-        src = s1 + definitions.getDictionaries().get(n).getName() + s3;
+        scanner.replace(definitions.getDictionaries().get(n).getName());
         //      } else if (com[0].equals("dictionary.view"))
         //        src = s1 + ResourceUtilities.representDataElementCollection(this.workerContext, (Bundle) resource, true, "hspc-qnlab-de") + s3;
       } else if (com[0].equals("search-param-pack") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getUserData("pack").toString().toLowerCase() + s3;
+        scanner.replace(((SearchParameter) resource).getUserData("pack").toString().toLowerCase());
       else if (com[0].equals("search-param-name") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getName() + s3;
+        scanner.replace(((SearchParameter) resource).getName());
       else if (com[0].equals("search-param-url") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getUrl() + s3;
+        scanner.replace(((SearchParameter) resource).getUrl());
       else if (com[0].equals("search-param-type") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getType().toCode() + s3;
+        scanner.replace(((SearchParameter) resource).getType().toCode());
       else if (com[0].equals("search-param-definition") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getDescription() + s3;
+        scanner.replace(((SearchParameter) resource).getDescription());
       else if (com[0].equals("search-param-paths") && resource instanceof SearchParameter)
-        src = s1 + (((SearchParameter) resource).hasExpression() ? ((SearchParameter) resource).getExpression() : "") + s3;
+        scanner.replace((((SearchParameter) resource).hasExpression() ? ((SearchParameter) resource).getExpression() : ""));
       else if (com[0].equals("search-param-targets") && resource instanceof SearchParameter) {
         CommaSeparatedStringBuilder b = new CommaSeparatedStringBuilder();
         for (Enumeration<VersionIndependentResourceTypesAll> t : ((SearchParameter) resource).getTarget())
           b.append(t.asStringValue());
-        src = s1 + b.toString() + s3;
+        scanner.replace(b.toString());
       }
       else if (com[0].startsWith("!"))
-        src = s1 + s3;
+        scanner.replace("");
       else if (com[0].equals("txsummary"))
         if (resource instanceof CodeSystem)
-          src = s1 + txsummary((CodeSystem) resource, genlevel(level)) + s3;
+          scanner.replace(txsummary((CodeSystem) resource, genlevel(level)));
         else
-          src = s1 + txsummary((ValueSet) resource, genlevel(level)) + s3;
+          scanner.replace(txsummary((ValueSet) resource, genlevel(level)));
       else if (com[0].equals("identifierlist"))
-        src = s1 + genIdentifierList()+s3;
+        scanner.replace(genIdentifierList());
       else if (com[0].equals("allsearchparams"))
-        src = s1 + genAllSearchParams()+s3;
+        scanner.replace(genAllSearchParams());
       else if (com[0].equals("internalsystemlist"))
-        src = s1 + genCSList()+s3;
+        scanner.replace(genCSList());
       else if (com[0].equals("internalsystemlistx"))
-        src = s1 + genCSListX()+s3;
+        scanner.replace(genCSListX());
       else if (com[0].equals("example-usage"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("ig.title"))
-        src = s1+ig.getName()+s3;
+        scanner.replace(ig.getName());
       else if (com[0].equals("ig.wglink"))
-        src = s1+igLink(ig)+s3;
+        scanner.replace(igLink(ig));
       else if (com[0].equals("ig.wgt"))
-        src = s1+ig.getCommittee()+s3;
+        scanner.replace(ig.getCommittee());
       else if (com[0].equals("ig.fmm"))
-        src = s1+getFmmFromlevel(genlevel(level), ig.getFmm())+s3;
+        scanner.replace(getFmmFromlevel(genlevel(level), ig.getFmm()));
       else if (com[0].equals("ig.ballot"))
-        src = s1+ig.getBallot()+s3;
+        scanner.replace(ig.getBallot());
       else if (com[0].equals("operations")) {
         Profile p = (Profile) object;
-        src = s1 + genOperations(p.getOperations(), p.getTitle(), p.getId(), false, null, "../") + s3;
+        scanner.replace(genOperations(p.getOperations(), p.getTitle(), p.getId(), false, null, "../"));
       } else if (com[0].equals("operations-summary"))
-        src = s1 + genOperationsSummary(((Profile) object).getOperations(), rd) + s3;
+        scanner.replace(genOperationsSummary(((Profile) object).getOperations(), rd));
       else if (com[0].equals("ig.opcount"))
-        src = s1 + genOpCount(((Profile) object).getOperations()) + s3;
+        scanner.replace(genOpCount(((Profile) object).getOperations()));
       else if (com[0].equals("ig-toc"))
-        src = s1 + genIgToc(ig) + s3;
+        scanner.replace(genIgToc(ig));
       else if (com[0].equals("fhir-path"))
-        src = s1 + "../" + s3;
+        scanner.replace("../");
       else if (com[0].equals("vscommittee"))
-        src = s1 + vscommittee(resource) + s3;
+        scanner.replace(vscommittee(resource));
       else if (com[0].equals("cscommittee"))
-        src = s1 + vscommittee(resource) + s3;
+        scanner.replace(vscommittee(resource));
       else if (com[0].equals("csdate"))
-        src = s1 + crDate(resource) + s3;
+        scanner.replace(crDate(resource));
       else if (com[0].equals("vsdate"))
-        src = s1 + crDate(resource) + s3;
+        scanner.replace(crDate(resource));
       else if (com[0].equals("cscopyright"))
-        src = s1 + csCopyright(resource) + s3;
+        scanner.replace(csCopyright(resource));
       else if (com[0].equals("csflags"))
-        src = s1 + csFlags((CodeSystem) resource) + s3;
+        scanner.replace(csFlags((CodeSystem) resource));
       else if (com[0].equals("vsflags"))
-        src = s1 + vsFlags((ValueSet) resource) + s3;
+        scanner.replace(vsFlags((ValueSet) resource));
       else if (com[0].equals("csoid"))
-        src = s1 + crOids((CanonicalResource) resource) + s3;
+        scanner.replace(crOids((CanonicalResource) resource));
       else if (com[0].equals("modifier-list"))
-        src = s1 + genModifierList() + s3;
+        scanner.replace(genModifierList());
       else if (com[0].equals("missing-element-list"))
-        src = s1 + genMeaningWhenMissingList() + s3;
+        scanner.replace(genMeaningWhenMissingList());
       else if (com[0].equals("wgreport"))
-        src = s1 + genWGReport() + s3;
+        scanner.replace(genWGReport());
       else if (com[0].equals("r3maps-summary"))
-        src = s1 + genR3MapsSummary() + s3;
+        scanner.replace(genR3MapsSummary());
       else if (com[0].equals("wg")) {
-        src = s1+(wg == null || !definitions.getWorkgroups().containsKey(wg) ?  "(No assigned work group) ("+wg+" (1))" : "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group")+s3;
+        scanner.replace((wg == null || !definitions.getWorkgroups().containsKey(wg) ?  "(No assigned work group) ("+wg+" (1))" : "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group"));
       } else if (com[0].equals("profile-context"))
-        src = s1+getProfileContext((CanonicalResource) resource, genlevel(level))+s3;
+        scanner.replace(getProfileContext((CanonicalResource) resource, genlevel(level)));
       else if (com[0].equals("res-list-maturity"))
-        src = s1+buildResListByMaturity()+s3;
+        scanner.replace(buildResListByMaturity());
       else if (com[0].equals("res-list-security"))
-        src = s1+buildResListBySecurity()+s3;
+        scanner.replace(buildResListBySecurity());
       else if (com[0].equals("res-list-fmg"))
-        src = s1+buildResListByFMG()+s3;
+        scanner.replace(buildResListByFMG());
       else if (com[0].equals("res-list-ballot"))
-        src = s1+buildResListByBallot()+s3;
+        scanner.replace(buildResListByBallot());
       else if (com[0].equals("res-list-committee"))
-        src = s1+buildResListByCommittee()+s3;
+        scanner.replace(buildResListByCommittee());
       else if (com[0].equals("wglist"))
-        src = s1+buildCommitteeList()+s3;
+        scanner.replace(buildCommitteeList());
       else if (com[0].equals("opName"))
-        src = s1+((Operation) object).getName()+s3;
+        scanner.replace(((Operation) object).getName());
       else if (com[0].equals("rName"))
-        src = s1+rd.getName()+s3;
+        scanner.replace(rd.getName());
       else if (com[0].equals("operation-summary"))
-        src = s1+((Operation) object).getName()+" summary"+s3;
+        scanner.replace(((Operation) object).getName()+" summary");
       else if (com[0].equals("extension-type-list"))
-        src = s1+genExtensionTypeList()+s3;
+        scanner.replace(genExtensionTypeList());
       else if (com[0].equals("best-practice-list"))
-        src = s1+genBestPracticeList()+s3;
+        scanner.replace(genBestPracticeList());
       else if (com[0].equals("wildcard-type-list"))
-        src = s1+genWildcardTypeList()+s3;
+        scanner.replace(genWildcardTypeList());
       else if (com[0].startsWith("GF#"))
-        src = s1+"<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">"+com[0]+"</a>"+s3;      
+        scanner.replace("<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">"+com[0]+"</a>");      
       else if (com[0].startsWith("GFT#"))
-        src = s1+"<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">Task</a>"+s3;      
+        scanner.replace("<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">Task</a>");      
       else if (com[0].equals("operation.1")) {
         Operation op = (Operation) object;
-        src = s1+genOperation1(op, rd.getName(), rd.getName().toLowerCase(), false, rd.getStatus(), genlevel(level))+s3;
+        scanner.replace(genOperation1(op, rd.getName(), rd.getName().toLowerCase(), false, rd.getStatus(), genlevel(level)));
       } else if (com[0].equals("operation.2")) {
         Operation op = (Operation) object;
-        src = s1+genOperation2(op, rd.getName(), rd.getName().toLowerCase(), false, rd.getStatus(), genlevel(level))+s3;
+        scanner.replace(genOperation2(op, rd.getName(), rd.getName().toLowerCase(), false, rd.getStatus(), genlevel(level)));
       } else if (com[0].equals("past-narrative-link")) {
         if (object == null || !(object instanceof Boolean))  
-          src = s1 + s3;
+          scanner.replace("");
         else
-          src = s1 + "<p><a href=\"#DomainResource.text.div-end\">Jump past Narrative</a></p>" + s3;
+          scanner.replace("<p><a href=\"#DomainResource.text.div-end\">Jump past Narrative</a></p>");
       } else if (others != null && others.containsKey(s2))
-        src = s1+others.get(s2)+s3;
+        scanner.replace(others.get(s2));
       else  if (com[0].equals("canonical-resources")) 
-        src = s1+listCanonicalResources()+s3;
+        scanner.replace(listCanonicalResources());
       else  if (com[0].equals("metadata-resources")) 
-        src = s1+listMetadataResources()+s3;
+        scanner.replace(listMetadataResources());
       else if (com[0].equals("special-search-parameters")) { 
-        src = s1+listSpecialParameters()+s3;
+        scanner.replace(listSpecialParameters());
       } else if (com[0].equals("diff-links-all")) { 
-        src = s1+genDiffLinks()+s3;
+        scanner.replace(genDiffLinks());
       } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3; 
+        scanner.replace(definitions.getResources().size()); 
       } else if (com[0].equals("contained-resource-examples")) { 
-        src = s1+listContainedExamples()+s3;
+        scanner.replace(listContainedExamples());
       } else if (com[0].equals("patterns-analysis")) { 
-        src = s1+patternFinder.generateReport()+s3;
+        scanner.replace(patternFinder.generateReport());
       } else if (com[0].equals("oid-list")) { 
-        src = s1+genOidsList()+s3;
+        scanner.replace(genOidsList());
       } else if (com[0].equals("extitle")) { 
-        src = s1+exTitle+s3;
+        scanner.replace(exTitle);
       } else if (com[0].equals("test-server")) { 
-        src = s1+TEST_SERVER_URL+s3;
+        scanner.replace(TEST_SERVER_URL);
       } else if (com[0].equals("example-cross-reference")) { 
-        src = s1+genExampleXRef(type, name, resource)+s3;
+        scanner.replace(genExampleXRef(type, name, resource));
       } else if (com[0].equals("jira-link")) { 
-        src = s1+genJiralink(file, null)+s3;
+        scanner.replace(genJiralink(file, null));
       } else if (com[0].equals("search-location")) {
-        src = s1+searchLocation+s3;
+        scanner.replace(searchLocation);
       } else if (com[0].equals("extensions-location")) {
-        src = s1+extensionsLocation+s3;
+        scanner.replace(extensionsLocation);
       } else if (com[0].equals("multi-language-resources")) { 
-        src = s1+getMultiLanguageResourceList()+s3;        
+        scanner.replace(getMultiLanguageResourceList());        
       } else if (com[0].equals("example-start")) { 
-        src = s1+est.start()+s3;        
+        scanner.replace(est.start());        
       } else if (com[0].equals("example-json")) { 
-        src = s1+est.json()+s3;        
+        scanner.replace(est.json());        
       } else if (com[0].equals("example-end")) { 
-        src = s1+est.end()+s3;        
+        scanner.replace(est.end());        
       } else if (com[0].equals("example-init")) { 
-        src = s1+est.init()+s3;        
+        scanner.replace(est.init());        
       } else if (com[0].equals("example-change")) { 
-        src = s1+est.change()+s3;        
+        scanner.replace(est.change());        
       } else if (com[0].equals("type-characteristics")) { 
-        src = s1+typeCharacteristics()+s3;        
+        scanner.replace(typeCharacteristics());        
       } else if (com[0].equals("bindings-list")) { 
-        src = s1+bindingsList()+s3;        
+        scanner.replace(bindingsList());        
       } else if (com[0].equals("conformance-statement-summary")) { 
-        src = s1+"<ul id=\"conf-summary\"></ul>"+s3;
+        scanner.replace("<ul id=\"conf-summary\"></ul>");
         genConformanceSummary = true;
       } else if (com[0].equals("operation.intro.include")) { 
-        src = s1+includeOperationFile((OperationDefinition) resource, "introduction")+s3;        
+        scanner.replace(includeOperationFile((OperationDefinition) resource, "introduction"));        
       } else if (com[0].equals("operation.intro.notes")) { 
-        src = s1+includeOperationFile((OperationDefinition) resource, "notes")+s3;        
+        scanner.replace(includeOperationFile((OperationDefinition) resource, "notes"));        
       } else if (com[0].equals("operation.intro.footnotes")) { 
-        src = s1+includeOperationFile((OperationDefinition) resource, "footnotes")+s3;        
+        scanner.replace(includeOperationFile((OperationDefinition) resource, "footnotes"));        
       } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
+        scanner.replace(macros.get(com[0]));
       } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
     }
+    src = scanner.getResult();
     if (genConformanceSummary) {
       src = genConformanceSummary(src);
     }
@@ -1422,19 +1418,26 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   private String processTypeLinks(String src) {
-    while (src.contains("[[%")) {
-      int i1 = src.indexOf("[[%");
-      int i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%]]")+i1;
-      String s1 = src.substring(0, i1);
+    int i1 = src.indexOf("[[%");
+    if (i1 == -1) {
+      return src;
+    }
+    StringBuilder b = new StringBuilder(src.length());
+    int last = 0;
+    while (i1 > -1) {
+      int i2 = src.indexOf("%]]", i1);
       String s2 = src.substring(i1 + 3, i2).trim();
-      String s3 = src.substring(i2+3);
       StructureDefinition sd = workerContext.fetchTypeDefinition(s2);
       if (sd != null && sd.hasWebPath()) {
         s2 ="<a href=\""+sd.getWebPath()+"\">"+s2+"</a>";
       }
-      src = s1+s2+s3; 
+      b.append(src, last, i1);
+      b.append(s2);
+      last = i2 + 3;
+      i1 = src.indexOf("[[%", last);
     }
-    return src;
+    b.append(src, last, src.length());
+    return b.toString();
   }
 
   private String extensionLink(String url) {
@@ -3492,7 +3495,7 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
     XhtmlGenerator xhtml = new XhtmlGenerator(new ExampleAdorner(definitions, genlevel(level)));
     ByteArrayOutputStream b = new ByteArrayOutputStream();
     xhtml.generate(xdoc, b, name, description, level, adorn, n+".xml.html");
-    String html = ("<%setlevel "+Integer.toString(level)+"%>"+FileUtilities.fileToString(folders.srcDir + "template-example-xml.html")).replace("<%example%>", b.toString());
+    String html = ("<%setlevel "+Integer.toString(level)+"%>"+templates.load(folders.srcDir + "template-example-xml.html")).replace("<%example%>", b.toString());
     html = processPageIncludes(n+".xml.html", html, pageType, null, n+".xml.html", null, null, crumbTitle,  (adorn && hasNarrative(xdoc)) ? Boolean.TRUE : null, ig, rd, wg, exTitle);
     FileUtilities.stringToFile(html, dst);
     htmlchecker.registerExternal(dst);
@@ -3507,7 +3510,7 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
     String n = new File(dst).getName();
     n = n.substring(0, n.length()-10);
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(description) + "</p>\r\n<pre class=\"json\" style=\"white-space: pre; overflow: hidden\">\r\n" + Utilities.escapeXml(json)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = ("<%setlevel "+Integer.toString(level)+"%>"+FileUtilities.fileToString(folders.srcDir + "template-example-json.html")).replace("<%example%>", json);
+    String html = ("<%setlevel "+Integer.toString(level)+"%>"+templates.load(folders.srcDir + "template-example-json.html")).replace("<%example%>", json);
     html = processPageIncludes(n+".json.html", html, pageType, null, null, null, crumbTitle, ig, rd, wg, exTitle);
     FileUtilities.stringToFile(html, dst);
     htmlchecker.registerExternal(dst);
@@ -5044,86 +5047,79 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
     src = processTypeLinks(src);
 
-    while (src.contains("<%") || src.contains("[%"))
+    TemplateScanner scanner = new TemplateScanner(src);
+    while (scanner.next())
     {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
 
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
+      String s2 = scanner.getDirective().trim();
       String name = file.substring(0,file.indexOf("."));
 
       String[] com = s2.split(" ");
       if (com.length == 3 && com[0].equals("edt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1], ""), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2]))+s3;
+        scanner.replace(orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1], ""), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2])));
       } else if (com.length == 2 && com[0].equals("dt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+xmlForDt(com[1], null)+tsForDt(com[1])+s3;
+        scanner.replace(xmlForDt(com[1], null)+tsForDt(com[1]));
       } else if (com.length == 2 && com[0].equals("adt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+xmlForDt(com[1], null)+tsForDt(com[1])+s3;
+        scanner.replace(xmlForDt(com[1], null)+tsForDt(com[1]));
       } else if (com.length == 2 && com[0].equals("dt.constraints"))
-        src = s1+genConstraints(com[1], "")+s3;
+        scanner.replace(genConstraints(com[1], ""));
       else if (com.length == 2 && com[0].equals("dt.restrictions"))
-        src = s1+genRestrictions(com[1])+s3;
+        scanner.replace(genRestrictions(com[1]));
       else if (com.length == 2 && com[0].equals("dictionary"))
-        src = s1+dictForDt(com[1])+s3;
+        scanner.replace(dictForDt(com[1]));
       else if (Utilities.existsInList(com[0], "pageheader", "dtheader", "atheader", "mdtheader", "edheader", "mmheader", "drheader","elheader", "belheader", "extheader", "resourcesheader", 
           "formatsheader", "narrheader", "refheader",  "extrasheader", "profilesheader", "txheader", "txheader0", "fmtheader", "igheader", "cmpheader", 
           "atomheader", "dictheader", "ctheader", "adheader", "pdheader", "tdheader", "cdheader", "diheader", "statheader", "ordistheader", "ucheader", "rrheader"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("resheader"))
-        src = s1+resHeader(name, "Document", com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(resHeader(name, "Document", com.length > 1 ? com[1] : null));
       else if (com[0].equals("aresheader"))
-        src = s1+abstractResHeader(name, "Document", com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(abstractResHeader(name, "Document", com.length > 1 ? com[1] : null));
       else if (com[0].equals("codelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file));
       else if (com[0].equals("codelist-nh"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file));
       else if (com[0].equals("linkcodelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file));
       else if (com[0].equals("sct-vs-list"))
-        src = s1+getSnomedCTVsList()+s3;
+        scanner.replace(getSnomedCTVsList());
       else if (com[0].equals("sct-concept-list"))
-        src = s1+getSnomedCTConceptList()+s3;
+        scanner.replace(getSnomedCTConceptList());
       else if (com[0].equals("codetoc"))
-        src = s1+codetoc(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(codetoc(com.length > 1 ? com[1] : null));
       else if (com[0].equals("res-category")) {
-        src = s1+resCategory(s2.substring(com[0].length()+1))+s3;
+        scanner.replace(resCategory(s2.substring(com[0].length()+1)));
         even = false;
       } else if (com[0].equals("res-item")) {
         even = !even;
-        src = s1+resItem(com[1], even)+s3;
+        scanner.replace(resItem(com[1], even));
       } else if (com[0].equals("resdesc")) {
         if (!resDesc.containsKey(com[1])) {
           resDesc.put(com[1], 0);
         }
         resDesc.put(com[1], resDesc.get(com[1]) + 1);
-        src = s1+resDesc(com[1])+s3;
+        scanner.replace(resDesc(com[1]));
       } else if (com[0].equals("resdesc-check")) {
-        src = s1+resDescCheck(com[1], resDesc)+s3;
+        scanner.replace(resDescCheck(com[1], resDesc));
       } else if (com[0].equals("rescat")) {
-        src = s1+resCat(com.length == 1 ? null : s2.substring(7))+s3;
+        scanner.replace(resCat(com.length == 1 ? null : s2.substring(7)));
       } else if (com[0].equals("w5"))
-        src = s1+genW5("true".equals(com[1]))+s3;
+        scanner.replace(genW5("true".equals(com[1])));
       else if (com[0].equals("vs-warning"))
-        src = s1 + vsWarning((ValueSet) resource) + s3;
+        scanner.replace(vsWarning((ValueSet) resource));
       else if (com[0].equals("res-status-special"))
-        src = s1 + vsSpecialStatus((DomainResource) resource) + s3;
+        scanner.replace(vsSpecialStatus((DomainResource) resource));
       else if (com[0].equals("file")) {
         if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+FileUtilities.fileToString(folders.templateDir + com[1]+".html")+s3;          
+          scanner.replace(templates.load(folders.templateDir + com[1]+".html"));          
         } else {
-          src = s1+FileUtilities.fileToString(folders.srcDir + com[1]+".html")+s3;
+          scanner.replace(templates.load(folders.srcDir + com[1]+".html"));
         }
       } else  if (com[0].equals("conceptmaplistvs")) {
         throw new Error("Fix this");
@@ -5139,53 +5135,53 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
         //        }
         //        src = s1 + conceptmaplist(ref, com[1]) + s3;
       }  else if (com[0].equals("dtmappings"))
-        src = s1 + genDataTypeMappings(com[1]) + s3;
+        scanner.replace(genDataTypeMappings(com[1]));
       else if (com[0].equals("dtusage"))
-        src = s1 + genDataTypeUsage(com[1]) + s3;
+        scanner.replace(genDataTypeUsage(com[1]));
       else if (com[0].equals("othertabs"))
-        src = s1 + genOtherTabs(com[1], tabs) + s3;
+        scanner.replace(genOtherTabs(com[1], tabs));
       else if (com[0].equals("toc"))
-        src = s1 + generateToc() + s3;
+        scanner.replace(generateToc());
       else if (com.length != 1)
         throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
       else if (com[0].equals("newheader"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader.html"));
       else if (com[0].equals("newheader1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader1.html"));
       else if (com[0].equals("footer"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer.html"));
       else if (com[0].equals("newfooter"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newfooter.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newfooter.html"));
       else if (com[0].equals("footer1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer1.html"));
       else if (com[0].equals("footer2"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer2.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer2.html"));
       else if (com[0].equals("footer3"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer3.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer3.html"));
       else if (com[0].equals("title"))
-        src = s1+Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1))+s3;
+        scanner.replace(Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)));
       else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1))+s3;
+        scanner.replace(Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)));
       else if (com[0].equals("name"))
-        src = s1+name+s3;
+        scanner.replace(name);
       else if (com[0].equals("version"))
-        src = s1+version.toCode()+s3;
+        scanner.replace(version.toCode());
       else if (com[0].equals("verTitle"))
-        src = s1+VersionUtilities.getNameForVersion(version.toCode())+s3;
+        scanner.replace(VersionUtilities.getNameForVersion(version.toCode()));
       else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
+        scanner.replace(Config.DATE_FORMAT().format(new Date()));
       else if (com[0].equals("maindiv"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("/maindiv"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("enteredInErrorTable"))
-        src = s1+enteredInErrorTable()+s3;
+        scanner.replace(enteredInErrorTable());
       else if (com[0].equals("events"))
-        src = s1 + getEventsTable(file)+ s3;
+        scanner.replace(getEventsTable(file));
       else if (com[0].equals("resourcecodes"))
-        src = s1 + genResCodes() + s3;
+        scanner.replace(genResCodes());
       else if (com[0].equals("datatypecodes"))
-        src = s1 + genDTCodes() + s3;
+        scanner.replace(genDTCodes());
       //      else if (com[0].equals("bindingtable-codelists"))
       //        src = s1 + genBindingTable(true) + s3;
       //      else if (com[0].equals("bindingtable"))
@@ -5193,63 +5189,63 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
       //      else if (com[0].equals("bindingtable-others"))
       //        src = s1 + genBindingTable(false) + s3;
       else if (com[0].equals("codeslist"))
-        src = s1 + genCodeSystemsTable() + s3;
+        scanner.replace(genCodeSystemsTable());
       else if (com[0].equals("valuesetslist"))
-        src = s1 + genValueSetsTable(ig) + s3;
+        scanner.replace(genValueSetsTable(ig));
       else if (com[0].equals("igvaluesetslist"))
-        src = s1 + genIGValueSetsTable() + s3;
+        scanner.replace(genIGValueSetsTable());
       else if (com[0].equals("namespacelist"))
-        src = s1 + genNSList() + s3;
+        scanner.replace(genNSList());
       else if (com[0].equals("resimplall"))
-        src = s1 + genResImplList() + s3;
+        scanner.replace(genResImplList());
       else if (com[0].equals("txurl"))
-        src = s1 + "http://hl7.org/fhir/"+FileUtilities.fileTitle(file) + s3;
+        scanner.replace("http://hl7.org/fhir/"+FileUtilities.fileTitle(file));
       else if (com[0].equals("vstxurl"))
-        src = s1 + "http://hl7.org/fhir/ValueSet/"+FileUtilities.fileTitle(file) + s3;
+        scanner.replace("http://hl7.org/fhir/ValueSet/"+FileUtilities.fileTitle(file));
       else if (com[0].equals("csurl")) {
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
+          scanner.replace(((CodeSystem) resource).getUrl());
         else
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
+          scanner.replace(((ValueSet) resource).getUrl());
       } else if (com[0].equals("vsurl")) {
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
+          scanner.replace(((CodeSystem) resource).getUrl());
         else
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
+          scanner.replace(((ValueSet) resource).getUrl());
       } else if (com[0].equals("txdef"))
-        src = s1 + generateCodeDefinition(FileUtilities.fileTitle(file)) + s3;
+        scanner.replace(generateCodeDefinition(FileUtilities.fileTitle(file)));
       else if (com[0].equals("vsxref")) {
-        src = s1 + xreferencesForFhir(name) + s3;
+        scanner.replace(xreferencesForFhir(name));
       } else if (com[0].equals("vsdef")) {
-        src = s1 + processMarkdown("vsdef", ((ValueSet) resource).getDescription(), genlevel(0)) + s3;
+        scanner.replace(processMarkdown("vsdef", ((ValueSet) resource).getDescription(), genlevel(0)));
       } else if (com[0].equals("csdef")) {
-        src = s1 + processMarkdown("vsdef", ((CodeSystem) resource).getDescription(), genlevel(0)) + s3;
+        scanner.replace(processMarkdown("vsdef", ((CodeSystem) resource).getDescription(), genlevel(0)));
       } else if (com[0].equals("txusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(0), true) + s3;
+        scanner.replace(generateValueSetUsage((ValueSet) resource, genlevel(0), true));
       else if (com[0].equals("vsusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(0), true) + s3;
+        scanner.replace(generateValueSetUsage((ValueSet) resource, genlevel(0), true));
       else if (com[0].equals("csusage"))
-        src = s1 + generateCSUsage((CodeSystem) resource, genlevel(0)) + s3;
+        scanner.replace(generateCSUsage((CodeSystem) resource, genlevel(0)));
       //      else if (com[0].equals("vssummary"))
       //        src = s1 + "todo" + s3;
       else if (com[0].equals("piperesources"))
-        src = s1+pipeResources()+s3;
+        scanner.replace(pipeResources());
       else if (com[0].equals("pub-name"))
-        src = s1 + publicationType + s3;
+        scanner.replace(publicationType);
       //      else if (com[0].equals("vsexpansion"))
       //        src = s1 + expandValueSet(FileUtilities.fileTitle(file), resource == null ? null : (ValueSet) resource) + s3;
       else if (com[0].equals("vsexpansionig"))
-        src = s1 + expandValueSetIG((ValueSet) resource, true) + s3;
+        scanner.replace(expandValueSetIG((ValueSet) resource, true));
       else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
+        scanner.replace(publicationNotice);
       else if (com[0].startsWith("!"))
-        src = s1 + s3;
+        scanner.replace("");
       else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
+        scanner.replace(macros.get(com[0]));
       } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
     }
-    return src;
+    return scanner.getResult();
   }
 
   private String resDescCheck(String num, Map<String, Integer> resDesc) {
@@ -5451,90 +5447,83 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
     boolean genConformanceSummary = false;
     src = processTypeLinks(src);
 
-    while (src.contains("<%") || src.contains("[%"))
+    TemplateScanner scanner = new TemplateScanner(src);
+    while (scanner.next())
     {
-      int i1 = src.indexOf("<%");
-      int i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%>")+i1;
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%]")+i1;
-      }
 
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
+      String s2 = scanner.getDirective().trim();
       String name = file.substring(0,file.indexOf("."));
 
       String[] com = s2.split(" ");
       if (s2.startsWith("!")) {
-        src = s1+s3;
+        scanner.replace("");
       } else if (com.length == 3 && com[0].equals("edt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1], ""), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2]))+s3;
+        scanner.replace(orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1], ""), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2])));
       } else if (com.length == 3 && com[0].equals("dt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+xmlForDt(com[1], null)+tsForDt(com[1])+s3;
+        scanner.replace(xmlForDt(com[1], null)+tsForDt(com[1]));
       } else if (com.length == 3 && com[0].equals("adt")) {
         if (tabs != null)
           tabs.add("tabs-"+com[1]);
-        src = s1+xmlForDt(com[1], null)+tsForDt(com[1])+s3;
+        scanner.replace(xmlForDt(com[1], null)+tsForDt(com[1]));
       } else if (com.length == 2 && com[0].equals("dt.constraints"))
-        src = s1+genConstraints(com[1], genlevel(level))+s3;
+        scanner.replace(genConstraints(com[1], genlevel(level)));
       else if (com.length == 2 && com[0].equals("dt.restrictions"))
-        src = s1+genRestrictions(com[1])+s3;
+        scanner.replace(genRestrictions(com[1]));
       else if (com.length == 2 && com[0].equals("dictionary"))
-        src = s1+dictForDt(com[1])+s3;
+        scanner.replace(dictForDt(com[1]));
       else if (Utilities.existsInList(com[0], "pageheader", "dtheader", "atheader", "mdtheader", "edheader", "mmheader", "drheader","elheader", "belheader", "extheader", "resourcesheader", 
           "formatsheader", "narrheader", "refheader",  "extrasheader", "profilesheader", "txheader", "txheader0", "fmtheader", "igheader", "cmpheader", 
           "atomheader", "dictheader", "ctheader", "adheader", "pdheader", "tdheader", "cdheader", "diheader",  "statheader", "ordistheader", "ucheader", "rrheader"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("resheader"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("aresheader"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("othertabs"))
-        src = s1 + genOtherTabs(com[1], tabs) + s3;
+        scanner.replace(genOtherTabs(com[1], tabs));
       else if (com[0].equals("diff")) {
         String p = com[1];
         String pd = p.contains("#") ? p.substring(0, p.indexOf("#")) : p;
         String t = s2.substring(com[0].length()+com[1].length()+2);
-        src = s1+"<a href=\""+p+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+pd+"&amp;doc2="+Utilities.URLEncode(webLocation)+pd+"\" data-no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>"+s3;
+        scanner.replace("<a href=\""+p+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+pd+"&amp;doc2="+Utilities.URLEncode(webLocation)+pd+"\" data-no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>");
       } else if (com[0].equals("diffx")) {
         String p1 = com[1];
         String pd = p1.contains("#") ? p1.substring(0, p1.indexOf("#")) : p1;
         String p2 = com[2];
         String t = s2.substring(com[0].length()+com[1].length()+2);
-        src = s1+"<a href=\""+p1+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+p2+"&amp;doc2="+Utilities.URLEncode(webLocation)+pd+"\" data-no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>"+s3;
+        scanner.replace("<a href=\""+p1+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+p2+"&amp;doc2="+Utilities.URLEncode(webLocation)+pd+"\" data-no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>");
       }  else if (com[0].equals("dtmappings"))
-        src = s1 + genDataTypeMappings(com[1]) + s3;
+        scanner.replace(genDataTypeMappings(com[1]));
       else if (com[0].equals("sct-vs-list"))
-        src = s1+getSnomedCTVsList()+s3;
+        scanner.replace(getSnomedCTVsList());
       else if (com[0].equals("sct-concept-list"))
-        src = s1+getSnomedCTConceptList()+s3;
+        scanner.replace(getSnomedCTConceptList());
       else if (com[0].equals("circular-references")) 
-        src = s1+buildCircularReferenceList(com[1].equals("null") ? null : Boolean.valueOf(com[1]))+s3;
+        scanner.replace(buildCircularReferenceList(com[1].equals("null") ? null : Boolean.valueOf(com[1])));
       else if (com[0].equals("dtusage"))
-        src = s1 + genDataTypeUsage(com[1]) + s3;
+        scanner.replace(genDataTypeUsage(com[1]));
       else if (com[0].equals("w5"))
-        src = s1+genW5("true".equals(com[1]))+s3;
+        scanner.replace(genW5("true".equals(com[1])));
       else if (com[0].equals("codelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file));
       else if (com[0].equals("codelist-nh"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file));
       else if (com[0].equals("linkcodelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file)+s3;
+        scanner.replace(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file));
       else if (com[0].equals("codetoc"))
-        src = s1+codetoc(com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(codetoc(com.length > 1 ? com[1] : null));
       else if (com[0].equals("vs-warning"))
-        src = s1 + vsWarning((ValueSet) resource) + s3;
+        scanner.replace(vsWarning((ValueSet) resource));
       else if (com[0].equals("res-status-special"))
-        src = s1 + vsSpecialStatus((DomainResource) resource) + s3;
+        scanner.replace(vsSpecialStatus((DomainResource) resource));
       else if (com[0].equals("maponthispage"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("onthispage"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("conceptmaplistvs")) {
         ValueSet vs = (ValueSet) resource;
         String ref;
@@ -5543,415 +5532,416 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
         } else {
           ref = vs.getUrl();
         }
-        src = s1 + conceptmaplist(ref, com[1]) + s3;
+        scanner.replace(conceptmaplist(ref, com[1]));
       }  else if (com[0].equals("res-category")) {
-        src = s1+resCategory(s2.substring(com[0].length()+1))+s3;
+        scanner.replace(resCategory(s2.substring(com[0].length()+1)));
         even = false;
       } else if (com[0].equals("res-item")) {
         even = !even;
-        src = s1+resItem(com[1], even)+s3;
+        scanner.replace(resItem(com[1], even));
       } else if (com[0].equals("resdesc")) {
         if (!resDesc.containsKey(com[1])) {
           resDesc.put(com[1], 0);
         }
         resDesc.put(com[1], resDesc.get(com[1]) + 1);
-        src = s1+resDesc(com[1])+s3;
+        scanner.replace(resDesc(com[1]));
       } else if (com[0].equals("resdesc-check")) {
-        src = s1+resDescCheck(com[1], resDesc)+s3;
+        scanner.replace(resDescCheck(com[1], resDesc));
       } else if (com[0].equals("rescat")) {
-        src = s1+resCat(com.length == 1 ? null : s2.substring(7))+s3;
+        scanner.replace(resCat(com.length == 1 ? null : s2.substring(7)));
       } else if (com[0].equals("sidebar"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("svg"))
-        src = s1+svgs.get(com[1])+s3;
+        scanner.replace(svgs.get(com[1]));
       else if (com[0].equals("diagram"))
-        src = s1+new SvgGenerator(this, genlevel(level), null, false, fileSuffix(file), version).generate(folders.srcDir+ com[1], com[2])+s3;
+        scanner.replace(new SvgGenerator(this, genlevel(level), null, false, fileSuffix(file), version).generate(folders.srcDir+ com[1], com[2]));
       else if (com[0].equals("file"))
-        src = s1+/*FileUtilities.fileToString(folders.srcDir + com[1]+".html")+*/s3;
+        scanner.replace(/*FileUtilities.fileToString(folders.srcDir + com[1]+".html")+*/"");
       else if (com[0].equals("settitle")) {
         workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("res-ref-list")) {
-        src = s1+genResRefList(com[1])+s3;
+        scanner.replace(genResRefList(com[1]));
       } else if (com[0].equals("sclist")) {
-        src = s1+genScList(com[1])+s3;
+        scanner.replace(genScList(com[1]));
       } else if (com[0].equals("xcm")) {
-        src = s1+getXcm(com[1])+s3;
+        scanner.replace(getXcm(com[1]));
       } else if (com[0].equals("xcmchk")) {
-        src = s1+getXcmChk(com[1])+s3;
+        scanner.replace(getXcmChk(com[1]));
       } else if (com[0].equals("fmm")) {
-        src = s1+getFmm(com[1], false)+s3;
+        scanner.replace(getFmm(com[1], false));
       } else if (com[0].equals("fmmshort")) {
-        src = s1+getFmmShort(com[1])+s3;
+        scanner.replace(getFmmShort(com[1]));
       } else if (com[0].equals("sstatus")) {
-        src = s1+getStandardsStatus(com[1])+s3;
+        scanner.replace(getStandardsStatus(com[1]));
       } else if (com[0].equals("wg")) {
-        src = s1+getWgLink(file, wg == null && com.length > 0 ? wg(com[1]) : wg)+s3;
+        scanner.replace(getWgLink(file, wg == null && com.length > 0 ? wg(com[1]) : wg));
       } else if (com[0].equals("wgt")) {
-        src = s1+getWgTitle(wg == null && com.length > 0 ? wg(com[1]) : wg)+s3;
+        scanner.replace(getWgTitle(wg == null && com.length > 0 ? wg(com[1]) : wg));
       } else if (com[0].equals("search-link")) {
-        src = s1+searchLink(s2)+s3;
+        scanner.replace(searchLink(s2));
       } else if (com[0].equals("search-footer")) {
-        src = s1+searchFooter(level)+s3;
+        scanner.replace(searchFooter(level));
       } else if (com[0].equals("search-header")) {
-        src = s1+searchHeader(level)+s3;
+        scanner.replace(searchHeader(level));
       } else if (com[0].equals("toc")) {
-        src = s1 + generateToc() + s3;
+        scanner.replace(generateToc());
       } else if (com[0].equals("igregistries")) {
-        src = s1+igRegistryList(com[1], com[2])+s3;
+        scanner.replace(igRegistryList(com[1], com[2]));
       } else if (com[0].equals("ig.registry")) {
-        src = s1+buildIgRegistry(ig, com[1])+s3;
+        scanner.replace(buildIgRegistry(ig, com[1]));
       } else if (com[0].equals("dtprofiles")) {
-        src = s1+produceDataTypeProfiles(com[1])+s3;
+        scanner.replace(produceDataTypeProfiles(com[1]));
       } else if (com[0].equals("dtextensions")) {
-        src = s1+produceDataTypeExtensions(com[1])+s3;
+        scanner.replace(produceDataTypeExtensions(com[1]));
       } else if (com[0].equals("resource-table")) {
-        src = s1+genResourceTable(definitions.getResourceByName(com[1]), genlevel(level), "X")+s3;
+        scanner.replace(genResourceTable(definitions.getResourceByName(com[1]), genlevel(level), "X"));
       } else if (com[0].equals("resource-table-all")) {
-        src = s1+genResourceTable(definitions.getResourceByName(com[1]), genlevel(level), "A")+s3;
+        scanner.replace(genResourceTable(definitions.getResourceByName(com[1]), genlevel(level), "A"));
       } else if (com[0].equals("profile-diff")) {
         ConstraintStructure p = definitions.findProfile(com[1]);
-        src = s1 + generateProfileStructureTable(p, true, com[1]+".html", com[1], genlevel(level)) + s3;
+        scanner.replace(generateProfileStructureTable(p, true, com[1]+".html", com[1], genlevel(level)));
         //      } else if (com[0].equals("example")) {
         //        String[] parts = com[1].split("\\/");
         //        Example e = findExample(parts[0], parts[1]);
         //        src = s1+genExample(e, com.length > 2 ? Integer.parseInt(com[2]) : 0, genlevel(level))+s3;
       } else if (com[0].equals("extension-diff")) {
         StructureDefinition ed = workerContext.fetchResource(StructureDefinition.class, com[1]);
-        src = s1+generateExtensionTable(ed, "extension-"+com[1], "false", genlevel(level))+s3;
+        scanner.replace(generateExtensionTable(ed, "extension-"+com[1], "false", genlevel(level)));
       } else if (com[0].equals("regex")) {
-        src = s1 + regex(com[1]) + s3;
+        scanner.replace(regex(com[1]));
       } else if (com[0].equals("setlevel")) {
         level = Integer.parseInt(com[1]);
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("r4r5transform")) {
-        src = s1+dtR4R5Transform(com[1])+s3;
+        scanner.replace(dtR4R5Transform(com[1]));
       } else if (com[0].equals("tx")) {
-        src = s1+produceDataTypeTx(com[1])+s3;
+        scanner.replace(produceDataTypeTx(com[1]));
       } else if (com[0].equals("normative")) {
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("mostlynormative")) {
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("dtref")) {
-        src = s1+"<a href=\""+definitions.getSrcFile(com[1])+".html#"+com[1]+"\">"+com[1]+"</a>"+s3;
+        scanner.replace("<a href=\""+definitions.getSrcFile(com[1])+".html#"+com[1]+"\">"+com[1]+"</a>");
       } else if (com[0].equals("mixednormative")) {
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("stu-note")) {
-        src = s1+getSTUNoteHeader(com[1])+s3;
+        scanner.replace(getSTUNoteHeader(com[1]));
       } else if (com[0].equals("ballot-note")) {
-        src = s1+getBallotNoteHeader(com[1])+s3;
+        scanner.replace(getBallotNoteHeader(com[1]));
       } else if (com[0].equals("pattern-impls")) {
-        src = s1+buildPatternList(com[1])+s3;     
+        scanner.replace(buildPatternList(com[1]));     
       } else if (com[0].equals("StandardsStatus")) {
-        src = s1+getStandardsStatusNote(genlevel(level), com[1], com[2], com.length == 4 ? com[3] : null)+s3;
+        scanner.replace(getStandardsStatusNote(genlevel(level), com[1], com[2], com.length == 4 ? com[3] : null));
       } else if (com[0].equals("dtstatus")) {
-        src = s1+buildDTStatus(com[1])+s3;       
+        scanner.replace(buildDTStatus(com[1]));       
       } else if (com[0].equals("extension")) {
-        src = s1+extensionLink(com[1])+s3;       
+        scanner.replace(extensionLink(com[1]));       
       } else if (com[0].equals("ig")) {
-        src = s1+igLink(com[1])+s3;       
+        scanner.replace(igLink(com[1]));       
       } else if (com[0].equals("dtxheader")) {
-        src = s1+dtxHeader(com.length > 1 ? com[1] : null, com.length > 2 ? com[2] : null)+s3;
+        scanner.replace(dtxHeader(com.length > 1 ? com[1] : null, com.length > 2 ? com[2] : null));
       } else if (com[0].equals("diff-analysis")) {
         if ("*".equals(com[1])) {
           updateDiffEngineDefinitions();
-          src = s1+diffEngine.getDiffAsHtml(this)+s3;
+          scanner.replace(diffEngine.getDiffAsHtml(this));
         } else {
           StructureDefinition sd = workerContext.fetchTypeDefinition(com[1]);
           if (sd == null)
             throw new Exception("diff-analysis not found: "+com[1]);
-          src = s1+diffEngine.getDiffAsHtml(this, sd)+s3;
+          scanner.replace(diffEngine.getDiffAsHtml(this, sd));
         }
       } else if (com[0].equals("diff-analysis-r4")) {
         updateDiffEngineDefinitions();
-        src = s1+diffEngine.getDiffAsHtml(this, CompareFhirVersion.R4)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, CompareFhirVersion.R4));
       } else if (com[0].equals("diff-analysis-r4b")) {
         updateDiffEngineDefinitions();
-        src = s1+diffEngine.getDiffAsHtml(this, CompareFhirVersion.R4B)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, CompareFhirVersion.R4B));
       } else if (com[0].equals("diff-analysis-r5")) {
         updateDiffEngineDefinitions();
-        src = s1+diffEngine.getDiffAsHtml(this, CompareFhirVersion.R5)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, CompareFhirVersion.R5));
       } else if (com.length != 1)
         throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
       else if (com[0].equals("header"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("newheader"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("newheader1"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("footer"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("newfooter"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("footer1"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("footer2"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("footer3"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle)+s3;
+        scanner.replace((workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle));
       else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1))+s3;
+        scanner.replace(Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)));
       else if (com[0].equals("name"))
-        src = s1+name+s3;
+        scanner.replace(name);
       else if (com[0].equals("version"))
-        src = s1+version.toCode()+s3;
+        scanner.replace(version.toCode());
       else if (com[0].equals("verTitle"))
-        src = s1+VersionUtilities.getNameForVersion(version.toCode())+s3;
+        scanner.replace(VersionUtilities.getNameForVersion(version.toCode()));
       else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
+        scanner.replace(Config.DATE_FORMAT().format(new Date()));
       else if (com[0].equals("maindiv"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("/maindiv"))
-        src = s1+s3;
+        scanner.replace("");
       else if (com[0].equals("events"))
-        src = s1 + getEventsTable(file)+ s3;
+        scanner.replace(getEventsTable(file));
       else if (com[0].equals("resourcecodes"))
-        src = s1 + genResCodes() + s3;
+        scanner.replace(genResCodes());
       else if (com[0].equals("enteredInErrorTable"))
-        src = s1+enteredInErrorTable()+s3;
+        scanner.replace(enteredInErrorTable());
       else if (com[0].equals("datatypecodes"))
-        src = s1 + genDTCodes() + s3;
+        scanner.replace(genDTCodes());
       //      else if (com[0].equals("bindingtable-codelists"))
       //        src = s1 + genBindingTable(true) + s3;
       else if (com[0].equals("codeslist"))
-        src = s1 + genCodeSystemsTable() + s3;
+        scanner.replace(genCodeSystemsTable());
       else if (com[0].equals("valuesetslist"))
-        src = s1 + genValueSetsTable(ig) + s3;
+        scanner.replace(genValueSetsTable(ig));
       else if (com[0].equals("igvaluesetslist"))
-        src = s1 + genIGValueSetsTable() + s3;
+        scanner.replace(genIGValueSetsTable());
       else if (com[0].equals("namespacelist"))
-        src = s1 + s3;
+        scanner.replace("");
       else if (com[0].equals("conceptmapslist"))
-        src = s1 + genConceptMapsTable() + s3;
+        scanner.replace(genConceptMapsTable());
       //      else if (com[0].equals("bindingtable"))
       //        src = s1 + genBindingsTable() + s3;
       //      else if (com[0].equals("bindingtable-others"))
       //        src = s1 + genBindingTable(false) + s3;
       else if (com[0].equals("vsxref"))
-        src = s1 + xreferencesForFhir(name) + s3;
+        scanner.replace(xreferencesForFhir(name));
       else if (com[0].equals("resimplall"))
-        src = s1 + genResImplList() + s3;
+        scanner.replace(genResImplList());
       else if (com[0].equals("txurl"))
-        src = s1 + "http://hl7.org/fhir/"+FileUtilities.fileTitle(file) + s3;
+        scanner.replace("http://hl7.org/fhir/"+FileUtilities.fileTitle(file));
       else if (com[0].equals("vstxurl"))
-        src = s1 + "http://hl7.org/fhir/ValueSet/"+FileUtilities.fileTitle(file) + s3;
+        scanner.replace("http://hl7.org/fhir/ValueSet/"+FileUtilities.fileTitle(file));
       else if (com[0].equals("csurl")) {
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
+          scanner.replace(((CodeSystem) resource).getUrl());
         else
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
+          scanner.replace(((ValueSet) resource).getUrl());
       } else if (com[0].equals("vsurl")) {
         if (resource == null) 
-          src = s1 + s3;
+          scanner.replace("");
         else if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
+          scanner.replace(((CodeSystem) resource).getUrl());
         else
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
+          scanner.replace(((ValueSet) resource).getUrl());
       } else if (com[0].equals("txdef"))
-        src = s1 + generateCodeDefinition(FileUtilities.fileTitle(file)) + s3;
+        scanner.replace(generateCodeDefinition(FileUtilities.fileTitle(file)));
       else if (com[0].equals("vsexpansion"))
-        src = s1 + expandValueSet(FileUtilities.fileTitle(file), resource == null ? null : (ValueSet) resource, genlevel(level)) + s3;
+        scanner.replace(expandValueSet(FileUtilities.fileTitle(file), resource == null ? null : (ValueSet) resource, genlevel(level)));
       else if (com[0].equals("vsexpansionig"))
-        src = s1 + expandValueSetIG((ValueSet) resource, true) + s3;
+        scanner.replace(expandValueSetIG((ValueSet) resource, true));
       else if (com[0].equals("vsdef"))
         if (resource instanceof CodeSystem)
-          src = s1 + Utilities.escapeXml(((CodeSystem) resource).getDescription()) + s3;
+          scanner.replace(Utilities.escapeXml(((CodeSystem) resource).getDescription()));
         else
-          src = s1 + Utilities.escapeXml(((ValueSet) resource).getDescription()) + s3;
+          scanner.replace(Utilities.escapeXml(((ValueSet) resource).getDescription()));
       else if (com[0].equals("txoid"))
-        src = s1 + generateOID((CodeSystem) resource) + s3;
+        scanner.replace(generateOID((CodeSystem) resource));
       else if (com[0].equals("vsoid"))
-        src = s1 + generateOID((ValueSet) resource) + s3;
+        scanner.replace(generateOID((ValueSet) resource));
       else if (com[0].equals("txname"))
-        src = s1 + FileUtilities.fileTitle(file) + s3;
+        scanner.replace(FileUtilities.fileTitle(file));
       else if (com[0].equals("vsname"))
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).present() + s3;
+          scanner.replace(((CodeSystem) resource).present());
         else
-          src = s1 + ((ValueSet) resource).present() + s3;
+          scanner.replace(((ValueSet) resource).present());
       else if (com[0].equals("vsnamed"))
-        src = s1 + ((ValueSet) resource).getName() + s3;
+        scanner.replace(((ValueSet) resource).getName());
       else if (com[0].equals("csnamed")) {
-        src = s1 + ((CodeSystem) resource).getName() + s3;
+        scanner.replace(((CodeSystem) resource).getName());
       } else if (com[0].equals("vstitle")) {
-        src = s1 + checkTitle(((ValueSet) resource).getTitle()) + s3;
+        scanner.replace(checkTitle(((ValueSet) resource).getTitle()));
       } else if (com[0].equals("cstitle")) {
-        src = s1 + checkTitle(((CodeSystem) resource).getTitle()) + s3;
+        scanner.replace(checkTitle(((CodeSystem) resource).getTitle()));
       } else if (com[0].equals("vsstatus")) {
-        src = s1 + checkTitle(((ValueSet) resource).getStatus().toCode()) + s3;
+        scanner.replace(checkTitle(((ValueSet) resource).getStatus().toCode()));
       } else if (com[0].equals("csstatus")) {
-        src = s1 + checkTitle(((CodeSystem) resource).getStatus().toCode()) + s3;
+        scanner.replace(checkTitle(((CodeSystem) resource).getStatus().toCode()));
       } else if (com[0].equals("vsver") || com[0].equals("ext-ver"))  {
         CanonicalResource cr = (CanonicalResource) resource;
-        src = s1 + cr.getVersion() + s3;
+        scanner.replace(cr.getVersion());
       } else if (com[0].equals("csver"))  {
         CanonicalResource cr = (CanonicalResource) resource;
-        src = s1 + cr.getVersion() + s3;
+        scanner.replace(cr.getVersion());
       } else if (com[0].equals("vsref")) {
-        src = s1 + FileUtilities.fileTitle((String) resource.getUserData("filename")) + s3;
+        scanner.replace(FileUtilities.fileTitle((String) resource.getUserData("filename")));
       } else if (com[0].equals("vsdesc"))
-        src = s1 + (resource != null ? Utilities.escapeXml(((ValueSet) resource).getDescription()) :  generateVSDesc(FileUtilities.fileTitle(file))) + s3;
+        scanner.replace((resource != null ? Utilities.escapeXml(((ValueSet) resource).getDescription()) :  generateVSDesc(FileUtilities.fileTitle(file))));
       else if (com[0].equals("txusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(level), true) + s3;
+        scanner.replace(generateValueSetUsage((ValueSet) resource, genlevel(level), true));
       else if (com[0].equals("vsusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(level), true) + s3;
+        scanner.replace(generateValueSetUsage((ValueSet) resource, genlevel(level), true));
       else if (com[0].equals("csusage"))
-        src = s1 + generateCSUsage((CodeSystem) resource, genlevel(level)) + s3;
+        scanner.replace(generateCSUsage((CodeSystem) resource, genlevel(level)));
       else if (com[0].equals("mappings-table"))
-        src = s1+genMappingsTable()+s3;
+        scanner.replace(genMappingsTable());
       //      else if (com[0].equals("vssummary"))
       //        src = s1 + "todo" + s3;
       else if (com[0].equals("compartmentlist"))
-        src = s1 + compartmentlist() + s3;
+        scanner.replace(compartmentlist());
       else if (com[0].equals("comp-title"))
-        src = s1 + compTitle(name) + s3;
+        scanner.replace(compTitle(name));
       else if (com[0].equals("comp-desc"))
-        src = s1 + compDesc(name) + s3;
+        scanner.replace(compDesc(name));
       else if (com[0].equals("comp-uri"))
-        src = s1 + compUri(name) + s3;
+        scanner.replace(compUri(name));
       else if (com[0].equals("comp-identity"))
-        src = s1 + compIdentity(name) + s3;
+        scanner.replace(compIdentity(name));
       else if (com[0].equals("comp-membership"))
-        src = s1 + compMembership(name) + s3;
+        scanner.replace(compMembership(name));
       else if (com[0].equals("comp-resources"))
-        src = s1 + compResourceMap(name) + s3;
+        scanner.replace(compResourceMap(name));
       else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(name) + s3;
+        scanner.replace(breadCrumbManager.make(name));
       else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(name, genlevel(level)) + s3;
+        scanner.replace(breadCrumbManager.navlist(name, genlevel(level)));
       else if (com[0].equals("breadcrumblist")) {
         String crumbTitle = (workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle);
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)) + s3;
+        scanner.replace(((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)));
       }else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
+        scanner.replace(new SimpleDateFormat("yyyy").format(new Date()));
       else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
+        scanner.replace(buildId);
       else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
+        scanner.replace(genlevel(level));
       else if (com[0].equals("piperesources"))
-        src = s1+pipeResources()+s3;
+        scanner.replace(pipeResources());
       else if (com[0].equals("archive"))
-        src = s1 + makeArchives() + s3;
+        scanner.replace(makeArchives());
       else if (com[0].equals("pub-name"))
-        src = s1 + publicationType + s3;
+        scanner.replace(publicationType);
       else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
+        scanner.replace(publicationNotice);
       else if (com[0].equals("profilelist"))
-        src = s1 + genProfilelist() + s3;
+        scanner.replace(genProfilelist());
       else if (com[0].equals("extensionslist"))
-        src = s1 + genExtensionsTable() + s3;
+        scanner.replace(genExtensionsTable());
       else if (com[0].equals("igprofileslist"))
-        src = s1 + genIGProfilelist() + s3;
+        scanner.replace(genIGProfilelist());
       else if (com[0].equals("operationslist"))
-        src = s1 + genOperationList() + s3;
+        scanner.replace(genOperationList());
       else if (com[0].equals("allparams"))
-        src = s1 + allParamlist() + s3;
+        scanner.replace(allParamlist());
       else if (com[0].equals("resourcecount"))
-        src = s1 + Integer.toString(definitions.getResources().size()) + s3;
+        scanner.replace(Integer.toString(definitions.getResources().size()));
       else if (com[0].equals("status-codes"))
-        src = s1 + genStatusCodes() + s3;
+        scanner.replace(genStatusCodes());
       else if (com[0].equals("dictionary.name"))
-        src = s1 + definitions.getDictionaries().get(name) + s3;
+        scanner.replace(definitions.getDictionaries().get(name));
       //      else if (com[0].equals("dictionary.view"))
       //        src = s1 + ResourceUtilities.representDataElementCollection(this.workerContext, (Bundle) resource, true, "hspc-QuantitativeLab-dataelements") + s3;
       else if (com[0].startsWith("!"))
-        src = s1 + s3;
+        scanner.replace("");
       else if (com[0].equals("identifierlist"))
-        src = s1 + genIdentifierList()+s3;
+        scanner.replace(genIdentifierList());
       else if (com[0].equals("allsearchparams"))
-        src = s1 + genAllSearchParams()+s3;
+        scanner.replace(genAllSearchParams());
       else if (com[0].equals("internalsystemlist"))
-        src = s1 + genCSList()+s3;
+        scanner.replace(genCSList());
       else if (com[0].equals("internalsystemlistx"))
-        src = s1 + genCSListX()+s3;
+        scanner.replace(genCSListX());
       else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(webLocation)+s3;
+        scanner.replace(Utilities.appendForwardSlash(webLocation));
       else if (com[0].equals("ig.title"))
-        src = s1+ig.getName()+s3;
+        scanner.replace(ig.getName());
       else if (com[0].equals("ig.wglink"))
-        src = s1+igLink(ig)+s3;
+        scanner.replace(igLink(ig));
       else if (com[0].equals("ig.wgt"))
-        src = s1+ig.getCommittee()+s3;
+        scanner.replace(ig.getCommittee());
       else if (com[0].equals("ig.fmm"))
-        src = s1+ig.getFmm()+s3;
+        scanner.replace(ig.getFmm());
       else if (com[0].equals("comp-name"))
-        src = s1 + compName(name) + s3;
+        scanner.replace(compName(name));
       else if (com[0].equals("ig.ballot"))
-        src = s1+ig.getBallot()+s3;
+        scanner.replace(ig.getBallot());
       else if (com[0].equals("fhir-path"))
-        src = s1 + "../" + s3;
+        scanner.replace("../");
       else if (com[0].equals("modifier-list"))
-        src = s1 + genModifierList() + s3;
+        scanner.replace(genModifierList());
       else if (com[0].equals("missing-element-list"))
-        src = s1 + genMeaningWhenMissingList() + s3;
+        scanner.replace(genMeaningWhenMissingList());
       else if (com[0].equals("wgreport"))
-        src = s1 + genWGReport() + s3;
+        scanner.replace(genWGReport());
       else if (com[0].equals("r3maps-summary"))
-        src = s1 + genR3MapsSummary() + s3;
+        scanner.replace(genR3MapsSummary());
       else if (com[0].equals("res-list-maturity"))
-        src = s1+buildResListByMaturity()+s3;
+        scanner.replace(buildResListByMaturity());
       else if (com[0].equals("res-list-security"))
-        src = s1+buildResListBySecurity()+s3;
+        scanner.replace(buildResListBySecurity());
       else if (com[0].equals("res-list-fmg"))
-        src = s1+buildResListByFMG()+s3;
+        scanner.replace(buildResListByFMG());
       else if (com[0].equals("res-list-ballot"))
-        src = s1+buildResListByBallot()+s3;
+        scanner.replace(buildResListByBallot());
       else if (com[0].equals("res-list-committee"))
-        src = s1+buildResListByCommittee()+s3;
+        scanner.replace(buildResListByCommittee());
       else if (com[0].equals("wglist"))
-        src = s1+buildCommitteeList()+s3;
+        scanner.replace(buildCommitteeList());
       else if (com[0].equals("best-practice-list"))
-        src = s1+genBestPracticeList()+s3;
+        scanner.replace(genBestPracticeList());
       else if (com[0].equals("extension-type-list"))
-        src = s1+genExtensionTypeList()+s3;
+        scanner.replace(genExtensionTypeList());
       else if (com[0].equals("wildcard-type-list"))
-        src = s1+genWildcardTypeList()+s3;
+        scanner.replace(genWildcardTypeList());
       else if (com[0].startsWith("GF#"))
-        src = s1+"<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">"+com[0]+"</a>"+s3;      
+        scanner.replace("<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">"+com[0]+"</a>");      
       else if (com[0].startsWith("GFT#"))
-        src = s1+"<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">Task</a>"+s3;      
+        scanner.replace("<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">Task</a>");      
       else  if (com[0].equals("canonical-resources")) 
-        src = s1+listCanonicalResources()+s3;      
+        scanner.replace(listCanonicalResources());      
       else if (com[0].equals("special-search-parameters")) { 
-        src = s1+listSpecialParameters()+s3;
+        scanner.replace(listSpecialParameters());
       } else if (com[0].equals("patterns-analysis")) { 
-        src = s1+patternFinder.generateReport()+s3;
+        scanner.replace(patternFinder.generateReport());
       } else if (com[0].equals("contained-resource-examples")) { 
-        src = s1+listContainedExamples()+s3;        
+        scanner.replace(listContainedExamples());        
       } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;   
+        scanner.replace(definitions.getResources().size());   
       } else if (com[0].equals("oid-list")) { 
-        src = s1+genOidsList()+s3;        
+        scanner.replace(genOidsList());        
       } else if (com[0].equals("test-server")) { 
-        src = s1+TEST_SERVER_URL+s3;        
+        scanner.replace(TEST_SERVER_URL);        
       } else if (com[0].equals("multi-language-resources")) { 
-        src = s1+getMultiLanguageResourceList()+s3;        
+        scanner.replace(getMultiLanguageResourceList());        
       } else if (com[0].equals("example-start")) { 
-        src = s1+est.start()+s3;        
+        scanner.replace(est.start());        
       } else if (com[0].equals("example-json")) { 
-        src = s1+est.json()+s3;             
+        scanner.replace(est.json());             
       } else if (com[0].equals("conformance-statement-summary")) { 
-        src = s1+"<ul id=\"conf-summary\"></ul>"+s3;
+        scanner.replace("<ul id=\"conf-summary\"></ul>");
         genConformanceSummary = true;
       } else if (com[0].equals("example-end")) { 
-        src = s1+est.end()+s3;        
+        scanner.replace(est.end());        
       } else if (com[0].equals("example-init")) { 
-        src = s1+est.init()+s3;        
+        scanner.replace(est.init());        
       } else if (com[0].equals("example-change")) { 
-        src = s1+est.change()+s3;            
+        scanner.replace(est.change());            
       } else if (com[0].equals("type-characteristics")) { 
-        src = s1+typeCharacteristics()+s3;        
+        scanner.replace(typeCharacteristics());        
       } else if (com[0].equals("bindings-list")) { 
-        src = s1+bindingsList()+s3;   
+        scanner.replace(bindingsList());   
       } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
+        scanner.replace(macros.get(com[0]));
       } else if (com[0].equals("extensions-location")) { 
-        src = s1+extensionsLocation+s3;
+        scanner.replace(extensionsLocation);
       } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
     }
+    src = scanner.getResult();
 
     if (genConformanceSummary) {
       src = genConformanceSummary(src);
@@ -6294,188 +6284,181 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
     src = processTypeLinks(src);
 
-    while (src.contains("<%") || src.contains("[%"))
+    TemplateScanner scanner = new TemplateScanner(src);
+    while (scanner.next())
     {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
+      String s2 = scanner.getDirective().trim();
 
       String[] com = s2.split(" ");
       String searchAdditions = "";
       if (com[0].equals("resheader"))
-        src = s1+resHeader(name, resource.getName(), com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(resHeader(name, resource.getName(), com.length > 1 ? com[1] : null));
       else if (com[0].equals("aresheader"))
-        src = s1+abstractResHeader(name, resource.getName(), com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(abstractResHeader(name, resource.getName(), com.length > 1 ? com[1] : null));
       else if (com[0].equals("lmheader"))
-        src = s1+lmHeader(name, resource.getName(), com.length > 1 ? com[1] : null, false)+s3;
+        scanner.replace(lmHeader(name, resource.getName(), com.length > 1 ? com[1] : null, false));
       else if (com[0].equals("file")) {
         if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+FileUtilities.fileToString(folders.templateDir + com[1]+".html")+s3;          
+          scanner.replace(templates.load(folders.templateDir + com[1]+".html"));          
         } else {
-          src = s1+FileUtilities.fileToString(folders.srcDir + com[1]+".html")+s3;
+          scanner.replace(templates.load(folders.srcDir + com[1]+".html"));
         }
       } else if (com[0].equals("settitle")) {
         workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
+        scanner.replace("");
       }
       else if (com[0].equals("complinks"))
-        src = s1+getCompLinks(resource, com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(getCompLinks(resource, com.length > 1 ? com[1] : null));
       else if (com[0].equals("liquid-link"))  
-        src = s1+genLiquidLink(resource, com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(genLiquidLink(resource, com.length > 1 ? com[1] : null));
       else if (com[0].equals("othertabs"))
-        src = s1 + genOtherTabs(com[1], tabs) + s3;
+        scanner.replace(genOtherTabs(com[1], tabs));
       else if (com[0].equals("svg"))
-        src = s1+new SvgGenerator(this, genlevel(level), resource.getLayout(), true, "", version).generate(resource, com[1])+s3;
+        scanner.replace(new SvgGenerator(this, genlevel(level), resource.getLayout(), true, "", version).generate(resource, com[1]));
       else if (com[0].equals("dtprofiles")) 
-        src = s1+produceDataTypeProfiles(com[1])+s3;
+        scanner.replace(produceDataTypeProfiles(com[1]));
       else if (com[0].equals("profilelist"))
-        src = s1+produceProfiles(resource, com.length == 2 ? com[1] : null)+s3;
+        scanner.replace(produceProfiles(resource, com.length == 2 ? com[1] : null));
       else if (com[0].equals("dictionary"))
-        src = s1+(com.length == 2 ? dictForDt(com[1]) : dict)+s3;
+        scanner.replace((com.length == 2 ? dictForDt(com[1]) : dict));
       else if (com[0].equals("dtstatus")) 
-        src = s1+buildDTStatus(com[1])+s3;       
+        scanner.replace(buildDTStatus(com[1]));       
       else if (com[0].equals("dtextensions")) 
-        src = s1+produceDataTypeExtensions(com[1])+s3;  
+        scanner.replace(produceDataTypeExtensions(com[1]));  
       else if (com[0].equals("jira-task")) 
-        src = s1+produceJiraTaskLink(com[1])+s3;
+        scanner.replace(produceJiraTaskLink(com[1]));
       else if (com.length != 1)
         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+name);
       else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(resource.getName())+s3;
+        scanner.replace(pageHeader(resource.getName()));
       else if (com[0].equals("maponthispage"))
-        src = s1+mapOnThisPage(mappingsList)+s3;
+        scanner.replace(mapOnThisPage(mappingsList));
       else if (com[0].equals("newheader"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader.html"));
       else if (com[0].equals("newheader1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader1.html"));
       else if (com[0].equals("footer"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer.html"));
       else if (com[0].equals("newfooter"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newfooter.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newfooter.html"));
       else if (com[0].equals("footer1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer1.html"));
       else if (com[0].equals("footer2"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer2.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer2.html"));
       else if (com[0].equals("footer3"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer3.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer3.html"));
       else if (com[0].equals("title"))
-        src = s1+workingTitle+s3;
+        scanner.replace(workingTitle);
       else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(resource.getName())+s3;
+        scanner.replace(Utilities.escapeXml(resource.getName()));
       else if (com[0].equals("status"))
-        src = s1+resource.getStatus()+s3;
+        scanner.replace(resource.getStatus());
       else if (com[0].equals("draft-note"))
-        src = s1+getDraftNote(resource)+s3;
+        scanner.replace(getDraftNote(resource));
       else if (com[0].equals("introduction"))
-        src = s1+loadXmlNotes(name, "introduction", true, resource.getRoot().getDefinition(), resource, tabs, null, wg)+s3;
+        scanner.replace(loadXmlNotes(name, "introduction", true, resource.getRoot().getDefinition(), resource, tabs, null, wg));
       else if (com[0].equals("notes"))
-        src = s1+loadXmlNotes(name, "notes", false, null, resource, tabs, null, wg)+s3;
+        scanner.replace(loadXmlNotes(name, "notes", false, null, resource, tabs, null, wg));
       else if (com[0].equals("examples"))
-        src = s1+produceExamples(resource)+s3;
+        scanner.replace(produceExamples(resource));
       else if (com[0].equals("extensionlist"))
-        src = s1+produceExtensions(resource)+s3;
+        scanner.replace(produceExtensions(resource));
       else if (com[0].equals("extensionreflist"))
-        src = s1+produceRefExtensions(resource)+s3;
+        scanner.replace(produceRefExtensions(resource));
       else if (com[0].equals("searchextensionlist"))
-        src = s1+produceSearchExtensions(resource)+s3;
+        scanner.replace(produceSearchExtensions(resource));
       else if (com[0].equals("wg"))
-        src = s1+(resource.getWg() == null ?  "null" : resource.getWg().getUrl())+s3;
+        scanner.replace((resource.getWg() == null ?  "null" : resource.getWg().getUrl()));
       else if (com[0].equals("wgt"))
-        src = s1+(resource.getWg() == null ?  "null" : resource.getWg().getName())+s3;
+        scanner.replace((resource.getWg() == null ?  "null" : resource.getWg().getName()));
       else if (com[0].equals("fmm"))
         if (resource.getNormativeVersion() != null)
-          src = s1+"<a href=\"versions.html#maturity\">Maturity Level</a>: <a href=\"versions.html#std-process\">N</a>"+s3;
+          scanner.replace("<a href=\"versions.html#maturity\">Maturity Level</a>: <a href=\"versions.html#std-process\">N</a>");
         else
-          src = s1+"<a href=\"versions.html#maturity\">Maturity Level</a>: "+resource.getFmmLevel()+""+s3;
+          scanner.replace("<a href=\"versions.html#maturity\">Maturity Level</a>: "+resource.getFmmLevel()+"");
       else if (com[0].equals("sec-cat"))
-        src = s1+(resource.getSecurityCategorization() == null ? "<a href=\"security.html#SecPrivConsiderations\">Security Category</a>: N/A" : "<a href=\"security.html#SecPrivConsiderations\">Security Category</a>: "+resource.getSecurityCategorization().toDisplay())+s3;
+        scanner.replace((resource.getSecurityCategorization() == null ? "<a href=\"security.html#SecPrivConsiderations\">Security Category</a>: N/A" : "<a href=\"security.html#SecPrivConsiderations\">Security Category</a>: "+resource.getSecurityCategorization().toDisplay()));
       else if (com[0].equals("sstatus")) 
-        src = s1+getStandardsStatus(resource.getName())+s3;
+        scanner.replace(getStandardsStatus(resource.getName()));
       else if (com[0].equals("example-list"))
-        src = s1+produceExampleList(resource)+s3;
+        scanner.replace(produceExampleList(resource));
       else if (com[0].equals("name"))
-        src = s1+name+s3;
+        scanner.replace(name);
       else if (com[0].equals("cname"))
-        src = s1+resource.getName()+s3;
+        scanner.replace(resource.getName());
       else if (com[0].equals("extcname"))
-        src = s1+("Resource".equals(resource.getName()) ? "resource" : resource.getName())+s3;
+        scanner.replace(("Resource".equals(resource.getName()) ? "resource" : resource.getName()));
       else if (com[0].equals("search-additions")) {
         searchAdditions = s2.substring(16).trim();
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("search")) {
-        src = s1+getSearch(resource, searchAdditions )+s3;
+        scanner.replace(getSearch(resource, searchAdditions ));
       } else if (com[0].equals("searchParamTable")) {
-        src = s1+getSearchParamTable(resource, searchAdditions )+s3;
+        scanner.replace(getSearchParamTable(resource, searchAdditions ));
       } else if (com[0].equals("asearch"))
-        src = s1+getAbstractSearch(resource, searchAdditions)+s3;
+        scanner.replace(getAbstractSearch(resource, searchAdditions));
       else if (com[0].equals("version"))
-        src = s1+version.toCode()+s3;
+        scanner.replace(version.toCode());
       else if (com[0].equals("verTitle"))
-        src = s1+VersionUtilities.getNameForVersion(version.toCode())+s3;
+        scanner.replace(VersionUtilities.getNameForVersion(version.toCode()));
       else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
+        scanner.replace(Config.DATE_FORMAT().format(new Date()));
       else if (com[0].equals("definition"))
-        src = s1+processMarkdown("resource.definition", resource.getRoot().getDefinition(), "", true)+s3;
+        scanner.replace(processMarkdown("resource.definition", resource.getRoot().getDefinition(), "", true));
       else if (com[0].equals("xml"))
-        src = s1+xml+s3;
+        scanner.replace(xml);
       else if (com[0].equals("json"))
-        src = s1+json+s3;
+        scanner.replace(json);
       else if (com[0].equals("ttl"))
-        src = s1+ttl+s3;
+        scanner.replace(ttl);
       else if (com[0].equals("tx"))
-        src = s1+tx+s3;
+        scanner.replace(tx);
       else if (com[0].equals("inv"))
-        src = s1+genResourceConstraints(resource, genlevel(level))+s3;
+        scanner.replace(genResourceConstraints(resource, genlevel(level)));
       else if (com[0].equals("resource-table"))
-        src = s1+genResourceTable(resource, genlevel(level), "X")+s3;
+        scanner.replace(genResourceTable(resource, genlevel(level), "X"));
       else if (com[0].equals("resource-table-all"))
-        src = s1+genResourceTable(resource, genlevel(level), "A")+s3;
+        scanner.replace(genResourceTable(resource, genlevel(level), "A"));
       else if (com[0].equals("plural"))
-        src = s1+Utilities.pluralizeMe(name)+s3;
+        scanner.replace(Utilities.pluralizeMe(name));
       else if (com[0].equals("mappings"))
-        src = s1+mappings+s3;
+        scanner.replace(mappings);
       else if (com[0].equals("mappingslist"))
-        src = s1+mappingsList+s3;
+        scanner.replace(mappingsList);
       else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(name) + s3;
+        scanner.replace(breadCrumbManager.make(name));
       else if (com[0].equals("ext-link"))
-        src = s1 + getExtensionsLink(resource) + s3;
+        scanner.replace(getExtensionsLink(resource));
       else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(name, genlevel(level)) + s3;
+        scanner.replace(breadCrumbManager.navlist(name, genlevel(level)));
       else if (com[0].equals("breadcrumblist"))
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), workingTitle) : ig.makeList(name, type, genlevel(level), workingTitle)) + s3;
+        scanner.replace(((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), workingTitle) : ig.makeList(name, type, genlevel(level), workingTitle)));
       else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
+        scanner.replace(new SimpleDateFormat("yyyy").format(new Date()));
       else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
+        scanner.replace(buildId);
       else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
+        scanner.replace(genlevel(level));
       else if (com[0].equals("atitle"))
-        src = s1 + abstractResourceTitle(resource) + s3;
+        scanner.replace(abstractResourceTitle(resource));
       else if (com[0].equals("pub-name"))
-        src = s1 + publicationType + s3;
+        scanner.replace(publicationType);
       else if (com[0].equals("example-header"))
-        src = s1 + loadXmlNotesFromFile(Utilities.path(folders.srcDir, name.toLowerCase(), name+"-examples-header.xml"), false, null, resource, tabs, null, wg)+s3;
+        scanner.replace(loadXmlNotesFromFile(Utilities.path(folders.srcDir, name.toLowerCase(), name+"-examples-header.xml"), false, null, resource, tabs, null, wg));
       else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
+        scanner.replace(publicationNotice);
       else if (com[0].equals("resref"))
-        src = s1 + getReferences(resource.getName()) + s3;
+        scanner.replace(getReferences(resource.getName()));
       else if (com[0].equals("pagepath"))
-        src = s1 + pagePath + s3;
+        scanner.replace(pagePath);
       else if (com[0].equals("rellink")) {
         if (!pagePath.contains(".html"))
           throw new Error("Invalid link: "+pagePath+" at "+workingTitle);
-        src = s1 + Utilities.URLEncode(pagePath) + s3;
+        scanner.replace(Utilities.URLEncode(pagePath));
       } else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(webLocation) + s3;
+        scanner.replace(Utilities.URLEncode(webLocation));
       else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(webLocation) + s3;
+        scanner.replace(Utilities.appendForwardSlash(webLocation));
       else if (com[0].equals("operations")) {
         List<Operation> oplist = resource.getOperations(); 
         String n = resource.getName(); 
@@ -6487,78 +6470,78 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
               mixed = true;
           }
         }
-        src = s1 + genOperations(oplist, n, id, mixed, resource.getStatus(), "") + s3;
+        scanner.replace(genOperations(oplist, n, id, mixed, resource.getStatus(), ""));
       } else if (com[0].equals("operations-summary"))
-        src = s1 + genOperationsSummary(resource.getOperations(), resource) + s3;
+        scanner.replace(genOperationsSummary(resource.getOperations(), resource));
       else if (com[0].equals("opcount"))
-        src = s1 + genOpCount(resource.getOperations()) + s3;
+        scanner.replace(genOpCount(resource.getOperations()));
       else if (com[0].startsWith("!"))
-        src = s1 + s3;
+        scanner.replace("");
       else if (com[0].equals("search-footer"))
-        src = s1+searchFooter(level)+s3;
+        scanner.replace(searchFooter(level));
       else if (com[0].equals("pattern-title"))
-        src = s1+resource.getName()+s3;
+        scanner.replace(resource.getName());
       else if (com[0].equals("search-header"))
-        src = s1+searchHeader(level)+s3;
+        scanner.replace(searchHeader(level));
       else if (com[0].equals("diff-analysis"))
-        src = s1+diffEngine.getDiffAsHtml(this, resource.getProfile())+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, resource.getProfile()));
       else if (com[0].equals("diff-analysis-r4"))
-        src = s1+diffEngine.getDiffAsHtml(this, resource.getProfile(), CompareFhirVersion.R4)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, resource.getProfile(), CompareFhirVersion.R4));
       else if (com[0].equals("diff-analysis-r4b"))
-        src = s1+diffEngine.getDiffAsHtml(this, resource.getProfile(), CompareFhirVersion.R4B)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, resource.getProfile(), CompareFhirVersion.R4B));
       else if (com[0].equals("diff-analysis-r5"))
-        src = s1+diffEngine.getDiffAsHtml(this, resource.getProfile(), CompareFhirVersion.R5)+s3;
+        scanner.replace(diffEngine.getDiffAsHtml(this, resource.getProfile(), CompareFhirVersion.R5));
       else if (com[0].equals("r4r5transforms"))
-        src = s1+getR3r4transformNote(resource.getName())+s3;
+        scanner.replace(getR3r4transformNote(resource.getName()));
       else if (com[0].equals("fmm-style"))
-        src = s1+fmmBarColorStyle(resource)+s3;
+        scanner.replace(fmmBarColorStyle(resource));
       else if (otherValues.containsKey(com[0]))
-        src = s1+otherValues.get(com[0])+s3;
+        scanner.replace(otherValues.get(com[0]));
       else if (com[0].equals("lmimplementations"))
-        src = s1+genImplementationList(resource)+s3; 
+        scanner.replace(genImplementationList(resource)); 
       else if (com[0].equals("json-schema"))
-        src = s1+jsonSchema(resource.getName())+s3; 
+        scanner.replace(jsonSchema(resource.getName())); 
       else if (com[0].equals("dependency-graph"))
-        src = s1+genDependencyGraph(resource, genlevel(level))+s3; 
+        scanner.replace(genDependencyGraph(resource, genlevel(level))); 
       else if (com[0].equals("logical-mappings"))
-        src = s1+genLogicalMappings(resource, genlevel(level))+s3; 
+        scanner.replace(genLogicalMappings(resource, genlevel(level))); 
       else if (com[0].equals("no-extensions-base-warning"))
-        src = s1+genNoExtensionsWarning(resource)+s3; 
+        scanner.replace(genNoExtensionsWarning(resource)); 
       else if (com[0].equals("pattern-analysis"))  
-        src = s1+genLogicalAnalysis(resource, genlevel(level))+s3;
+        scanner.replace(genLogicalAnalysis(resource, genlevel(level)));
       else if (com[0].equals("liquid"))  
-        src = s1+genLiquid(resource)+s3;
+        scanner.replace(genLiquid(resource));
       else if (com[0].equals("liquid-notes"))  
-        src = s1+genLiquidNotes(resource, genlevel(level))+s3;
+        scanner.replace(genLiquidNotes(resource, genlevel(level)));
       else if (com[0].equals("type"))  
-        src = s1+resource.getName()+s3;
+        scanner.replace(resource.getName());
       else if (com[0].equals("search-location"))
-        src = s1+searchLocation+s3;
+        scanner.replace(searchLocation);
       else if (com[0].equals("search-ext-link"))
-        src = s1+(Utilities.existsInList(resource.getName().toLowerCase(), "devicealert", "insuranceproduct", "personalrelationship", "moleculardefinition") ? "" :
-          ". Also check the <a href=\""+extensionsLocation+"extensions-"+("Resource".equals(resource.getName()) ? "resource" : resource.getName())+".html\">Extensions registry</a> for search parameters  on extensions related to this resource")+s3;
+        scanner.replace((Utilities.existsInList(resource.getName().toLowerCase(), "devicealert", "insuranceproduct", "personalrelationship", "moleculardefinition") ? "" :
+          ". Also check the <a href=\""+extensionsLocation+"extensions-"+("Resource".equals(resource.getName()) ? "resource" : resource.getName())+".html\">Extensions registry</a> for search parameters  on extensions related to this resource"));
       else if (com[0].equals("ext-search-link"))
-        src = s1+(Utilities.existsInList(resource.getName().toLowerCase(), "devicealert", "insuranceproduct", "personalrelationship", "moleculardefinition") ? "" :
-          ", and check the <a href=\""+extensionsLocation+"extensions-"+resource.getName()+".html#search\">Extensions registry</a> for search parameters on extensions related to this resource")+s3;
+        scanner.replace((Utilities.existsInList(resource.getName().toLowerCase(), "devicealert", "insuranceproduct", "personalrelationship", "moleculardefinition") ? "" :
+          ", and check the <a href=\""+extensionsLocation+"extensions-"+resource.getName()+".html#search\">Extensions registry</a> for search parameters on extensions related to this resource"));
       else if (com[0].equals("release-notes"))
-        src = s1+FileUtilities.fileToString(Utilities.path(folders.srcDir, resource.getName().toLowerCase(), resource.getName()+"-release-notes.xml"))+s3;
+        scanner.replace(FileUtilities.fileToString(Utilities.path(folders.srcDir, resource.getName().toLowerCase(), resource.getName()+"-release-notes.xml")));
       else if (com[0].equals("extensions-location")) 
-        src = s1+extensionsLocation+s3;
+        scanner.replace(extensionsLocation);
       else if (com[0].equals("resurl")) {
         if (isAggregationEndpoint(resource.getName()))
-          src = s1+s3;
+          scanner.replace("");
         else
-          src = s1+"<p>The resource name as it appears in a  RESTful URL is <a href=\"http.html#root\">[root]</a>/"+name+"/</p>"+s3;
+          scanner.replace("<p>The resource name as it appears in a  RESTful URL is <a href=\"http.html#root\">[root]</a>/"+name+"/</p>");
       } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;        
+        scanner.replace(definitions.getResources().size());        
       } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
+        scanner.replace(macros.get(com[0]));
       } else if (com[0].equals("jira-link")) { 
-        src = s1+genJiralink(pagePath, resource.getName())+s3;
+        scanner.replace(genJiralink(pagePath, resource.getName()));
       } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+name);
     }
-    return src;
+    return scanner.getResult();
   }
 
   private String produceJiraTaskLink(String task) {
@@ -9198,172 +9181,165 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
     src = processTypeLinks(src);
 
-    while (src.contains("<%") || src.contains("[%"))
+    TemplateScanner scanner = new TemplateScanner(src);
+    while (scanner.next())
     {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
+      String s2 = scanner.getDirective().trim();
 
       String[] com = s2.split(" ");
       if (com[0].equals("profileheader"))
-        src = s1+profileHeader(fileid, com.length > 1 ? com[1] : "", hasExamples(pack))+s3;
+        scanner.replace(profileHeader(fileid, com.length > 1 ? com[1] : "", hasExamples(pack)));
       else if (com[0].equals("file")) {
         if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+FileUtilities.fileToString(folders.templateDir + com[1]+".html")+s3;          
+          scanner.replace(templates.load(folders.templateDir + com[1]+".html"));          
         } else {
-          src = s1+FileUtilities.fileToString(folders.srcDir + com[1]+".html")+s3;
+          scanner.replace(templates.load(folders.srcDir + com[1]+".html"));
         }
       } else if (com[0].equals("settitle")) {
         workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("stu-note")) {
-        src = s1+getSTUNoteHeader(com[1])+s3;
+        scanner.replace(getSTUNoteHeader(com[1]));
       } else if (com[0].equals("ig")) {
-        src = s1+igLink(com[1])+s3;       
+        scanner.replace(igLink(com[1]));       
       } else if (com[0].equals("ballot-note")) {
-        src = s1+getBallotNoteHeader(com[1])+s3;
+        scanner.replace(getBallotNoteHeader(com[1]));
       }      else if (com.length != 1)
         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
       else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(pack.metadata("name"))+s3;
+        scanner.replace(pageHeader(pack.metadata("name")));
       else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
+        scanner.replace(genlevel(level));
       else if (com[0].equals("newheader"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader.html"));
       else if (com[0].equals("newheader1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader1.html"));
       else if (com[0].equals("footer"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer.html"));
       else if (com[0].equals("newfooter"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newfooter.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newfooter.html"));
       else if (com[0].equals("footer1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer1.html"));
       else if (com[0].equals("footer2"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer2.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer2.html"));
       else if (com[0].equals("footer3"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer3.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer3.html"));
       else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml("StructureDefinition: "+profile.getTitle()) : workingTitle)+s3;
+        scanner.replace((workingTitle == null ? Utilities.escapeXml("StructureDefinition: "+profile.getTitle()) : workingTitle));
       else if (com[0].equals("xtitle"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml("StructureDefinition: "+profile.getTitle()) : Utilities.escapeXml(workingTitle))+s3;
+        scanner.replace((workingTitle == null ? Utilities.escapeXml("StructureDefinition: "+profile.getTitle()) : Utilities.escapeXml(workingTitle)));
       else if (com[0].equals("profiletitle"))
-        src = s1+Utilities.escapeXml(pack.metadata("name"))+s3;
+        scanner.replace(Utilities.escapeXml(pack.metadata("name")));
       else if (com[0].equals("filetitle"))
-        src = s1+(filename.contains(".") ? filename.substring(0, filename.lastIndexOf(".")) : filename)+s3;
+        scanner.replace((filename.contains(".") ? filename.substring(0, filename.lastIndexOf(".")) : filename));
       else if (com[0].equals("name"))
-        src = s1+filename+s3;
+        scanner.replace(filename);
       else if (com[0].equals("date")) {
         if (!Utilities.noString(pack.metadata("date"))) {
           Date d = new SimpleDateFormat("yyyy-MM-dd").parse(pack.metadata("date"));
-          src = s1+Config.DATE_FORMAT().format(d)+s3;
+          scanner.replace(Config.DATE_FORMAT().format(d));
         }
         else
-          src = s1+"[no date]"+s3;
+          scanner.replace("[no date]");
       } else if (com[0].equals("version"))
-        src = s1+version.toCode()+s3;
+        scanner.replace(version.toCode());
       else if (com[0].equals("verTitle"))
-        src = s1+VersionUtilities.getNameForVersion(version.toCode())+s3;
+        scanner.replace(VersionUtilities.getNameForVersion(version.toCode()));
       else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
+        scanner.replace(Config.DATE_FORMAT().format(new Date()));
       else if (com[0].equals("definition"))
-        src = s1+Utilities.escapeXml(pack.metadata("description"))+s3;
+        scanner.replace(Utilities.escapeXml(pack.metadata("description")));
       else if (com[0].equals("status"))
-        src = s1+describeStatus(pack.metadata("status"))+s3;
+        scanner.replace(describeStatus(pack.metadata("status")));
       else if (com[0].equals("author"))
-        src = s1+Utilities.escapeXml(pack.metadata("author.name"))+s3;
+        scanner.replace(Utilities.escapeXml(pack.metadata("author.name")));
       else if (com[0].equals("xml"))
-        src = s1+xml+s3;
+        scanner.replace(xml);
       else if (com[0].equals("json"))
-        src = s1+json+s3;
+        scanner.replace(json);
       else if (com[0].equals("profiledesc")) {
-        src = s1+Utilities.escapeXml(profile.getResource().getDescription())+s3;
+        scanner.replace(Utilities.escapeXml(profile.getResource().getDescription()));
       } else if (com[0].equals("tx"))
-        src = s1+tx+s3;
+        scanner.replace(tx);
       else if (com[0].equals("inv"))
-        src = s1+genProfileConstraints(profile.getResource())+s3;
+        scanner.replace(genProfileConstraints(profile.getResource()));
       else if (com[0].equals("plural"))
-        src = s1+Utilities.pluralizeMe(filename)+s3;
+        scanner.replace(Utilities.pluralizeMe(filename));
       //      else if (com[0].equals("notes"))
       //        src = s1+"todo" /*Utilities.fileToString(folders.srcDir + filename+File.separatorChar+filename+".html")*/ +s3;
       //      else if (com[0].equals("dictionary"))
       //        src = s1+"todo"+s3;
       else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(filename) + s3;
+        scanner.replace(breadCrumbManager.make(filename));
       else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(filename, genlevel(level)) + s3;
+        scanner.replace(breadCrumbManager.navlist(filename, genlevel(level)));
       else if (com[0].equals("breadcrumblist"))
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(filename, "profile:"+path, genlevel(0), profile.getResource().getName()) : ig.makeList(filename, "profile:"+path, genlevel(level), profile.getResource().getName())) + s3;
+        scanner.replace(((ig == null || ig.isCore()) ? breadCrumbManager.makelist(filename, "profile:"+path, genlevel(0), profile.getResource().getName()) : ig.makeList(filename, "profile:"+path, genlevel(level), profile.getResource().getName())));
       else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
+        scanner.replace(new SimpleDateFormat("yyyy").format(new Date()));
       else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
+        scanner.replace(buildId);
       else if (com[0].equals("level"))
-        src = s1 + genlevel(0) + s3;
+        scanner.replace(genlevel(0));
       else if (com[0].equals("pub-name"))
-        src = s1 + publicationType + s3;
+        scanner.replace(publicationType);
       else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
+        scanner.replace(publicationNotice);
       else if (com[0].equals("profileurl"))
-        src = s1 + profile.getResource().getUrl() + s3;
+        scanner.replace(profile.getResource().getUrl());
       else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(webLocation) + s3;
+        scanner.replace(Utilities.URLEncode(webLocation));
       else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(webLocation) + s3;
+        scanner.replace(Utilities.appendForwardSlash(webLocation));
       else if (com[0].equals("base-link"))
-        src = s1 + baseLink(profile.getResource(), genlevel(level)) + s3;
+        scanner.replace(baseLink(profile.getResource(), genlevel(level)));
       else if (com[0].equals("profile-structure-table-diff"))
-        src = s1 + generateProfileStructureTable(profile, true, filename, pack.getId(), genlevel(level)) + s3;
+        scanner.replace(generateProfileStructureTable(profile, true, filename, pack.getId(), genlevel(level)));
       else if (com[0].equals("profile-structure-table"))
-        src = s1 + generateProfileStructureTable(profile, false, filename, pack.getId(), genlevel(level)) + s3;
+        scanner.replace(generateProfileStructureTable(profile, false, filename, pack.getId(), genlevel(level)));
       else if (com[0].equals("maponthispage"))
-        src = s1+mapOnPageProfile(profile.getResource())+s3;
+        scanner.replace(mapOnPageProfile(profile.getResource()));
       else if (com[0].equals("mappings"))
-        src = s1+mappingsProfile(profile.getResource())+s3;
+        scanner.replace(mappingsProfile(profile.getResource()));
       else if (com[0].equals("definitions"))
-        src = s1+definitionsProfile(profile.getResource(), genlevel(level))+s3;
+        scanner.replace(definitionsProfile(profile.getResource(), genlevel(level)));
       else if (com[0].equals("profile.review"))
-        src = s1+profileReviewLink(profile)+s3;
+        scanner.replace(profileReviewLink(profile));
       else if (com[0].equals("profile.datadictionary"))
-        src = s1+profileDictionaryLink(profile)+s3;
+        scanner.replace(profileDictionaryLink(profile));
       else if (com[0].equals("profile.tx"))
-        src = s1+getTerminologyNotes(profile.getResource(), level)+s3;
+        scanner.replace(getTerminologyNotes(profile.getResource(), level));
       else if (com[0].equals("profile.inv"))
-        src = s1+getInvariantList(profile.getResource())+s3;
+        scanner.replace(getInvariantList(profile.getResource()));
       else if (com[0].equals("draft-note"))
-        src = s1+getDraftNote(pack, genlevel(level))+s3;
+        scanner.replace(getDraftNote(pack, genlevel(level)));
       else if (com[0].equals("pagepath"))
-        src = s1+filename+s3;
+        scanner.replace(filename);
       else if (com[0].equals("rellink")) {
         if (!filename.contains(".html"))
-          src = s1+filename+".html"+s3;
+          scanner.replace(filename+".html");
         else
-          src = s1+filename+s3;
+          scanner.replace(filename);
       } else if (com[0].equals("schematron"))
-        src = s1+(isDict ? "<i>None</i>" : "<a href=\""+filename+".sch\">Schematron</a>")+s3;
+        scanner.replace((isDict ? "<i>None</i>" : "<a href=\""+filename+".sch\">Schematron</a>"));
       else if (com[0].equals("summary"))
-        src = s1+generateHumanSummary(profile.getResource(), genlevel(level))+s3;
+        scanner.replace(generateHumanSummary(profile.getResource(), genlevel(level)));
       else if (com[0].equals("profile-examples"))
-        src = s1+generateProfileExamples(pack, profile)+s3;
+        scanner.replace(generateProfileExamples(pack, profile));
       else if (com[0].equals("profile-extensions-table"))
-        src = s1+"<p><i>Todo</i></p>"+s3;
+        scanner.replace("<p><i>Todo</i></p>");
       else if (com[0].equals("definitionsonthispage"))
-        src = s1+"<p><i>Todo</i></p>"+s3;
+        scanner.replace("<p><i>Todo</i></p>");
       else if (com[0].equals("profile.intro"))
-        src = s1 +genProfileDoco(pack, intro)+ s3;
+        scanner.replace(genProfileDoco(pack, intro));
       else if (com[0].equals("profile.notes"))
-        src = s1 +genProfileDoco(pack, notes)+ s3;
+        scanner.replace(genProfileDoco(pack, notes));
       else if (com[0].equals("search-footer"))
-        src = s1+searchFooter(level)+s3;
+        scanner.replace(searchFooter(level));
       else if (com[0].equals("search-header"))
-        src = s1+searchHeader(level)+s3;
+        scanner.replace(searchHeader(level));
       else if (com[0].startsWith("!"))
-        src = s1 + s3;
+        scanner.replace("");
       else if (com[0].equals("wg")) {
         String wg = profile.getWg().getCode();
         if (Utilities.noString(wg))
@@ -9371,56 +9347,56 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
         if (Utilities.noString(wg) && profile.getDefn() != null)
           wg = profile.getDefn().getWg().getCode();
         if (wg == null || !definitions.getWorkgroups().containsKey(wg))
-          src = s1+"(No assigned work group) ("+wg+") (4)"+s3;
+          scanner.replace("(No assigned work group) ("+wg+") (4)");
         else
-          src = s1+ "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group"+s3;
+          scanner.replace("<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group");
       } else if (com[0].equals("fmm-style")) {
         String fmm = ExtensionUtilities.readStringExtension(profile.getResource(), ExtensionDefinitions.EXT_FMM_LEVEL);
         StandardsStatus ss = ExtensionUtilities.getStandardsStatus(profile.getResource());
-        src = s1+fmmBarColorStyle(ss)+s3;
+        scanner.replace(fmmBarColorStyle(ss));
       } else if (com[0].equals("fmm")) {
         String fmm = profile.getFmm();
         if (Utilities.noString(fmm))
           fmm = pack.getFmmLevel();
-        src = s1+getFmmFromlevel(genlevel(level), fmm)+s3;
+        scanner.replace(getFmmFromlevel(genlevel(level), fmm));
       } else if (com[0].equals("profile-context"))
-        src = s1+getProfileContext(pack.getCandidateResource(), genlevel(level))+s3;
+        scanner.replace(getProfileContext(pack.getCandidateResource(), genlevel(level)));
       else if (com[0].equals("sstatus")) {
         StandardsStatus ss = ExtensionUtilities.getStandardsStatus(profile.getResource());
         if (ss == null)
           ss = StandardsStatus.INFORMATIVE;
         if (ss == StandardsStatus.NORMATIVE && ExtensionUtilities.hasExtension(profile.getResource(), ExtensionDefinitions.EXT_NORMATIVE_VERSION))
-          src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a> (from v"+ExtensionUtilities.readStringExtension(profile.getResource(), ExtensionDefinitions.EXT_NORMATIVE_VERSION)+")"+s3;
+          scanner.replace("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a> (from v"+ExtensionUtilities.readStringExtension(profile.getResource(), ExtensionDefinitions.EXT_NORMATIVE_VERSION)+")");
         else
-          src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>"+s3;
+          scanner.replace("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>");
       } else if (com[0].equals("past-narrative-link")) {
         if (hasNarrative)  
-          src = s1 + s3;
+          scanner.replace("");
         else
-          src = s1 + "<p><a href=\"#DomainResource.text.div-end\">Jump past Narrative</a></p>" + s3;
+          scanner.replace("<p><a href=\"#DomainResource.text.div-end\">Jump past Narrative</a></p>");
       } else if (com[0].equals("resurl")) {
         if (Utilities.noString(pack.metadata("id")))
-          src = s1+s3;
+          scanner.replace("");
         else
-          src = s1+"The id of this profile is "+pack.metadata("id")+s3;
+          scanner.replace("The id of this profile is "+pack.metadata("id"));
       } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;        
+        scanner.replace(definitions.getResources().size());        
       } else if (com[0].equals("search-location")) {
-        src = s1+searchLocation+s3;
+        scanner.replace(searchLocation);
       } else if (com[0].equals("extensions-location")) {
-        src = s1+extensionsLocation+s3;
+        scanner.replace(extensionsLocation);
       } else if (com[0].equals("profile.intro.include")) {
-        src = s1+includeProfileFile(pack, profile, "introduction")+s3;         
+        scanner.replace(includeProfileFile(pack, profile, "introduction"));         
       } else if (com[0].equals("profile.notes.include")) {
-        src = s1+includeProfileFile(pack, profile, "notes")+s3;         
+        scanner.replace(includeProfileFile(pack, profile, "notes"));         
       } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
+        scanner.replace(macros.get(com[0]));
       } else if (com[0].equals("jira-link")) { 
-        src = s1+genJiralink(filename, profile.getDefn() != null ? profile.getDefn().getName() : null)+s3;
+        scanner.replace(genJiralink(filename, profile.getDefn() != null ? profile.getDefn().getName() : null));
       } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
     }
-    return src;
+    return scanner.getResult();
   }
 
   private String includeProfileFile(Profile pack, ConstraintStructure profile, String ftype) throws IOException {
@@ -9752,210 +9728,203 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
     src = processTypeLinks(src);
 
-    while (src.contains("<%") || src.contains("[%"))
+    TemplateScanner scanner = new TemplateScanner(src);
+    while (scanner.next())
     {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
+      String s2 = scanner.getDirective().trim();
 
       String[] com = s2.split(" ");
       if (com[0].equals("file")) {
         if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+FileUtilities.fileToString(folders.templateDir + com[1]+".html")+s3;          
+          scanner.replace(templates.load(folders.templateDir + com[1]+".html"));          
         } else {
-          src = s1+FileUtilities.fileToString(folders.srcDir + com[1]+".html")+s3;
+          scanner.replace(templates.load(folders.srcDir + com[1]+".html"));
         }
       } else if (com[0].equals("extDefnHeader"))
-        src = s1+extDefnHeader(filename, com.length > 1 ? com[1] : null)+s3;
+        scanner.replace(extDefnHeader(filename, com.length > 1 ? com[1] : null));
       else if (com[0].equals("extension-table"))
-        src = s1+generateExtensionTable(ed, filename, com[1], genlevel(level))+s3;
+        scanner.replace(generateExtensionTable(ed, filename, com[1], genlevel(level)));
       else if (com[0].equals("settitle")) {
         workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
+        scanner.replace("");
       }      else if (com.length != 1)
         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
       else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(ed.getName())+s3;
+        scanner.replace(pageHeader(ed.getName()));
       else if (com[0].equals("newheader"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader.html"));
       else if (com[0].equals("newheader1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader1.html"));
       else if (com[0].equals("footer"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer.html"));
       else if (com[0].equals("newfooter"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newfooter.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newfooter.html"));
       else if (com[0].equals("footer1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer1.html"));
       else if (com[0].equals("footer2"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer2.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer2.html"));
       else if (com[0].equals("footer3"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer3.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer3.html"));
       else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml(ed.getName()) : workingTitle)+s3;
+        scanner.replace((workingTitle == null ? Utilities.escapeXml(ed.getName()) : workingTitle));
       else if (com[0].equals("xtitle"))
-        src = s1+"Extension: "+Utilities.escapeXml(ed.getName())+s3;
+        scanner.replace("Extension: "+Utilities.escapeXml(ed.getName()));
       else if (com[0].equals("filetitle"))
-        src = s1+(filename.contains(".") ? filename.substring(0, filename.lastIndexOf(".")) : filename)+s3;
+        scanner.replace((filename.contains(".") ? filename.substring(0, filename.lastIndexOf(".")) : filename));
       else if (com[0].equals("name"))
-        src = s1+filename+s3;
+        scanner.replace(filename);
       else if (com[0].equals("date")) {
         if (ed.hasDate())
-          src = s1+ed.getDateElement().toHumanDisplay()+s3;
+          scanner.replace(ed.getDateElement().toHumanDisplay());
         else
-          src = s1+"[no date]"+s3;
+          scanner.replace("[no date]");
       } else if (com[0].equals("version"))
-        src = s1+version.toCode()+s3;
+        scanner.replace(version.toCode());
       else if (com[0].equals("verTitle"))
-        src = s1+VersionUtilities.getNameForVersion(version.toCode())+s3;
+        scanner.replace(VersionUtilities.getNameForVersion(version.toCode()));
       else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
+        scanner.replace(Config.DATE_FORMAT().format(new Date()));
       else if (com[0].equals("definition"))
-        src = s1+processor.process(Utilities.escapeXml(ed.getDescription()), "Definition on "+ed.getId())+s3;
+        scanner.replace(processor.process(Utilities.escapeXml(ed.getDescription()), "Definition on "+ed.getId()));
       else if (com[0].equals("ext-comments")) {
         if (ed.getDifferential().getElementFirstRep().hasComment())
-          src = s1+"<p><b>Comment</b>: "+processor.process(Utilities.escapeXml(ed.getDifferential().getElementFirstRep().getComment()), "Definition on "+ed.getId())+"</p>"+s3;
+          scanner.replace("<p><b>Comment</b>: "+processor.process(Utilities.escapeXml(ed.getDifferential().getElementFirstRep().getComment()), "Definition on "+ed.getId())+"</p>");
         else
-          src = s1+s3;
+          scanner.replace("");
       } else if (com[0].equals("status"))
-        src = s1+(ed.getStatus() == null ? "??" : ed.getStatus().toCode())+s3;
+        scanner.replace((ed.getStatus() == null ? "??" : ed.getStatus().toCode()));
       else if (com[0].equals("author"))
-        src = s1+Utilities.escapeXml(ed.getPublisher())+s3;
+        scanner.replace(Utilities.escapeXml(ed.getPublisher()));
       else if (com[0].equals("xml"))
-        src = s1+xml+s3;
+        scanner.replace(xml);
       else if (com[0].equals("json"))
-        src = s1+json+s3;
+        scanner.replace(json);
       else if (com[0].equals("ttl"))
-        src = s1+ttl+s3;
+        scanner.replace(ttl);
       else if (com[0].equals("tx"))
-        src = s1+tx+s3;
+        scanner.replace(tx);
       else if (com[0].equals("inv"))
-        src = s1+genExtensionConstraints(ed)+s3;
+        scanner.replace(genExtensionConstraints(ed));
       else if (com[0].equals("plural"))
-        src = s1+Utilities.pluralizeMe(filename)+s3;
+        scanner.replace(Utilities.pluralizeMe(filename));
       //      else if (com[0].equals("notes"))
       //        src = s1+"todo" /*Utilities.fileToString(folders.srcDir + filename+File.separatorChar+filename+".html")*/ +s3;
       else if (com[0].equals("dictionary"))
-        src = s1+definitionsProfile(ed, genlevel(level))+s3;
+        scanner.replace(definitionsProfile(ed, genlevel(level)));
       else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(filename) + s3;
+        scanner.replace(breadCrumbManager.make(filename));
       else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(filename, genlevel(level)) + s3;
+        scanner.replace(breadCrumbManager.navlist(filename, genlevel(level)));
       else if (com[0].equals("breadcrumblist")) {
         String crumbTitle = ed.getUrl();
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(filename, "extension:"+ed.getName(), genlevel(level), crumbTitle) : ig.makeList(filename, "extension:"+ed.getName(), genlevel(level), crumbTitle))+ s3;
+        scanner.replace(((ig == null || ig.isCore()) ? breadCrumbManager.makelist(filename, "extension:"+ed.getName(), genlevel(level), crumbTitle) : ig.makeList(filename, "extension:"+ed.getName(), genlevel(level), crumbTitle)));
       } else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
+        scanner.replace(new SimpleDateFormat("yyyy").format(new Date()));
       else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
+        scanner.replace(buildId);
       else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
+        scanner.replace(genlevel(level));
       else if (com[0].equals("pub-name"))
-        src = s1 + publicationType + s3;
+        scanner.replace(publicationType);
       else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
+        scanner.replace(publicationNotice);
       else if (com[0].equals("pagepath"))
-        src = s1 + pagePath + s3;
+        scanner.replace(pagePath);
       else if (com[0].equals("extensionurl"))
-        src = s1 + ed.getUrl() + s3;
+        scanner.replace(ed.getUrl());
       else if (com[0].equals("rellink")) {
         if (!pagePath.contains(".html"))
           throw new Error("Invalid link: "+pagePath+" at "+workingTitle);
-        src = s1 + Utilities.URLEncode(pagePath) + s3;
+        scanner.replace(Utilities.URLEncode(pagePath));
       } else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(webLocation) + s3;
+        scanner.replace(Utilities.URLEncode(webLocation));
       else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(webLocation) + s3;
+        scanner.replace(Utilities.appendForwardSlash(webLocation));
       else if (com[0].equals("mappings"))
-        src = s1+mappingsExtension(ed)+s3;
+        scanner.replace(mappingsExtension(ed));
       else if (com[0].equals("definitions"))
-        src = s1+definitionsExtension(ed, "")+s3;
+        scanner.replace(definitionsExtension(ed, ""));
       else if (com[0].equals("pubdetails")) {
-        src = s1+extPubDetails(ed)+s3;
+        scanner.replace(extPubDetails(ed));
       } else if (com[0].equals("extref"))
-        src = s1+""+s3;
+        scanner.replace("");
       else if (com[0].equals("context-info"))
-        src = s1+describeExtensionContext(ed)+s3;
+        scanner.replace(describeExtensionContext(ed));
       else if (com[0].equals("ext-search"))
-        src = s1+describeExtensionSearchParameters(ed)+s3;
+        scanner.replace(describeExtensionSearchParameters(ed));
       else if (com[0].equals("ext-name"))
-        src = s1+Utilities.escapeXml(ed.getName())+s3;
+        scanner.replace(Utilities.escapeXml(ed.getName()));
       else if (com[0].equals("extension-example-references"))
-        src = s1+usages+s3;      
+        scanner.replace(usages);      
       else if (com[0].equals("extension-search-references"))
-        src = s1+searches+s3;      
+        scanner.replace(searches);      
       else if (com[0].equals("search-footer"))
-        src = s1+searchFooter(level)+s3;
+        scanner.replace(searchFooter(level));
       else if (com[0].equals("search-header"))
-        src = s1+searchHeader(level)+s3;
+        scanner.replace(searchHeader(level));
       else if (com[0].startsWith("!"))
-        src = s1 + s3;
+        scanner.replace("");
       else if (com[0].equals("wg")) {
         String wg = ExtensionUtilities.readStringExtension(ed, ExtensionDefinitions.EXT_WORKGROUP);
-        src = s1+(wg == null || !definitions.getWorkgroups().containsKey(wg) ?  "(No assigned work group) ("+wg+") (3)" : "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group")+s3;
+        scanner.replace((wg == null || !definitions.getWorkgroups().containsKey(wg) ?  "(No assigned work group) ("+wg+") (3)" : "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group"));
       } else if (com[0].equals("fmm-style"))  {
         String fmm = ed == null ? "N/A" :  ExtensionUtilities.readStringExtension(ed, ExtensionDefinitions.EXT_FMM_LEVEL);
         StandardsStatus ss = ExtensionUtilities.getStandardsStatus(ed);
-        src = s1+fmmBarColorStyle(ss)+s3;
+        scanner.replace(fmmBarColorStyle(ss));
       } else if (com[0].equals("fmm")) {
         String fmm = ExtensionUtilities.readStringExtension(ed, ExtensionDefinitions.EXT_FMM_LEVEL);
         StandardsStatus ss = ExtensionUtilities.getStandardsStatus(ed);
         if (StandardsStatus.EXTERNAL == ss)
-          src = s1+getFmmFromlevel(genlevel(level), "N/A")+s3;
+          scanner.replace(getFmmFromlevel(genlevel(level), "N/A"));
         else if (StandardsStatus.NORMATIVE == ss)
-          src = s1+getFmmFromlevel(genlevel(level), "<a href=\""+genlevel(level)+"versions.html#std-process\">N</a>")+s3;
+          scanner.replace(getFmmFromlevel(genlevel(level), "<a href=\""+genlevel(level)+"versions.html#std-process\">N</a>"));
         else
-          src = s1+getFmmFromlevel(genlevel(level), fmm)+s3;
+          scanner.replace(getFmmFromlevel(genlevel(level), fmm));
       } else if (com[0].equals("sstatus")) {
         StandardsStatus ss = ExtensionUtilities.getStandardsStatus(ed);
         if (ss == null)
           ss = StandardsStatus.INFORMATIVE;
-        src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>"+s3;
+        scanner.replace("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>");
       } else if (com[0].equals("profile-context")) {
-        src = s1+getProfileContext(ed, genlevel(level))+s3;
+        scanner.replace(getProfileContext(ed, genlevel(level)));
       } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;
+        scanner.replace(definitions.getResources().size());
       } else if (com[0].equals("ext-ver"))  {
-        src = s1 + ed.getVersion() + s3;
+        scanner.replace(ed.getVersion());
       } else if (com[0].equals("ext-def"))  {
-        src = s1 + Utilities.escapeXml(ed.getDescription()) + s3;
+        scanner.replace(Utilities.escapeXml(ed.getDescription()));
       } else if (com[0].equals("ext-title"))  {
-        src = s1 + ed.getTitle() + s3;
+        scanner.replace(ed.getTitle());
       } else if (com[0].equals("ext-committee"))  {
         WorkGroup wg = definitions.getWorkgroups().get(ExtensionUtilities.readStringExtension(ed, ExtensionDefinitions.EXT_WORKGROUP));
         String s = wg == null ? "??" : "<a _target=\"blank\" href=\""+wg.getUrl()+"\">"+wg.getName()+"</a> Work Group";
-        src = s1 + s + s3;
+        scanner.replace(s);
       } else if (com[0].equals("ext-name"))  {
-        src = s1 + ed.getName() + s3;
+        scanner.replace(ed.getName());
       } else if (com[0].equals("ext-modifier"))  {
-        src = s1 +(extensionIsModifier(ed) ? "This extension is a modifier extension, and only used in <code>modifierExtension</code>" : "This extension is not a modifier extension") + s3;
+        scanner.replace((extensionIsModifier(ed) ? "This extension is a modifier extension, and only used in <code>modifierExtension</code>" : "This extension is not a modifier extension"));
       } else if (com[0].equals("ext-status"))  {
-        src = s1 + ed.getStatus().toCode() + s3;
+        scanner.replace(ed.getStatus().toCode());
       } else if (com[0].equals("ext-present"))  {
-        src = s1 + ed.present() + s3;
+        scanner.replace(ed.present());
       } else if (com[0].equals("ext-date"))  {
-        src = s1 + crDate(ed) + s3;
+        scanner.replace(crDate(ed));
       } else if (com[0].equals("ext-flags"))  {
-        src = s1 + extFlags(ed) + s3;        
+        scanner.replace(extFlags(ed));        
       } else if (com[0].equals("ext-oid"))  {
-        src = s1 + crOids(ed) + s3;        
+        scanner.replace(crOids(ed));        
       } else if (com[0].equals("search-location")) {
-        src = s1+searchLocation+s3;
+        scanner.replace(searchLocation);
       } else if (com[0].equals("extensions-location")) {
-        src = s1+extensionsLocation+s3;
+        scanner.replace(extensionsLocation);
       } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
+        scanner.replace(macros.get(com[0]));
       } else if (com[0].equals("jira-link")) { 
-        src = s1+genJiralink(filename, "Extension")+s3;
+        scanner.replace(genJiralink(filename, "Extension"));
       } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
     }
-    return src;
+    return scanner.getResult();
   }
 
   private String extPubDetails(StructureDefinition ed) throws FHIRException, Exception {
@@ -10335,6 +10304,14 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
     return definitions;
   }
 
+  public TemplateCache getTemplates() {
+    return templates;
+  }
+
+  public ExampleRepository getExamples() {
+    return examples;
+  }
+
   public FolderManager getFolders() {
     return folders;
   }
@@ -10553,7 +10530,7 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   public void loadSnomed() throws Exception {
-    workerContext.loadSnomed(Utilities.path(folders.rootDir, "tools", "tx", "snomed", "snomed.xml"));
+    workerContext.loadSnomed(Utilities.path(folders.rootDir, "tools", "tx", "snomed", "snomed.xml"), Utilities.path(folders.tmpDir, "snomed.cache"));
   }
 
   public void saveSnomed() throws Exception {
@@ -10563,7 +10540,7 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
   public void loadLoinc() throws Exception {
     log("Load Loinc", LogMessageType.Process);
-    workerContext.loadLoinc(Utilities.path(folders.rootDir, "tools", "tx", "loinc", "loinc.xml"));
+    workerContext.loadLoinc(Utilities.path(folders.rootDir, "tools", "tx", "loinc", "loinc.xml"), Utilities.path(folders.tmpDir, "loinc.cache"));
   }
 
   public CanonicalResourceManager<StructureDefinition> getProfiles() {
@@ -10821,175 +10798,168 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
     src = processTypeLinks(src);
 
-    while (src.contains("<%") || src.contains("[%"))
+    TemplateScanner scanner = new TemplateScanner(src);
+    while (scanner.next())
     {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
+      String s2 = scanner.getDirective().trim();
 
       String[] com = s2.split(" ");
       if (com[0].equals("file")) {
         if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+FileUtilities.fileToString(folders.templateDir + com[1]+".html")+s3;          
+          scanner.replace(templates.load(folders.templateDir + com[1]+".html"));          
         } else {
-          src = s1+FileUtilities.fileToString(folders.srcDir + com[1]+".html")+s3;
+          scanner.replace(templates.load(folders.srcDir + com[1]+".html"));
         }
       } else if (com[0].equals("settitle")) {
         workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
+        scanner.replace("");
       } else if (com[0].equals("setlevel")) {
         level = Integer.parseInt(com[1]);
-        src = s1+s3;
+        scanner.replace("");
       } else if (com.length != 1)
         throw new Exception("Instruction <%"+s2+"%> not understood parsing profile "+pack.getId());
       else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(pack.getId().toUpperCase().substring(0, 1)+pack.getId().substring(1))+s3;
+        scanner.replace(pageHeader(pack.getId().toUpperCase().substring(0, 1)+pack.getId().substring(1)));
       else if (com[0].equals("newheader"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader.html"));
       else if (com[0].equals("newheader1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newheader1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newheader1.html"));
       else if (com[0].equals("footer"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer.html"));
       else if (com[0].equals("newfooter"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "newfooter.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "newfooter.html"));
       else if (com[0].equals("footer1"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer1.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer1.html"));
       else if (com[0].equals("footer2"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer2.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer2.html"));
       else if (com[0].equals("footer3"))
-        src = s1+FileUtilities.fileToString(folders.srcDir + "footer3.html")+s3;
+        scanner.replace(templates.load(folders.srcDir + "footer3.html"));
       else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml(pack.getTitle()) : workingTitle)+s3;
+        scanner.replace((workingTitle == null ? Utilities.escapeXml(pack.getTitle()) : workingTitle));
       else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(pack.getId().toUpperCase().substring(0, 1)+pack.getId().substring(1))+s3;
+        scanner.replace(Utilities.escapeXml(pack.getId().toUpperCase().substring(0, 1)+pack.getId().substring(1)));
       else if (com[0].equals("name"))
-        src = s1+pack.getId()+s3;
+        scanner.replace(pack.getId());
       else if (com[0].equals("package.intro"))
-        src = s1+(intro == null ? pack.metadata("description") : intro) +s3;
+        scanner.replace((intro == null ? pack.metadata("description") : intro));
       else if (com[0].equals("package.notes"))
-        src = s1+(notes == null ? "" : notes) +s3;
+        scanner.replace((notes == null ? "" : notes));
       else if (com[0].equals("canonicalname"))
-        src = s1+makeCanonical(pack.getId())+s3;
+        scanner.replace(makeCanonical(pack.getId()));
       else if (com[0].equals("prettyname"))
-        src = s1+makePretty(pack.getId())+s3;
+        scanner.replace(makePretty(pack.getId()));
       else if (com[0].equals("version"))
-        src = s1+version.toCode()+s3;
+        scanner.replace(version.toCode());
       else if (com[0].equals("verTitle"))
-        src = s1+VersionUtilities.getNameForVersion(version.toCode())+s3;
+        scanner.replace(VersionUtilities.getNameForVersion(version.toCode()));
       else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
+        scanner.replace(Config.DATE_FORMAT().format(new Date()));
       else if (com[0].equals("maindiv"))
-        src = s1+"<div class=\"content\">"+s3;
+        scanner.replace("<div class=\"content\">");
       else if (com[0].equals("/maindiv"))
-        src = s1+"</div>"+s3;
+        scanner.replace("</div>");
       else if (com[0].equals("mappings-table"))
-        src = s1+genMappingsTable()+s3;
+        scanner.replace(genMappingsTable());
       else if (com[0].equals("id"))
-        src = s1+pack.getId()+s3;
+        scanner.replace(pack.getId());
       else if (com[0].equals("events"))
-        src = s1 + getEventsTable(pack.getId())+ s3;
+        scanner.replace(getEventsTable(pack.getId()));
       else if (com[0].equals("resourcecodes"))
-        src = s1 + genResCodes() + s3;
+        scanner.replace(genResCodes());
       else if (com[0].equals("datatypecodes"))
-        src = s1 + genDTCodes() + s3;
+        scanner.replace(genDTCodes());
       else if (com[0].equals("allparams"))
-        src = s1 + allParamlist() + s3;
+        scanner.replace(allParamlist());
       //      else if (com[0].equals("bindingtable-codelists"))
       //        src = s1 + genBindingTable(true) + s3;
       //      else if (com[0].equals("bindingtable"))
       //        src = s1 + genBindingsTable() + s3;
       else if (com[0].equals("codeslist"))
-        src = s1 + genCodeSystemsTable() + s3;
+        scanner.replace(genCodeSystemsTable());
       //      else if (com[0].equals("valuesetslist"))
       //        src = s1 + genValueSetsTable() + s3;
       else if (com[0].equals("igvaluesetslist"))
-        src = s1 + genIGValueSetsTable() + s3;
+        scanner.replace(genIGValueSetsTable());
       else if (com[0].equals("namespacelist"))
-        src = s1 + genNSList() + s3;
+        scanner.replace(genNSList());
       else if (com[0].equals("conceptmapslist"))
-        src = s1 + genConceptMapsTable() + s3;
+        scanner.replace(genConceptMapsTable());
       //      else if (com[0].equals("bindingtable-others"))
       //        src = s1 + genBindingTable(false) + s3;
       else if (com[0].equals("resimplall"))
-        src = s1 + genResImplList() + s3;
+        scanner.replace(genResImplList());
       else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(pack.getId()) + s3;
+        scanner.replace(breadCrumbManager.make(pack.getId()));
       else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(pack.getId(), genlevel(level)) + s3;
+        scanner.replace(breadCrumbManager.navlist(pack.getId(), genlevel(level)));
       else if (com[0].equals("breadcrumblist"))
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(pack.getId(), "profile:"+resourceName+"/"+pack.getId(), genlevel(level), pack.getTitle()): ig.makeList(pack.getId(), "profile:"+resourceName+"/"+pack.getId(), genlevel(level), pack.getTitle())) + s3;
+        scanner.replace(((ig == null || ig.isCore()) ? breadCrumbManager.makelist(pack.getId(), "profile:"+resourceName+"/"+pack.getId(), genlevel(level), pack.getTitle()): ig.makeList(pack.getId(), "profile:"+resourceName+"/"+pack.getId(), genlevel(level), pack.getTitle())));
       else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
+        scanner.replace(new SimpleDateFormat("yyyy").format(new Date()));
       else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
+        scanner.replace(buildId);
       else if (com[0].equals("-"))
-        src = s1 + publicationType + s3;
+        scanner.replace(publicationType);
       else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
+        scanner.replace(publicationNotice);
       else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
+        scanner.replace(genlevel(level));
       else if (com[0].equals("pagepath"))
-        src = s1 + pack.getId() + s3;
+        scanner.replace(pack.getId());
       else if (com[0].equals("rellink")) {
         if (pack.getId().contains(".html"))
           throw new Error("Invalid link: "+pack.getId()+" at "+workingTitle);
-        src = s1 + Utilities.URLEncode(pack.getId()+".html") + s3;
+        scanner.replace(Utilities.URLEncode(pack.getId()+".html"));
       } else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(webLocation) + s3;
+        scanner.replace(Utilities.URLEncode(webLocation));
       else if (com[0].equals("description"))
-        src = s1 + Utilities.escapeXml(pack.getDescription()) + s3;
+        scanner.replace(Utilities.escapeXml(pack.getDescription()));
       else if (com[0].equals("package-content"))
-        src = s1 + getPackageContent(pack, genlevel(level)) + s3;
+        scanner.replace(getPackageContent(pack, genlevel(level)));
       else if (com[0].equals("search-footer"))
-        src = s1+searchFooter(level)+s3;
+        scanner.replace(searchFooter(level));
       else if (com[0].equals("sstatus")) {
         if (com.length == 1) {
           StandardsStatus ss = pack.getStandardsStatus();
           if (ss == null)
             ss = StandardsStatus.INFORMATIVE;
-          src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>"+s3;
+          scanner.replace("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>");
         } else
-          src = s1+getStandardsStatus(com[1])+s3;
+          scanner.replace(getStandardsStatus(com[1]));
       } else if (com[0].equals("search-header"))
-        src = s1+searchHeader(level)+s3;
+        scanner.replace(searchHeader(level));
       else if (com[0].equals("pub-name"))
-        src = s1+publicationType+s3;
+        scanner.replace(publicationType);
       else if (com[0].equals("fmm-style")) {
         String fmm = pack.getFmmLevel();
         StandardsStatus ss = pack.getStandardsStatus();
-        src = s1+fmmBarColorStyle(ss)+s3;
+        scanner.replace(fmmBarColorStyle(ss));
       } else if (com[0].equals("package.search"))
-        src = s1+getSearch(pack)+s3;
+        scanner.replace(getSearch(pack));
       else if (com[0].equals("search-location"))
-        src = s1+searchLocation+s3;
+        scanner.replace(searchLocation);
       else if (com[0].equals("extensions-location")) 
-        src = s1+extensionsLocation+s3;
+        scanner.replace(extensionsLocation);
       else if (com[0].startsWith("!"))
-        src = s1 + s3;
+        scanner.replace("");
       else if (com[0].equals("wg")) {
         String wg = pack.getWg();
         if (Utilities.noString(wg) && definitions.hasResource(resourceName))
           wg = definitions.getResourceByName(resourceName).getWg().getCode();
         if (wg == null || !definitions.getWorkgroups().containsKey(wg))
-          src = s1+"(No assigned work group) ("+wg+") (4)"+s3;
+          scanner.replace("(No assigned work group) ("+wg+") (4)");
         else
-          src = s1+ "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group"+s3;
+          scanner.replace("<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group");
       } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;        
+        scanner.replace(definitions.getResources().size());        
       } else if (com[0].equals("jira-link")) { 
-        src = s1+genJiralink(filename, resourceName)+s3;
+        scanner.replace(genJiralink(filename, resourceName));
       } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
+        scanner.replace(macros.get(com[0]));
       } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing profile "+pack.getId());
     }
-    return src;
+    return scanner.getResult();
   }
 
   private String getPackageContent(Profile pack, String prefix) throws Exception {
@@ -29,6 +29,7 @@ package org.hl7.fhir.tools.publisher;
 
  */
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -40,6 +41,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -57,11 +59,16 @@ import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 
 import javax.xml.XMLConstants;
@@ -81,6 +88,7 @@ import javax.xml.validation.Validator;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.ontology.OntModel;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.filters.StringInputStream;
 import org.eclipse.jgit.api.Git;
@@ -155,7 +163,6 @@ import org.hl7.fhir.r5.elementmodel.ParserBase;
 import org.hl7.fhir.r5.elementmodel.ParserBase.ValidationPolicy;
 import org.hl7.fhir.r5.elementmodel.ResourceParser;
 import org.hl7.fhir.r5.extensions.ExtensionUtilities;
-import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
 import org.hl7.fhir.r5.fhirpath.TypeDetails;
 import org.hl7.fhir.r5.formats.FormatUtilities;
 import org.hl7.fhir.r5.formats.IParser;
@@ -262,7 +269,10 @@ import org.hl7.fhir.rdf.RDFValidator;
 import org.hl7.fhir.tools.converters.CDAGenerator;
 import org.hl7.fhir.tools.converters.DSTU3ValidationConvertor;
 import org.hl7.fhir.tools.converters.SpecNPMPackageGenerator;
+import org.hl7.fhir.tools.publisher.BuildMetrics.Phase;
+import org.hl7.fhir.tools.publisher.BuildScheduler.BuildTask;
 import org.hl7.fhir.tools.publisher.ExampleInspector.EValidationFailed;
+import org.hl7.fhir.tools.publisher.ExampleInspector.ExampleValidation;
 import org.hl7.fhir.utilities.CloseProtectedZipInputStream;
 import org.hl7.fhir.utilities.CommaSeparatedStringBuilder;
 import org.hl7.fhir.utilities.IniFile;
@@ -492,6 +502,13 @@ public class Publisher implements URIResolver, SectionNumberer {
 
   private static final long GB_12 = 12 * 1024 * 1024 * 1024;
 
+  // shared state that build tasks lock when they run in parallel (see BuildScheduler). Nearly
+  // all of the produceSpec tasks render through the PageProcessor or write the bundles, so
+  // produceSpec itself still runs mostly one task at a time; the threads are used by the
+  // tasks that don't need these (spreadsheets, serialization, schemas, validation, zips)
+  private static final String LOCK_BUNDLES = "bundles"; // resource/type/profile bundles and the worker context
+  private static final String LOCK_PAGES = "pages"; // PageProcessor: includes, toc, section numbers, fragments, link checker
+
   private Calendar execTime = Calendar.getInstance();
   private String outputdir;
 
@@ -510,13 +527,13 @@ public class Publisher implements URIResolver, SectionNumberer {
   private Bundle externals;
   private boolean noPartialBuild;
   private List<Fragment> fragments = new ArrayList<Publisher.Fragment>();
-  private Map<String, String> xmls = new HashMap<String, String>();
-  private Map<String, String> jsons = new HashMap<String, String>();
-  private Map<String, String> ttls = new HashMap<String, String>();
-  private Map<String, Long> dates = new HashMap<String, Long>();
-  // Per category (lower-cased), the file whose mtime is currently the newest -
-  // i.e. the one driving the rebuild decision - recorded so a partial build can
-  // report what each resource is being rebuilt for.
+  private Map<String, String> xmls = new ConcurrentHashMap<String, String>();
+  private Map<String, String> jsons = new ConcurrentHashMap<String, String>();
+  private Map<String, String> ttls = new ConcurrentHashMap<String, String>();
+  private BuildGraph sourceGraph;
+  // Per part (lower-cased), the first change the source graph found for it (e.g.
+  // "patient-spreadsheet.xml changed"), so a partial build can report what each
+  // resource is being rebuilt for.
   private Map<String, String> dateSources = new HashMap<String, String>();
   private Map<String, Boolean> buildFlags = new HashMap<String, Boolean>();
   private IniFile cache;
@@ -534,6 +551,9 @@ public class Publisher implements URIResolver, SectionNumberer {
   private boolean isCIBuild;
   private boolean isPostPR;
   private String validateId;
+  private int threads = 1;
+  private BuildMetrics metrics = new BuildMetrics();
+  private Map<String, long[]> serializationStats = new TreeMap<String, long[]>(); // ext -> files, bytes, ms
 
   private Validator mappingExceptionsValidator;
 
@@ -558,6 +578,14 @@ public class Publisher implements URIResolver, SectionNumberer {
       pub.validationMode = ValidationMode.fromCode(getNamedParam(args, "-validation-mode"));
     }
     pub.isPostPR = (args.length >= 1 && hasParam(args, "-post-pr"));
+    if (hasParam(args, "-threads")) {
+      String t = getNamedParam(args, "-threads");
+      if (t == null || !Utilities.isInteger(t) || Integer.parseInt(t) < 1) {
+        System.out.println("Usage: -threads N, where N is the number of build threads (1 or more), not '"+t+"'");
+        System.exit(1);
+      }
+      pub.threads = Integer.parseInt(t);
+    }
     if (hasParam(args, "-resource"))
       pub.singleResource = getNamedParam(args, "-resource");
     if (hasParam(args, "-page"))
@@ -730,17 +758,24 @@ public class Publisher implements URIResolver, SectionNumberer {
       if (!initialize(folder))
         throw new Exception("Unable to publish as preconditions aren't met");
 
-      cache = new IniFile(page.getFolders().rootDir + "temp" + File.separator + "build.cache");
+      String cacheFile = page.getFolders().rootDir + "temp" + File.separator + "build.cache";
+      IniFile lastBuild = new IniFile(cacheFile);
+      new File(cacheFile).delete();
+      cache = new IniFile(cacheFile);
       loadSuppressedMessages(page.getFolders().rootDir);
       boolean doAny = false;
-      for (String n : dates.keySet()) {
-        Long d = cache.getLongProperty("dates", n);
-        boolean b = d == null || (dates.get(n) > d);
-        cache.setLongProperty("dates", n, dates.get(n).longValue(), null);
-        buildFlags.put(n.toLowerCase(), b);
+      Map<String, String> changes = sourceGraph.findChanges(lastBuild, cache, page.getFolders().dstDir);
+      Set<String> parts = new TreeSet<String>(sourceGraph.getParts());
+      parts.addAll(changes.keySet());
+      for (String n : parts) {
+        boolean b = changes.containsKey(n);
+        buildFlags.put(n, b);
+        if (b)
+          dateSources.put(n, changes.get(n));
         doAny = doAny || b;
       }
       cache.save();
+      page.getHTMLChecker().setBuildGraph(sourceGraph);
       // overriding build
 
       if (noPartialBuild || !doAny || !(new File(page.getFolders().dstDir + "qa.html").exists()))
@@ -771,7 +806,8 @@ public class Publisher implements URIResolver, SectionNumberer {
         Collections.sort(bnames);
         for (String n : bnames) {
           String src = dateSources.get(n);
-          page.log("  build "+n+(src == null ? "" : "  <- changed: "+src), LogMessageType.Process);
+          int outputs = sourceGraph.getOutputCount(n);
+          page.log("  build "+n+(src == null ? "" : "  <- changed: "+src)+(outputs == 0 ? "" : " ("+outputs+" generated files)"), LogMessageType.Process);
         }
       } else {
         if (!noSound) 
@@ -781,6 +817,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       if (isGenerate && page.getBuildId() == null)
         page.setBuildId(getGitBuildId());
       page.log("Version " + page.getVersion().toCode() + "-" + page.getBuildId(), LogMessageType.Hint);
+      page.log(threads == 1 ? "Build tasks run serially" : "Build tasks run on "+threads+" threads (page and bundle generation is still serial)", LogMessageType.Process);
       FileUtilities.createDirectory(page.getFolders().dstDir);
       FileUtilities.deleteTempFiles();
 
@@ -793,7 +830,9 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.makeRenderingContext();
       page.getWorkerContext().cacheResource(fetchAdditionalTypes());
 
+      Phase phase = metrics.start("parse");
       prsr.parse(page.getGenDate(), page.getValidationErrors());
+      phase.end();
       for (String n : page.getDefinitions().sortedResourceNames())
         if (!page.getBreadCrumbManager().knowsResource(n))
           page.getValidationErrors().add(new ValidationMessage(Source.Publisher, IssueType.INVALID, -1, -1, "hierarchy.xml", "Resource not found: "+n,IssueSeverity.ERROR));
@@ -817,23 +856,37 @@ public class Publisher implements URIResolver, SectionNumberer {
         copyStaticContent();
       }
 
+      phase = metrics.start("loadValueSets1");
       loadValueSets1();
       generateSCMaps();
+      phase.end();
+      phase = metrics.start("validate1");
       validate1();
+      phase.end();
+      phase = metrics.start("processProfiles");
       processProfiles();
+      phase.end();
+      phase = metrics.start("validate2");
       validate2();
+      phase.end();
       checkAllOk();
       startValidation();
 
       if (isGenerate) {
+        phase = metrics.start("produceSpecification");
         produceSpecification();
+        phase.end();
         checkAllOk();
       } 
 
-      if (doValidate)
+      if (doValidate) {
+        phase = metrics.start("validationProcess");
         validationProcess();
+        phase.end();
+      }
       page.saveSnomed();
       page.getWorkerContext().saveCache();
+      page.log(page.getWorkerContext().getValidationCache().summary(), LogMessageType.Process);
       if (isGenerate && buildFlags.get("all")) {
         if (FhirSettings.hasApiKey("tx.fhir.org")) {
           page.commitTerminologyCache(FhirSettings.getApiKey("tx.fhir.org"));
@@ -841,10 +894,24 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
       
       processWarnings(false);
-      if (isGenerate && buildFlags.get("all"))
+      if (isGenerate && buildFlags.get("all")) {
+        phase = metrics.start("produceQA");
         produceQA();
+        phase.end();
+      }
 
       page.log("Max Memory Used = "+Utilities.describeSize(page.getMaxMemory()), LogMessageType.Process);
+      if (isGenerate) {
+        metrics.save(Utilities.path(page.getFolders().dstDir, "build-metrics.json"), page.getVersion().toCode(), page.getBuildId(), threads);
+        Set<String> built = null;
+        if (!buildFlags.get("all")) {
+          built = new HashSet<String>();
+          for (String n : buildFlags.keySet())
+            if (buildFlags.get(n))
+              built.add(n);
+        }
+        sourceGraph.saveOutputs(cache, built);
+      }
       if (!buildFlags.get("all")) {
         page.log("This was a Partial Build", LogMessageType.Process);
         List<String> bnames = new ArrayList<String>();
@@ -1009,30 +1076,49 @@ public class Publisher implements URIResolver, SectionNumberer {
 
   }
 
-  private void testSearchParameters() {
+  private void testSearchParameters() throws Exception {
     boolean ok = true;
     List<String> ids = new ArrayList<>();
-    
-    for (ResourceDefn rd : page.getDefinitions().getBaseResources().values()) {
-      ok = testSearchParameters(rd, ids) && ok;
+    List<ResourceDefn> list = new ArrayList<>();
+    list.addAll(page.getDefinitions().getBaseResources().values());
+    list.addAll(page.getDefinitions().getResources().values());
+
+    if (fpChecker == null) {
+      fpChecker = new FHIRPathChecker(page.getWorkerContext());
     }
-    
-    for (ResourceDefn rd : page.getDefinitions().getResources().values()) {
-      ok = testSearchParameters(rd, ids) && ok;
+    // first check all the expressions, then look at the results in order
+    List<FHIRPathChecker.Check> checks = new ArrayList<>();
+    for (ResourceDefn rd : list) {
+      for (SearchParameterDefn spd : rd.getSearchParams().values()) {
+        SearchParameter sp = spd.getResource();
+        StructureDefinition sd = rd.getProfile();
+        if (sp.hasExpression()) {
+          String exp = sp.getExpression().replace("{{name}}", sd.getType()); // for templates  
+          if (sp.getBase().size() > 1) {
+            checks.add(fpChecker.add(sd.getType(), page.getWorkerContext().getResourceNames(), exp));
+          } else {
+            checks.add(fpChecker.add(sd.getType(), sd.getType(), exp));
+          }
+        }
+      }
+    }
+    fpChecker.run(threads, null);
+
+    Iterator<FHIRPathChecker.Check> results = checks.iterator();
+    for (ResourceDefn rd : list) {
+      ok = testSearchParameters(rd, ids, results) && ok;
     }    
+    page.log(fpChecker.summary(), LogMessageType.Process);
 
     if (!ok) {
       throw new Error("Some search parameters failed testing: "+CommaSeparatedStringBuilder.join(", ", ids));
     }
   }
 
-  private boolean testSearchParameters(ResourceDefn rd, List<String> ids) {
-    if (fpe == null) {
-      fpe = new FHIRPathEngine(page.getWorkerContext());
-    }
+  private boolean testSearchParameters(ResourceDefn rd, List<String> ids, Iterator<FHIRPathChecker.Check> results) {
     boolean ok = true;
     for (SearchParameterDefn spd : rd.getSearchParams().values()) {
-      boolean sok = testSearchParameter(spd.getResource(), rd.getProfile());
+      boolean sok = testSearchParameter(spd.getResource(), rd.getProfile(), spd.getResource().hasExpression() ? results.next() : null);
       if (!sok) {
         ok = false;
         ids.add(spd.getResource()+"/"+spd.getCode());
@@ -1041,18 +1127,15 @@ public class Publisher implements URIResolver, SectionNumberer {
     return ok;
   }
 
-  private boolean testSearchParameter(SearchParameter sp, StructureDefinition rd) {
+  private boolean testSearchParameter(SearchParameter sp, StructureDefinition rd, FHIRPathChecker.Check check) {
     boolean result = true;
     if (sp.hasExpression()) {
       try {
-        Set<ElementDefinition> set = new HashSet<>();
-        String exp = sp.getExpression().replace("{{name}}", rd.getType()); // for templates  
-        TypeDetails td = null;
-        if (sp.getBase().size() > 1) {
-          td = fpe.check(null, "Resource", rd.getType(), page.getWorkerContext().getResourceNames(), fpe.parse(exp), set);
-        } else {
-          td = fpe.check(null, "Resource", rd.getType(), rd.getType(), fpe.parse(exp), set);
+        if (check.getError() != null) {
+          throw check.getError();
         }
+        Set<ElementDefinition> set = check.getElements();
+        TypeDetails td = check.getTypes();
         if (!Utilities.existsInList(sp.getCode(), "_id", "_in") && sp.getType() != SearchParamType.COMPOSITE) {
           String types = page.getDefinitions().getAllowedSearchTypes().get(sp.getType().toCode());
           boolean ok = false;
@@ -1155,33 +1238,54 @@ public class Publisher implements URIResolver, SectionNumberer {
     return result;
   }
 
-  private void testInvariants() throws FHIRException, IOException {
+  private void testInvariants() throws Exception {
     page.log("... check invariants", LogMessageType.Process);
     
     // first part: compile the invariants to check them 
     // second part: run the invariants
     boolean ok = true;
-    if (fpe == null) {
-      fpe = new FHIRPathEngine(page.getWorkerContext());
-    }
     Set<String> set = new HashSet<>();
     Set<String> invsFound = new HashSet<>();
     Set<String> invsTested = new HashSet<>();
+    if (fpChecker == null) {
+      fpChecker = new FHIRPathChecker(page.getWorkerContext());
+    }
+    List<StructureDefinition> sds = new ArrayList<>();
+    Map<ElementDefinitionConstraintComponent, FHIRPathChecker.Check> checks = new IdentityHashMap<>();
     for (StructureDefinition sd : page.getWorkerContext().fetchResourcesByType(StructureDefinition.class)) {
       if (sd.getDerivation() == TypeDerivationRule.SPECIALIZATION && !set.contains(sd.getUrl())) {
         set.add(sd.getUrl());
-        if (!checkInvariants(fpe, sd, invsFound)) {
-          ok = false;
+        sds.add(sd);
+        for (ElementDefinition ed : sd.getDifferential().getElement()) {
+          for (ElementDefinitionConstraintComponent inv : ed.getConstraint()) {
+            if (inv.hasExpression()) {
+              String type = sd.getKind() == StructureDefinitionKind.RESOURCE ? sd.getType() : "Resource";
+              checks.put(inv, fpChecker.add(type, ed.getPath(), inv.getExpression()));
+            }
+          }
         }
       }
     }
+    fpChecker.run(threads, null);
+    for (StructureDefinition sd : sds) {
+      if (!checkInvariants(sd, invsFound, checks)) {
+        ok = false;
+      }
+    }
     page.log("    "+invsFound.size()+" invariants found", LogMessageType.Process);
 
     ZipGenerator zip = new ZipGenerator(Utilities.path(page.getFolders().dstDir, "invariant-tests.zip"));
+    List<ResourceDefn> resources = new ArrayList<>();
     for (String rname : page.getDefinitions().sortedResourceNames()) {
-      if (!ei.testInvariants(page.getFolders().srcDir, page.getDefinitions().getResourceByName(rname), zip, invsTested)) {
+      resources.add(page.getDefinitions().getResourceByName(rname));
+    }
+    page.getWorkerContext().setFrozen(true);
+    try {
+      if (!ei.testInvariants(threads, page.getFolders().srcDir, resources, zip, invsTested)) {
         ok = false;
       }
+    } finally {
+      page.getWorkerContext().setFrozen(false);
     }
     System.out.println();
     zip.close();
@@ -1191,7 +1295,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
   }
   
-  private boolean checkInvariants(FHIRPathEngine fpe, StructureDefinition sd, Set<String> invsFound) {
+  private boolean checkInvariants(StructureDefinition sd, Set<String> invsFound, Map<ElementDefinitionConstraintComponent, FHIRPathChecker.Check> checks) {
     boolean result = true;
     Map<String, ElementDefinition> map = new HashMap<>();
     for (ElementDefinition ed : sd.getDifferential().getElement()) {
@@ -1201,7 +1305,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       for (ElementDefinitionConstraintComponent inv : ed.getConstraint()) {
         if (inv.hasExpression()) {
           invsFound.add(inv.getKey());
-          if (!checkInvariant(fpe, sd, map, ed, inv)) {
+          if (!checkInvariant(sd, map, ed, inv, checks.get(inv))) {
             result = false;
           }
         }
@@ -1218,16 +1322,14 @@ public class Publisher implements URIResolver, SectionNumberer {
     return result;
   }
 
-  private boolean checkInvariant(FHIRPathEngine fpe, StructureDefinition sd, 
-      Map<String, ElementDefinition> map, ElementDefinition ed, ElementDefinitionConstraintComponent inv) {
+  private boolean checkInvariant(StructureDefinition sd, Map<String, ElementDefinition> map, ElementDefinition ed, 
+      ElementDefinitionConstraintComponent inv, FHIRPathChecker.Check check) {
     boolean result = true;
     try {
-      Set<ElementDefinition> set = new HashSet<>();
-      if (sd.getKind() == StructureDefinitionKind.RESOURCE) {
-        fpe.check(null, "Resource", sd.getType(), ed.getPath(), fpe.parse(inv.getExpression()), set);
-      } else {
-        fpe.check(null, "Resource", "Resource", ed.getPath(), fpe.parse(inv.getExpression()), set);
+      if (check.getError() != null) {
+        throw check.getError();
       }
+      Set<ElementDefinition> set = check.getElements();
       for (ElementDefinition edt : set) {
         if (!edt.getPath().equals(ed.getPath()) && map.containsKey(edt.getPath())) {
           IdType cnd = null;
@@ -1441,23 +1543,21 @@ public class Publisher implements URIResolver, SectionNumberer {
         r.getProfile().getText().getDiv().addChildNode(rtg.generate(r, "", false));
     }
 
+    // the resources only depend on the base resources, so they can all be generated at once. Search
+    // parameters are shared between resources, so they are generated afterwards, in resource order
+    BuildScheduler sched = new BuildScheduler(threads);
+    List<ProfileUnit> units = new ArrayList<ProfileUnit>();
     for (String rn : page.getDefinitions().sortedResourceNames()) {
-      ResourceDefn r = page.getDefinitions().getResourceByName(rn);
-      r.setConformancePack(makeConformancePack(r));
-      r.setProfile(new ProfileGenerator(page.getDefinitions(), page.getWorkerContext(), page, page.getGenDate(), page.getVersion(), dataElements, fpUsages, page.getFolders().rootDir, page.getUml(), page.getRc()).generate(r.getConformancePack(), r, "core", false));
-      page.getProfiles().see(r.getProfile(), page.packageInfo());
-      ResourceTableGenerator rtg = new ResourceTableGenerator(page.getFolders().dstDir, page, null, true, page.getVersion(), "");
-      r.getProfile().getText().setDiv(new XhtmlNode(NodeType.Element, "div"));
-      r.getProfile().getText().getDiv().addChildNode(rtg.generate(r, "", false));
+      units.add(scheduleResourceProfile(sched, page.getDefinitions().getResourceByName(rn), false));
     }
-
     for (ResourceDefn r : page.getDefinitions().getResourceTemplates().values()) {
-      r.setConformancePack(makeConformancePack(r));
-      r.setProfile(new ProfileGenerator(page.getDefinitions(), page.getWorkerContext(), page, page.getGenDate(), page.getVersion(), dataElements, fpUsages, page.getFolders().rootDir, page.getUml(), page.getRc()).generate(r.getConformancePack(), r, "core", true));
-      ResourceTableGenerator rtg = new ResourceTableGenerator(page.getFolders().dstDir, page, null, true, page.getVersion(), "");
-      r.getProfile().getText().setDiv(new XhtmlNode(NodeType.Element, "div"));
-      r.getProfile().getText().getDiv().addChildNode(rtg.generate(r, "", true));
-      page.getProfiles().see(r.getProfile(), page.packageInfo());
+      units.add(scheduleResourceProfile(sched, r, true));
+    }
+    sched.execute();
+    for (ProfileUnit u : units) {
+      u.generator.generateSearchParameters(u.resource.getConformancePack(), u.resource, u.resource.getProfile(), u.logical);
+      mergeProfileUnit(u);
+      page.getProfiles().see(u.resource.getProfile(), page.packageInfo());
     }
     
     for (ProfiledType pt : page.getDefinitions().getConstraints().values()) {
@@ -1465,30 +1565,51 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
 
     page.log(" ...process profiles (extensions)", LogMessageType.Process);
-    for (StructureDefinition ex : page.getWorkerContext().getExtensionDefinitions())
-        processExtension(ex);
-
+    sched = new BuildScheduler(threads);
+    units.clear();
+    for (StructureDefinition ex : page.getWorkerContext().getExtensionDefinitions()) {
+      ProfileUnit u = new ProfileUnit();
+      sched.task("extension:"+ex.getUrl(), () -> processExtension(ex, u.errors));
+      units.add(u);
+    }
+    sched.execute();
+    for (ProfileUnit u : units) {
+      mergeProfileUnit(u);
+    }
 
+    page.log(" ...process profiles (packs)", LogMessageType.Process);
+    // we have profiles scoped by resources, and stand alone profiles. The ones that are based on one
+    // of the others are processed afterwards, once the profile they are based on is registered
+    sched = new BuildScheduler(threads);
+    units.clear();
+    Map<String, ProfileUnit> profileUnits = new HashMap<String, ProfileUnit>();
+    List<BuildTask> generated = new ArrayList<BuildTask>();
     for (ResourceDefn r : page.getDefinitions().getBaseResources().values()) {
       for (Profile ap : r.getConformancePackages()) {
         for (ConstraintStructure p : ap.getProfiles())
-          processProfile(ap, p, ap.getId(), r);
+          units.add(scheduleProfile(sched, profileUnits, generated, ap, p, ap.getId(), r));
       }
     }
     
     for (ResourceDefn r : page.getDefinitions().getResources().values()) {
       for (Profile ap : r.getConformancePackages()) {
         for (ConstraintStructure p : ap.getProfiles())
-          processProfile(ap, p, ap.getId(), r);
+          units.add(scheduleProfile(sched, profileUnits, generated, ap, p, ap.getId(), r));
       }
     }
 
-    page.log(" ...process profiles (packs)", LogMessageType.Process);
-    // we have profiles scoped by resources, and stand alone profiles
     for (Profile ap : page.getDefinitions().getPackList()) {
 //      page.log(" ...  pack "+ap.getId(), LogMessageType.Process);
       for (ConstraintStructure p : ap.getProfiles())
-        processProfile(ap, p, ap.getId(), null);
+        units.add(scheduleProfile(sched, profileUnits, generated, ap, p, ap.getId(), null));
+    }
+    sched.execute();
+    for (ProfileUnit u : units) {
+      if (u.task == null) {
+        processProfile(u);
+      }
+      mergeProfileUnit(u);
+      page.getProfiles().see(u.profile.getResource(), page.packageInfo());
     }
 
     page.log(" ...process logical models", LogMessageType.Process);
@@ -1515,10 +1636,16 @@ public class Publisher implements URIResolver, SectionNumberer {
     
     page.log(" ...Check FHIR Path Expressions", LogMessageType.Process);
     StringBuilder b = new StringBuilder();
-    FHIRPathEngine fp = new FHIRPathEngine(page.getWorkerContext());
-    fp.setHostServices(page.getExpressionResolver());
+    if (fpChecker == null) {
+      fpChecker = new FHIRPathChecker(page.getWorkerContext());
+    }
+    List<FHIRPathChecker.Check> checks = new ArrayList<>();
     for (FHIRPathUsage p : fpUsages) {
-      checkExpression(b, fp, p);
+      checks.add("n/a".equals(p.getExpression()) ? null : fpChecker.add(p.getResource(), p.getContext(), p.getExpression()));
+    }
+    fpChecker.run(threads, page.getExpressionResolver());
+    for (int i = 0; i < fpUsages.size(); i++) {
+      checkExpression(b, fpUsages.get(i), checks.get(i));
     }
     FileUtilities.stringToFile(b.toString(), Utilities.path(page.getFolders().dstDir, "fhirpaths.txt"));
 
@@ -1529,35 +1656,135 @@ public class Publisher implements URIResolver, SectionNumberer {
     checkAllOk();
   }
 
-  private void checkExpression(StringBuilder b, FHIRPathEngine fp, FHIRPathUsage p) {
+  private void checkExpression(StringBuilder b, FHIRPathUsage p, FHIRPathChecker.Check check) {
     b.append(p.getResource() + " (" + p.getContext() + "): " + p.getExpression()+"\r\n");
-    try {
-      if (!"n/a".equals(p.getExpression())) {
-        fp.check(null, "Resource", p.getResource(), p.getContext(), p.getExpression()); 
-      }
-    } catch (Exception e) {
+    if (check != null && check.getError() != null) {
+      Exception e = check.getError();
       ValidationMessage validationMessage = new ValidationMessage(Source.Publisher, IssueType.STRUCTURE, -1, -1, p.getLocation(), 
             "Expression '"+p.getExpression()+"' has illegal path ("+e.getMessage()+")", IssueSeverity.ERROR);
       page.getValidationErrors().add(validationMessage);
     }
   }
 
-  private void processExtension(StructureDefinition ex) throws Exception {
+  /**
+   * A unit of work in processProfiles. Each unit collects its own data elements, FHIRPath usages
+   * and errors, and the resources it generates, so that units can run at the same time. They are
+   * added to the shared collections and the worker context (which isn't safe to change while other
+   * threads use it) in the original order on the main thread, once all the units have run. That's
+   * also when the invariants without an id are numbered, so the keys are the same however the
+   * units were run (see mergeProfileUnit)
+   */
+  private class ProfileUnit {
+    private ResourceDefn resource;
+    private boolean logical;
+    private ProfileGenerator generator;
+    private Profile pack;
+    private ConstraintStructure profile;
+    private String filename;
+    private BuildTask task;
+    private Bundle dataElements;
+    private List<FHIRPathUsage> fpUsages = new ArrayList<FHIRPathUsage>();
+    private List<ValidationMessage> errors = new ArrayList<ValidationMessage>();
+    private List<Resource> uncached = new ArrayList<Resource>();
+    private List<String> unkeyed = new ArrayList<String>();
+
+    private ProfileUnit() {
+      if (Publisher.this.dataElements != null) {
+        dataElements = new Bundle();
+      }
+    }
+
+    private ProfileGenerator newGenerator() throws FHIRException {
+      ProfileGenerator gen = new ProfileGenerator(page.getDefinitions(), page.getWorkerContext(), page, page.getGenDate(), page.getVersion(), dataElements, fpUsages, page.getFolders().rootDir, page.getUml(), page.getRc());
+      gen.deferCaching(uncached, unkeyed);
+      return gen;
+    }
+  }
+
+  private void mergeProfileUnit(ProfileUnit u) {
+    ProfileGenerator.assignInvariantKeys(u.unkeyed, u.uncached, u.dataElements);
+    if (u.dataElements != null) {
+      dataElements.getEntry().addAll(u.dataElements.getEntry());
+    }
+    fpUsages.addAll(u.fpUsages);
+    page.getValidationErrors().addAll(u.errors);
+    for (Resource r : u.uncached) {
+      page.getWorkerContext().cacheResource(r);
+    }
+    u.uncached.clear();
+  }
+
+  private ProfileUnit scheduleResourceProfile(BuildScheduler sched, ResourceDefn r, boolean logical) throws FHIRException {
+    ProfileUnit u = new ProfileUnit();
+    u.resource = r;
+    u.logical = logical;
+    u.generator = u.newGenerator();
+    r.setConformancePack(makeConformancePack(r));
+    u.task = sched.task("profile:"+r.getName(), () -> r.setProfile(u.generator.generateStructure(r.getConformancePack(), r, "core", logical)));
+    sched.task("profile-table:"+r.getName(), () -> {
+      ResourceTableGenerator rtg = new ResourceTableGenerator(page.getFolders().dstDir, page, null, true, page.getVersion(), "");
+      r.getProfile().getText().setDiv(new XhtmlNode(NodeType.Element, "div"));
+      r.getProfile().getText().getDiv().addChildNode(rtg.generate(r, "", logical));
+    }).dependsOn(u.task).locks(LOCK_PAGES);
+    return u;
+  }
+
+  private ProfileUnit scheduleProfile(BuildScheduler sched, Map<String, ProfileUnit> profileUnits, List<BuildTask> generated, Profile ap, ConstraintStructure profile, String filename, ResourceDefn baseResource) {
+    ProfileUnit u = new ProfileUnit();
+    u.pack = ap;
+    u.profile = profile;
+    u.filename = filename;
+    u.resource = baseResource;
+    String url;
+    String base;
+    if (profile.getResource() != null) {
+      url = profile.getResource().getUrl();
+      base = profile.getResource().getBaseDefinition();
+    } else {
+      // see ProfileGenerator.generate(Profile, ConstraintStructure, ...)
+      ResourceDefn defn = profile.getDefn();
+      url = "http://hl7.org/fhir/StructureDefinition/"+profile.getId();
+      if (!defn.getRoot().getTypes().isEmpty() && defn.getRoot().getTypes().get(0).getProfile() != null)
+        base = defn.getRoot().getTypes().get(0).getProfile();
+      else
+        base = "http://hl7.org/fhir/StructureDefinition/"+defn.getName();
+    }
+    ProfileUnit baseUnit = base == null ? null : profileUnits.get(base.split("#")[0]);
+    // generated profiles add to the shared search parameters, so they are generated in order
+    boolean afterGenerated = profile.getResource() == null && !generated.isEmpty();
+    if ((base != null && base.contains("#")) || baseUnit != null || (afterGenerated && generated.get(generated.size()-1) == null)) {
+      // based on a contained profile or one of these: left for processProfiles to do afterwards
+    } else {
+      u.task = sched.task("profile:"+url, () -> processProfile(u));
+      if (afterGenerated) {
+        u.task.dependsOn(generated.get(generated.size()-1));
+      }
+    }
+    if (profile.getResource() == null) {
+      generated.add(u.task);
+    }
+    if (!profileUnits.containsKey(url)) {
+      profileUnits.put(url, u);
+    }
+    return u;
+  }
+
+  private void processExtension(StructureDefinition ex, List<ValidationMessage> errors) throws Exception {
     for (ElementDefinition e : ex.getDifferential().getElement()) {
-      fixBinding(e, ex.getUrl());
+      fixBinding(e, ex.getUrl(), errors);
     }
     StructureDefinition bd = page.getDefinitions().getSnapShotForBase(ex.getBaseDefinition());
-    new ProfileUtilities(page.getWorkerContext(), page.getValidationErrors(), page).setNewSlicingProcessing(true).generateSnapshot(bd, ex, ex.getUrl(), null, ex.getName());
+    new ProfileUtilities(page.getWorkerContext(), errors, page).setNewSlicingProcessing(true).generateSnapshot(bd, ex, ex.getUrl(), null, ex.getName());
   }
   
-  private void fixBinding(ElementDefinition e, String url) throws Exception {
+  private void fixBinding(ElementDefinition e, String url, List<ValidationMessage> errors) throws Exception {
     if (e.hasBinding()) {
       ElementDefinitionBindingComponent b = e.getBinding();
       if (!b.hasDescription() && !b.hasValueSet()) {
         if (ExtensionUtilities.hasExtension(b, ExtensionDefinitions.EXT_BINDING_DEFINITION)) {
           b.setDescription(ExtensionUtilities.readStringExtension(b, ExtensionDefinitions.EXT_BINDING_DEFINITION));
         } else {
-          page.getValidationErrors().add(new ValidationMessage(Source.Publisher, IssueType.NOTFOUND, e.getPath(), "No binding description or value set in model " + url, IssueSeverity.ERROR));     
+          errors.add(new ValidationMessage(Source.Publisher, IssueType.NOTFOUND, e.getPath(), "No binding description or value set in model " + url, IssueSeverity.ERROR));     
         }
       }
     }
@@ -1630,38 +1857,40 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
   }
 
-  private void processProfile(Profile ap, ConstraintStructure profile, String filename, ResourceDefn baseResource) throws Exception {
+  private void processProfile(ProfileUnit u) throws Exception {
+    Profile ap = u.pack;
+    ConstraintStructure profile = u.profile;
+    String filename = u.filename;
+    ResourceDefn baseResource = u.resource;
+    List<ValidationMessage> errors = u.errors;
     //    page.log(" ...   profile "+profile.getId(), LogMessageType.Process);
 
     // they've either been loaded from spreadsheets, or from profile declarations
     // what we're going to do:
     //  create StructureDefinition structures if needed (create differential definitions from spreadsheets)
     if (profile.getResource() == null) {
-      StructureDefinition p = new ProfileGenerator(page.getDefinitions(), page.getWorkerContext(), page, page.getGenDate(), page.getVersion(), dataElements, fpUsages, page.getFolders().rootDir, page.getUml(), page.getRc())
-          .generate(ap, profile, profile.getDefn(), profile.getId(), profile.getUsage(), page.getValidationErrors(), baseResource);
+      StructureDefinition p = u.newGenerator().generate(ap, profile, profile.getDefn(), profile.getId(), profile.getUsage(), errors, baseResource);
       p.setUserData("pack", ap);
       profile.setResource(p);
       if (profile.getResourceInfo() != null) {
         profile.getResourceInfo().setUserData(ToolResourceUtilities.RES_ACTUAL_RESOURCE, p);
       }
-      page.getProfiles().see(p, page.packageInfo());
     } else {
       profile.getResource().setUserData("pack", ap);
       sortProfile(profile.getResource());
       for (ElementDefinition ed : profile.getResource().getDifferential().getElement()) {
         if (!ed.hasId())
           throw new Exception("Missing ID");
-        fixBinding(ed, profile.getResource().getUrl());
+        fixBinding(ed, profile.getResource().getUrl(), errors);
       }
       // special case: if the profile itself doesn't claim a date, it's date is the date of this publication
       if (!profile.getResource().hasDate())
         profile.getResource().setDate(page.getGenDate().getTime());
       if (profile.getResource().hasBaseDefinition() && !profile.getResource().hasSnapshot()) {
         // cause it probably doesn't, coming from the profile directly
-        StructureDefinition base = getSnapShotForProfile(profile.getResource().getBaseDefinition());
-        new ProfileUtilities(page.getWorkerContext(), page.getValidationErrors(), page).setNewSlicingProcessing(true).generateSnapshot(base, profile.getResource(), profile.getResource().getBaseDefinition().split("#")[0], null, profile.getResource().getName());
+        StructureDefinition base = getSnapShotForProfile(profile.getResource().getBaseDefinition(), errors);
+        new ProfileUtilities(page.getWorkerContext(), errors, page).setNewSlicingProcessing(true).generateSnapshot(base, profile.getResource(), profile.getResource().getBaseDefinition().split("#")[0], null, profile.getResource().getName());
       }
-      page.getProfiles().see(profile.getResource(), page.packageInfo());
     }
     if (!Utilities.noString(filename))
       profile.getResource().setUserData("filename", filename+".html");
@@ -1687,6 +1916,10 @@ public class Publisher implements URIResolver, SectionNumberer {
 
   
   public StructureDefinition getSnapShotForProfile(String base) throws Exception {
+    return getSnapShotForProfile(base, page.getValidationErrors());
+  }
+
+  private StructureDefinition getSnapShotForProfile(String base, List<ValidationMessage> errors) throws Exception {
     String[] parts = base.split("#");
     if (parts[0].startsWith("http://hl7.org/fhir/StructureDefinition/") && parts.length == 1) {
       String name = base.substring(40);
@@ -1700,7 +1933,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       } //else 
 //        throw new Exception("unable to find base definition for "+name);
     }
-    StructureDefinition p = new ProfileUtilities(page.getWorkerContext(), page.getValidationErrors(), page).getProfile(null, new UriType(parts[0]));
+    StructureDefinition p = new ProfileUtilities(page.getWorkerContext(), errors, page).getProfile(null, new UriType(parts[0]));
     if (p == null)
       throw new Exception("unable to find base definition for "+base);
     if (parts.length == 1) {
@@ -1713,7 +1946,7 @@ public class Publisher implements URIResolver, SectionNumberer {
         StructureDefinition pc = (StructureDefinition) r;
 
       if (pc.getSnapshot() == null) {
-        StructureDefinition ps = getSnapShotForProfile(pc.getBaseDefinition());
+        StructureDefinition ps = getSnapShotForProfile(pc.getBaseDefinition(), errors);
         processProfile(pc);
       }
       return pc;
@@ -2076,7 +2309,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       b.append("</tr>\r\n");
     }
     b.append("</table>\r\n");
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example.html").replace("<%example%>", b.toString()).replace("<%example-usage%>", "");
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example.html").replace("<%example%>", b.toString()).replace("<%example-usage%>", "");
     html = page.processPageIncludes("namingsystem-terminologies.html", html, "resource-instance:NamingSystem", null, bnd, null, "Example", null, null, page.getDefinitions().getWorkgroups().get("fhir"), "?p1?");
     FileUtilities.stringToFile(html, page.getFolders().dstDir + "namingsystem-terminologies.html");
     cachePage("namingsystem-terminologies.html", html, "Registered Code Systems", false);
@@ -2129,51 +2362,113 @@ public class Publisher implements URIResolver, SectionNumberer {
     serializeResource(r, baseFileName, description, pageType, crumbTitle, wg, showCanonical, false);
   }
 
+  /**
+   * Writes one format of a resource to a stream (see serializeResource)
+   */
+  private interface FormatComposer {
+    void compose(OutputStream stream) throws Exception;
+  }
+
+  /**
+   * The resource is converted (for R4B) once, and then each format is composed in its own build task
+   * straight to a buffered file. When the html pages are wanted as well, the json and turtle are kept
+   * in memory and passed on rather than composed a second time
+   */
   void serializeResource(Resource r, String baseFileName, String description, String pageType, String crumbTitle, WorkGroup wg, boolean showCanonical, boolean showTtl) throws Exception {
-    if (VersionUtilities.isR4BVer(page.getVersion().toCode())) {
-      org.hl7.fhir.r4.model.Resource r2 = VersionConvertorFactory_40_50.convertResource(r);
-      org.hl7.fhir.r4.formats.IParser xml = new org.hl7.fhir.r4.formats.XmlParser().setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.PRETTY);
-      xml.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".xml")), r2);
-      if (showCanonical) {
-        xml.setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.CANONICAL);
-        xml.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".canonical.xml")), r2);
-      }
-      org.hl7.fhir.r4.formats.IParser json = new org.hl7.fhir.r4.formats.JsonParser().setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.PRETTY);
-      json.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".json")), r2);
-      if (showCanonical) {
-        json.setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.CANONICAL);
-        json.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".canonical.json")), r2);
-      }
-      if (showTtl) { 
-        org.hl7.fhir.r4.formats.IParser rdf = new org.hl7.fhir.r4.formats.RdfParser().setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.PRETTY);
-        rdf.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".ttl")), r2);
-      }
-    } else {
-      IParser xml = new XmlParser().setOutputStyle(OutputStyle.PRETTY);
-      xml.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".xml")), r);
-      if (showCanonical) {
-        xml.setOutputStyle(OutputStyle.CANONICAL);
-        xml.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".canonical.xml")), r);
-      }
-      IParser json = new JsonParser().setOutputStyle(OutputStyle.PRETTY);
-      json.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".json")), r);
-      if (showCanonical) {
-        json.setOutputStyle(OutputStyle.CANONICAL);
-        json.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".canonical.json")), r);
-      }
-      if (showTtl) {
-        org.hl7.fhir.r5.elementmodel.Element resourceElement = parseR5ElementFromResource(r);
-        ParserBase tp = Manager.makeParser(page.getWorkerContext(), FhirFormat.TURTLE);
-        tp.compose(resourceElement, new FileOutputStream(Utilities.path(page.getFolders().dstDir, baseFileName + ".ttl")), OutputStyle.PRETTY, null);
-      }
+    final boolean r4b = VersionUtilities.isR4BVer(page.getVersion().toCode());
+    final org.hl7.fhir.r4.model.Resource r2 = r4b ? VersionConvertorFactory_40_50.convertResource(r) : null;
+    Map<String, byte[]> kept = new ConcurrentHashMap<String, byte[]>();
+    Map<String, byte[]> keep = description != null ? kept : null;
+
+    BuildScheduler sched = new BuildScheduler(threads);
+    sched.task("xml", () -> serializeFormat(baseFileName, ".xml", null, s -> {
+      if (r4b)
+        new org.hl7.fhir.r4.formats.XmlParser().setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.PRETTY).compose(s, r2);
+      else
+        new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, r);
+    }));
+    if (showCanonical) {
+      sched.task("canonical.xml", () -> serializeFormat(baseFileName, ".canonical.xml", null, s -> {
+        if (r4b)
+          new org.hl7.fhir.r4.formats.XmlParser().setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.CANONICAL).compose(s, r2);
+        else
+          new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, r);
+      }));
+    }
+    sched.task("json", () -> serializeFormat(baseFileName, ".json", keep, s -> {
+      if (r4b)
+        new org.hl7.fhir.r4.formats.JsonParser().setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.PRETTY).compose(s, r2);
+      else
+        new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, r);
+    }));
+    if (showCanonical) {
+      sched.task("canonical.json", () -> serializeFormat(baseFileName, ".canonical.json", null, s -> {
+        if (r4b)
+          new org.hl7.fhir.r4.formats.JsonParser().setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.CANONICAL).compose(s, r2);
+        else
+          new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, r);
+      }));
     }
+    if (showTtl) { 
+      sched.task("ttl", () -> serializeFormat(baseFileName, ".ttl", keep, s -> {
+        if (r4b) {
+          new org.hl7.fhir.r4.formats.RdfParser().setOutputStyle(org.hl7.fhir.r4.formats.IParser.OutputStyle.PRETTY).compose(s, r2);
+        } else {
+          org.hl7.fhir.r5.elementmodel.Element resourceElement = parseR5ElementFromResource(r);
+          ParserBase tp = Manager.makeParser(page.getWorkerContext(), FhirFormat.TURTLE);
+          tp.compose(resourceElement, s, OutputStyle.PRETTY, null);
+        }
+      }));
+    }
+    sched.execute();
+
     if (description!=null) {
       cloneToXhtml(baseFileName, description, false, pageType, crumbTitle, null, wg, r.fhirType()+"/"+r.getId());
-      jsonToXhtml(baseFileName, description, resource2Json(r), pageType, crumbTitle, null, wg, r.fhirType()+"/"+r.getId());
+      jsonToXhtml(baseFileName, description, new String(kept.get(".json")), pageType, crumbTitle, null, wg, r.fhirType()+"/"+r.getId());
       if (showTtl)
-        ttlToXhtml(baseFileName, description, convertResourceToTtl(r), pageType, crumbTitle, null, wg, r.fhirType()+"/"+r.getId());
+        ttlToXhtml(baseFileName, description, new String(kept.get(".ttl")), pageType, crumbTitle, null, wg, r.fhirType()+"/"+r.getId());
     }
   };
+
+  private void serializeFormat(String baseFileName, String ext, Map<String, byte[]> keep, FormatComposer composer) throws Exception {
+    long start = System.currentTimeMillis();
+    String fn = Utilities.path(page.getFolders().dstDir, baseFileName + ext);
+    long size;
+    if (keep != null) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      composer.compose(bytes);
+      byte[] b = bytes.toByteArray();
+      keep.put(ext, b);
+      try (OutputStream s = new BufferedOutputStream(new FileOutputStream(fn))) {
+        s.write(b);
+      }
+      size = b.length;
+    } else {
+      try (OutputStream s = new BufferedOutputStream(new FileOutputStream(fn), 64 * 1024)) {
+        composer.compose(s);
+      }
+      size = new File(fn).length();
+    }
+    recordSerialization(ext, size, System.currentTimeMillis() - start);
+  }
+
+  private synchronized void recordSerialization(String ext, long size, long time) {
+    long[] stats = serializationStats.get(ext);
+    if (stats == null) {
+      stats = new long[3];
+      serializationStats.put(ext, stats);
+    }
+    stats[0]++;
+    stats[1] += size;
+    stats[2] += time;
+  }
+
+  private synchronized void logSerializationStats() {
+    for (String ext : serializationStats.keySet()) {
+      long[] stats = serializationStats.get(ext);
+      page.log("Serialized "+stats[0]+" "+ext.substring(1)+" files: "+Utilities.describeSize(stats[1])+" in "+stats[2]+"ms", LogMessageType.Process);
+    }
+  }
     
   private WorkGroup wg(String code) {
     return page.getDefinitions().getWorkgroups().get(code);
@@ -2486,10 +2781,8 @@ public class Publisher implements URIResolver, SectionNumberer {
       errors.add("Unable to find " + purpose + " file " + file + " in " + dir);
       return false;
     } else if (category != null) {
-      long d = f.lastModified();
-      if ((!dates.containsKey(category) || d > dates.get(category)) && !f.getAbsolutePath().endsWith(".gen.svg") && !f.getName().endsWith("-mapping-exceptions.xml")) {
-        dates.put(category, d);
-        dateSources.put(category.toLowerCase(), f.getName()+" @ "+new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new java.util.Date(d)));
+      if (!f.getAbsolutePath().endsWith(".gen.svg") && !f.getName().endsWith("-mapping-exceptions.xml")) {
+        sourceGraph.addSource(category, f);
       }
       return true;
     } else
@@ -2504,6 +2797,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     page.log("Checking Source for directory " + folder, LogMessageType.Process);
 
     List<String> errors = new ArrayList<String>();
+    sourceGraph = new BuildGraph(page.getFolders().rootDir);
 
     FileUtilities.checkFolderExists(page.getFolders().rootDir, errors) ;
     if (checkFile("required", page.getFolders().rootDir, "publish.ini", errors, "all")) {
@@ -2518,7 +2812,8 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
 
       prsr = new SourceParser(page, folder, page.getDefinitions(), web, page.getVersion(), page.getWorkerContext(), page.getGenDate(), page, fpUsages, isCIBuild);
-      prsr.checkConditions(errors, dates, dateSources);
+      prsr.setThreads(threads);
+      prsr.checkConditions(errors, sourceGraph);
       page.setRegistry(prsr.getRegistry());
       page.getDiffEngine().loadFromIni(prsr.getIni(), "r4-r6-changes", "4", "6");
       page.getDiffEngine().loadFromIni(prsr.getIni(), "r5-r6-changes", "5", "6");
@@ -2938,14 +3233,22 @@ public class Publisher implements URIResolver, SectionNumberer {
     
     processCDA();
     page.log("Generate RDF", LogMessageType.Process);
+    Phase rdf = metrics.start("rdf");
     processRDF();
+    rdf.end();
 
     page.log("Produce Schemas", LogMessageType.Process);
-    new SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir+"codegen"+File.separator, page.getFolders().dstDir,
+    Phase phase = metrics.start("schemas");
+    SchemaGenerator xsdgen = new SchemaGenerator();
+    xsdgen.setThreads(threads);
+    xsdgen.generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir+"codegen"+File.separator, page.getFolders().dstDir,
         page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), true, page.getWorkerContext());
-    new SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir, page.getFolders().dstDir,
+    // the same generator, so the value sets expanded for the first run aren't expanded again
+    xsdgen.generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir, page.getFolders().dstDir,
         page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), false, page.getWorkerContext());
-    new org.hl7.fhir.definitions.generators.specification.json.SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir, page.getFolders().dstDir,
+    org.hl7.fhir.definitions.generators.specification.json.SchemaGenerator jsongen = new org.hl7.fhir.definitions.generators.specification.json.SchemaGenerator();
+    jsongen.setThreads(threads);
+    jsongen.generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir, page.getFolders().dstDir,
         page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), page.getWorkerContext());
     new org.hl7.fhir.definitions.generators.specification.json.JsonLDDefinitionsGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().dstDir,
         page.getFolders().srcDir, page.getVersion(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), page.getWorkerContext());
@@ -2992,7 +3295,10 @@ public class Publisher implements URIResolver, SectionNumberer {
     FileUtilities.stringToFile(page.genBackboneElementsJson(), Utilities.path(page.getFolders().dstDir, "backbone-elements.json"));
     FileUtilities.stringToFile(page.genChoiceElementsJson(), Utilities.path(page.getFolders().dstDir, "choice-elements.json"));
 
+    phase.end();
+
     page.log("Produce Schematrons", LogMessageType.Process);
+    phase = metrics.start("schematrons");
     for (String rname : page.getDefinitions().sortedResourceNames()) {
       ResourceDefn r = page.getDefinitions().getResources().get(rname);
       String n = r.getName().toLowerCase();
@@ -3010,15 +3316,20 @@ public class Publisher implements URIResolver, SectionNumberer {
     sg.generate(new FileOutputStream(page.getFolders().dstDir + "fhir-invariants.sch"), page.getDefinitions());
 
     produceSchemaZip();
+    phase.end();
 
+    phase = metrics.start("loadDefinitions");
     page.log("Load R4 Definitions", LogMessageType.Process);
     loadR4Definitions();
     page.log("Load R4B Definitions", LogMessageType.Process);
     loadR4BDefinitions();
     page.log("Load R5 Definitions", LogMessageType.Process);
     loadR5Definitions();
+    phase.end();
     page.log("Produce Content", LogMessageType.Process);
+    phase = metrics.start("produceSpec");
     produceSpec();
+    phase.end();
 
     if (buildFlags.get("all")) {
       if (web) {
@@ -3136,34 +3447,57 @@ public class Publisher implements URIResolver, SectionNumberer {
     // first, process the RIM file
     String rim = FileUtilities.fileToString(Utilities.path(page.getFolders().rootDir, "tools", "tx", "v3", "rim.ttl"));
     ByteArrayOutputStream tmp = new ByteArrayOutputStream();
-    FhirTurtleGenerator ttl = new FhirTurtleGenerator(tmp, page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors(), page.getWebLocation());
-    ttl.executeV3(page.getValueSets(), page.getCodeSystems());
-    rim = rim + tmp.toString();
-    FileUtilities.stringToFile(rim, Utilities.path(page.getFolders().dstDir, "rim.ttl"));
-    ttl = new FhirTurtleGenerator(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "fhir.ttl")), page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors(), page.getWebLocation());
-    ttl.executeMain();
-    W5TurtleGenerator w5 = new W5TurtleGenerator(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "w5.ttl")), page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors(), page.getWebLocation());
-    w5.executeMain();
+    FhirTurtleGenerator v3 = new FhirTurtleGenerator(tmp, page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors(), page.getWebLocation());
+    v3.executeV3(page.getValueSets(), page.getCodeSystems());
+    byte[] rimTtl = (rim + tmp.toString()).getBytes(StandardCharsets.UTF_8);
+    // the generated graphs go straight to the validator. Once it has them, nothing changes them,
+    // so the files can be written while the sparql rules run
     RDFValidator val = new RDFValidator();
-    val.validate(Utilities.path(page.getFolders().dstDir, "fhir.ttl"));
-    val.validate(Utilities.path(page.getFolders().dstDir, "rim.ttl"));
-    val.validate(Utilities.path(page.getFolders().dstDir, "w5.ttl"));
-    ZipGenerator zip = new ZipGenerator(Utilities.path(page.getFolders().dstDir, "fhir.rdf.ttl.zip"));
-    zip.addFileName("fhir.ttl", Utilities.path(page.getFolders().dstDir, "fhir.ttl"), false);
-    zip.addFileName("rim.ttl", Utilities.path(page.getFolders().dstDir, "rim.ttl"), false);
-    zip.addFileName("w5.ttl", Utilities.path(page.getFolders().dstDir, "w5.ttl"), false);
-    zip.close();
+    FhirTurtleGenerator ttl = new FhirTurtleGenerator(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "fhir.ttl")), page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors(), page.getWebLocation());
+    val.add(ttl.buildMain());
+    val.validate(rimTtl);
+    W5TurtleGenerator w5 = new W5TurtleGenerator(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "w5.ttl")), page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors(), page.getWebLocation());
+    OntModel w5Model = w5.buildMain();
+    val.add(w5Model);
+
+    BuildScheduler sched = new BuildScheduler(threads);
+    List<BuildTask> files = new ArrayList<>();
+    files.add(sched.task("rdf:fhir.ttl", () -> ttl.commit(true)));
+    files.add(sched.task("rdf:rim.ttl", () -> FileUtilities.bytesToFile(rimTtl, Utilities.path(page.getFolders().dstDir, "rim.ttl"))));
+    files.add(sched.task("rdf:w5.ttl", () -> w5.commit(w5Model, true)));
+    sched.task("rdf:zip", () -> {
+      ZipGenerator zip = new ZipGenerator(Utilities.path(page.getFolders().dstDir, "fhir.rdf.ttl.zip"));
+      zip.addFileName("fhir.ttl", Utilities.path(page.getFolders().dstDir, "fhir.ttl"), false);
+      zip.addFileName("rim.ttl", Utilities.path(page.getFolders().dstDir, "rim.ttl"), false);
+      zip.addFileName("w5.ttl", Utilities.path(page.getFolders().dstDir, "w5.ttl"), false);
+      zip.close();
+    }).dependsOn(files);
 
     // now that the RDF is generated, run any sparql rules that have been defined
+    List<List<ValidationMessage>> results = new ArrayList<>();
     Element test = loadDom(new FileInputStream(Utilities.path(page.getFolders().srcDir, "sparql-rules.xml")), false).getDocumentElement();
     test = XMLUtil.getFirstChild(test);
     while (test != null) {
       if (test.getNodeName().equals("assertion")) {
+        // the DOM isn't safe to read from several threads, so the tasks only get the strings
         String sparql = test.getTextContent();
-        page.getValidationErrors().addAll(val.assertion(sparql, test.getAttribute("id"), test.getAttribute("rowtype"), test.getAttribute("message"), test.getAttribute("description"), IssueSeverity.fromCode(test.getAttribute("level"))));
+        String id = test.getAttribute("id");
+        String rowtype = test.getAttribute("rowtype");
+        String message = test.getAttribute("message");
+        String description = test.getAttribute("description");
+        IssueSeverity level = IssueSeverity.fromCode(test.getAttribute("level"));
+        List<ValidationMessage> msgs = new ArrayList<>();
+        results.add(msgs);
+        sched.task("sparql:"+id, () -> {
+          msgs.addAll(val.assertion(sparql, id, rowtype, message, description, level));
+        });
       }
       test = XMLUtil.getNextSibling(test);
     }
+    sched.execute();
+    for (List<ValidationMessage> msgs : results) {
+      page.getValidationErrors().addAll(msgs);
+    }
     checkAllOk();
   }
 
@@ -3174,37 +3508,40 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (tf.exists())
       tf.delete();
 
-    ZipGenerator zip = new ZipGenerator(target);
+    // the pages are rewritten as they are compressed, several at a time
+    ZipAssembler assembler = new ZipAssembler(threads);
+    ZipAssembler.Zip zip = assembler.create(target);
+    ZipAssembler.Replacement note = new ZipAssembler.Replacement("<!-- achive note -->",
+        "This is an old version of FHIR retained for archive purposes. Do not use for anything else");
+    List<ZipAssembler.Replacement> html = new ArrayList<ZipAssembler.Replacement>();
+    html.add(note);
+    html.add(new ZipAssembler.Replacement("<body>", "<body><div class=\"watermark\"/>"));
+    html.add(new ZipAssembler.Replacement("<body class=\"book\">", "<body class=\"book\"><div class=\"watermark\"/>"));
+    List<ZipAssembler.Replacement> css = new ArrayList<ZipAssembler.Replacement>();
+    css.add(new ZipAssembler.Replacement("#fff", "lightcyan"));
 
-    int c = 0;
     String[] files = new CSFile(page.getFolders().dstDir).list();
-    for (String f : files) {
-      File fn = new CSFile(page.getFolders().dstDir + f);
-      if (!fn.isDirectory()) {
-        if (f.endsWith(".html")) {
-          String src = FileUtilities.fileToString(fn.getAbsolutePath());
-          String srcn = src.replace("<!-- achive note -->",
-              "This is an old version of FHIR retained for archive purposes. Do not use for anything else");
-          if (!srcn.equals(src))
-            c++;
-          srcn = srcn.replace("<body>", "<body><div class=\"watermark\"/>").replace("<body class=\"book\">", "<body class=\"book\"><div class=\"watermark\"/>");
-          zip.addFileSource(f, srcn, false);
-          // Utilities.stringToFile(srcn, target+File.separator+f);
-        } else if (f.endsWith(".css")) {
-          String src = FileUtilities.fileToString(fn.getAbsolutePath());
-          src = src.replace("#fff", "lightcyan");
-          zip.addFileSource(f, src, false);
-          // Utilities.stringToFile(srcn, target+File.separator+f);
-        } else
-          zip.addFileName(f, fn.getAbsolutePath(), false);
-      } else if (!fn.getAbsolutePath().endsWith("v2") && !fn.getAbsolutePath().endsWith("v3")) {
-        // used to put stuff in sub-directories. clean them out if they
-        // still exist
-        // FileUtilities.clearDirectory(fn.getAbsolutePath());
-        // fn.delete();
+    try {
+      for (String f : files) {
+        File fn = new CSFile(page.getFolders().dstDir + f);
+        if (!fn.isDirectory()) {
+          if (f.endsWith(".html")) {
+            zip.addText(f, fn.getAbsolutePath(), html);
+          } else if (f.endsWith(".css")) {
+            zip.addText(f, fn.getAbsolutePath(), css);
+          } else
+            zip.addFileName(f, fn.getAbsolutePath());
+        } else if (!fn.getAbsolutePath().endsWith("v2") && !fn.getAbsolutePath().endsWith("v3")) {
+          // used to put stuff in sub-directories. clean them out if they
+          // still exist
+          // FileUtilities.clearDirectory(fn.getAbsolutePath());
+          // fn.delete();
+        }
       }
+    } finally {
+      assembler.close();
     }
-    if (c < 3)
+    if (note.getFiles() < 3)
       throw new Exception("header note replacement in archive failed"); // so
     // check
     // the
@@ -3214,10 +3551,10 @@ public class Publisher implements URIResolver, SectionNumberer {
     // string
     // constant
     // above
-    zip.close();
   }
 
   private void produceSpec() throws Exception {
+    Phase phase = metrics.start("models");
     page.log(" ...logical models", LogMessageType.Process);
     for (ImplementationGuideDefn ig : page.getDefinitions().getSortedIgs()) {
       for (LogicalModel lm : ig.getLogicalModels()) {
@@ -3245,46 +3582,69 @@ public class Publisher implements URIResolver, SectionNumberer {
     for (StructureDefinition ae : page.getWorkerContext().getExtensionDefinitions())
       produceExtensionDefinition(ae);
     checkAllOk();
+    phase.end();
 
+    phase = metrics.start("resources");
+    BuildScheduler sched = new BuildScheduler(threads);
     page.log(" ...resource identities", LogMessageType.Process);
+    List<BuildTask> identities = new ArrayList<>();
     for (String rname : page.getDefinitions().getBaseResources().keySet()) {
       ResourceDefn r = page.getDefinitions().getBaseResources().get(rname);
-      produceResource1(r, r.isAbstract());
+      identities.add(sched.task("identity:"+rname, () -> produceResource1(r, r.isAbstract())).locks(LOCK_BUNDLES));
     }
     for (String rname : page.getDefinitions().sortedResourceNames()) {
       if (!rname.equals("ValueSet") && !rname.equals("CodeSystem") && wantBuild(rname)) {
         ResourceDefn r = page.getDefinitions().getResources().get(rname);
-        produceResource1(r, false);
+        identities.add(sched.task("identity:"+rname, () -> produceResource1(r, false)).locks(LOCK_BUNDLES));
       }
     }
+    BuildTask baseProfiles = null;
     if (buildFlags.get("all")) {
-      page.log(" ...base profiles", LogMessageType.Process);
-      produceBaseProfile();
+      baseProfiles = sched.task("base-profiles", () -> {
+        page.log(" ...base profiles", LogMessageType.Process);
+        produceBaseProfile();
+      }).dependsOn(identities).locks(LOCK_BUNDLES, LOCK_PAGES);
     }
+    List<BuildTask> resources = new ArrayList<>();
     for (String rname : page.getDefinitions().getBaseResources().keySet()) {
       ResourceDefn r = page.getDefinitions().getBaseResources().get(rname);
-      page.log(" ...resource " + r.getName(), LogMessageType.Process);
-      produceResource2(r, !rname.equals("Parameters"), rname.equals("Resource") ? "Meta" : null, false);
+      resources.add(scheduleResource(sched, r, !rname.equals("Parameters"), rname.equals("Resource") ? "Meta" : null, identities, baseProfiles));
     }
     for (String rname : page.getDefinitions().sortedResourceNames()) {
       if (!rname.equals("ValueSet") && !rname.equals("CodeSystem") && wantBuild(rname)) {
         ResourceDefn r = page.getDefinitions().getResources().get(rname);
-        page.log(" ...resource " + r.getName(), LogMessageType.Process);
-        produceResource2(r, false, null, false);
+        resources.add(scheduleResource(sched, r, false, null, identities, baseProfiles));
       }
     }
 //    for (String rname : page.getDefinitions().getResourceTemplates().keySet()) {
 //        ResourceDefn r = page.getDefinitions().getResourceTemplates().get(rname);
 //        produceResource2(r, false, null, true);
 //    }
+    // the spreadsheets only read the finished profiles, so once all the resources are
+    // done they can be written alongside each other and the compartment pages
+    for (String rname : page.getDefinitions().getBaseResources().keySet()) {
+      ResourceDefn r = page.getDefinitions().getBaseResources().get(rname);
+      sched.task("xlsx:"+rname, () -> produceResourceSpreadsheet(r)).dependsOn(resources);
+    }
+    for (String rname : page.getDefinitions().sortedResourceNames()) {
+      if (!rname.equals("ValueSet") && !rname.equals("CodeSystem") && wantBuild(rname)) {
+        ResourceDefn r = page.getDefinitions().getResources().get(rname);
+        sched.task("xlsx:"+rname, () -> produceResourceSpreadsheet(r)).dependsOn(resources);
+      }
+    }
     
     for (Compartment c : page.getDefinitions().getCompartments()) {
       if (buildFlags.get("all")) {
-        page.log(" ...compartment " + c.getName(), LogMessageType.Process);
-        produceCompartment(c);
+        sched.task("compartment:"+c.getName(), () -> {
+          page.log(" ...compartment " + c.getName(), LogMessageType.Process);
+          produceCompartment(c);
+        }).dependsOn(resources).locks(LOCK_PAGES);
       }
     }
+    sched.execute();
+    phase.end();
     
+    phase = metrics.start("search");
     Regenerator regen = new Regenerator(page.getFolders().srcDir, page.getDefinitions(), page.getWorkerContext());
     regen.generate();
     
@@ -3306,61 +3666,83 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
     checkBundleURLs(searchParamsFeed);
     checkOids();
+    phase.end();
     
+    phase = metrics.start("pages");
+    List<BuildTask> pages = new ArrayList<>();
     for (String n : page.getIni().getPropertyNames("pages")) {
       if (buildFlags.get("all") || buildFlags.get("page-" + n.toLowerCase())) {
-        page.log(" ...page " + n, LogMessageType.Process);
-        producePage(n, page.getIni().getStringProperty("pages", n));
+        pages.add(sched.task("page:"+n, () -> {
+          page.log(" ...page " + n, LogMessageType.Process);
+          producePage(n, page.getIni().getStringProperty("pages", n));
+        }).locks(LOCK_PAGES));
       }
     }
     for (ImplementationGuideDefn ig : page.getDefinitions().getSortedIgs()) {
       for (String n : ig.getPageList()) {
-        page.log(" ...ig page " + n, LogMessageType.Process);
-        produceIgPage(n, ig);
+        pages.add(sched.task("ig-page:"+ig.getCode()+"/"+n, () -> {
+          page.log(" ...ig page " + n, LogMessageType.Process);
+          produceIgPage(n, ig);
+        }).locks(LOCK_PAGES));
       }
-      for (ImplementationGuideDefinitionPageComponent page : ig.getSpecialPages()) {
-        produceIgPage(ig, page);
+      for (ImplementationGuideDefinitionPageComponent igp : ig.getSpecialPages()) {
+        pages.add(sched.task("ig-page:"+ig.getCode()+"/"+igp.getName(), () -> produceIgPage(ig, igp)).locks(LOCK_PAGES));
       }
       for (Profile p : ig.getProfiles()) {
         if (!p.getOperations().isEmpty()) {
-          produceIgOperations(ig, p);
+          pages.add(sched.task("ig-operations:"+ig.getCode()+"/"+p.getId(), () -> produceIgOperations(ig, p)).locks(LOCK_PAGES, LOCK_BUNDLES));
         }
       }
     }
     if (page.getIni().getPropertyNames("ig-pages") != null) {
       for (String n : page.getIni().getPropertyNames("ig-pages")) {
-        page.log(" ...page " + n, LogMessageType.Process);
-        for (ImplementationGuideDefn ig : page.getDefinitions().getSortedIgs()) {
-          if (!ig.isCore())
-            produceIgPage(n, ig, page.getIni().getStringProperty("ig-pages", n));
-        }
+        pages.add(sched.task("ig-pages:"+n, () -> {
+          page.log(" ...page " + n, LogMessageType.Process);
+          for (ImplementationGuideDefn ig : page.getDefinitions().getSortedIgs()) {
+            if (!ig.isCore())
+              produceIgPage(n, ig, page.getIni().getStringProperty("ig-pages", n));
+          }
+        }).locks(LOCK_PAGES));
       }
     }
     for (String n : page.getDefinitions().getDictionaries().keySet()) {
       if (buildFlags.get("all")) { // || buildFlags.get("dict-" + n.toLowerCase())) {
-        page.log(" ...dictionary " + n, LogMessageType.Process);
-        produceDictionary(page.getDefinitions().getDictionaries().get(n));
+        pages.add(sched.task("dictionary:"+n, () -> {
+          page.log(" ...dictionary " + n, LogMessageType.Process);
+          produceDictionary(page.getDefinitions().getDictionaries().get(n));
+        }).locks(LOCK_PAGES));
       }
     }
 
     int i = 0;
     for (String n : page.getIni().getPropertyNames("sid")) {
-      page.log(" ...sid " + n, LogMessageType.Process);
-      produceSid(i, n, page.getIni().getStringProperty("sid", n));
+      final int sidIndex = i;
+      pages.add(sched.task("sid:"+n, () -> {
+        page.log(" ...sid " + n, LogMessageType.Process);
+        produceSid(sidIndex, n, page.getIni().getStringProperty("sid", n));
+      }).locks(LOCK_PAGES));
       i++;
     }
     if (buildFlags.get("all")) {
-      page.log(" ...check Fragments", LogMessageType.Process);
-      checkFragments();
+      BuildTask fragmentCheck = sched.task("check-fragments", () -> {
+        page.log(" ...check Fragments", LogMessageType.Process);
+        checkFragments();
+      }).dependsOn(pages).locks(LOCK_PAGES);
 
       for (Profile p : page.getDefinitions().getPackList()) {
 //        if (!n.startsWith("http://")) {
+        sched.task("profile:"+p.getId(), () -> {
           page.log(" ...Profile " + p.getId(), LogMessageType.Process);
           produceConformancePackage(null, p, null);
+        }).dependsOn(fragmentCheck).locks(LOCK_PAGES, LOCK_BUNDLES);
         //}
       }
+    }
+    sched.execute();
+    phase.end();
 
-      
+    if (buildFlags.get("all")) {
+      phase = metrics.start("collections");
       produceUml();
       page.getVsValidator().checkDuplicates(page.getValidationErrors());
 
@@ -3551,51 +3933,59 @@ public class Publisher implements URIResolver, SectionNumberer {
       // zip.close();
 
       page.log("....definitions", LogMessageType.Process);
-      ZipGenerator zip = new ZipGenerator(page.getFolders().dstDir + "definitions.xml.zip");
-      zip.addFileName("version.info", page.getFolders().dstDir + "version.info", false);
-      zip.addFileName("profiles-types.xml", page.getFolders().dstDir + "profiles-types.xml", false);
-      zip.addFileName("profiles-resources.xml", page.getFolders().dstDir + "profiles-resources.xml", false);
-      zip.addFileName("profiles-others.xml", page.getFolders().dstDir + "profiles-others.xml", false);
-      zip.addFileName("search-parameters.xml", page.getFolders().dstDir + "search-parameters.xml", false);
-      zip.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml", false);
-      zip.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml", false);
-      zip.addFileName("dataelements.xml", page.getFolders().dstDir + "dataelements.xml", false);
-      zip.addFileName("fhir-all-xsd.zip", page.getFolders().dstDir + "fhir-all-xsd.zip", false);
-      zip.close();
-
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions.json.zip");
-      zip.addFileName("version.info", page.getFolders().dstDir + "version.info", false);
-      zip.addFileName("profiles-types.json", page.getFolders().dstDir + "profiles-types.json", false);
-      zip.addFileName("profiles-resources.json", page.getFolders().dstDir + "profiles-resources.json", false);
-      zip.addFileName("profiles-others.json", page.getFolders().dstDir + "profiles-others.json", false);
-//      zip.addFileName("extension-definitions.json", page.getFolders().dstDir + "extension-definitions.json", false);
-      zip.addFileName("search-parameters.json", page.getFolders().dstDir + "search-parameters.json", false);
-      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json", false);
-      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json", false);
-      zip.addFileName("dataelements.json", page.getFolders().dstDir + "dataelements.json", false);
-      zip.addFileName("fhir.schema.json.zip", page.getFolders().dstDir + "fhir.schema.json.zip", false);
-      zip.close();
+      // these zips share most of their files: they're built together, and each file is only compressed once
+      ZipAssembler assembler = new ZipAssembler(threads, true);
+      try {
+        ZipAssembler.Zip dz = assembler.create(page.getFolders().dstDir + "definitions.xml.zip");
+        dz.addFileName("version.info", page.getFolders().dstDir + "version.info");
+        dz.addFileName("profiles-types.xml", page.getFolders().dstDir + "profiles-types.xml");
+        dz.addFileName("profiles-resources.xml", page.getFolders().dstDir + "profiles-resources.xml");
+        dz.addFileName("profiles-others.xml", page.getFolders().dstDir + "profiles-others.xml");
+        dz.addFileName("search-parameters.xml", page.getFolders().dstDir + "search-parameters.xml");
+        dz.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml");
+        dz.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml");
+        dz.addFileName("dataelements.xml", page.getFolders().dstDir + "dataelements.xml");
+        dz.addFileName("fhir-all-xsd.zip", page.getFolders().dstDir + "fhir-all-xsd.zip");
+
+        dz = assembler.create(page.getFolders().dstDir + "definitions.json.zip");
+        dz.addFileName("version.info", page.getFolders().dstDir + "version.info");
+        dz.addFileName("profiles-types.json", page.getFolders().dstDir + "profiles-types.json");
+        dz.addFileName("profiles-resources.json", page.getFolders().dstDir + "profiles-resources.json");
+        dz.addFileName("profiles-others.json", page.getFolders().dstDir + "profiles-others.json");
+//        dz.addFileName("extension-definitions.json", page.getFolders().dstDir + "extension-definitions.json");
+        dz.addFileName("search-parameters.json", page.getFolders().dstDir + "search-parameters.json");
+        dz.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json");
+        dz.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json");
+        dz.addFileName("dataelements.json", page.getFolders().dstDir + "dataelements.json");
+        dz.addFileName("fhir.schema.json.zip", page.getFolders().dstDir + "fhir.schema.json.zip");
+
+        dz = assembler.create(page.getFolders().dstDir + "definitions.xlsx.zip");
+        for (String rn : page.getDefinitions().sortedResourceNames()) {
+          dz.addFileName(rn.toLowerCase()+".xlsx", page.getFolders().dstDir + rn.toLowerCase()+".xlsx");
+        }
 
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions.xlsx.zip");
-      for (String rn : page.getDefinitions().sortedResourceNames()) {
-        zip.addFileName(rn.toLowerCase()+".xlsx", page.getFolders().dstDir + rn.toLowerCase()+".xlsx", false);
+        // this is the actual package used by the validator. 
+        dz = assembler.create(page.getFolders().dstDir + "validator.pack");
+        // conformance resources
+        dz.addFileName("profiles-types.json", page.getFolders().dstDir + "profiles-types.json");
+        dz.addFileName("profiles-resources.json", page.getFolders().dstDir + "profiles-resources.json");
+        dz.addFileName("profiles-others.json", page.getFolders().dstDir + "profiles-others.json");
+//        dz.addFileName("extension-definitions.json", page.getFolders().dstDir + "extension-definitions.json");
+        dz.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json");
+        dz.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json");
+        // native schema
+        dz.addFileName("fhir-all-xsd.zip", page.getFolders().dstDir + "fhir-all-xsd.zip");
+        dz.addFileName("fhir.schema.json.zip", page.getFolders().dstDir + "fhir.schema.json.zip");
+        dz.addFileName("fhir.shex", page.getFolders().dstDir + "fhir.shex");
+
+        dz = assembler.create(page.getFolders().dstDir + "all-valuesets.zip");
+        dz.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml");
+        dz.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json");
+        dz.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml");
+        dz.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json");
+      } finally {
+        assembler.close();
       }
-      zip.close();
-
-      // this is the actual package used by the validator. 
-      zip = new ZipGenerator(page.getFolders().dstDir + "validator.pack");
-      // conformance resources
-      zip.addFileName("profiles-types.json", page.getFolders().dstDir + "profiles-types.json", false);
-      zip.addFileName("profiles-resources.json", page.getFolders().dstDir + "profiles-resources.json", false);
-      zip.addFileName("profiles-others.json", page.getFolders().dstDir + "profiles-others.json", false);
-//      zip.addFileName("extension-definitions.json", page.getFolders().dstDir + "extension-definitions.json", false);
-      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json", false);
-      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json", false);
-      // native schema
-      zip.addFileName("fhir-all-xsd.zip", page.getFolders().dstDir + "fhir-all-xsd.zip", false);
-      zip.addFileName("fhir.schema.json.zip", page.getFolders().dstDir + "fhir.schema.json.zip", false);
-      zip.addFileName("fhir.shex", page.getFolders().dstDir + "fhir.shex", false);
-      zip.close();
 
       page.log("....dstu3 format (xml)", LogMessageType.Process);
       DSTU3ValidationConvertor dstu3 = new DSTU3ValidationConvertor(page.getVersion());
@@ -3606,16 +3996,6 @@ public class Publisher implements URIResolver, SectionNumberer {
       dstu3.convert(page.getFolders().dstDir + "valuesets.xml", page.getFolders().tmpDir + "valuesets-r3.xml");
       dstu3.convert(page.getFolders().dstDir + "conceptmaps.xml", page.getFolders().tmpDir + "conceptmaps-r3.xml");
       dstu3.convert(page.getFolders().dstDir + "dataelements.xml", page.getFolders().tmpDir + "dataelements-r3.xml");
-      
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r3.xml.zip");
-      zip.addFileName("profiles-types.xml", page.getFolders().tmpDir + "profiles-types-r3.xml", false);
-      zip.addFileName("profiles-resources.xml", page.getFolders().tmpDir + "profiles-resources-r3.xml", false);
-      zip.addFileName("profiles-others.xml", page.getFolders().tmpDir + "profiles-others-r3.xml", false);
-      zip.addFileName("search-parameters.xml", page.getFolders().tmpDir + "search-parameters-r3.xml", false);
-      zip.addFileName("valuesets.xml", page.getFolders().tmpDir + "valuesets-r3.xml", false);
-      zip.addFileName("conceptmaps.xml", page.getFolders().tmpDir + "conceptmaps-r3.xml", false);
-      zip.addFileName("dataelements.xml", page.getFolders().tmpDir + "dataelements-r3.xml", false);
-      zip.close();
 
       page.log("....dstu3 format (json)", LogMessageType.Process);
       dstu3.convertJ(page.getFolders().dstDir + "profiles-types.xml", page.getFolders().tmpDir + "profiles-types-r3.json");
@@ -3625,21 +4005,34 @@ public class Publisher implements URIResolver, SectionNumberer {
       dstu3.convertJ(page.getFolders().dstDir + "valuesets.xml", page.getFolders().tmpDir + "valuesets-r3.json");
       dstu3.convertJ(page.getFolders().dstDir + "conceptmaps.xml", page.getFolders().tmpDir + "conceptmaps-r3.json");
       dstu3.convertJ(page.getFolders().dstDir + "dataelements.xml", page.getFolders().tmpDir + "dataelements-r3.json");
-      
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r3.json.zip");
-      zip.addFileName("profiles-types.json", page.getFolders().tmpDir + "profiles-types-r3.json", false);
-      zip.addFileName("profiles-resources.json", page.getFolders().tmpDir + "profiles-resources-r3.json", false);
-      zip.addFileName("profiles-others.json", page.getFolders().tmpDir + "profiles-others-r3.json", false);
-//      zip.addFileName("extension-definitions.json", page.getFolders().tmpDir + "extension-definitions-r3.json", false);
-      zip.addFileName("search-parameters.json", page.getFolders().tmpDir + "search-parameters-r3.json", false);
-      zip.addFileName("valuesets.json", page.getFolders().tmpDir + "valuesets-r3.json", false);
-      zip.addFileName("conceptmaps.json", page.getFolders().tmpDir + "conceptmaps-r3.json", false);
-      zip.addFileName("dataelements.json", page.getFolders().tmpDir + "dataelements-r3.json", false);
-      zip.close();
+
+      assembler = new ZipAssembler(threads);
+      try {
+        ZipAssembler.Zip dz = assembler.create(page.getFolders().dstDir + "definitions-r3.xml.zip");
+        dz.addFileName("profiles-types.xml", page.getFolders().tmpDir + "profiles-types-r3.xml");
+        dz.addFileName("profiles-resources.xml", page.getFolders().tmpDir + "profiles-resources-r3.xml");
+        dz.addFileName("profiles-others.xml", page.getFolders().tmpDir + "profiles-others-r3.xml");
+        dz.addFileName("search-parameters.xml", page.getFolders().tmpDir + "search-parameters-r3.xml");
+        dz.addFileName("valuesets.xml", page.getFolders().tmpDir + "valuesets-r3.xml");
+        dz.addFileName("conceptmaps.xml", page.getFolders().tmpDir + "conceptmaps-r3.xml");
+        dz.addFileName("dataelements.xml", page.getFolders().tmpDir + "dataelements-r3.xml");
+
+        dz = assembler.create(page.getFolders().dstDir + "definitions-r3.json.zip");
+        dz.addFileName("profiles-types.json", page.getFolders().tmpDir + "profiles-types-r3.json");
+        dz.addFileName("profiles-resources.json", page.getFolders().tmpDir + "profiles-resources-r3.json");
+        dz.addFileName("profiles-others.json", page.getFolders().tmpDir + "profiles-others-r3.json");
+//        dz.addFileName("extension-definitions.json", page.getFolders().tmpDir + "extension-definitions-r3.json");
+        dz.addFileName("search-parameters.json", page.getFolders().tmpDir + "search-parameters-r3.json");
+        dz.addFileName("valuesets.json", page.getFolders().tmpDir + "valuesets-r3.json");
+        dz.addFileName("conceptmaps.json", page.getFolders().tmpDir + "conceptmaps-r3.json");
+        dz.addFileName("dataelements.json", page.getFolders().tmpDir + "dataelements-r3.json");
+      } finally {
+        assembler.close();
+      }
       System.gc();
 
       page.log("....r4 in r5 format", LogMessageType.Process);
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r4asr5.xml.zip");
+      ZipGenerator zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r4asr5.xml.zip");
       page.getDiffEngine().saveR4AsR5(zip, FhirFormat.XML, SpecDifferenceEvaluator.CompareFhirVersion.R4);
       zip.close();
       zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r4asr5.json.zip");
@@ -3654,13 +4047,6 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.getDiffEngine().saveR4AsR5(zip, FhirFormat.JSON, SpecDifferenceEvaluator.CompareFhirVersion.R4B);
       zip.close();
             
-      zip = new ZipGenerator(page.getFolders().dstDir + "all-valuesets.zip");
-      zip.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml", false);
-      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json", false);
-      zip.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml", false);
-      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json", false);
-      zip.close();
-    
       page.log("....IG Builder Resources", LogMessageType.Process);
       zip = new ZipGenerator(page.getFolders().tmpDir + "ig-template.zip");
       zip.addFolder(Utilities.path(page.getFolders().rootDir, "tools", "ig"), "", false, null);
@@ -3689,11 +4075,14 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.log("....IG Builder (2)", LogMessageType.Process);
 
       SpecNPMPackageGenerator self = new SpecNPMPackageGenerator();
+      self.setThreads(threads);
       self.generate(page.getFolders().dstDir, page.getWebLocation(), false, page.getGenDate().getTime(), pidRoot());
       if (!isCIBuild) {
         new FilesystemPackageCacheManager.Builder().build().addPackageToCache(pidRoot()+".core", "current", new FileInputStream(Utilities.uncheckedPath(page.getFolders().dstDir, pidRoot() + ".core.tgz")), Utilities.uncheckedPath(page.getFolders().dstDir, pidRoot() + ".core.tgz"));
       }
 
+      phase.end();
+      phase = metrics.start("zips");
       page.log(" ...zips", LogMessageType.Process);
       zip = new ZipGenerator(page.getFolders().dstDir + "examples.zip");
       zip.addFiles(page.getFolders().dstDir + "examples" + File.separator, "", null, "expansions.xml");
@@ -3776,9 +4165,18 @@ public class Publisher implements URIResolver, SectionNumberer {
       zip.addFilesFiltered(page.getFolders().dstDir, "", ".ttl", new String[0]);
       zip.close();
 
+      logSerializationStats();
+      page.log(page.getTemplates().summary(), LogMessageType.Process);
+      phase.end();
+
+      phase = metrics.start("linkCheck");
       page.log("Check HTML Links", LogMessageType.Process);
+      long lcStart = System.currentTimeMillis();
+      page.getHTMLChecker().setThreads(threads);
       page.getHTMLChecker().produce();
       page.getHTMLChecker().close();
+      page.log("Checked "+page.getHTMLChecker().getLinkCount()+" links in "+page.getHTMLChecker().getPageCount()+" pages in "+Long.toString(System.currentTimeMillis() - lcStart)+"ms", LogMessageType.Process);
+      phase.end();
       checkAllOk();
     } else
       page.log("Partial Build - terminating now", LogMessageType.Error);
@@ -3820,7 +4218,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
     FileUtilities.copyFile(new CSFile(page.getFolders().dstDir + FileUtilities.changeFileExt(n, ".xml")), new CSFile(page.getFolders().dstDir + "examples" + File.separator + FileUtilities.changeFileExt(n, ".xml")));
 //    saveAsPureHtml(cm, new FileOutputStream(Utilities.path(page.getFolders().dstDir, "html", n)), true);
-    String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-status-map.html");
+    String src = page.getTemplates().load(page.getFolders().templateDir + "template-status-map.html");
     Map<String, String> others = new HashMap<String, String>();
     others.put("status-map", new XhtmlComposer(XhtmlComposer.HTML).compose(cm.getText().getDiv()));
     FileUtilities.stringToFile(insertSectionNumbers(page.processPageIncludes(n, src, "conceptmap-instance", others, null, null, "Profile", null, rd, rd.getWg(), cm.fhirType()+"/"+cm.getId()), st, n, 0, null), page.getFolders().dstDir + n);
@@ -3886,7 +4284,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       values.put("bcks-status", "<p style=\"background-color: #ffb3b3; border:1px solid maroon; padding: 5px;\">This script does not compile: "+e.getMessage()+"</p>\r\n");
     }
     if (page.getDefinitions().hasResource(name) || (page.getDefinitions().getBaseResources().containsKey(name) && !name.equals("Parameters"))) {
-      String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-version-maps.html");
+      String src = page.getTemplates().load(page.getFolders().templateDir + "template-version-maps.html");
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, page.getDefinitions().getResourceByName(name), null, null, null, null, null, src, null, null, "res-R3/R4 Conversions", n + "-version-maps.html", null, values, res.getWg(), null), st, n
               + "-version-maps.html", 0, null), page.getFolders().dstDir + n + "-version-maps.html");
@@ -4442,17 +4840,17 @@ public class Publisher implements URIResolver, SectionNumberer {
       String usages = getExtensionExamples(ed);
       String searches = page.produceExtensionsSearch(ed);
       
-      String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-extension-mappings.html");
+      String src = page.getTemplates().load(page.getFolders().templateDir + "template-extension-mappings.html");
       src = page.processExtensionIncludes(filename, ed, xml, json, ttl, tx, src, filename + ".html", ig, usages, searches);
       page.getHTMLChecker().registerFile(prefix+filename + "-mappings.html", "Mappings for Extension " + ed.getName(), HTMLLinkChecker.XHTML_TYPE, true);
       FileUtilities.stringToFile(src, page.getFolders().dstDir + prefix+filename + "-mappings.html");
 
-      src = FileUtilities.fileToString(page.getFolders().templateDir + "template-extension-definitions.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + "template-extension-definitions.html");
       src = page.processExtensionIncludes(filename, ed, xml, json, ttl, tx, src, filename + ".html", ig, usages, searches);
       page.getHTMLChecker().registerFile(prefix+filename + "-definitions.html", "Definitions for Extension " + ed.getName(), HTMLLinkChecker.XHTML_TYPE, true);
       FileUtilities.stringToFile(src, page.getFolders().dstDir + prefix+filename + "-definitions.html");
 
-      src = FileUtilities.fileToString(page.getFolders().templateDir + "template-extension.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + "template-extension.html");
       src = page.processExtensionIncludes(filename, ed, xml, json, ttl, tx, src, filename + ".html", ig, usages, searches);
       page.getHTMLChecker().registerFile(prefix+filename + ".html", "Extension " + ed.getName(), HTMLLinkChecker.XHTML_TYPE, true);
       FileUtilities.stringToFile(src, page.getFolders().dstDir + prefix+filename + ".html");
@@ -4895,7 +5293,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.getSectionTrackerCache().put(n, st);
 
       String template = isInterface ? "template-intf" : "resource".equals(n) ? "template-resource" : isAbstract ? "template-abstract" : "template";
-      String src = FileUtilities.fileToString(page.getFolders().templateDir + template+".html");
+      String src = page.getTemplates().load(page.getFolders().templateDir + template+".html");
       src = insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "resource", n + ".html", null, values, resource.getWg(), null), st, n + ".html", 0, null);
       FileUtilities.stringToFile(src, page.getFolders().dstDir + n + ".html");
       scanForFragments(n + ".html", new XhtmlParser().parseFragment(src));
@@ -4910,7 +5308,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
 
       if (!isAbstract || !resource.getExamples().isEmpty()) {
-        src = FileUtilities.fileToString(page.getFolders().templateDir + template+"-examples.html");
+        src = page.getTemplates().load(page.getFolders().templateDir + template+"-examples.html");
         FileUtilities.stringToFile(
             insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Examples", n + "-examples.html", null, values, resource.getWg(), null), st, n + "-examples.html", 0, null),
             page.getFolders().dstDir + n + "-examples.html");
@@ -4925,23 +5323,23 @@ public class Publisher implements URIResolver, SectionNumberer {
         }
       }
 
-      src = FileUtilities.fileToString(page.getFolders().templateDir + template+"-definitions.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + template+"-definitions.html");
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Detailed Descriptions", n + "-definitions.html", null, values, resource.getWg(), null), st, n
               + "-definitions.html", 0, null), page.getFolders().dstDir + n + "-definitions.html");
       page.getHTMLChecker().registerFile(n + "-definitions.html", "Detailed Descriptions for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
 
-      src = FileUtilities.fileToString(page.getFolders().templateDir + "template-mappings.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + "template-mappings.html");
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Mappings", n + "-mappings.html", null, values, resource.getWg(), null), st, n + "-mappings.html", 0, null),
           page.getFolders().dstDir + n + "-mappings.html");
       page.getHTMLChecker().registerFile(n + "-mappings.html", "Formal Mappings for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
-      src = FileUtilities.fileToString(page.getFolders().templateDir + (resource.getName().equals("Resource") ? "template-resource-profiles.html" : "template-profiles.html"));
+      src = page.getTemplates().load(page.getFolders().templateDir + (resource.getName().equals("Resource") ? "template-resource-profiles.html" : "template-profiles.html"));
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Profiles", n + "-profiles.html", null, values, resource.getWg(), null), st, n + "-profiles.html", 0, null),
           page.getFolders().dstDir + n + "-profiles.html");
       page.getHTMLChecker().registerFile(n + "-profiles.html", "Profiles for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
-      src = FileUtilities.fileToString(page.getFolders().templateDir + "template-operations.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + "template-operations.html");
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Operations", n + "-operations.html", null, values, resource.getWg(), null), st, n + "-operations.html", 0, null), 
           page.getFolders().dstDir + n + "-operations.html");
@@ -4953,26 +5351,26 @@ public class Publisher implements URIResolver, SectionNumberer {
       produceMap(resource.getName(), st, resource);
       for (Profile ap : resource.getConformancePackages())
         produceConformancePackage(resource, ap, st);
-      src = FileUtilities.fileToString(page.getFolders().templateDir + "template-json-schema.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + "template-json-schema.html");
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-schema", n + ".schema.json.html", null, values, resource.getWg(), null), st, n + ".schema.json.html", 0, null),
           page.getFolders().dstDir + n + ".schema.json.html");
       page.getHTMLChecker().registerFile(n + ".schema.json.html", "Json Schema for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
 
-      src = FileUtilities.fileToString(page.getFolders().templateDir + "template-search.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + "template-search.html");
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Mappings", n + "-search.html", null, values, resource.getWg(), null), st, n + "-search.html", 0, null),
           page.getFolders().dstDir + n + "-search.html");
       page.getHTMLChecker().registerFile(n + "-search.html", "Search Parameters for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
       
-      src = FileUtilities.fileToString(page.getFolders().templateDir + "template-dependencies.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + "template-dependencies.html");
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Dependencies", n + "-dependencies.html", null, values, resource.getWg(), null), st, n
               + "-dependencies.html", 0, null), page.getFolders().dstDir + n + "-dependencies.html");
       page.getHTMLChecker().registerFile(n + "-dependencies.html", "Dependency graph for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
       
       if (resource.hasLiquid()) {
-        src = FileUtilities.fileToString(page.getFolders().templateDir + "template-liquid.html");
+        src = page.getTemplates().load(page.getFolders().templateDir + "template-liquid.html");
         FileUtilities.stringToFile(
             insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Liquid", n + "-liquid.html", null, values, resource.getWg(), null), st, n
                 + "-liquid.html", 0, null), page.getFolders().dstDir + n + "-liquid.html");
@@ -4980,7 +5378,7 @@ public class Publisher implements URIResolver, SectionNumberer {
                 
       }
       if (resource.hasNotes()) {
-        src = FileUtilities.fileToString(page.getFolders().templateDir + "template-history.html");
+        src = page.getTemplates().load(page.getFolders().templateDir + "template-history.html");
         FileUtilities.stringToFile(
             insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-History", n + "-history.html", null, values, resource.getWg(), null), st, n
                 + "-history.html", 0, null), page.getFolders().dstDir + n + "-history.html");
@@ -4999,10 +5397,6 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
     tmp.delete();
 
-    StructureDefinitionSpreadsheetGenerator sdr = new StructureDefinitionSpreadsheetGenerator(page.getWorkerContext(), false, false);
-    sdr.renderStructureDefinition(resource.getProfile(), false);
-    sdr.finish(new FileOutputStream(Utilities.path(page.getFolders().dstDir, n + ".xlsx")));
-
     // because we'll pick up a little more information as we process the
     // resource
     StructureDefinition p = generateProfile(resource, n, xml, json, ttl, !logicalOnly);
@@ -5047,6 +5441,28 @@ public class Publisher implements URIResolver, SectionNumberer {
     prettyPrint(doc, Utilities.path(page.getFolders().dstDir, resource.getName().toLowerCase() + ".r5.diff.xml"));
   }
 
+  private BuildTask scheduleResource(BuildScheduler sched, ResourceDefn resource, boolean isAbstract, String extraTypeForDefn, List<BuildTask> identities, BuildTask baseProfiles) {
+    BuildTask res = sched.task("resource:"+resource.getName(), () -> {
+      page.log(" ...resource " + resource.getName(), LogMessageType.Process);
+      sourceGraph.building(resource.getName());
+      try {
+        produceResource2(resource, isAbstract, extraTypeForDefn, false);
+      } finally {
+        sourceGraph.building(null);
+      }
+    }).dependsOn(identities).dependsOn(baseProfiles).locks(LOCK_PAGES, LOCK_BUNDLES);
+    return res;
+  }
+
+  private void produceResourceSpreadsheet(ResourceDefn resource) throws Exception {
+    String n = resource.getName().toLowerCase();
+    StructureDefinitionSpreadsheetGenerator sdr = new StructureDefinitionSpreadsheetGenerator(page.getWorkerContext(), false, false);
+    sdr.renderStructureDefinition(resource.getProfile(), false);
+    try (FileOutputStream stream = new FileOutputStream(Utilities.path(page.getFolders().dstDir, n + ".xlsx"))) {
+      sdr.finish(stream);
+    }
+  }
+
   public void prettyPrint(Document xml, String filename) throws Exception {
     Transformer tf = TransformerFactory.newInstance().newTransformer();
     tf.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
@@ -5073,14 +5489,14 @@ public class Publisher implements URIResolver, SectionNumberer {
     // now we create a page for the operation
     String fnp = resource.getName().toLowerCase()+"-operation-" + op.getName().toLowerCase()+".html";
     
-    String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-operation.html");
+    String src = page.getTemplates().load(page.getFolders().templateDir + "template-operation.html");
     src = page.processPageIncludes(fnp, src, "res-Operations", null, "operation-" + name + ".html", op.getResource(), null, "Operation Definition", op, ig, resource, resource.getWg(), opd.fhirType()+"/"+opd.getId());
     FileUtilities.stringToFile(insertSectionNumbers(src, st, fnp, 0, null), page.getFolders().dstDir + fnp);
     page.getHTMLChecker().registerFile(fnp, "Operation "+op.getName()+" for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
 
     
     // now, we create an html page from the narrative
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example.html").replace("<%example%>", new XhtmlComposer(XhtmlComposer.HTML).compose(opd.getText().getDiv()));
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example.html").replace("<%example%>", new XhtmlComposer(XhtmlComposer.HTML).compose(opd.getText().getDiv()));
     html = page.processPageIncludes(dir+"operation-" + name + ".html", html, "resource-instance:OperationDefinition", null, opd, null, "Operation Definition", ig, resource, resource.getWg(), opd.fhirType()+"/"+opd.getId());
     FileUtilities.stringToFile(html, page.getFolders().dstDir + dir+"operation-" + name + ".html");
     page.getHTMLChecker().registerFile(dir+"operation-" + name + ".html", "Operation " + op.getName(), HTMLLinkChecker.XHTML_TYPE, true);
@@ -5112,7 +5528,7 @@ public class Publisher implements URIResolver, SectionNumberer {
   
   private void shexToXhtml(String n, String description, String shex, String pageType, String crumbTitle, ImplementationGuideDefn igd, ResourceDefn rd, WorkGroup wg, String exTitle) throws Exception {
     shex = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(description) + "</p>\r\n<pre class=\"shex\" style=\"white-space: pre; overflow: hidden\">\r\n" + Utilities.escapeXml(shex)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example-shex.html").replace("<%example%>", shex);
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example-shex.html").replace("<%example%>", shex);
     html = page.processPageIncludes(n + ".shex.html", html, pageType, null, null, null, crumbTitle, igd, rd, wg, exTitle);
     FileUtilities.stringToFile(html, page.getFolders().dstDir + n + ".shex.html");
     page.getHTMLChecker().registerExternal(n + ".shex.html");
@@ -5124,7 +5540,7 @@ public class Publisher implements URIResolver, SectionNumberer {
   
   private void ttlToXhtml(String n, String description, String ttl, String pageType, String crumbTitle, ImplementationGuideDefn igd, ResourceDefn rd, WorkGroup wg, String exTitle) throws Exception {
     ttl = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(description) + "</p>\r\n<pre class=\"turtle\" style=\"white-space: pre; overflow: hidden\">\r\n" + Utilities.escapeXml(ttl)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example-ttl.html").replace("<%example%>", ttl);
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example-ttl.html").replace("<%example%>", ttl);
     html = page.processPageIncludes(n + ".ttl.html", html, pageType, null, null, null, crumbTitle, igd, rd, wg, exTitle);
     FileUtilities.stringToFile(html, page.getFolders().dstDir + n + ".ttl.html");
     page.getHTMLChecker().registerExternal(n + ".ttl.html");
@@ -5136,7 +5552,7 @@ public class Publisher implements URIResolver, SectionNumberer {
   
   private void jsonToXhtml(String n, String description, String json, String pageType, String crumbTitle, ImplementationGuideDefn igd, ResourceDefn rd, WorkGroup wg, String exTitle) throws Exception {
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(description) + "</p>\r\n<pre class=\"json\" style=\"white-space: pre; overflow: hidden\">\r\n" + Utilities.escapeXml(json)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
     html = page.processPageIncludes(n + ".json.html", html, pageType, null, null, null, crumbTitle, igd, rd, wg, exTitle);
     FileUtilities.stringToFile(html, page.getFolders().dstDir + n + ".json.html");
     page.getHTMLChecker().registerExternal(n + ".json.html");
@@ -5155,7 +5571,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     XhtmlGenerator xhtml = new XhtmlGenerator(new ExampleAdorner(page.getDefinitions(), page.genlevel(Utilities.charCount(n, File.separatorChar))));
     ByteArrayOutputStream b = new ByteArrayOutputStream();
     xhtml.generate(xdoc, b, n.toUpperCase().substring(0, 1) + n.substring(1), description, 0, adorn, n + ".xml.html");
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example-xml.html").replace("<%example%>", b.toString());
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example-xml.html").replace("<%example%>", b.toString());
     html = page.processPageIncludes(n + ".xml.html", html, pageType, null, n + ".xml.html", null, null, crumbTitle, (adorn && hasNarrative(xdoc)) ? Boolean.valueOf(true) : null, igd, rd, wg, title);
     FileUtilities.stringToFile(html, page.getFolders().dstDir + n + ".xml.html");
 
@@ -5185,7 +5601,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
   private ProfileValidator pv;
 
-  private FHIRPathEngine fpe;
+  private FHIRPathChecker fpChecker;
 
   private ContextUtilities cu;
   private SDUsageMapper sdm;
@@ -5250,6 +5666,7 @@ public class Publisher implements URIResolver, SectionNumberer {
           } else {
             new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(file), res);
           }
+          page.getExamples().changed(file.getAbsolutePath());
         }
         narrative = new XhtmlComposer(XhtmlComposer.HTML).compose(res.getText().getDiv());
       } else {
@@ -5401,6 +5818,7 @@ public class Publisher implements URIResolver, SectionNumberer {
         page.log("?", LogMessageType.Error);
       }
     }
+    page.getExamples().done(file.getAbsolutePath());
 
     // build json and ttl formats
     e.setResourceName(resn.getName());
@@ -5418,7 +5836,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     //            + "\r\n</pre>\r\n</div>\r\n";
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(e.getDescription()) + "</p>\r\n<pre class=\"json\" style=\"white-space: pre; overflow: hidden\">\r\n" + Utilities.escapeXml(json)
     + "\r\n</pre>\r\n</div>\r\n";
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
     html = page.processPageIncludes(n + ".json.html", html, e.getResourceName() == null ? "profile-instance:resource:" + e.getResourceName() : "resource-instance:" + e.getResourceName(), null, null, null, "Example", null, resn, resn.getWg(), resn.getName()+"/"+e.getId());
     FileUtilities.stringToFile(html, page.getFolders().dstDir + prefix+n + ".json.html");
 
@@ -5427,7 +5845,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     String ttl = FileUtilities.fileToString(page.getFolders().dstDir + prefix+n + ".ttl");
     ttl = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(e.getDescription()) + "</p>\r\n<pre class=\"rdf\" style=\"white-space: pre; overflow: hidden\">\r\n" + Utilities.escapeXml(ttl)
     + "\r\n</pre>\r\n</div>\r\n";
-    html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example-ttl.html").replace("<%example%>", ttl);
+    html = page.getTemplates().load(page.getFolders().templateDir + "template-example-ttl.html").replace("<%example%>", ttl);
     html = page.processPageIncludes(n + ".ttl.html", html, e.getResourceName() == null ? "profile-instance:resource:" + e.getResourceName() : "resource-instance:" + e.getResourceName(), null, null, null, "Example", null, resn, resn.getWg(), resn.getName()+"/"+e.getId());
     FileUtilities.stringToFile(html, page.getFolders().dstDir + prefix+n + ".ttl.html");
 
@@ -5443,7 +5861,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     ByteArrayOutputStream b = new ByteArrayOutputStream();
     xhtml.generate(xdoc, b, n.toUpperCase().substring(0, 1) + n.substring(1), Utilities.noString(e.getId()) ? e.getDescription() : e.getDescription()
         + " (id = \"" + e.getId() + "\")", 0, true, n + ".xml.html");
-    html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example-xml.html").replace("<%example%>", b.toString());
+    html = page.getTemplates().load(page.getFolders().templateDir + "template-example-xml.html").replace("<%example%>", b.toString());
     html = page.processPageIncludes(n + ".xml.html", html, resn == null ? "profile-instance:resource:" + rt : "resource-instance:" + resn.getName(), null, n + ".xml.html", profile, null, "Example", (hasNarrative(xdoc)) ? Boolean.valueOf(true) : null, ig, resn, resn.getWg(), resn.getName()+"/"+e.getId());
     FileUtilities.stringToFile(html, page.getFolders().dstDir + prefix +n + ".xml.html");
     XhtmlDocument d = new XhtmlParser().parse(new CSFileInputStream(page.getFolders().dstDir + prefix +n + ".xml.html"), "html");
@@ -5479,7 +5897,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     
     // now, we create an html page from the narrative
     narrative = fixExampleReferences(e.getTitle(), narrative);
-    html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example.html").replace("<%example%>", narrative == null ? "" : narrative).replace("<%example-usage%>", genExampleUsage(e, page.genlevel(level)));
+    html = page.getTemplates().load(page.getFolders().templateDir + "template-example.html").replace("<%example%>", narrative == null ? "" : narrative).replace("<%example-usage%>", genExampleUsage(e, page.genlevel(level)));
     html = page.processPageIncludes(n + ".html", html, resn == null ? "profile-instance:resource:" + rt : "resource-instance:" + resn.getName(), null, profile, null, "Example", ig, resn, resn.getWg(), resn.getName()+"/"+e.getId());
     FileUtilities.stringToFile(html, page.getFolders().dstDir + prefix +n + ".html");
     // head =
@@ -5494,12 +5912,18 @@ public class Publisher implements URIResolver, SectionNumberer {
   }
 
   public Resource loadExample(CSFile file) throws IOException, FileNotFoundException {
+    Resource res = page.getExamples().getResource(file.getAbsolutePath());
+    if (res != null) {
+      return res;
+    }
     if (VersionUtilities.isR4BVer(page.getVersion().toCode())) {
-      org.hl7.fhir.r4.model.Resource res = new org.hl7.fhir.r4.formats.XmlParser().parse(new FileInputStream(file));
-      return VersionConvertorFactory_40_50.convertResource(res);
+      org.hl7.fhir.r4.model.Resource r4 = new org.hl7.fhir.r4.formats.XmlParser().parse(new FileInputStream(file));
+      res = VersionConvertorFactory_40_50.convertResource(r4);
     } else {
-      return new XmlParser().parse(new FileInputStream(file));
+      res = new XmlParser().parse(new FileInputStream(file));
     }
+    page.getExamples().seeResource(file.getAbsolutePath(), res);
+    return res.copy();
   }
 
   private String fixExampleReferences(String path, String narrative) throws Exception {
@@ -5789,7 +6213,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     String notes = pack.getNotes() != null ? page.loadXmlNotesFromFile(pack.getNotes(), false, null, null, null, null, res == null ? wg("fhir") : res.getWg()) : null;
 
     if (!("profile".equals(pack.metadata("navigation")) && pack.getProfiles().size() == 1)) {
-      String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-conformance-pack.html");
+      String src = page.getTemplates().load(page.getFolders().templateDir + "template-conformance-pack.html");
       src = page.processConformancePackageIncludes(pack, src, intro, notes, resourceName, ig, pack.getId().toLowerCase() + ".html");
       if (st != null)
         src = insertSectionNumbers(src, st, pack.getId().toLowerCase() + ".html",  0, null);
@@ -5839,7 +6263,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     fixCanonicalResource(sp, fName);
     serializeResource(sp, fName, true);
 
-    String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-search-parameter.html");
+    String src = page.getTemplates().load(page.getFolders().templateDir + "template-search-parameter.html");
     src = page.processPageIncludes(sp.getId()+".html", src, "search-parameter:"+(res == null ? "na" : res.getName())+"/"+pack.getId()+"/"+sp.getId(), null, sp, null, "Search Parameter", ig, res, res == null ? wg("fhir"): res.getWg(), "SearchParameter/"+sp.getId());
     if (st != null)
       src = insertSectionNumbers(src, st, title + ".html", level, null);
@@ -5849,7 +6273,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
     String json = resource2Json(sp);
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml("SearchParameter " + sp.getName()) + "</p>\r\n<pre class=\"json\" style=\"white-space: pre; overflow: hidden\">\r\n" + Utilities.escapeXml(json)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
     html = page.processPageIncludes(title + ".json.html", html, "search-parameter:"+(res == null ? "wg" : res.getName())+"/"+pack.getId()+"/"+sp.getId(), null, sp, null, "Search Parameter", ig, res, res == null ? wg("fhir"): res.getWg(), "SearchParameter/"+sp.getId());
     FileUtilities.stringToFile(html, page.getFolders().dstDir + prefix+title + ".json.html");
     page.getHTMLChecker().registerExternal(prefix+title + ".json.html");
@@ -5888,7 +6312,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     tgen.close();
     String tx = FileUtilities.fileToString(tmp.getAbsolutePath());
 
-    String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-profile.html");
+    String src = page.getTemplates().load(page.getFolders().templateDir + "template-profile.html");
     src = page.processProfileIncludes(profile.getId(), profile.getId(), pack, profile, xml, json, tx, src, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
     if (st != null)
       src = insertSectionNumbers(src, st, title + ".html", level, null);
@@ -5902,19 +6326,19 @@ public class Publisher implements URIResolver, SectionNumberer {
     new ProfileUtilities(page.getWorkerContext(), page.getValidationErrors(), page).generateSchematrons(new FileOutputStream(page.getFolders().dstDir + prefix +title + ".sch"), profile.getResource());
 
     if (pack.getExamples().size() > 0) {
-      src = FileUtilities.fileToString(page.getFolders().templateDir + "template-profile-examples.html");
+      src = page.getTemplates().load(page.getFolders().templateDir + "template-profile-examples.html");
       src = page.processProfileIncludes(profile.getId(), profile.getId(), pack, profile, xml, json, tx, src, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
       page.getHTMLChecker().registerFile(prefix+title + "-examples.html", "Examples for StructureDefinition " + profile.getResource().getName(), HTMLLinkChecker.XHTML_TYPE, true);
       FileUtilities.stringToFile(src, page.getFolders().dstDir + prefix +title + "-examples.html");
     }
-    src = FileUtilities.fileToString(page.getFolders().templateDir + "template-profile-definitions.html");
+    src = page.getTemplates().load(page.getFolders().templateDir + "template-profile-definitions.html");
     src = page.processProfileIncludes(profile.getId(), profile.getId(), pack, profile, xml, json, tx, src, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
     if (st != null)
       src = insertSectionNumbers(src, st, title + "-definitions.html", level, null);
     page.getHTMLChecker().registerFile(prefix +title + "-definitions.html", "Definitions for StructureDefinition " + profile.getResource().getName(), HTMLLinkChecker.XHTML_TYPE, true);
     FileUtilities.stringToFile(src, page.getFolders().dstDir + prefix +title + "-definitions.html");
 
-    src = FileUtilities.fileToString(page.getFolders().templateDir + "template-profile-mappings.html");
+    src = page.getTemplates().load(page.getFolders().templateDir + "template-profile-mappings.html");
     src = page.processProfileIncludes(profile.getId(), profile.getId(), pack, profile, xml, json, tx, src, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
     if (st != null)
       src = insertSectionNumbers(src, st, title + "-mappings.html", level, null);
@@ -5939,7 +6363,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     XhtmlGenerator xhtml = new XhtmlGenerator(new ExampleAdorner(page.getDefinitions(), page.genlevel(level)));
     ByteArrayOutputStream b = new ByteArrayOutputStream();
     xhtml.generate(xdoc, b, "StructureDefinition", profile.getTitle(), 0, true, title + ".profile.xml.html");
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-profile-example-xml.html").replace("<%example%>", b.toString());
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-profile-example-xml.html").replace("<%example%>", b.toString());
     html = page.processProfileIncludes(title + ".profile.xml.html", profile.getId(), pack, profile, "", "", "", html, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, hasNarrative(xdoc));
     FileUtilities.stringToFile(html, page.getFolders().dstDir + prefix +title + ".profile.xml.html");
 
@@ -5949,7 +6373,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
 
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml("StructureDefinition for " + profile.getResource().getDescription()) + "</p>\r\n<p><a href=\""+title+".profile.json\">Raw JSON</a></p>\r\n<pre class=\"json\" style=\"white-space: pre; overflow: hidden\">\r\n" + Utilities.escapeXml(json)+ "\r\n</pre>\r\n</div>\r\n";
-    html = FileUtilities.fileToString(page.getFolders().templateDir + "template-profile-example-json.html").replace("<%example%>", json);
+    html = page.getTemplates().load(page.getFolders().templateDir + "template-profile-example-json.html").replace("<%example%>", json);
     html = page.processProfileIncludes(title + ".profile.json.html", profile.getId(), pack, profile, "", "", "", html, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
     FileUtilities.stringToFile(html, page.getFolders().dstDir + prefix +title + ".profile.json.html");
     //    page.getEpub().registerFile(n + ".json.html", description, EPubManager.XHTML_TYPE);
@@ -6046,7 +6470,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     String logicalName = FileUtilities.fileTitle(actualName);
     String src;
     if (IgParser.getKind(p) == GuidePageKind.TOC)
-      src = FileUtilities.fileToString(Utilities.path(page.getFolders().templateDir, "template-ig-toc.html"));
+      src = page.getTemplates().load(Utilities.path(page.getFolders().templateDir, "template-ig-toc.html"));
     else
       throw new Exception("Unsupported special page kind "+IgParser.getKind(p).toCode());
 
@@ -6173,7 +6597,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (lm.getWg() != null && lm.getResource().getWg() == null)
       lm.getResource().setWg(lm.getWg());
     String template = "template-logical";
-    String src = FileUtilities.fileToString(page.getFolders().templateDir + template+".html");
+    String src = page.getTemplates().load(page.getFolders().templateDir + template+".html");
     Map<String, String> values = new HashMap<String, String>();
     if (lm.hasResource())
       src = insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "resource", n + ".html", ig, values, lm.getWg(), examples), st, n + ".html", ig.getLevel(), null);
@@ -6182,7 +6606,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     FileUtilities.stringToFile(src, page.getFolders().dstDir + fn+".html");
     page.getHTMLChecker().registerFile(fn+".html", "Base Page for " + n, HTMLLinkChecker.XHTML_TYPE, true);
 
-    src = FileUtilities.fileToString(page.getFolders().templateDir + "template-logical-definitions.html");
+    src = page.getTemplates().load(page.getFolders().templateDir + "template-logical-definitions.html");
     if (lm.hasResource())
       FileUtilities.stringToFile(insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "res-Detailed Descriptions", n + "-definitions.html", ig, values, lm.getWg(), examples), st, n
             + "-definitions.html", ig.getLevel(), null), page.getFolders().dstDir + fn+"-definitions.html");
@@ -6191,7 +6615,7 @@ public class Publisher implements URIResolver, SectionNumberer {
           + "-definitions.html", ig.getLevel(), null), page.getFolders().dstDir + fn+"-definitions.html");
     page.getHTMLChecker().registerFile(fn+"-definitions.html", "Detailed Descriptions for " + (lm.hasResource() ? lm.getResource().getName() : lm.getDefinition().getName()), HTMLLinkChecker.XHTML_TYPE, true);
 
-    src = FileUtilities.fileToString(page.getFolders().templateDir + "template-logical-examples.html");
+    src = page.getTemplates().load(page.getFolders().templateDir + "template-logical-examples.html");
     if (lm.hasResource())
       FileUtilities.stringToFile(insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "resource", n + ".html", ig, values, lm.getWg(), examples), st, n + ".html", ig.getLevel(), null), page.getFolders().dstDir + fn+"-implementations.html");
     else
@@ -6199,7 +6623,7 @@ public class Publisher implements URIResolver, SectionNumberer {
           + "-implementations.html", ig.getLevel(), null), page.getFolders().dstDir + fn+"-implementations.html");
     page.getHTMLChecker().registerFile(fn+"-implementations.html", "Implementations for " + (lm.hasResource() ? lm.getResource().getName() : lm.getDefinition().getName()), HTMLLinkChecker.XHTML_TYPE, true);
 
-    src = FileUtilities.fileToString(page.getFolders().templateDir + "template-logical-mappings.html");
+    src = page.getTemplates().load(page.getFolders().templateDir + "template-logical-mappings.html");
     if (lm.hasResource())
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "res-Mappings", n + "-mappings.html", ig, values, lm.getWg(), examples), st, n + "-mappings.html", ig.getLevel(), null),
@@ -6209,7 +6633,7 @@ public class Publisher implements URIResolver, SectionNumberer {
         page.getFolders().dstDir + fn + "-mappings.html");
     page.getHTMLChecker().registerFile(fn+"-mappings.html", "Formal Mappings for " + n, HTMLLinkChecker.XHTML_TYPE, true);
 
-    src = FileUtilities.fileToString(page.getFolders().templateDir + "template-logical-analysis.html");
+    src = page.getTemplates().load(page.getFolders().templateDir + "template-logical-analysis.html");
     if (lm.hasResource())
       FileUtilities.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "res-Analysis", n + "-analysis.html", ig, values, lm.getWg(), examples), st, n + "-analysis.html", ig.getLevel(), null),
@@ -6227,7 +6651,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (web)
       return;
 
-    String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-dictionary.html");
+    String src = page.getTemplates().load(page.getFolders().templateDir + "template-dictionary.html");
     String file = d.getSource();
     String prefix = d.getIg() != null ? d.getIg().getCode()+File.separator : "";
     String filename = prefix+d.getId();
@@ -6243,7 +6667,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
     FileUtilities.stringToFile(src, page.getFolders().dstDir + filename+".html");
 
-    src = FileUtilities.fileToString(page.getFolders().templateDir + "template-dictionary.html").replace("<body>", "<body style=\"margin: 10px\">");
+    src = page.getTemplates().load(page.getFolders().templateDir + "template-dictionary.html").replace("<body>", "<body style=\"margin: 10px\">");
     src = page.processPageIncludesForBook(filename+".html", src, "page", dict, null, null);
     cachePage(filename+".html", src, d.getId(), true);
 
@@ -6364,7 +6788,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
     String logicalName = "compartmentdefinition-" + c.getName().toLowerCase();
     String file = logicalName + ".html";
-    String src = FileUtilities.fileToString(page.getFolders().templateDir + "template-compartment.html");
+    String src = page.getTemplates().load(page.getFolders().templateDir + "template-compartment.html");
     src = page.processPageIncludes(file, src, "resource-instance:CompartmentDefinition", null, null, null, "Compartment", null, null, wg("fhir"),"CompartmentDefinition/"+c.getName().toLowerCase());
 
     // String prefix = "";
@@ -6384,7 +6808,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
     FileUtilities.stringToFile(src, page.getFolders().dstDir + file);
 
-    src = FileUtilities.fileToString(page.getFolders().templateDir + "template-compartment.html").replace("<body>", "<body style=\"margin: 10px\">");
+    src = page.getTemplates().load(page.getFolders().templateDir + "template-compartment.html").replace("<body>", "<body style=\"margin: 10px\">");
     src = page.processPageIncludesForBook(file, src, "compartment", null, null, null);
     cachePage(file, src, "Compartments", true);
   }
@@ -6661,28 +7085,49 @@ public class Publisher implements URIResolver, SectionNumberer {
 
       page.log("Validating "+filesToValidate.size()+" files", LogMessageType.Process);
       
+      // examples are validated in parallel (each worker has its own validator), and then
+      // reported in the same sorted order as always
+      List<String> names = new ArrayList<String>();
       for (String n : Utilities.sortedCaseInsensitive(filesToValidate.keySet())) {
         if (new File(Utilities.path(page.getFolders().rootDir, "publish", n + ".json")).exists()) {
-          ValidationInformation vi = filesToValidate.get(n);
-          if (vi.getExample() == null) {
-            ei.validate(n, vi.getResourceName());
-          } else if (vi.getProfile() == null) {
-            ei.validate(n, vi.getResourceName());
-            for (ValidationMessage vm : ei.getErrors()) {
-              vi.getExample().getErrors().add(vm);
-            }
-          } else {
-            ei.validate(n, vi.getResourceName(), vi.getProfile());
-            for (ValidationMessage vm : ei.getErrors()) {
-              vi.getExample().getErrors().add(vm);
-            }
-          }
+          names.add(n);
         } else {
           System.out.println("Ignoring File "+n+" because it doesn't exist");
         }
       }
+      ExampleValidation[] results = new ExampleValidation[names.size()];
+      page.getWorkerContext().setFrozen(true);
+      BuildScheduler sched = new BuildScheduler(threads);
+      for (int i = 0; i < names.size(); i++) {
+        final int index = i;
+        final String n = names.get(i);
+        final ValidationInformation vi = filesToValidate.get(n);
+        if (sched.isSerial()) {
+          sched.task("validate:"+n, () -> {
+            results[index] = ei.check(n, vi.getProfile());
+            ei.report(results[index]);
+          });
+        } else {
+          sched.task("validate:"+n, () -> results[index] = ei.check(n, vi.getProfile()));
+        }
+      }
+      try {
+        sched.execute();
+      } finally {
+        page.getWorkerContext().setFrozen(false);
+      }
+      for (int i = 0; i < names.size(); i++) {
+        ValidationInformation vi = filesToValidate.get(names.get(i));
+        if (!sched.isSerial()) {
+          ei.report(results[i]);
+        }
+        if (vi.getExample() != null) {
+          vi.getExample().getErrors().addAll(results[i].getMessages());
+        }
+      }
             
       ei.summarise();
+      page.log(page.getExamples().summary(), LogMessageType.Process);
 
       if (buildFlags.get("all") && isGenerate)
         produceCoverageWarnings();
@@ -6914,7 +7359,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.setId(vs.getId());
       String sf;
       try {
-        sf = page.processPageIncludes(n + ".html", FileUtilities.fileToString(page.getFolders().templateDir + "template-vs.html"), "valueSet", null, n+".html", vs, null, "Value Set", ig, null, wg(vs, "vocab"), "ValueSet/"+vs.getId());
+        sf = page.processPageIncludes(n + ".html", page.getTemplates().load(page.getFolders().templateDir + "template-vs.html"), "valueSet", null, n+".html", vs, null, "Value Set", ig, null, wg(vs, "vocab"), "ValueSet/"+vs.getId());
       } catch (Exception e) {
         throw new Exception("Error processing "+n+".html: "+e.getMessage(), e);
       }
@@ -6922,7 +7367,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
       FileUtilities.stringToFile(sf, page.getFolders().dstDir + n + ".html");
       try {
-        String src = page.processPageIncludesForBook(n + ".html", FileUtilities.fileToString(page.getFolders().templateDir + "template-vs-book.html"), "valueSet", vs, ig, null);
+        String src = page.processPageIncludesForBook(n + ".html", page.getTemplates().load(page.getFolders().templateDir + "template-vs-book.html"), "valueSet", vs, ig, null);
         cachePage(n + ".html", src, "Value Set " + n, false);
         page.setId(null);
       } catch (Exception e) {
@@ -6978,7 +7423,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       String sf;
       WorkGroup wg = wg(cs, "vocab");
       try {
-        sf = page.processPageIncludes(n + ".html", FileUtilities.fileToString(page.getFolders().templateDir + "template-cs.html"), "codeSystem", null, n+".html", cs, null, "Value Set", ig, null, wg, "CodeSystem/"+cs.getId());
+        sf = page.processPageIncludes(n + ".html", page.getTemplates().load(page.getFolders().templateDir + "template-cs.html"), "codeSystem", null, n+".html", cs, null, "Value Set", ig, null, wg, "CodeSystem/"+cs.getId());
       } catch (Exception e) {
         throw new Exception("Error processing "+n+".html: "+e.getMessage(), e);
       }
@@ -6986,7 +7431,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
       FileUtilities.stringToFile(sf, page.getFolders().dstDir + n + ".html");
       try {
-        String src = page.processPageIncludesForBook(n + ".html", FileUtilities.fileToString(page.getFolders().templateDir + "template-cs-book.html"), "codeSystem", cs, ig, null);
+        String src = page.processPageIncludesForBook(n + ".html", page.getTemplates().load(page.getFolders().templateDir + "template-cs-book.html"), "codeSystem", cs, ig, null);
         cachePage(n + ".html", src, "Code System " + n, false);
         page.setId(null);
       } catch (Exception e) {
@@ -7084,7 +7529,7 @@ private String csCounter() {
 
     // now, we create an html page from the narrative
     String narrative = new XhtmlComposer(XhtmlComposer.HTML).compose(cm.getText().getDiv());
-    String html = FileUtilities.fileToString(page.getFolders().templateDir + "template-example.html").replace("<%example%>", narrative);
+    String html = page.getTemplates().load(page.getFolders().templateDir + "template-example.html").replace("<%example%>", narrative);
     html = page.processPageIncludes(FileUtilities.changeFileExt(filename, ".html"), html, "conceptmap-instance", null, null, null, "Concept Map", null, null, wg("vocab"), "ConceptMap/"+cm.getId());
     FileUtilities.stringToFile(html, page.getFolders().dstDir + FileUtilities.changeFileExt(filename, ".html"));
 
@@ -7149,7 +7594,7 @@ private String csCounter() {
             ",\n xmls=" + xmls +
             ",\n jsons=" + jsons +
             ",\n ttls=" + ttls +
-            ",\n dates=" + dates +
+            ",\n sourceGraph=" + sourceGraph +
             ",\n buildFlags=" + buildFlags +
             ",\n cache=" + cache +
             ",\n singleResource='" + singleResource + '\'' +
@@ -0,0 +1,59 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.utilities.FileUtilities;
+
+/**
+ * Holds the page templates and the fragments they include (header, footer, etc.) in memory, so that
+ * each one is read once per build, not once per generated page. Thousands of pages share a handful
+ * of templates.
+ *
+ * The text is cached, not a parsed form: the page processor expands directives in place (and expands
+ * the content it inserts), so there is nothing useful to pre-parse. An entry is read again if the
+ * file's size or date changes during the build
+ */
+public class TemplateCache {
+
+  private class Template {
+    private long length;
+    private long modified;
+    private String content;
+  }
+
+  private Map<String, Template> templates = new ConcurrentHashMap<String, Template>();
+  private AtomicInteger hits = new AtomicInteger();
+  private AtomicInteger misses = new AtomicInteger();
+
+  public String load(String path) throws IOException {
+    File f = new File(path);
+    Template t = templates.get(path);
+    if (t != null && t.length == f.length() && t.modified == f.lastModified()) {
+      hits.incrementAndGet();
+      return t.content;
+    }
+    misses.incrementAndGet();
+    t = new Template();
+    t.length = f.length();
+    t.modified = f.lastModified();
+    t.content = FileUtilities.fileToString(f);
+    templates.put(path, t);
+    return t.content;
+  }
+
+  public int getHits() {
+    return hits.get();
+  }
+
+  public int getMisses() {
+    return misses.get();
+  }
+
+  public String summary() {
+    return "Templates: "+templates.size()+" files, "+hits.get()+" hits, "+misses.get()+" misses";
+  }
+}
@@ -0,0 +1,201 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Expands the directives (&lt;%..%&gt; and [%..%]) in a page for the PageProcessor. The include loops
+ * call next() to get the next directive, and replace() to supply its content:
+ *
+ *   TemplateScanner scanner = new TemplateScanner(src);
+ *   while (scanner.next()) {
+ *     String s2 = scanner.getDirective().trim();
+ *     ...
+ *     scanner.replace(content);
+ *   }
+ *   src = scanner.getResult();
+ *
+ * The directives are found in the same order as always: the first &lt;% directive, and only when there
+ * are none left, the first [% directive. Content that replaces a directive can contain more directives,
+ * and these are expanded too (a &lt;% directive in the content of a [% directive is expanded before
+ * the next [% directive).
+ *
+ * The text that has been expanded is appended to one StringBuilder, and the text that is still to be
+ * scanned is kept as a stack of pieces (the content of each replacement on top of what followed its
+ * directive), so the page isn't copied or searched again for each directive. (Only a directive that is
+ * split between a replacement and the text around it costs a copy of the rest of the page.)
+ */
+public class TemplateScanner {
+
+  /**
+   * a piece of text still to be scanned, from pos on
+   */
+  private static class Piece {
+    private String text;
+    private int pos;
+
+    private Piece(String text, int pos) {
+      this.text = text;
+      this.pos = pos;
+    }
+  }
+
+  private Deque<Piece> pieces = new ArrayDeque<Piece>();
+  private StringBuilder result = new StringBuilder(); // fully expanded
+  private StringBuilder expanded; // &lt;% directives expanded, still to be searched for [% directives
+  private boolean angle; // looking for &lt;% directives
+  private int base; // the pieces below this aren't part of the &lt;% phase
+  private String directive;
+  private boolean pending;
+
+  public TemplateScanner(String src) {
+    pieces.push(new Piece(src, 0));
+    startAngle(0);
+  }
+
+  /**
+   * @return true if another directive was found. It must be replaced before next() is called again
+   */
+  public boolean next() throws Exception {
+    if (pending) {
+      throw new Exception("The template directive '"+directive+"' was not replaced");
+    }
+    while (true) {
+      if (angle && pieces.size() == base) {
+        // no &lt;% directives left in this part of the page - search it for [% directives
+        angle = false;
+        pieces.push(new Piece(expanded.toString(), 0));
+        expanded = null;
+      }
+      if (pieces.isEmpty()) {
+        return false;
+      }
+      Piece p = pieces.peek();
+      int i = p.text.indexOf(angle ? "<%" : "[%", p.pos);
+      if (i == -1) {
+        output().append(p.text, p.pos, p.text.length());
+        pieces.pop();
+        join();
+      } else {
+        output().append(p.text, p.pos, i);
+        p.pos = i;
+        String close = angle ? "%>" : "%]";
+        int e = p.text.indexOf(close, i + 2);
+        while (e == -1 && pieces.size() > 1) {
+          // the directive is closed in what follows the content it is in
+          merge();
+          p = pieces.peek();
+          e = p.text.indexOf(close, 2);
+        }
+        if (e == -1) {
+          int l = Math.min(p.text.length(), p.pos + 40);
+          throw new Exception("Unterminated template directive '"+p.text.substring(p.pos, l)+"'");
+        }
+        directive = p.text.substring(p.pos + 2, e);
+        p.pos = e + 2;
+        pending = true;
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @return the text between the opening &lt;% or [% and the closing %&gt; or %] of the current directive
+   */
+  public String getDirective() {
+    return directive;
+  }
+
+  /**
+   * replace the current directive with the content (which is searched for directives in turn). The
+   * value is added the way the include loops always added it (s1+value+s3), so a number or null comes
+   * out as it did before
+   */
+  public void replace(Object value) {
+    pending = false;
+    String content = String.valueOf(value);
+    // drop the pieces that are finished, so the content is followed by what is actually next
+    while (!pieces.isEmpty() && pieces.peek().pos == pieces.peek().text.length() && (!angle || pieces.size() > base)) {
+      pieces.pop();
+    }
+    if (content.length() > 0) {
+      pieces.push(new Piece(content, 0));
+    }
+    join();
+    if (!angle && content.length() > 0) {
+      Iterator<Piece> it = pieces.iterator();
+      Piece p = it.next();
+      if (p.text.contains("<%")) {
+        startAngle(pieces.size() - 1);
+      } else if (p.text.endsWith("<") && it.hasNext() && startsWithPercent(it.next())) {
+        // the content ends with the start of a &lt;% directive
+        startAngle(pieces.size() - 2);
+      }
+    }
+  }
+
+  /**
+   * @return the page, once next() has returned false
+   */
+  public String getResult() {
+    return result.toString();
+  }
+
+  private void startAngle(int base) {
+    this.angle = true;
+    this.base = base;
+    this.expanded = new StringBuilder();
+  }
+
+  private StringBuilder output() {
+    return angle ? expanded : result;
+  }
+
+  private boolean startsWithPercent(Piece p) {
+    return p.pos < p.text.length() && p.text.charAt(p.pos) == '%';
+  }
+
+  private boolean isOpen(char c) {
+    return c == '<' || c == '[';
+  }
+
+  /**
+   * if the text that has been output ends with the start of a directive and the next piece finishes
+   * it, move it to the next piece
+   */
+  private void join() {
+    if (pieces.isEmpty()) {
+      return;
+    }
+    // the text before the start of a &lt;% phase for the content of a [% directive is in result
+    StringBuilder b = angle && expanded.length() == 0 ? result : output();
+    Piece next = pieces.peek();
+    if (b.length() > 0 && isOpen(b.charAt(b.length() - 1)) && startsWithPercent(next)) {
+      if (angle && pieces.size() == base) {
+        if (b.charAt(b.length() - 1) == '[') {
+          return; // found when this &lt;% phase is over
+        }
+        base = pieces.size() - 1; // the &lt;% directive belongs to this phase
+      }
+      next.text = b.charAt(b.length() - 1) + next.text.substring(next.pos);
+      next.pos = 0;
+      b.setLength(b.length() - 1);
+      if (!angle && next.text.startsWith("<%")) {
+        startAngle(pieces.size() - 1);
+      }
+    }
+  }
+
+  /**
+   * join the top piece (from pos) with the one below it
+   */
+  private void merge() {
+    Piece p = pieces.pop();
+    Piece next = pieces.pop();
+    pieces.push(new Piece(p.text.substring(p.pos) + next.text.substring(next.pos), 0));
+    if (angle && pieces.size() <= base) {
+      base = pieces.size() - 1;
+    }
+  }
+}
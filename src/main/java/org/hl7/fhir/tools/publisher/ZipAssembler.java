@@ -0,0 +1,319 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+ * Builds zip files, compressing the entries on a pool of threads. Each zip is still written on the
+ * thread that adds to it, with the entries in the order they were added, so the zips are the same
+ * whatever the number of threads.
+ *
+ * Several zips can be open at once. If the assembler is created to share files between its zips, a
+ * file that goes into more than one of them is only read and compressed once, and the compressed
+ * bytes are copied into each zip. The shared files are kept in memory until close(), so only use
+ * this for a few zips that have files in common. Otherwise each entry is dropped once it's written.
+ * Text files can be rewritten on the way in (see Replacement), without reading the whole file into
+ * a string first.
+ *
+ * Call close() when all the zips are done; nothing is complete until then
+ */
+public class ZipAssembler {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * text to replace in a file as it is added
+   */
+  public static class Replacement {
+    private String from;
+    private String to;
+    private AtomicInteger files = new AtomicInteger();
+
+    public Replacement(String from, String to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    /**
+     * @return the number of files in which the text was found and replaced
+     */
+    public int getFiles() {
+      return files.get();
+    }
+  }
+
+  private static class Compressed {
+    private byte[] data;
+    private long size;
+    private long crc;
+    private long time;
+  }
+
+  private interface Source {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private class Entry {
+    private String name;
+    private Future<Compressed> content;
+  }
+
+  public class Zip {
+    private ZipArchiveOutputStream out;
+    private LinkedList<Entry> pending = new LinkedList<Entry>();
+    private Set<String> names = new HashSet<String>();
+
+    private Zip(String filename) throws IOException {
+      out = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(filename), BUFFER_SIZE));
+    }
+
+    public void addFileName(String name, String path) throws IOException {
+      File f = new File(path);
+      if (shared == null) {
+        add(name, submit(() -> compress(out -> copy(f, out), f.lastModified())));
+        return;
+      }
+      String key = f.getAbsolutePath();
+      Future<Compressed> content = shared.get(key);
+      if (content == null) {
+        content = submit(() -> compress(out -> copy(f, out), f.lastModified()));
+        Future<Compressed> existing = shared.putIfAbsent(key, content);
+        content = existing == null ? content : existing;
+      }
+      add(name, content);
+    }
+
+    public void addBytes(String name, byte[] bytes) throws IOException {
+      long time = System.currentTimeMillis();
+      add(name, submit(() -> compress(out -> out.write(bytes), time)));
+    }
+
+    /**
+     * add a text (UTF-8) file, making the replacements as it's read
+     */
+    public void addText(String name, String path, List<Replacement> replacements) throws IOException {
+      File f = new File(path);
+      add(name, submit(() -> compress(out -> replace(f, out, replacements), f.lastModified())));
+    }
+
+    private void add(String name, Future<Compressed> content) throws IOException {
+      if (names.add(name)) {
+        Entry e = new Entry();
+        e.name = name;
+        e.content = content;
+        pending.add(e);
+        // write whatever is ready, and don't get too far ahead of the compression
+        while (!pending.isEmpty() && (pending.getFirst().content.isDone() || pending.size() > threads * 4)) {
+          write(pending.removeFirst());
+        }
+      }
+    }
+
+    private void write(Entry e) throws IOException {
+      Compressed c;
+      try {
+        c = e.content.get();
+      } catch (InterruptedException ex) {
+        throw new IOException("Interrupted adding "+e.name, ex);
+      } catch (ExecutionException ex) {
+        throw new IOException("Error adding "+e.name+": "+ex.getCause().getMessage(), ex.getCause());
+      }
+      ZipArchiveEntry ze = new ZipArchiveEntry(e.name);
+      ze.setMethod(ZipEntry.DEFLATED);
+      ze.setSize(c.size);
+      ze.setCompressedSize(c.data.length);
+      ze.setCrc(c.crc);
+      ze.setTime(c.time);
+      out.addRawArchiveEntry(ze, new ByteArrayInputStream(c.data));
+    }
+
+    private void close() throws IOException {
+      while (!pending.isEmpty()) {
+        write(pending.removeFirst());
+      }
+      out.close();
+    }
+  }
+
+  private int threads;
+  private ExecutorService pool;
+  private Map<String, Future<Compressed>> shared; // null unless the zips share files
+  private List<Zip> zips = new ArrayList<Zip>();
+
+  public ZipAssembler(int threads) {
+    this(threads, false);
+  }
+
+  /**
+   * @param share whether a file added to more than one of the zips is only compressed once. The
+   *   compressed files are then kept until close()
+   */
+  public ZipAssembler(int threads, boolean share) {
+    this.threads = Math.max(1, threads);
+    pool = Executors.newFixedThreadPool(this.threads);
+    if (share) {
+      shared = new ConcurrentHashMap<String, Future<Compressed>>();
+    }
+  }
+
+  public Zip create(String filename) throws IOException {
+    Zip zip = new Zip(filename);
+    zips.add(zip);
+    return zip;
+  }
+
+  /**
+   * finish writing all the zips
+   */
+  public void close() throws IOException {
+    try {
+      for (Zip zip : zips) {
+        zip.close();
+      }
+    } finally {
+      pool.shutdownNow();
+      if (shared != null) {
+        shared.clear();
+      }
+    }
+  }
+
+  private Future<Compressed> submit(Callable<Compressed> task) {
+    return pool.submit(() -> {
+      long before = BuildMetrics.threadAllocatedBytes();
+      try {
+        return task.call();
+      } finally {
+        BuildMetrics.addWorkerAllocation(BuildMetrics.threadAllocatedBytes() - before);
+      }
+    });
+  }
+
+  private static Compressed compress(Source source, long time) throws IOException {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CRC32 crc = new CRC32();
+      try (OutputStream out = new CheckedOutputStream(new DeflaterOutputStream(bytes, deflater, BUFFER_SIZE), crc)) {
+        source.write(out);
+      }
+      Compressed c = new Compressed();
+      c.data = bytes.toByteArray();
+      c.size = deflater.getBytesRead();
+      c.crc = crc.getValue();
+      c.time = time;
+      return c;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static void copy(File f, OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = new FileInputStream(f)) {
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+    }
+  }
+
+  /**
+   * copy f to out, replacing text as it goes. The text is replaced left to right, and replaced text
+   * isn't searched again
+   */
+  private static void replace(File f, OutputStream out, List<Replacement> replacements) throws IOException {
+    int longest = 0;
+    for (Replacement r : replacements) {
+      longest = Math.max(longest, r.from.length());
+    }
+    boolean[] found = new boolean[replacements.size()];
+    char[] buffer = new char[BUFFER_SIZE];
+    StringBuilder text = new StringBuilder();
+    try (Reader in = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
+      Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+      boolean eof = false;
+      while (!eof) {
+        int n = in.read(buffer);
+        if (n == -1) {
+          eof = true;
+        } else {
+          text.append(buffer, 0, n);
+        }
+        // a match might start in the last few characters, so they wait for the next read
+        int limit = eof ? text.length() : text.length() - longest + 1;
+        int start = 0;
+        int i = 0;
+        while (i < limit) {
+          int m = match(text, i, replacements);
+          if (m > -1) {
+            w.append(text, start, i);
+            w.write(replacements.get(m).to);
+            found[m] = true;
+            i = i + replacements.get(m).from.length();
+            start = i;
+          } else {
+            i++;
+          }
+        }
+        w.append(text, start, i);
+        text.delete(0, i);
+      }
+      w.flush();
+    }
+    for (int i = 0; i < found.length; i++) {
+      if (found[i]) {
+        replacements.get(i).files.incrementAndGet();
+      }
+    }
+  }
+
+  private static int match(CharSequence text, int i, List<Replacement> replacements) {
+    for (int m = 0; m < replacements.size(); m++) {
+      String s = replacements.get(m).from;
+      if (i + s.length() <= text.length() && text.charAt(i) == s.charAt(0)) {
+        boolean ok = true;
+        for (int j = 1; ok && j < s.length(); j++) {
+          ok = text.charAt(i + j) == s.charAt(j);
+        }
+        if (ok) {
+          return m;
+        }
+      }
+    }
+    return -1;
+  }
+}
@@ -1,9 +1,28 @@
 package org.hl7.fhir.tools.site;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 import org.hl7.fhir.utilities.IniFile;
@@ -13,16 +32,41 @@ import org.hl7.fhir.utilities.json.JsonUtilities;
 
 import com.google.gson.JsonObject;
 
+/**
+ * Updates the release header (and the fhir-pub.css link) in every page of a published version.
+ *
+ * The folders are walked in parallel (each folder is a task, and idle threads take folders from the
+ * busy ones). A manifest of the pages is kept beside status.ini: for each page, the size and date it
+ * had when it was last checked, the hash of its content, and what the header was made from. A page
+ * that hasn't changed since, and would get the same header, isn't read at all. The manifest is only
+ * used while the status message is the same; when that changes, all the pages are checked again
+ */
 public class WebSiteReleaseUpdater {
   private static final String START_HTML_MARKER = "<!--ReleaseHeader-->";
   private static final String END_HTML_MARKER = "<!--EndReleaseHeader-->";
+  private static final int FORMAT = 1;
+  private static final long PROGRESS_INTERVAL = 10000;
+
+  private static class Page {
+    private long size;
+    private long modified;
+    private String hash;
+    private String header;
+  }
 
   private String dir;
   private JsonObject ver;
   private String root;
   private JsonObject currentVer;
   private IniFile ini;
-  private int total = 0;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private AtomicInteger total = new AtomicInteger();
+  private AtomicInteger checked = new AtomicInteger();
+  private AtomicInteger unchanged = new AtomicInteger();
+  private AtomicLong lastProgress = new AtomicLong();
+  private long started;
+  private Map<String, Page> manifest = new ConcurrentHashMap<String, Page>();
+  private Map<String, Page> seen = new ConcurrentHashMap<String, Page>();
 
   public WebSiteReleaseUpdater(String root, String dir, JsonObject ver, JsonObject currentVer) throws IOException {
     this.root = root;
@@ -32,11 +76,27 @@ public class WebSiteReleaseUpdater {
     this.currentVer = currentVer;
   }
 
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
   public void execute(List<String> exempt) throws FileNotFoundException, IOException {
     System.out.print("v"+JsonUtilities.str(ver, "version"));
     String statusMsg = generateStatusMessage(exempt);
-    updateStatus(new File(dir), statusMsg, exempt, 0);
-    System.out.println(" - "+total+" files updated");
+    String manifestFile = Utilities.path(FileUtilities.getDirectoryForFile(root), "status-"+(exempt == null ? JsonUtilities.str(ver, "version") : "current")+".manifest");
+    loadManifest(manifestFile, statusMsg);
+    started = System.currentTimeMillis();
+    lastProgress.set(started);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(new Folder(new File(dir), statusMsg, exempt, 0));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+    saveManifest(manifestFile, statusMsg);
+    System.out.println(" - "+total.get()+" files updated, "+unchanged.get()+" not read ("+checked.get()+" files, "+rate()+" files/sec)");
     if (exempt == null) {
       FileUtils.copyFile(new File(Utilities.path(root, "fhir-pub.css")), new File(Utilities.path(dir, "fhir-pub.css")));
       FileUtils.copyFile(new File(Utilities.path(root, "external.png")), new File(Utilities.path(dir, "external.png")));
@@ -51,11 +111,11 @@ public class WebSiteReleaseUpdater {
     if (exempt != null)
       return "<p id=\"publish-box-current\">This is the current officially released version of FHIR, which is <a href=\"history.html\">"+sequence+
           "</a> (v"+version+"). For a full list of all versions, see the <a href=\"http://hl7.org/fhir/directory.cfml\">Directory of published versions <img src=\"{pd}external.png\" style=\"vertical-align: baseline\" alt=\"img\"></a>.</p>";
-    
+
     String desc = JsonUtilities.str(ver, "desc");
     String status = JsonUtilities.str(ver, "status");
     boolean lastInSequence = Utilities.existsInList(status, "trial-use", "normative+trial-use");
-    
+
     if (lastInSequence) {
       if (ver == currentVer)
         return "<p id=\"publish-box-milestone\">This page is part of FHIR "+sequence+" - the current version v"+version+" - in its permanent home (it will always be available at this URL). "+
@@ -71,49 +131,190 @@ public class WebSiteReleaseUpdater {
     }
   }
 
-  private String updateStatus(File d, String msg, List<String> exempt, int depth) throws FileNotFoundException, IOException {
-    for (File f : d.listFiles()) {
-      if (f.isDirectory()) {
-        if (!Utilities.existsInList(f.getName(), "html", "uv", "us", "smart-app-launch", "quick") && (exempt == null || !exempt.contains(f.getAbsolutePath())) ) {
-          String s = updateStatus(f, msg, null, depth+1);
-          if (s != null)
-            return s;
-        }
-      } else if (f.getName().endsWith(".html") || f.getName().endsWith(".htm")) {
-        String src = FileUtilities.fileToString(f);
-        String o = src;
-        if (src.contains("<body") && !(src.contains("http-equiv=\"Refresh\"") || src.contains("http-equiv=\"refresh\""))) {
-          int b = src.indexOf(START_HTML_MARKER);
-          int e = src.lastIndexOf(END_HTML_MARKER);
-          String rp = f.getAbsolutePath().substring(dir.length()+1);
-          if (b == -1 || e == -1 || e < b) {
-            throw new Error(f.getAbsolutePath().substring(root.length()+1)+" does not contain the html markers");
-          } else {
-            boolean hasCurrentMatch = new File(Utilities.path(root, rp)).exists();
-            String fmsg = hasCurrentMatch ? msg.replace("{ref}", rp) : msg.replace("{ref}", "index.html");
-            fmsg = fmsg.replace("{pd}", gen(depth));
-            src = src.substring(0, b+START_HTML_MARKER.length()) + fmsg+src.substring(e);
+  /**
+   * one folder of the site: the pages in it are updated on this thread, and the sub-folders are
+   * left for whichever thread gets to them first
+   */
+  private class Folder extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private File d;
+    private String msg;
+    private List<String> exempt;
+    private int depth;
+
+    private Folder(File d, String msg, List<String> exempt, int depth) {
+      this.d = d;
+      this.msg = msg;
+      this.exempt = exempt;
+      this.depth = depth;
+    }
+
+    @Override
+    protected void compute() {
+      File[] files = d.listFiles();
+      if (files == null) {
+        return;
+      }
+      List<Folder> folders = new ArrayList<Folder>();
+      for (File f : files) {
+        if (f.isDirectory()) {
+          if (!Utilities.existsInList(f.getName(), "html", "uv", "us", "smart-app-launch", "quick") && (exempt == null || !exempt.contains(f.getAbsolutePath())) ) {
+            Folder folder = new Folder(f, msg, null, depth+1);
+            folder.fork();
+            folders.add(folder);
           }
-          b = src.indexOf("fhir-pub.css");
-          if (b == -1) {
-            b = src.indexOf("</head>");
-            if (b == -1)
-              throw new Error("unable to find </head> in "+rp);
-            src = src.substring(0, b) + "  <link rel=\"stylesheet\" href=\"fhir-pub.css\"/>\r\n"+src.substring(b);
-            b = src.indexOf("fhir-pub.css");
+        }
+      }
+      try {
+        for (File f : files) {
+          if (!f.isDirectory() && (f.getName().endsWith(".html") || f.getName().endsWith(".htm"))) {
+            updateStatus(f, msg, depth);
           }
-          e = b;
-          b = src.substring(0, b).lastIndexOf("\"");
-          src = src.substring(0, b+1)+gen(depth)+src.substring(e);
-          if (!src.equals(o)) {
-            FileUtilities.stringToFile(src, f);
-            total++;
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      for (Folder folder : folders) {
+        folder.join();
+      }
+    }
+  }
+
+  private void updateStatus(File f, String msg, int depth) throws IOException {
+    String rp = f.getAbsolutePath().substring(dir.length()+1);
+    boolean hasCurrentMatch = new File(Utilities.path(root, rp)).exists();
+    // everything the new header depends on, apart from the status message itself
+    String header = (hasCurrentMatch ? rp : "index.html")+"|"+depth;
+    Page page = manifest.get(rp);
+    if (page != null && page.size == f.length() && page.modified == f.lastModified() && header.equals(page.header)) {
+      seen.put(rp, page);
+      unchanged.incrementAndGet();
+      progress();
+      return;
+    }
+
+    String src = FileUtilities.fileToString(f);
+    String hash = hash(src);
+    if (page == null || !hash.equals(page.hash) || !header.equals(page.header)) {
+      src = update(f, src, rp, msg, hasCurrentMatch, depth);
+      if (src != null) {
+        FileUtilities.stringToFile(src, f);
+        hash = hash(src);
+        total.incrementAndGet();
+      }
+    }
+    page = new Page();
+    page.size = f.length();
+    page.modified = f.lastModified();
+    page.hash = hash;
+    page.header = header;
+    seen.put(rp, page);
+    progress();
+  }
+
+  /**
+   * @return the new content of the page, or null if it doesn't change
+   */
+  private String update(File f, String src, String rp, String msg, boolean hasCurrentMatch, int depth) {
+    if (!src.contains("<body") || src.contains("http-equiv=\"Refresh\"") || src.contains("http-equiv=\"refresh\"")) {
+      return null;
+    }
+    int b = src.indexOf(START_HTML_MARKER);
+    int e = src.lastIndexOf(END_HTML_MARKER);
+    if (b == -1 || e == -1 || e < b) {
+      throw new Error(f.getAbsolutePath().substring(root.length()+1)+" does not contain the html markers");
+    }
+    String fmsg = hasCurrentMatch ? msg.replace("{ref}", rp) : msg.replace("{ref}", "index.html");
+    fmsg = fmsg.replace("{pd}", gen(depth));
+    // the page is built once, and the stylesheet link is fixed in place
+    StringBuilder res = new StringBuilder(src.length() + fmsg.length() + 64);
+    res.append(src, 0, b+START_HTML_MARKER.length()).append(fmsg).append(src, e, src.length());
+    int css = res.indexOf("fhir-pub.css");
+    if (css == -1) {
+      int h = res.indexOf("</head>");
+      if (h == -1)
+        throw new Error("unable to find </head> in "+rp);
+      res.insert(h, "  <link rel=\"stylesheet\" href=\"fhir-pub.css\"/>\r\n");
+      css = res.indexOf("fhir-pub.css", h);
+    }
+    int q = res.lastIndexOf("\"", css-1);
+    res.replace(q+1, css, gen(depth));
+    if (res.length() == src.length() && src.contentEquals(res)) {
+      return null;
+    }
+    return res.toString();
+  }
+
+  private void progress() {
+    int n = checked.incrementAndGet();
+    long now = System.currentTimeMillis();
+    long last = lastProgress.get();
+    if (now - last >= PROGRESS_INTERVAL && lastProgress.compareAndSet(last, now)) {
+      System.out.print(" "+n+" ("+rate()+" files/sec)");
+    }
+  }
+
+  private long rate() {
+    long elapsed = Math.max(1, System.currentTimeMillis() - started);
+    return (checked.get() * 1000L) / elapsed;
+  }
+
+  private String hash(String src) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(src.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error(e);
+    }
+  }
+
+  private void loadManifest(String filename, String msg) {
+    File f = new File(filename);
+    if (f.exists()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+        if (in.readInt() == FORMAT && in.readUTF().equals(hash(msg))) {
+          int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            String rp = in.readUTF();
+            Page page = new Page();
+            page.size = in.readLong();
+            page.modified = in.readLong();
+            page.hash = in.readUTF();
+            page.header = in.readUTF();
+            manifest.put(rp, page);
           }
-          
         }
+      } catch (IOException e) {
+        // all the pages will be checked
+        System.out.print(" (unable to read "+filename+": "+e.getMessage()+")");
+        manifest.clear();
       }
     }
-    return null;
+  }
+
+  private void saveManifest(String filename, String msg) throws IOException {
+    // pages that are gone aren't kept
+    Map<String, Page> sorted = new TreeMap<String, Page>(seen);
+    File tmp = new File(filename+".new");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(FORMAT);
+      out.writeUTF(hash(msg));
+      out.writeInt(sorted.size());
+      for (String rp : sorted.keySet()) {
+        Page page = sorted.get(rp);
+        out.writeUTF(rp);
+        out.writeLong(page.size);
+        out.writeLong(page.modified);
+        out.writeUTF(page.hash);
+        out.writeUTF(page.header);
+      }
+    }
+    File f = new File(filename);
+    if (f.exists() && !f.delete()) {
+      throw new IOException("Unable to replace "+filename);
+    }
+    if (!tmp.renameTo(f)) {
+      throw new IOException("Unable to write "+filename);
+    }
   }
 
   private String gen(int depth) {
@@ -124,5 +325,5 @@ public class WebSiteReleaseUpdater {
     return res;
   }
 
-  
+
 }
@@ -1,81 +1,175 @@
 package org.hl7.fhir.tools.site;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.FileUtils;
 import org.hl7.fhir.utilities.FileUtilities;
-import org.hl7.fhir.utilities.Utilities;
 
+/**
+ * Makes the .json1/.json2/.xml1/.xml2 clones of the resources on the site (and removes them for
+ * files that aren't resources).
+ *
+ * Only the start of each file is read to see whether it's a resource. A clone is up to date if
+ * it's a hard link to the file, or a copy with the same size that is at least as new. Clones are
+ * made as hard links where the file system allows it, and copied (with the file's date) where it
+ * doesn't. The folders are processed in parallel
+ */
 public class XmlJsonCloneMaker {
 
+  private static final int SNIFF_SIZE = 8192;
+
   public static void main(String[] args) throws IOException {
     new XmlJsonCloneMaker().checkXmlJsonClones(args[0]);
   }
 
-  private int counter;
-  private int clonedCount;
-  private int clonedTotal;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private AtomicInteger counter = new AtomicInteger();
+  private AtomicInteger clonedCount = new AtomicInteger();
+  private AtomicInteger clonedTotal = new AtomicInteger();
+  private AtomicInteger linkedCount = new AtomicInteger();
+  private volatile boolean canLink;
+
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
 
   public void checkXmlJsonClones(String vf) throws IOException {
-    clonedCount = 0;
-    clonedTotal = 0;
-    counter = 0;
-    checkXmlJsonClones(new File(vf));
+    clonedCount.set(0);
+    clonedTotal.set(0);
+    linkedCount.set(0);
+    counter.set(0);
+    canLink = true;
+    long start = System.currentTimeMillis();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(new Folder(new File(vf)));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
     System.out.println();
-    System.out.println("Counter = "+counter);
-    System.out.println("Cloned Count = "+clonedCount);
-    System.out.println("Cloned Total = "+clonedTotal);
+    System.out.println("Counter = "+counter.get());
+    System.out.println("Cloned Count = "+clonedCount.get()+" ("+linkedCount.get()+" linked)");
+    System.out.println("Cloned Total = "+clonedTotal.get());
+    System.out.println("Time = "+(System.currentTimeMillis() - start)+"ms");
   }
 
-  private void checkXmlJsonClones(File dir) throws IOException {
-    System.out.println("");
-    System.out.print(dir.getAbsolutePath());
-    for (File f : dir.listFiles()) {
-      counter++;
-      if (counter % 500 == 0) {
-        System.out.print(".");
+  /**
+   * one folder: the files in it are done on this thread, and the sub-folders are left for
+   * whichever thread gets to them first
+   */
+  private class Folder extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private File dir;
+
+    private Folder(File dir) {
+      this.dir = dir;
+    }
+
+    @Override
+    protected void compute() {
+      File[] files = dir.listFiles();
+      if (files == null) {
+        return;
       }
-      if (f.isDirectory()) {
-        checkXmlJsonClones(f);
-      } else if (f.getName().endsWith(".json")) {
-        System.out.print(".");
-        String src = FileUtilities.fileToString(f);
-        if (src.contains("\"resourceType\"")) {
-          checkUpdate(f, src, FileUtilities.changeFileExt(f.getAbsolutePath(), ".json1"));
-          checkUpdate(f, src, FileUtilities.changeFileExt(f.getAbsolutePath(), ".json2"));
-        } else {
-          checkDeleteFile(FileUtilities.changeFileExt(f.getAbsolutePath(), ".json1"));
-          checkDeleteFile(FileUtilities.changeFileExt(f.getAbsolutePath(), ".json2"));
+      List<Folder> folders = new ArrayList<Folder>();
+      for (File f : files) {
+        if (f.isDirectory()) {
+          Folder folder = new Folder(f);
+          folder.fork();
+          folders.add(folder);
         }
-      } else if (f.getName().endsWith(".xml")) {
-        clonedTotal++;
-        String src = FileUtilities.fileToString(f);
-        if (src.contains("xmlns=\"http://hl7.org/fhir\"")) {
-          checkUpdate(f, src, FileUtilities.changeFileExt(f.getAbsolutePath(), ".xml1"));
-          checkUpdate(f, src, FileUtilities.changeFileExt(f.getAbsolutePath(), ".xml2"));
-        } else {
-          checkDeleteFile(FileUtilities.changeFileExt(f.getAbsolutePath(), ".xml1"));
-          checkDeleteFile(FileUtilities.changeFileExt(f.getAbsolutePath(), ".xml2"));          
+      }
+      try {
+        for (File f : files) {
+          if (counter.incrementAndGet() % 500 == 0) {
+            System.out.print(".");
+          }
+          if (!f.isDirectory()) {
+            checkXmlJsonClones(f);
+          }
         }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      for (Folder folder : folders) {
+        folder.join();
+      }
+    }
+  }
+
+  private void checkXmlJsonClones(File f) throws IOException {
+    if (f.getName().endsWith(".json")) {
+      if (sniff(f).contains("\"resourceType\"")) {
+        checkUpdate(f, FileUtilities.changeFileExt(f.getAbsolutePath(), ".json1"));
+        checkUpdate(f, FileUtilities.changeFileExt(f.getAbsolutePath(), ".json2"));
+      } else {
+        checkDeleteFile(FileUtilities.changeFileExt(f.getAbsolutePath(), ".json1"));
+        checkDeleteFile(FileUtilities.changeFileExt(f.getAbsolutePath(), ".json2"));
+      }
+    } else if (f.getName().endsWith(".xml")) {
+      clonedTotal.incrementAndGet();
+      if (sniff(f).contains("xmlns=\"http://hl7.org/fhir\"")) {
+        checkUpdate(f, FileUtilities.changeFileExt(f.getAbsolutePath(), ".xml1"));
+        checkUpdate(f, FileUtilities.changeFileExt(f.getAbsolutePath(), ".xml2"));
+      } else {
+        checkDeleteFile(FileUtilities.changeFileExt(f.getAbsolutePath(), ".xml1"));
+        checkDeleteFile(FileUtilities.changeFileExt(f.getAbsolutePath(), ".xml2"));
+      }
+    }
+  }
+
+  /**
+   * @return the start of the file - the resource type / namespace is always near the top
+   */
+  private String sniff(File f) throws IOException {
+    byte[] buffer = new byte[SNIFF_SIZE];
+    int n = 0;
+    try (InputStream in = new FileInputStream(f)) {
+      int r;
+      while (n < buffer.length && (r = in.read(buffer, n, buffer.length - n)) != -1) {
+        n = n + r;
       }
     }
+    return new String(buffer, 0, n, StandardCharsets.UTF_8);
   }
-  
 
-  private void checkUpdate(File src, String cnt, String fn) throws FileNotFoundException, IOException {
+  private void checkUpdate(File src, String fn) throws IOException {
     File dst = new File(fn);
-    if (!dst.exists() || dst.lastModified() > dst.lastModified()) {
-      clonedCount++;
-      FileUtils.copyFile(src, dst);
+    if (dst.exists() && (Files.isSameFile(src.toPath(), dst.toPath()) || (dst.length() == src.length() && dst.lastModified() >= src.lastModified()))) {
+      return;
+    }
+    clonedCount.incrementAndGet();
+    Files.deleteIfExists(dst.toPath());
+    if (canLink) {
+      try {
+        Files.createLink(dst.toPath(), src.toPath());
+        linkedCount.incrementAndGet();
+        return;
+      } catch (IOException | UnsupportedOperationException e) {
+        // not on this file system - copy from now on
+        canLink = false;
+      }
     }
+    Files.copy(src.toPath(), dst.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
   }
 
   private void checkDeleteFile(String fn) {
     File f = new File(fn);
     if ((f.exists())) {
-      clonedCount++;
+      clonedCount.incrementAndGet();
       f.delete();
     }
   }
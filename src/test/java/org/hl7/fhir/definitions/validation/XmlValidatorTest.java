@@ -0,0 +1,168 @@
+package org.hl7.fhir.definitions.validation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.tools.publisher.BuildScheduler;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class XmlValidatorTest {
+
+    private static final String XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:test\" elementFormDefault=\"qualified\">"
+        + "<xs:element name=\"list\"><xs:complexType><xs:sequence>"
+        + "<xs:element name=\"item\" type=\"xs:int\" maxOccurs=\"unbounded\"/>"
+        + "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    /**
+     * Stands in for the iso skeleton: the test schematrons are written as the xslt the skeleton would
+     * produce, so it copies them as they are
+     */
+    private static final String COPY = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+        + "<xsl:template match=\"@*|node()\"><xsl:copy><xsl:apply-templates select=\"@*|node()\"/></xsl:copy></xsl:template>"
+        + "</xsl:stylesheet>";
+
+    /**
+     * A skeleton that fails when it is run, so a schematron can only be used if it was already compiled
+     */
+    private static final String FAIL = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+        + "<xsl:template match=\"/\"><xsl:message terminate=\"yes\">compiled again</xsl:message></xsl:template>"
+        + "</xsl:stylesheet>";
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A compiled schematron that fails each item over the limit, and reports the others as a
+     * successful-report (which isn't an error)
+     */
+    private String schematron(int limit, String comment) {
+        return "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" "
+            + "xmlns:svrl=\"http://purl.oclc.org/dsdl/svrl\" xmlns:t=\"urn:test\">"
+            + "<!-- " + comment + " -->"
+            + "<xsl:template match=\"/\"><svrl:schematron-output><xsl:apply-templates select=\"//t:item\"/></svrl:schematron-output></xsl:template>"
+            + "<xsl:template match=\"t:item\"><xsl:choose>"
+            + "<xsl:when test=\"number(.) &gt; " + limit + "\">"
+            + "<svrl:failed-assert location=\"/list/item[{position()}]\"><svrl:text>item <xsl:value-of select=\".\"/> is over " + limit + "</svrl:text></svrl:failed-assert>"
+            + "</xsl:when><xsl:otherwise>"
+            + "<svrl:successful-report location=\"/list/item[{position()}]\"><svrl:text>ok</svrl:text></svrl:successful-report>"
+            + "</xsl:otherwise></xsl:choose></xsl:template>"
+            + "</xsl:stylesheet>";
+    }
+
+    private XmlValidator validator(List<ValidationMessage> errors, String skeleton, Map<String, String> schematrons) throws Exception {
+        Map<String, byte[]> schemas = new HashMap<>();
+        schemas.put("test.xsd", XSD.getBytes(StandardCharsets.UTF_8));
+        for (String name : schematrons.keySet()) {
+            schemas.put(name, schematrons.get(name).getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, byte[]> transforms = new HashMap<>();
+        transforms.put("iso_svrl_for_xslt2.xsl", skeleton.getBytes(StandardCharsets.UTF_8));
+        return new XmlValidator(errors, schemas, transforms);
+    }
+
+    private String list(String name, Object... items) throws Exception {
+        StringBuilder b = new StringBuilder("<list xmlns=\"urn:test\">");
+        for (Object item : items) {
+            b.append("<item>").append(item).append("</item>");
+        }
+        b.append("</list>");
+        File f = dir.resolve(name).toFile();
+        Files.write(f.toPath(), b.toString().getBytes(StandardCharsets.UTF_8));
+        return f.getAbsolutePath();
+    }
+
+    /**
+     * Tests that each failed assert in the svrl is reported with its location and text, that other svrl
+     * output isn't, and that wantThrow throws when there are failures
+     */
+    @Test
+    public void schematron_reportsTheFailedAsserts() throws Exception {
+        List<ValidationMessage> errors = new ArrayList<>();
+        XmlValidator xv = validator(errors, COPY, Collections.singletonMap("items.sch", schematron(10, "asserts")));
+        String f = list("asserts.xml", 5, 12, 7, 30);
+        xv.checkBySchematron(f, "items.sch", false);
+        assertEquals(2, errors.size());
+        assertEquals(f + ":/list/item[2]", errors.get(0).getLocation());
+        assertEquals("item 12 is over 10", errors.get(0).getMessage().trim());
+        assertEquals(f + ":/list/item[4]", errors.get(1).getLocation());
+        assertEquals("item 30 is over 10", errors.get(1).getMessage().trim());
+
+        errors.clear();
+        xv.checkBySchematron(list("fine.xml", 1, 2), "items.sch", true);
+        assertTrue(errors.isEmpty());
+        assertThrows(FHIRException.class, () -> xv.checkBySchematron(f, "items.sch", true));
+    }
+
+    /**
+     * Tests that a schematron is only compiled once for the same content, by any validator, and is
+     * compiled again when its content changes
+     */
+    @Test
+    public void schematron_isCompiledOncePerContent() throws Exception {
+        String sch = schematron(10, "compiled once");
+        String f = list("compile.xml", 11);
+        List<ValidationMessage> errors = new ArrayList<>();
+        validator(errors, COPY, Collections.singletonMap("items.sch", sch)).checkBySchematron(f, "items.sch", false);
+        assertEquals(1, errors.size());
+
+        // same content: the skeleton isn't run again, so it doesn't matter that it would fail
+        errors.clear();
+        validator(errors, FAIL, Collections.singletonMap("items.sch", sch)).checkBySchematron(f, "items.sch", false);
+        assertEquals(1, errors.size());
+        assertEquals("item 11 is over 10", errors.get(0).getMessage().trim());
+
+        // changed content: compiled again, with the failing skeleton
+        errors.clear();
+        XmlValidator changed = validator(errors, FAIL, Collections.singletonMap("items.sch", schematron(10, "changed")));
+        changed.checkBySchematron(f, "items.sch", false);
+        assertEquals(1, errors.size());
+        assertEquals(f + ":items.sch", errors.get(0).getLocation());
+    }
+
+    /**
+     * Tests that several threads can check files against several schematrons at once, each getting
+     * the right outcome for its file
+     */
+    @Test
+    public void schematron_fromSeveralThreads() throws Exception {
+        List<ValidationMessage> errors = new ArrayList<>();
+        Map<String, String> schematrons = new HashMap<>();
+        schematrons.put("low.sch", schematron(10, "threads low"));
+        schematrons.put("high.sch", schematron(20, "threads high"));
+        XmlValidator xv = validator(errors, COPY, schematrons);
+        BuildScheduler sched = new BuildScheduler(4);
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String f = list("t" + i + ".xml", i, 15);
+            files.add(f);
+            sched.task("low:" + i, () -> xv.checkBySchematron(f, "low.sch", false));
+            sched.task("high:" + i, () -> xv.checkBySchematron(f, "high.sch", false));
+        }
+        sched.execute();
+        for (int i = 0; i < 40; i++) {
+            // item i is over 10 if i > 10, and over 20 if i > 20; 15 is always over 10
+            int expected = 1 + (i > 10 ? 1 : 0) + (i > 20 ? 1 : 0);
+            int found = 0;
+            for (ValidationMessage vm : errors) {
+                if (vm.getLocation().startsWith(files.get(i) + ":")) {
+                    found++;
+                }
+            }
+            assertEquals(expected, found, files.get(i));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.tools.publisher.BuildScheduler.BuildTask;
+import org.junit.jupiter.api.Test;
+
+public class BuildSchedulerTest {
+
+    /**
+     * Tests that serial mode runs the tasks in the order they were added, except where a task depends on a later one
+     */
+    @Test
+    public void serial_runsInInsertionOrderAdjustedForDependencies() throws Exception {
+        BuildScheduler sched = new BuildScheduler(1);
+        List<String> log = new ArrayList<>();
+        BuildTask a = sched.task("a", () -> log.add("a"));
+        BuildTask b = sched.task("b", () -> log.add("b"));
+        BuildTask c = sched.task("c", () -> log.add("c"));
+        BuildTask d = sched.task("d", () -> log.add("d"));
+        a.dependsOn(c);
+        b.dependsOn(a);
+        sched.execute();
+        assertEquals(Arrays.asList("c", "a", "b", "d"), log);
+        assertTrue(sched.getTasks().isEmpty());
+    }
+
+    /**
+     * Tests that in parallel mode no task starts before the tasks it depends on have finished
+     */
+    @Test
+    public void parallel_respectsDependencies() throws Exception {
+        BuildScheduler sched = new BuildScheduler(4);
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        List<BuildTask> first = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String n = "first" + i;
+            first.add(sched.task(n, () -> {
+                Thread.sleep(2);
+                log.add(n);
+            }));
+        }
+        BuildTask last = sched.task("last", () -> log.add("last")).dependsOn(first);
+        sched.task("after", () -> log.add("after")).dependsOn(last);
+        sched.execute();
+        assertEquals(22, log.size());
+        assertEquals("last", log.get(20));
+        assertEquals("after", log.get(21));
+    }
+
+    /**
+     * Tests that tasks which share a lock never run at the same time, and that the number of threads is respected
+     */
+    @Test
+    public void parallel_locksAndThreadsLimitConcurrency() throws Exception {
+        BuildScheduler sched = new BuildScheduler(3);
+        AtomicInteger inLock = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        for (int i = 0; i < 30; i++) {
+            boolean locked = i % 2 == 0;
+            BuildTask t = sched.task("t" + i, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                if (locked && inLock.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                Thread.sleep(2);
+                if (locked) {
+                    inLock.decrementAndGet();
+                }
+                running.decrementAndGet();
+            });
+            if (locked) {
+                t.locks("shared");
+            }
+        }
+        sched.execute();
+        assertFalse(overlapped.get());
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    /**
+     * Tests that a circular dependency is reported before any task runs
+     */
+    @Test
+    public void cycle_isReported() {
+        for (int threads : new int[] { 1, 4 }) {
+            BuildScheduler sched = new BuildScheduler(threads);
+            AtomicBoolean ran = new AtomicBoolean();
+            BuildTask a = sched.task("a", () -> ran.set(true));
+            BuildTask b = sched.task("b", () -> ran.set(true)).dependsOn(a);
+            sched.task("c", () -> ran.set(true)).dependsOn(b);
+            a.dependsOn(b);
+            Exception e = assertThrows(Exception.class, sched::execute);
+            assertTrue(e.getMessage().startsWith("Circular dependency"));
+            assertTrue(e.getMessage().contains("a") && e.getMessage().contains("b"));
+            assertFalse(ran.get());
+        }
+    }
+
+    /**
+     * Tests that a dependency on a task from another scheduler is rejected
+     */
+    @Test
+    public void dependencyOnUnscheduledTask_isReported() {
+        BuildScheduler other = new BuildScheduler(1);
+        BuildTask foreign = other.task("foreign", () -> {});
+        BuildScheduler sched = new BuildScheduler(1);
+        sched.task("a", () -> {}).dependsOn(foreign);
+        Exception e = assertThrows(Exception.class, sched::execute);
+        assertTrue(e.getMessage().contains("not scheduled"));
+    }
+
+    /**
+     * Tests that the first failure is thrown, and that the tasks depending on the failed task don't run
+     */
+    @Test
+    public void failure_isPropagatedAndDependentsDontRun() {
+        for (int threads : new int[] { 1, 4 }) {
+            BuildScheduler sched = new BuildScheduler(threads);
+            AtomicBoolean dependentRan = new AtomicBoolean();
+            BuildTask bad = sched.task("bad", () -> {
+                throw new IllegalStateException("broken");
+            });
+            sched.task("dependent", () -> dependentRan.set(true)).dependsOn(bad);
+            Exception e = assertThrows(Exception.class, sched::execute);
+            assertTrue(e.getMessage().contains("broken"));
+            assertFalse(dependentRan.get());
+            assertTrue(sched.getTasks().isEmpty());
+        }
+    }
+
+    /**
+     * Tests that a scheduler executed from inside a task runs its tasks in order on the same thread
+     */
+    @Test
+    public void nested_runsOnTheCallingWorker() throws Exception {
+        BuildScheduler outer = new BuildScheduler(2);
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            String n = "outer" + i;
+            outer.task(n, () -> {
+                Thread worker = Thread.currentThread();
+                BuildScheduler inner = new BuildScheduler(4);
+                assertTrue(inner.isSerial());
+                List<String> innerLog = new ArrayList<>();
+                for (int j = 0; j < 5; j++) {
+                    String m = n + "." + j;
+                    inner.task(m, () -> {
+                        assertEquals(worker, Thread.currentThread());
+                        innerLog.add(m);
+                    });
+                }
+                inner.execute();
+                assertEquals(Arrays.asList(n + ".0", n + ".1", n + ".2", n + ".3", n + ".4"), innerLog);
+                log.add(n);
+            });
+        }
+        outer.execute();
+        assertEquals(4, log.size());
+    }
+}
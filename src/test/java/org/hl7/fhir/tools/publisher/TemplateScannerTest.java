@@ -0,0 +1,150 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class TemplateScannerTest {
+
+    /**
+     * Expands src the way the include loops do, with the content of each directive from the map
+     * (unknown directives become "?name"), and records the directives in the order they were found
+     */
+    private String expand(String src, Map<String, String> content, List<String> order) throws Exception {
+        TemplateScanner scanner = new TemplateScanner(src);
+        while (scanner.next()) {
+            String s2 = scanner.getDirective().trim();
+            order.add(s2);
+            scanner.replace(content.containsKey(s2) ? content.get(s2) : "?" + s2);
+        }
+        return scanner.getResult();
+    }
+
+    /**
+     * The page as the include loops used to build it: src = s1+content+s3 for the first &lt;% directive,
+     * or the first [% directive when there are none
+     */
+    private String expandByCopying(String src, Map<String, String> content) {
+        while (true) {
+            int i = src.indexOf("<%");
+            String close = "%>";
+            if (i == -1) {
+                i = src.indexOf("[%");
+                close = "%]";
+            }
+            if (i == -1) {
+                return src;
+            }
+            int e = src.indexOf(close, i + 2);
+            String s2 = src.substring(i + 2, e).trim();
+            src = src.substring(0, i) + (content.containsKey(s2) ? content.get(s2) : "?" + s2) + src.substring(e + 2);
+        }
+    }
+
+    private Map<String, String> map(String... pairs) {
+        Map<String, String> res = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            res.put(pairs[i], pairs[i + 1]);
+        }
+        return res;
+    }
+
+    /**
+     * Tests that all the &lt;% directives are expanded before the first [% directive, including the ones in
+     * the content of other directives
+     */
+    @Test
+    public void angleDirectives_beforeSquareDirectives() throws Exception {
+        List<String> order = new ArrayList<>();
+        String res = expand("a [%s1%] b <%a1%> c <%a2%> d", map("a1", "(<%a3%>[%s2%])", "a2", "2", "a3", "3", "s1", "S1", "s2", "S2"), order);
+        assertEquals("a S1 b (3S2) c 2 d", res);
+        assertEquals(Arrays.asList("a1", "a3", "a2", "s1", "s2"), order);
+    }
+
+    /**
+     * Tests that a &lt;% directive in the content of a [% directive is expanded before the next [% directive
+     */
+    @Test
+    public void angleDirectiveInSquareContent_isExpandedFirst() throws Exception {
+        List<String> order = new ArrayList<>();
+        String res = expand("[%s1%] [%s2%]", map("s1", "<<%a1%>>", "a1", "[%s3%]", "s3", "3", "s2", "2"), order);
+        assertEquals("<3> 2", res);
+        assertEquals(Arrays.asList("s1", "a1", "s3", "s2"), order);
+    }
+
+    /**
+     * Tests that a directive that is made up of the content and the text around it is found, as it was when
+     * the page was copied for each directive
+     */
+    @Test
+    public void directivesAcrossContent_matchCopying() throws Exception {
+        String[][] cases = {
+            { "x<[%s1%]a1%> y", "s1", "%" },
+            { "x<%a1%>s1%] y", "a1", "[%" },
+            { "x[%s1%]%a1%>", "s1", "x<", "a1", "A" },
+            { "<%a1%>%] [%s1%]", "a1", "[%s1", "s1", "1" },
+            { "[%s1%]]", "s1", "[%s2%", "s2", "2" },
+        };
+        for (String[] c : cases) {
+            Map<String, String> content = map(Arrays.copyOfRange(c, 1, c.length));
+            assertEquals(expandByCopying(c[0], content), expand(c[0], content, new ArrayList<>()), c[0]);
+        }
+    }
+
+    /**
+     * Tests that the value is added as string concatenation adds it, and that empty content removes the directive
+     */
+    @Test
+    public void replace_addsValuesLikeConcatenation() throws Exception {
+        TemplateScanner scanner = new TemplateScanner("<%a%>|<%b%>|<%c%>|<%d%>");
+        Object[] values = { 12, null, "", new StringBuilder("sb") };
+        int i = 0;
+        while (scanner.next()) {
+            scanner.replace(values[i++]);
+        }
+        assertEquals("12|null||sb", scanner.getResult());
+    }
+
+    /**
+     * Tests that an unterminated directive and a directive that isn't replaced are reported
+     */
+    @Test
+    public void errors_areReported() throws Exception {
+        TemplateScanner scanner = new TemplateScanner("a <%b%> [%c");
+        assertTrue(scanner.next());
+        scanner.replace("b");
+        Exception e = assertThrows(Exception.class, scanner::next);
+        assertTrue(e.getMessage().startsWith("Unterminated template directive '[%c"));
+
+        TemplateScanner other = new TemplateScanner("<%a%><%b%>");
+        assertTrue(other.next());
+        assertThrows(Exception.class, other::next);
+    }
+
+    /**
+     * Tests a page with many directives: the result is the same as copying the page for each directive
+     */
+    @Test
+    public void largePage_matchesCopying() throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            b.append("<p>").append(i).append(" <%a").append(i % 7).append("%> [%s").append(i % 5).append("%]</p>\n");
+        }
+        Map<String, String> content = new HashMap<>();
+        for (int i = 0; i < 7; i++) {
+            content.put("a" + i, i % 2 == 0 ? "<b>" + i + "</b>" : "[%s" + i + "%]");
+        }
+        for (int i = 0; i < 7; i++) {
+            content.put("s" + i, "<i>" + i + "</i>");
+        }
+        assertEquals(expandByCopying(b.toString(), content), expand(b.toString(), content, new ArrayList<>()));
+    }
+}